@@ -2,8 +2,10 @@ package demo.ledger;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling // for the outbox relay (and purging old processed commands)
 public class Application {
 
     public static void main(String[] args) {
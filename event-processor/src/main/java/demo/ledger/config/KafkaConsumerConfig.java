@@ -5,18 +5,24 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
+import demo.ledger.model.codec.LedgerEventCodec;
+import demo.ledger.service.AccountStateCache;
 import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
 
 import java.io.IOException;
 import java.time.OffsetDateTime;
@@ -30,6 +36,18 @@ public class KafkaConsumerConfig {
     @Value(value = "${spring.kafka.bootstrap.servers}")
     private String bootstrapAddress;
 
+    @Value( value = "${ledger.events.partitions}" )
+    private int ledgerEventsPartitions;
+
+    @Value( value = "${ledger.processor.batch.max-poll-records}" )
+    private int batchMaxPollRecords;
+
+    @Value( value = "${ledger.processor.exactly-once.enabled}" )
+    private boolean exactlyOnce;
+
+    @Value( value = "${spring.threads.virtual.enabled:false}" )
+    private boolean virtualThreads;
+
     @Bean
     public Gson getGson() {
         GsonBuilder builder = new GsonBuilder();
@@ -38,23 +56,103 @@ public class KafkaConsumerConfig {
         return builder.create();
     }
 
+    @Bean
+    public LedgerEventCodec getLedgerEventCodec( Gson gson ) {
+        return new LedgerEventCodec( gson );
+    }
+
     @Bean
     public ConsumerFactory<String, String> consumerFactory() {
+        return new DefaultKafkaConsumerFactory<>( consumerConfigs( StringDeserializer.class ) );
+    }
+
+    /**
+     * Events on the ledger-events topic are binary encoded by {@link LedgerEventCodec}.
+     */
+    @Bean
+    public ConsumerFactory<String, byte[]> ledgerEventsConsumerFactory() {
+        return new DefaultKafkaConsumerFactory<>( consumerConfigs( ByteArrayDeserializer.class ) );
+    }
+
+    private Map<String, Object> consumerConfigs( Class<?> valueDeserializer ) {
         Map<String, Object> config = new HashMap<>();
         config.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapAddress);
         config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        config.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, true);
+        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, valueDeserializer);
+        // in exactly-once mode, offsets are committed as part of the Kafka transaction of the listener container
+        config.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, !exactlyOnce);
+        if ( exactlyOnce ) {
+            // don't see anything sent in a transaction that was aborted
+            config.put( ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed" );
+        }
         config.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest"); // new consumer groups start from the first offset
-        return new DefaultKafkaConsumerFactory<>(config);
+        return config;
     }
 
     @Bean
     public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory() {
         ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory();
         factory.setConsumerFactory(consumerFactory());
+        factory.setConcurrency( ledgerEventsPartitions ); // one consumer thread per partition
+        setListenerTaskExecutor( factory );
         return factory;
     }
 
-}
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> ledgerEventsKafkaListenerContainerFactory( ProducerFactory<String, byte[]> producerFactory,
+                                                                                                          AccountStateCache accountStateCache ) {
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory( ledgerEventsConsumerFactory() );
+        factory.setConcurrency( ledgerEventsPartitions ); // one consumer thread per partition
+        factory.getContainerProperties().setConsumerRebalanceListener( accountStateCache ); // each thread's cached accounts are cleared
+        setTransactionManager( factory, producerFactory );
+        setListenerTaskExecutor( factory );
+        return factory;
+    }
+
+    /**
+     * Delivers a whole poll's worth of records to the listener at once so they can be written in a single
+     * database transaction. Only used when ledger.processor.batch.enabled is set.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> batchKafkaListenerContainerFactory( ProducerFactory<String, byte[]> producerFactory,
+                                                                                                   AccountStateCache accountStateCache ) {
+        Map<String, Object> config = consumerConfigs( ByteArrayDeserializer.class );
+        config.put( ConsumerConfig.MAX_POLL_RECORDS_CONFIG, batchMaxPollRecords );
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory( new DefaultKafkaConsumerFactory<>( config ) );
+        factory.setBatchListener( true );
+        factory.setConcurrency( ledgerEventsPartitions );
+        factory.getContainerProperties().setConsumerRebalanceListener( accountStateCache );
+        setTransactionManager( factory, producerFactory );
+        setListenerTaskExecutor( factory );
+        return factory;
+    }
+
+    /**
+     * In exactly-once mode, the container starts a Kafka transaction before calling the listener. Anything the listener
+     * sends (ie. to the failed-processing topic) is sent in that transaction and once the listener returns, the
+     * consumer offsets are added to it (sendOffsetsToTransaction) before it's committed. If we crash part way, the
+     * whole lot is aborted and the records are redelivered. Completion events are written to the outbox instead
+     * (in the database transaction) and sent by the outbox relay.
+     */
+    private void setTransactionManager( ConcurrentKafkaListenerContainerFactory<String, byte[]> factory,
+                                        ProducerFactory<String, byte[]> producerFactory ) {
+        if ( exactlyOnce ) {
+            // not a bean, otherwise it would replace the JPA transaction manager
+            factory.getContainerProperties().setKafkaAwareTransactionManager( new KafkaTransactionManager<>( producerFactory ) );
+        }
+    }
 
+    /**
+     * Runs each consumer (the poll loop and the listener) on a virtual thread when spring.threads.virtual.enabled is set
+     * (Spring Boot only does this for the container factory it creates itself). The listener spends most of its time
+     * waiting on the database so the carrier thread is free for the other consumers in the meantime.
+     */
+    private void setListenerTaskExecutor( ConcurrentKafkaListenerContainerFactory<String, ?> factory ) {
+        if ( virtualThreads ) {
+            factory.getContainerProperties().setListenerTaskExecutor( new VirtualThreadTaskExecutor( "ledger-consumer-" ) );
+        }
+    }
+
+}
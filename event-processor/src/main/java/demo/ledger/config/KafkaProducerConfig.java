@@ -3,6 +3,7 @@ package demo.ledger.config;
 import org.apache.kafka.clients.admin.AdminClientConfig;
 import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -25,8 +26,21 @@ public class KafkaProducerConfig {
     @Value(value = "${spring.kafka.bootstrap.servers}")
     private String bootstrapAddress;
 
+    @Value( value = "${ledger.producer.linger.ms}" )
+    private int lingerMs;
+
+    @Value( value = "${ledger.producer.batch.size}" )
+    private int batchSize;
+
+    @Value( value = "${ledger.processor.exactly-once.enabled}" )
+    private boolean exactlyOnce;
+
+    @Value( value = "${ledger.processor.exactly-once.transaction-id-prefix}" )
+    private String transactionIdPrefix;
+
+    // ledger events are binary encoded (see LedgerEventCodec); anything else is sent as UTF-8 JSON
     @Bean
-    public ProducerFactory<String, String> producerFactory() {
+    public ProducerFactory<String, byte[]> producerFactory() {
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(
                 ProducerConfig.BOOTSTRAP_SERVERS_CONFIG,
@@ -36,12 +50,21 @@ public class KafkaProducerConfig {
                 StringSerializer.class);
         configProps.put(
                 ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG,
-                StringSerializer.class);
-        return new DefaultKafkaProducerFactory<>(configProps);
+                ByteArraySerializer.class);
+        // allow completion events to be grouped into fewer produce requests
+        configProps.put( ProducerConfig.LINGER_MS_CONFIG, lingerMs );
+        configProps.put( ProducerConfig.BATCH_SIZE_CONFIG, batchSize );
+        DefaultKafkaProducerFactory<String, byte[]> factory = new DefaultKafkaProducerFactory<>( configProps );
+        if ( exactlyOnce ) {
+            // everything is sent in a Kafka transaction: either the listener container's (along with the consumer offsets)
+            // or the outbox relay's; the transactional id of each producer is this prefix + a suffix unique to the producer
+            factory.setTransactionIdPrefix( transactionIdPrefix );
+        }
+        return factory;
     }
 
     @Bean
-    public KafkaTemplate<String, String> kafkaTemplate() {
+    public KafkaTemplate<String, byte[]> kafkaTemplate() {
         return new KafkaTemplate<>(producerFactory());
     }
 
@@ -0,0 +1,26 @@
+package demo.ledger.config;
+
+import demo.ledger.monitoring.PinnedThreadMonitor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Only applies when running on virtual threads (spring.threads.virtual.enabled, set by the java21 Maven profile).
+ * See KafkaConsumerConfig for the listener containers.
+ */
+@Configuration
+@ConditionalOnThreading( Threading.VIRTUAL )
+public class VirtualThreadConfig {
+
+    @Bean
+    public PinnedThreadMonitor pinnedThreadMonitor( MeterRegistry meterRegistry,
+                                                    @Value( value = "${ledger.processor.virtual-threads.pinned-threshold.ms}" ) long thresholdMillis ) {
+        return new PinnedThreadMonitor( meterRegistry, Duration.ofMillis( thresholdMillis ) );
+    }
+}
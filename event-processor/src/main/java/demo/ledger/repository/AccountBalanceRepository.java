@@ -0,0 +1,20 @@
+package demo.ledger.repository;
+
+import demo.ledger.model.AccountBalance;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface AccountBalanceRepository extends JpaRepository<AccountBalance, Long> {
+
+    // written without reading it first (see AccountStateCache); the ledger account row is already locked by then
+    @Modifying( flushAutomatically = true )
+    @Query( "UPDATE AccountBalance b SET b.lockVersion = :#{#balance.lockVersion}, b.totalCredits = :#{#balance.totalCredits}, "
+            + "b.totalDebits = :#{#balance.totalDebits}, b.lastUpdatedDate = :#{#balance.lastUpdatedDate}, "
+            + "b.entriesSinceCheckpoint = :#{#balance.entriesSinceCheckpoint}, b.lastCheckpointDate = :#{#balance.lastCheckpointDate} "
+            + "WHERE b.ledgerAccountId = :#{#balance.ledgerAccountId}" )
+    int update( @Param( "balance" ) AccountBalance balance );
+}
@@ -1,9 +1,36 @@
 package demo.ledger.repository;
 
 import demo.ledger.model.LedgerAccount;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface LedgerAccountRepository extends JpaRepository<LedgerAccount, Long> {
+
+    Optional<LedgerAccount> findByUuid( String uuid );
+
+    Optional<LedgerAccount> findByUuidAndLockVersion( String uuid, Long lockVersion );
+
+    // events for the same account can be processed concurrently (from different partitions) so take a row lock
+    // before checking the lock version; rows are locked in UUID order to avoid deadlocks
+    @Lock( LockModeType.PESSIMISTIC_WRITE )
+    @Query( "SELECT a FROM LedgerAccount a WHERE a.uuid IN :uuids ORDER BY a.uuid" )
+    List<LedgerAccount> lockAllByUuidIn( @Param( "uuids" ) Collection<String> uuids );
+
+    // only if it's still at the lock version we expect (see AccountStateCache); any ledger account already loaded into
+    // the persistence context is left as read (we only ever write copies of it) so it isn't cleared
+    @Modifying( flushAutomatically = true )
+    @Query( "UPDATE LedgerAccount a SET a.lockVersion = :lockVersion WHERE a.id = :id AND a.lockVersion = :expectedLockVersion" )
+    int updateLockVersion( @Param( "id" ) Long id, @Param( "expectedLockVersion" ) Long expectedLockVersion,
+                           @Param( "lockVersion" ) Long lockVersion );
+
 }
@@ -2,8 +2,18 @@ package demo.ledger.repository;
 
 import demo.ledger.model.LedgerEntry;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, Long> {
+
+    @Query( "SELECT " +
+            "SUM(CASE WHEN e.direction = 'credit' THEN e.amount ELSE 0 END) AS totalCredits, " +
+            "SUM(CASE WHEN e.direction = 'debit' THEN e.amount ELSE 0 END) AS totalDebits " +
+            "FROM LedgerEntry e " +
+            "WHERE e.ledgerAccount.id = :ledgerAccountId" )
+    LedgerAccountTotals getTotals( @Param( "ledgerAccountId" ) Long ledgerAccountId );
+
 }
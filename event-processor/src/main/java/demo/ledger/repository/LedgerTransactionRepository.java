@@ -4,6 +4,11 @@ import demo.ledger.model.LedgerTransaction;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface LedgerTransactionRepository extends JpaRepository<LedgerTransaction, Long> {
+
+    Optional<LedgerTransaction> findByUuid( String uuid );
+
 }
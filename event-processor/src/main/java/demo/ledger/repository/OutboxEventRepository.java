@@ -0,0 +1,28 @@
+package demo.ledger.repository;
+
+import demo.ledger.model.OutboxEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // rows already locked by another relay (ie. another event-processor instance) are skipped rather than waited on
+    @Query( value = "SELECT * FROM outbox_event WHERE sent_date IS NULL ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true )
+    List<OutboxEvent> findUnsentForUpdate( @Param( "limit" ) int limit );
+
+    @Modifying
+    @Query( "UPDATE OutboxEvent e SET e.sentDate = :sentDate WHERE e.id IN :ids" )
+    int markSent( @Param( "ids" ) List<Long> ids, @Param( "sentDate" ) OffsetDateTime sentDate );
+
+    @Modifying
+    @Query( "DELETE FROM OutboxEvent e WHERE e.sentDate < :sentBefore" )
+    int deleteSentBefore( @Param( "sentBefore" ) OffsetDateTime sentBefore );
+
+}
@@ -0,0 +1,35 @@
+package demo.ledger.repository;
+
+import demo.ledger.model.ProcessedCommand;
+import demo.ledger.model.dto.EventType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.OffsetDateTime;
+import java.util.Optional;
+
+@Repository
+public interface ProcessedCommandRepository extends JpaRepository<ProcessedCommand, ProcessedCommand.Key> {
+
+    // returns 0 if the command has already been claimed; if the claim hasn't been committed yet, this waits until
+    // the other transaction completes so the same command can't be processed concurrently
+    @Modifying
+    @Query( value = "INSERT INTO processed_command (command_type, uuid, payload_hash, processed_date) "
+            + "VALUES (:commandType, :uuid, :payloadHash, :processedDate) ON CONFLICT DO NOTHING", nativeQuery = true )
+    int claim( @Param( "commandType" ) String commandType, @Param( "uuid" ) String uuid, @Param( "payloadHash" ) byte[] payloadHash,
+               @Param( "processedDate" ) OffsetDateTime processedDate );
+
+    @Modifying
+    @Query( "UPDATE ProcessedCommand c SET c.outcome = :outcome WHERE c.commandType = :commandType AND c.uuid = :uuid" )
+    int saveOutcome( @Param( "commandType" ) EventType commandType, @Param( "uuid" ) String uuid, @Param( "outcome" ) byte[] outcome );
+
+    Optional<ProcessedCommand> findByCommandTypeAndUuid( EventType commandType, String uuid );
+
+    @Modifying
+    @Query( "DELETE FROM ProcessedCommand c WHERE c.processedDate < :processedBefore" )
+    int deleteProcessedBefore( @Param( "processedBefore" ) OffsetDateTime processedBefore );
+
+}
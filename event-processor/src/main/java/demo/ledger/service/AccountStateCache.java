@@ -0,0 +1,144 @@
+package demo.ledger.service;
+
+import demo.ledger.model.AccountBalance;
+import demo.ledger.model.LedgerAccount;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The current state (id, lock version, currency and running balance) of the ledger accounts each consumer thread has
+ * posted to, so a ledger transaction can be checked against the lock versions without reading the accounts from the
+ * database first; see {@link LedgerService#createLedgerTransactions}. Each consumer thread has its own
+ * {@link AccountStateMap}, filled as accounts are read from the database and cleared whenever its partitions are
+ * rebalanced (see KafkaConsumerConfig). Changes made in a database transaction that doesn't commit are evicted.
+ * <p>
+ * A ledger transaction is keyed on all the accounts involved, so the same account can also be posted to from other
+ * partitions (or event-processor instances) and what's held here may be out of date. LedgerService only bumps the lock
+ * version of an account if it's still the one we have; if not, the whole thing is rolled back and tried again from
+ * the database (see LedgerEventConsumer).
+ */
+@Component
+public class AccountStateCache implements ConsumerAwareRebalanceListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( AccountStateCache.class );
+
+    private final int maxSize;
+    private final ThreadLocal<ThreadState> threadStates;
+
+    /**
+     * The accounts of a single thread and the ones changed in its current database transaction.
+     */
+    private static class ThreadState implements TransactionSynchronization {
+        private final AccountStateMap accounts;
+        private final List<String> changed = new ArrayList<>();
+        private boolean synchronizationRegistered;
+
+        ThreadState( int maxSize ) {
+            this.accounts = new AccountStateMap( maxSize );
+        }
+
+        void changed( String uuid ) {
+            if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+                if ( !synchronizationRegistered ) {
+                    TransactionSynchronizationManager.registerSynchronization( this );
+                    synchronizationRegistered = true;
+                }
+                changed.add( uuid );
+            }
+        }
+
+        @Override
+        public void afterCompletion( int status ) {
+            if ( status != STATUS_COMMITTED ) {
+                changed.forEach( accounts::remove );
+            }
+            changed.clear();
+            synchronizationRegistered = false;
+        }
+    }
+
+    /**
+     * @param maxSize maximum number of accounts held by each consumer thread; 0 to disable
+     */
+    public AccountStateCache( @Value( value = "${ledger.processor.account-cache.max-size}" ) int maxSize ) {
+        this.maxSize = maxSize;
+        this.threadStates = ThreadLocal.withInitial( () -> new ThreadState( maxSize ) );
+    }
+
+    /**
+     * Copies the state of the given account into the objects given.
+     *
+     * @param uuid    account UUID
+     * @param account set to the id, UUID, lock version and currency of the account
+     * @param balance set to the running balance of the account
+     * @return true if found, false if not (in which case the objects are untouched)
+     */
+    public boolean get( String uuid, LedgerAccount account, AccountBalance balance ) {
+        return maxSize > 0 && threadStates.get().accounts.get( uuid, account, balance );
+    }
+
+    /**
+     * Records the state of an account as read (or written) in the current database transaction.
+     *
+     * @param account ledger account
+     * @param balance its running balance
+     */
+    public void put( LedgerAccount account, AccountBalance balance ) {
+        if ( maxSize > 0 ) {
+            ThreadState state = threadStates.get();
+            if ( state.accounts.put( account, balance ) ) {
+                state.changed( account.getUuid() );
+            }
+        }
+    }
+
+    /**
+     * Forgets the given account (ie. because it's out of date).
+     *
+     * @param uuid account UUID
+     */
+    public void evict( String uuid ) {
+        if ( maxSize > 0 ) {
+            threadStates.get().accounts.remove( uuid );
+        }
+    }
+
+    /**
+     * Forgets every account held by the current thread.
+     */
+    public void clear() {
+        if ( maxSize > 0 ) {
+            AccountStateMap accounts = threadStates.get().accounts;
+            LOGGER.info( "Clearing state of {} accounts", accounts.size() );
+            accounts.clear();
+        }
+    }
+
+    // these are called on the consumer thread itself
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit( Consumer<?, ?> consumer, Collection<TopicPartition> partitions ) {
+        clear();
+    }
+
+    @Override
+    public void onPartitionsLost( Consumer<?, ?> consumer, Collection<TopicPartition> partitions ) {
+        clear();
+    }
+
+    @Override
+    public void onPartitionsAssigned( Consumer<?, ?> consumer, Collection<TopicPartition> partitions ) {
+        clear();
+    }
+}
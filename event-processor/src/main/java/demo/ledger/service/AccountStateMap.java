@@ -0,0 +1,248 @@
+package demo.ledger.service;
+
+import demo.ledger.model.AccountBalance;
+import demo.ledger.model.LedgerAccount;
+
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+/**
+ * Open addressing (linear probing) hash table of ledger account state keyed by account UUID. The UUID (as two longs)
+ * and the state are held in parallel primitive arrays so there are no entry objects or boxed keys to allocate, or for
+ * the GC to trace, however many accounts are held. Running totals are kept as longs; an account whose totals don't fit
+ * (or with a UUID not in the canonical form) just isn't held. When full, the whole table is cleared.
+ * <p>
+ * Not thread-safe; see {@link AccountStateCache}.
+ */
+class AccountStateMap {
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final int maxSize;
+    private final int mask;
+    private final boolean[] used;
+    private final long[] uuidHi;
+    private final long[] uuidLo;
+    private final long[] ids;
+    private final long[] lockVersions;
+    private final long[] totalCredits;
+    private final long[] totalDebits;
+    private final long[] entriesSinceCheckpoint;
+    private final long[] lastCheckpointMicros;
+    private final String[] currencies;
+    private int size;
+
+    // the UUID last parsed by parse()
+    private long hi;
+    private long lo;
+
+    /**
+     * @param maxSize maximum number of accounts to hold (at least 1)
+     */
+    AccountStateMap( int maxSize ) {
+        int capacity = Integer.highestOneBit( Math.max( 1, maxSize * 2 - 1 ) ) << 1; // no more than half full
+        this.maxSize = maxSize;
+        this.mask = capacity - 1;
+        this.used = new boolean[capacity];
+        this.uuidHi = new long[capacity];
+        this.uuidLo = new long[capacity];
+        this.ids = new long[capacity];
+        this.lockVersions = new long[capacity];
+        this.totalCredits = new long[capacity];
+        this.totalDebits = new long[capacity];
+        this.entriesSinceCheckpoint = new long[capacity];
+        this.lastCheckpointMicros = new long[capacity];
+        this.currencies = new String[capacity];
+    }
+
+    /**
+     * Copies the state of the given account into the objects given.
+     *
+     * @param uuid    account UUID
+     * @param account set to the id, UUID, lock version and currency of the account
+     * @param balance set to the running balance of the account
+     * @return true if found, false if not (in which case the objects are untouched)
+     */
+    boolean get( String uuid, LedgerAccount account, AccountBalance balance ) {
+        int slot = parse( uuid ) ? find() : -1;
+        if ( slot < 0 ) {
+            return false;
+        }
+        account.setId( ids[slot] );
+        account.setUuid( uuid );
+        account.setLockVersion( lockVersions[slot] );
+        account.setCurrency( currencies[slot] );
+        balance.setLedgerAccountId( ids[slot] );
+        balance.setLockVersion( lockVersions[slot] );
+        balance.setTotalCredits( BigInteger.valueOf( totalCredits[slot] ) );
+        balance.setTotalDebits( BigInteger.valueOf( totalDebits[slot] ) );
+        balance.setEntriesSinceCheckpoint( entriesSinceCheckpoint[slot] );
+        balance.setLastCheckpointDate( lastCheckpointMicros[slot] == NO_DATE ? null :
+                OffsetDateTime.ofInstant( Instant.EPOCH.plus( lastCheckpointMicros[slot], ChronoUnit.MICROS ), ZoneOffset.UTC ) );
+        return true;
+    }
+
+    /**
+     * Adds (or replaces) the state of the given account.
+     *
+     * @param account ledger account
+     * @param balance its running balance
+     * @return true if it's now held, false if it can't be (and any previous state has been removed)
+     */
+    boolean put( LedgerAccount account, AccountBalance balance ) {
+        if ( !parse( account.getUuid() ) ) {
+            return false;
+        }
+        if ( balance.getTotalCredits().bitLength() > 63 || balance.getTotalDebits().bitLength() > 63 ) {
+            remove();
+            return false;
+        }
+        int slot = find();
+        if ( slot < 0 ) {
+            if ( size >= maxSize ) {
+                clear();
+            }
+            slot = insert();
+        }
+        ids[slot] = account.getId();
+        lockVersions[slot] = account.getLockVersion();
+        currencies[slot] = account.getCurrency();
+        totalCredits[slot] = balance.getTotalCredits().longValue();
+        totalDebits[slot] = balance.getTotalDebits().longValue();
+        entriesSinceCheckpoint[slot] = balance.getEntriesSinceCheckpoint() == null ? 0L : balance.getEntriesSinceCheckpoint();
+        lastCheckpointMicros[slot] = balance.getLastCheckpointDate() == null ? NO_DATE :
+                ChronoUnit.MICROS.between( Instant.EPOCH, balance.getLastCheckpointDate().toInstant() );
+        return true;
+    }
+
+    /**
+     * Removes the state of the given account (if held).
+     *
+     * @param uuid account UUID
+     */
+    void remove( String uuid ) {
+        if ( parse( uuid ) ) {
+            remove();
+        }
+    }
+
+    void clear() {
+        Arrays.fill( used, false );
+        Arrays.fill( currencies, null );
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int hash() {
+        long h = ( hi ^ lo ) * 0x9E3779B97F4A7C15L;
+        return (int) ( h >>> 32 ) & mask;
+    }
+
+    /**
+     * @return the slot holding the last parsed UUID or -1 if not found
+     */
+    private int find() {
+        for ( int slot = hash(); used[slot]; slot = ( slot + 1 ) & mask ) {
+            if ( uuidHi[slot] == hi && uuidLo[slot] == lo ) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a new slot for the last parsed UUID (which must not already be held)
+     */
+    private int insert() {
+        int slot = hash();
+        while ( used[slot] ) {
+            slot = ( slot + 1 ) & mask;
+        }
+        used[slot] = true;
+        uuidHi[slot] = hi;
+        uuidLo[slot] = lo;
+        size++;
+        return slot;
+    }
+
+    /**
+     * Removes the last parsed UUID, moving back any entries after it that would no longer be found otherwise.
+     */
+    private void remove() {
+        int slot = find();
+        if ( slot < 0 ) {
+            return;
+        }
+        used[slot] = false;
+        currencies[slot] = null;
+        size--;
+        for ( int next = ( slot + 1 ) & mask; used[next]; next = ( next + 1 ) & mask ) {
+            hi = uuidHi[next];
+            lo = uuidLo[next];
+            int home = hash();
+            // move it into the gap unless its home slot lies (cyclically) between the gap and where it is now
+            if ( ( ( next - home ) & mask ) >= ( ( next - slot ) & mask ) ) {
+                move( next, slot );
+                slot = next;
+            }
+        }
+    }
+
+    private void move( int from, int to ) {
+        used[to] = true;
+        uuidHi[to] = uuidHi[from];
+        uuidLo[to] = uuidLo[from];
+        ids[to] = ids[from];
+        lockVersions[to] = lockVersions[from];
+        totalCredits[to] = totalCredits[from];
+        totalDebits[to] = totalDebits[from];
+        entriesSinceCheckpoint[to] = entriesSinceCheckpoint[from];
+        lastCheckpointMicros[to] = lastCheckpointMicros[from];
+        currencies[to] = currencies[from];
+        used[from] = false;
+        currencies[from] = null;
+    }
+
+    /**
+     * Parses a UUID in the canonical (8-4-4-4-12 hex digit) form into hi/lo without allocating.
+     *
+     * @return false if it's not in that form
+     */
+    private boolean parse( String uuid ) {
+        if ( uuid == null || uuid.length() != 36 ) {
+            return false;
+        }
+        long h = 0;
+        long l = 0;
+        int digits = 0;
+        for ( int i = 0; i < 36; i++ ) {
+            char c = uuid.charAt( i );
+            if ( i == 8 || i == 13 || i == 18 || i == 23 ) {
+                if ( c != '-' ) {
+                    return false;
+                }
+                continue;
+            }
+            int digit = Character.digit( c, 16 );
+            if ( digit < 0 ) {
+                return false;
+            }
+            if ( digits++ < 16 ) {
+                h = ( h << 4 ) | digit;
+            }
+            else {
+                l = ( l << 4 ) | digit;
+            }
+        }
+        hi = h;
+        lo = l;
+        return true;
+    }
+}
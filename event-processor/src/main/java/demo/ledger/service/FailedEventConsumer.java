@@ -35,7 +35,7 @@ public class FailedEventConsumer {
     }
 
     @KafkaListener( groupId = "${spring.kafka.groupid}", topics = {FAILED_PROCESSING_TOPIC},
-            containerFactory = "kafkaListenerContainerFactory" )
+            containerFactory = "kafkaListenerContainerFactory", concurrency = "1" )
     public void consumeFailedProcessingOperation( @Payload String in,
                                         @Header( KafkaHeaders.RECEIVED_TOPIC ) String topic,
                                         @Header( KafkaHeaders.RECEIVED_PARTITION ) long partition,
@@ -1,31 +1,47 @@
 package demo.ledger.service;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import demo.ledger.model.FailedProcessingEvent;
 import demo.ledger.model.Ledger;
 import demo.ledger.model.LedgerAccount;
 import demo.ledger.model.LedgerEntry;
 import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.codec.LedgerEventCodec;
+import demo.ledger.model.codec.LedgerEventHeaders;
 import demo.ledger.model.dto.ApiOperation;
 import demo.ledger.model.dto.EventType;
-import demo.ledger.model.dto.FailedResponse;
 import demo.ledger.model.exception.DuplicateKeyException;
 import demo.ledger.model.exception.NotFoundException;
+import demo.ledger.model.exception.LedgerEventException;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import static demo.ledger.config.KafkaProducerConfig.FAILED_PROCESSING_TOPIC;
 import static demo.ledger.config.KafkaProducerConfig.LEDGER_EVENTS_TOPIC;
@@ -36,188 +52,366 @@ public class LedgerEventConsumer {
     private static final Logger LOGGER = LoggerFactory.getLogger( LedgerEventConsumer.class );
 
     private final LedgerService ledgerService;
-    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final ProcessedCommandService processedCommandService;
+    private final OutboxService outboxService;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
     private final Gson gson;
+    private final LedgerEventCodec codec;
+    private final ProcessingMetrics metrics;
+    private final boolean useOutbox;
+    private final Map<EventType, LedgerEventHandler> handlers = new EnumMap<>( EventType.class );
+
+    /**
+     * Handles the (decoded) data of a single ledger event.
+     */
+    @FunctionalInterface
+    private interface LedgerEventHandler {
+        /**
+         * @return the completion event to send back
+         */
+        ApiOperation<?> handle( Object data ) throws LedgerEventException;
+    }
 
     @Autowired
-    public LedgerEventConsumer( LedgerService ledgerService, Gson gson, KafkaTemplate<String, String> kafkaTemplate ) {
+    public LedgerEventConsumer( LedgerService ledgerService, ProcessedCommandService processedCommandService, OutboxService outboxService,
+                                Gson gson, KafkaTemplate<String, byte[]> kafkaTemplate, LedgerEventCodec codec, ProcessingMetrics metrics,
+                                @Value( value = "#{${ledger.processor.outbox.enabled} or ${ledger.processor.exactly-once.enabled}}" ) boolean useOutbox ) {
         this.ledgerService = ledgerService;
+        this.processedCommandService = processedCommandService;
+        this.outboxService = outboxService;
         this.gson = gson;
         this.kafkaTemplate = kafkaTemplate;
+        this.codec = codec;
+        this.metrics = metrics;
+        this.useOutbox = useOutbox;
+        handlers.put( EventType.CREATE_LEDGER, data -> handleCreateLedgerEvent( (Ledger) data ) );
+        handlers.put( EventType.CREATE_LEDGER_ACCOUNT, data -> handleCreateLedgerAccountEvent( (LedgerAccount) data ) );
+        handlers.put( EventType.CREATE_LEDGER_TRANSACTION, data -> handleCreateLedgerTransactionEvent( (LedgerTransaction) data ) );
     }
 
-    @KafkaListener( groupId = "${spring.kafka.groupid}", topics = {"ledger-events"},
-            containerFactory = "kafkaListenerContainerFactory" )
-    public void consumeLedgerOperation( @Payload String in,
+    @KafkaListener( id = "ledger-events-listener", groupId = "${spring.kafka.groupid}", topics = {"ledger-events"},
+            containerFactory = "ledgerEventsKafkaListenerContainerFactory", autoStartup = "#{!${ledger.processor.batch.enabled}}" )
+    public void consumeLedgerOperation( @Payload byte[] in,
                                         @Header( KafkaHeaders.RECEIVED_TOPIC ) String topic,
                                         @Header( KafkaHeaders.RECEIVED_PARTITION ) long partition,
                                         @Header( KafkaHeaders.OFFSET ) long offset,
-                                        @Header( KafkaHeaders.RECEIVED_TIMESTAMP ) long ts ) {
+                                        @Header( KafkaHeaders.RECEIVED_TIMESTAMP ) long ts,
+                                        @Header( name = KafkaHeaders.REPLY_TOPIC, required = false ) byte[] replyTopic,
+                                        @Header( name = KafkaHeaders.REPLY_PARTITION, required = false ) byte[] replyPartition,
+                                        @Header( name = LedgerEventHeaders.EVENT_TYPE, required = false ) byte[] eventType,
+                                        @Header( name = LedgerEventHeaders.CORRELATION_ID, required = false ) byte[] correlationId,
+                                        @Header( name = LedgerEventHeaders.INGRESS_TIMESTAMP, required = false ) byte[] ingressTimestamp ) {
+        consumeLedgerOperation( in, topic, partition, offset, ts, ReplyTo.of( replyTopic, replyPartition, correlationId, ingressTimestamp ),
+                LedgerEventHeaders.toEventType( eventType ) );
+    }
+
+    /**
+     * Processes a single ledger event.
+     *
+     * @param eventType event type from the record headers; null if not set in which case the payload is decoded to find out
+     */
+    private void consumeLedgerOperation( byte[] in, String topic, long partition, long offset, long ts, ReplyTo replyTo, EventType eventType ) {
+        // completion events sent back on this topic (and anything else we don't handle) are skipped without decoding
+        if ( eventType != null && !handlers.containsKey( eventType ) ) {
+            LOGGER.debug( "Skipping {} event at offset={}", eventType, offset );
+            return;
+        }
+
+        long startTime = System.nanoTime();
         OffsetDateTime timestamp = OffsetDateTime.of( LocalDateTime.ofEpochSecond( ts / 1000, 0, ZoneOffset.UTC ), ZoneOffset.UTC );
-        LOGGER.info( "Received topic={}, message=[{}], offset={}, timestamp={}", topic, in, offset, timestamp );
         try {
-            JsonObject obj = gson.fromJson( in, JsonObject.class );
-            if ( EventType.CREATE_LEDGER.name().equals( obj.get( "eventType" ).getAsString() ) ) {
-                handleCreateLedgerEvent( obj );
+            ApiOperation<?> operation = codec.decode( in );
+            LOGGER.info( "Received topic={}, eventType={}, offset={}, timestamp={}, correlationId={}",
+                    topic, operation.getEventType(), offset, timestamp, replyTo.getCorrelationId() );
+            LedgerEventHandler handler = handlers.get( operation.getEventType() );
+            if ( handler != null ) {
+                metrics.recordQueueDwell( operation.getEventType(), ts );
             }
-            else if ( EventType.CREATE_LEDGER_ACCOUNT.name().equals( obj.get( "eventType" ).getAsString() ) ) {
-                handleCreateLedgerAccountEvent( obj );
+            if ( handler != null && useOutbox ) {
+                // the completion event goes out through the outbox, committed along with the command; a redelivered
+                // command has already had its completion event queued so there's nothing more to send
+                retryIfStale( () -> processedCommandService.process( operation.getEventType(), LedgerEventHeaders.getUuid( operation ), in,
+                        () -> handler.handle( operation.getData() ), event -> outboxService.add( toReplyRecord( replyTo, event ) ) ) );
             }
-            else if ( EventType.CREATE_LEDGER_TRANSACTION.name().equals( obj.get( "eventType" ).getAsString() ) ) {
-                handleCreateLedgerTransactionEvent( obj );
+            else if ( handler != null ) {
+                // a command delivered more than once gets the same reply each time
+                sendReply( replyTo, retryIfStale( () -> processedCommandService.process( operation.getEventType(),
+                        LedgerEventHeaders.getUuid( operation ), in, () -> handler.handle( operation.getData() ) ) ) );
             }
             else {
-                LOGGER.warn( "Unsupported event type: {}", obj.get( "eventType" ).getAsString() );
+                LOGGER.warn( "Unsupported event type: {}", operation.getEventType() );
+            }
+            if ( handler != null ) {
+                metrics.recordProcessingTime( operation.getEventType(), startTime );
             }
-        }
-        catch ( DuplicateKeyException ex ) {
-            sendMessage( LEDGER_EVENTS_TOPIC, gson.toJson(
-                    new ApiOperation<FailedResponse>()
-                            .withEventType( ex.getEventType() )
-                            .withData( new FailedResponse( ex.getUuid(), ex.getMessage() ) ) ) );
-        }
-        catch ( NotFoundException ex ) {
-            sendMessage( LEDGER_EVENTS_TOPIC, gson.toJson(
-                    new ApiOperation<FailedResponse>()
-                            .withEventType( ex.getEventType() )
-                            .withData( new FailedResponse( ex.getUuid(), ex.getMessage() ) ) ) );
         }
         catch ( Exception ex ) {
             LOGGER.error( "Failed to process offset=" + offset, ex );
-            sendMessage( FAILED_PROCESSING_TOPIC, gson.toJson( FailedProcessingEvent.builder()
+            sendMessage( new ProducerRecord<>( FAILED_PROCESSING_TOPIC, gson.toJson( FailedProcessingEvent.builder()
                     .topic( topic )
                     .partition( partition )
                     .offset( offset )
-                    .input( in )
+                    // binary events are kept as base64 so they can be replayed
+                    .input( LedgerEventCodec.isBinary( in ) ? Base64.getEncoder().encodeToString( in ) : new String( in, StandardCharsets.UTF_8 ) )
                     .timestamp( timestamp )
                     .error( ex.getMessage() )
                     .stacktrace( ExceptionUtils.getStackTrace( ex ) )
-                    .build() )
-            );
+                    .build() ).getBytes( StandardCharsets.UTF_8 ) ) );
         }
     }
 
     /**
-     * Saves the new ledger in the datastore and emits a LEDGER_CREATED event on successful completion.
+     * Processes a command again if it was rolled back because the state we had of one of its ledger accounts was out
+     * of date (see {@link AccountStateCache}). Those accounts have been evicted so this time they're read from the database.
      *
-     * @param obj deserialized event payload
-     * @throws DuplicateKeyException if UUID already exists for ledger
+     * @param processing processes the command
+     * @return the completion event
      */
-    private void handleCreateLedgerEvent( JsonObject obj ) throws DuplicateKeyException {
-        JsonObject req = obj.get( "data" ).getAsJsonObject();
-        Ledger ledger = gson.fromJson( gson.toJson( req ), Ledger.class );
+    private static ApiOperation<?> retryIfStale( Supplier<ApiOperation<?>> processing ) {
+        try {
+            return processing.get();
+        }
+        catch ( OptimisticLockingFailureException ex ) {
+            LOGGER.info( "Retrying with the current state of the ledger accounts: {}", ex.getMessage() );
+            return processing.get();
+        }
+    }
 
-        // first check that another ledger doesn't already exist with the same UUID
-        if ( ledgerService.getLedger( ledger.getUuid() ).isPresent() ) {
-            throw new DuplicateKeyException( EventType.LEDGER_CREATION_FAILED, ledger.getUuid(), "Ledger already exists with this UUID" );
+    /**
+     * Batch mode equivalent of {@link #consumeLedgerOperation}. Consecutive runs of CREATE_LEDGER_TRANSACTION events
+     * are saved in a single database transaction and their completion events are published together. All other events
+     * are processed one at a time as before.
+     *
+     * @param records a poll's worth of records (in offset order)
+     */
+    @KafkaListener( id = "ledger-events-batch-listener", groupId = "${spring.kafka.groupid}", topics = {"ledger-events"},
+            containerFactory = "batchKafkaListenerContainerFactory", autoStartup = "${ledger.processor.batch.enabled}" )
+    public void consumeLedgerOperations( List<ConsumerRecord<String, byte[]>> records ) {
+        LOGGER.info( "Received batch of {} records", records.size() );
+        List<ConsumerRecord<String, byte[]>> pendingRecords = new ArrayList<>();
+        List<LedgerTransaction> pendingTxns = new ArrayList<>();
+        for ( ConsumerRecord<String, byte[]> rec : records ) {
+            LedgerTransaction txn = toCreateLedgerTransaction( rec );
+            if ( txn != null ) {
+                pendingRecords.add( rec );
+                pendingTxns.add( txn );
+            }
+            else {
+                // preserve ordering; anything queued up must be processed first
+                handleCreateLedgerTransactionEvents( pendingRecords, pendingTxns );
+                pendingRecords = new ArrayList<>();
+                pendingTxns = new ArrayList<>();
+                consumeLedgerOperation( rec );
+            }
+        }
+        handleCreateLedgerTransactionEvents( pendingRecords, pendingTxns );
+    }
+
+    private void consumeLedgerOperation( ConsumerRecord<String, byte[]> rec ) {
+        consumeLedgerOperation( rec.value(), rec.topic(), rec.partition(), rec.offset(), rec.timestamp(), ReplyTo.of( rec.headers() ),
+                getEventType( rec ) );
+    }
+
+    private static EventType getEventType( ConsumerRecord<String, byte[]> rec ) {
+        return Optional.ofNullable( rec.headers().lastHeader( LedgerEventHeaders.EVENT_TYPE ) )
+                .map( header -> LedgerEventHeaders.toEventType( header.value() ) )
+                .orElse( null );
+    }
+
+    /**
+     * Returns the ledger transaction to create if the given event is a CREATE_LEDGER_TRANSACTION event.
+     *
+     * @param rec event record
+     * @return ledger transaction or null if this is some other (or an invalid) event
+     */
+    private LedgerTransaction toCreateLedgerTransaction( ConsumerRecord<String, byte[]> rec ) {
+        EventType eventType = getEventType( rec );
+        if ( eventType != null && eventType != EventType.CREATE_LEDGER_TRANSACTION ) {
+            return null;
+        }
+        try {
+            ApiOperation<?> operation = codec.decode( rec.value() );
+            return operation.getEventType() == EventType.CREATE_LEDGER_TRANSACTION ? (LedgerTransaction) operation.getData() : null;
+        }
+        catch ( Exception ex ) {
+            return null; // let the single record handler deal with it
+        }
+    }
+
+    /**
+     * Saves all the given CREATE_LEDGER_TRANSACTION events in a single database transaction and emits a
+     * LEDGER_TRANSACTION_CREATED (or LEDGER_TRANSACTION_CREATION_FAILED) event for each one. Events that have already
+     * been processed get their original completion event. If the batch as a whole fails, each record is retried on its
+     * own so a single bad record doesn't hold up the rest.
+     *
+     * @param records CREATE_LEDGER_TRANSACTION records (in offset order)
+     * @param txns    the decoded ledger transaction of each record
+     */
+    private void handleCreateLedgerTransactionEvents( List<ConsumerRecord<String, byte[]>> records, List<LedgerTransaction> txns ) {
+        if ( records.isEmpty() ) {
+            return;
         }
 
-        ledger = ledgerService.createLedger(
-                ledger.getUuid(),
-                ledger.getName(),
-                ledger.getDescription() );
+        long startTime = System.nanoTime();
+        records.forEach( rec -> metrics.recordQueueDwell( EventType.CREATE_LEDGER_TRANSACTION, rec.timestamp() ) );
+        List<ApiOperation<?>> outcomes;
+        try {
+            outcomes = processedCommandService.processAll( EventType.CREATE_LEDGER_TRANSACTION,
+                    txns.stream().map( LedgerTransaction::getUuid ).toList(),
+                    records.stream().map( ConsumerRecord::value ).toList(),
+                    indexes -> ledgerService.createLedgerTransactions( indexes.stream().map( txns::get ).toList() ).stream()
+                            .<ApiOperation<?>>map( result -> result.isFailed() ?
+                                    result.getFailure().toFailedEvent() : toLedgerTransactionCreatedEvent( result.getLedgerTransaction() ) )
+                            .toList(),
+                    ( index, event ) -> {
+                        if ( useOutbox ) {
+                            outboxService.add( toReplyRecord( ReplyTo.of( records.get( index ).headers() ), event ) );
+                        }
+                    } );
+        }
+        catch ( Exception ex ) {
+            LOGGER.warn( "Failed to process batch of " + records.size() + " ledger transactions; retrying individually", ex );
+            records.forEach( this::consumeLedgerOperation );
+            return;
+        }
 
-        sendMessage( LEDGER_EVENTS_TOPIC, gson.toJson(
-                new ApiOperation<Ledger>()
-                        .withEventType( EventType.LEDGER_CREATED )
-                        .withData( ledger ) ) );
+        if ( !useOutbox ) {
+            for ( int i = 0; i < outcomes.size(); i++ ) {
+                sendReply( ReplyTo.of( records.get( i ).headers() ), outcomes.get( i ) );
+            }
+            kafkaTemplate.flush();
+        }
+        metrics.recordBatchProcessingTime( startTime );
     }
 
     /**
-     * Saves the new ledger account in the datastore and emits a LEDGER_ACCOUNT_CREATED event on successful completion.
+     * Saves the new ledger in the datastore.
      *
-     * @param obj deserialized event payload
+     * @param ledger ledger to create
+     * @return LEDGER_CREATED event
+     * @throws DuplicateKeyException if UUID already exists for ledger
+     */
+    private ApiOperation<Ledger> handleCreateLedgerEvent( Ledger ledger ) throws DuplicateKeyException {
+        try {
+            ledger = ledgerService.createLedger(
+                    ledger.getUuid(),
+                    ledger.getName(),
+                    ledger.getDescription() );
+        }
+        catch ( DataIntegrityViolationException ex ) {
+            // rather than checking beforehand, let the unique constraint tell us; a redelivered command never gets this far
+            throw new DuplicateKeyException( EventType.LEDGER_CREATION_FAILED, ledger.getUuid(), "Ledger already exists with this UUID" );
+        }
+
+        return new ApiOperation<Ledger>()
+                .withEventType( EventType.LEDGER_CREATED )
+                .withData( ledger );
+    }
+
+    /**
+     * Saves the new ledger account in the datastore.
+     *
+     * @param ledgerAccount ledger account to create
+     * @return LEDGER_ACCOUNT_CREATED event
      * @throws DuplicateKeyException if UUID already exists for ledger
      * @throws NotFoundException     if parent ledger could not be found
      */
-    private void handleCreateLedgerAccountEvent( JsonObject obj ) throws DuplicateKeyException, NotFoundException {
-        JsonObject req = obj.get( "data" ).getAsJsonObject();
-        LedgerAccount ledgerAccount = gson.fromJson( gson.toJson( req ), LedgerAccount.class );
+    private ApiOperation<LedgerAccount> handleCreateLedgerAccountEvent( LedgerAccount ledgerAccount ) throws DuplicateKeyException, NotFoundException {
         final String ledgerAccountUuid = ledgerAccount.getUuid();
 
-        // first check that a ledger doesn't already exist with the same UUID
-        if ( ledgerService.getLedgerAccount( ledgerAccountUuid ).isPresent() ) {
+        Ledger parentLedger = ledgerService.getLedger( ledgerAccount.getLedger().getUuid() )
+                .orElseThrow( () -> new NotFoundException( EventType.LEDGER_ACCOUNT_CREATION_FAILED, ledgerAccountUuid, "No matching ledger found." ) );
+
+        try {
+            ledgerAccount = ledgerService.createLedgerAccount(
+                    parentLedger,
+                    ledgerAccount.getUuid(),
+                    ledgerAccount.getName(),
+                    ledgerAccount.getDescription(),
+                    ledgerAccount.getCurrency() );
+        }
+        catch ( DataIntegrityViolationException ex ) {
             throw new DuplicateKeyException( EventType.LEDGER_ACCOUNT_CREATION_FAILED, ledgerAccountUuid, "Ledger account already exists with this UUID" );
         }
 
-        Ledger parentLedger = ledgerService.getLedger( ledgerAccount.getLedger().getUuid() )
-                .orElseThrow( () -> new NotFoundException( EventType.LEDGER_ACCOUNT_CREATION_FAILED, ledgerAccountUuid, "No matching ledger found." ) );
+        return new ApiOperation<LedgerAccount>()
+                .withEventType( EventType.LEDGER_ACCOUNT_CREATED )
+                .withData( ledgerAccount );
+    }
 
-        ledgerAccount = ledgerService.createLedgerAccount(
-                parentLedger,
-                ledgerAccount.getUuid(),
-                ledgerAccount.getName(),
-                ledgerAccount.getDescription(),
-                ledgerAccount.getCurrency() );
+    /**
+     * Saves the new ledger transaction in the datastore.
+     *
+     * @param ledgerTxn ledger transaction to create
+     * @return LEDGER_TRANSACTION_CREATED event
+     * @throws NotFoundException if parent ledger account(s) could not be found
+     */
+    private ApiOperation<LedgerTransaction> handleCreateLedgerTransactionEvent( LedgerTransaction ledgerTxn ) throws NotFoundException {
+        return toLedgerTransactionCreatedEvent( ledgerService.createLedgerTransaction( ledgerTxn ) );
+    }
 
-        sendMessage( LEDGER_EVENTS_TOPIC, gson.toJson(
-                new ApiOperation<LedgerAccount>()
-                        .withEventType( EventType.LEDGER_ACCOUNT_CREATED )
-                        .withData( ledgerAccount ) ) );
+    private ApiOperation<LedgerTransaction> toLedgerTransactionCreatedEvent( LedgerTransaction ledgerTxn ) {
+        return new ApiOperation<LedgerTransaction>()
+                .withEventType( EventType.LEDGER_TRANSACTION_CREATED )
+                // copy to a normal POJO rather than sending the (lazy loaded) entity
+                .withData( LedgerTransaction.builder()
+                        .id( ledgerTxn.getId() )
+                        .uuid( ledgerTxn.getUuid() )
+                        .description( ledgerTxn.getDescription() )
+                        .ledgerEntries( ledgerTxn.getLedgerEntries().stream().map( entry ->
+                                LedgerEntry.builder()
+                                        .id( entry.getId() )
+                                        .amount( entry.getAmount() )
+                                        .direction( entry.getDirection() )
+                                        .ledgerAccount( LedgerAccount.builder()
+                                                .id( entry.getLedgerAccount().getId() )
+                                                .uuid( entry.getLedgerAccount().getUuid() )
+                                                .lockVersion( entry.getLedgerAccount().getLockVersion() )
+                                                .build() )
+                                        .createdDate( entry.getCreatedDate() )
+                                        .build()
+                        ).toList() )
+                        .createdDate( ledgerTxn.getCreatedDate() )
+                        .build() );
     }
 
     /**
-     * Saves the new ledger transaction in the datastore and emits a LEDGER_TRANSACTION_CREATED event on successful completion.
+     * Sends a completion event to wherever the request asked for it to be sent.
      *
-     * @param obj deserialized event payload
-     * @throws DuplicateKeyException if UUID already exists for ledger transaction
-     * @throws NotFoundException     if parent ledger account(s) could not be found
+     * @param replyTo reply destination of the request
+     * @param event   completion event
      */
-    private void handleCreateLedgerTransactionEvent( JsonObject obj ) throws DuplicateKeyException, NotFoundException {
-        JsonObject req = obj.get( "data" ).getAsJsonObject();
-        LedgerTransaction ledgerTxn = gson.fromJson( gson.toJson( req ), LedgerTransaction.class );
-        final String ledgerTxnUuid = ledgerTxn.getUuid();
-
-        // first load all the ledger accounts from the ledger entries
-        for ( int i = 0; i < ledgerTxn.getLedgerEntries().size(); i++ ) {
-            LedgerEntry entry = ledgerTxn.getLedgerEntries().get( i );
-            LedgerAccount acct = ledgerService.getLedgerAccount( entry.getLedgerAccount().getUuid(), entry.getLedgerAccount().getLockVersion() )
-                    .orElseThrow( () -> new NotFoundException( EventType.LEDGER_TRANSACTION_CREATION_FAILED, ledgerTxnUuid,
-                            "No matching ledger account found for UUID " + entry.getLedgerAccount().getUuid()
-                                    + " and lockVersion " + entry.getLedgerAccount().getLockVersion() ) );
-            entry.setLedgerAccount( acct ); // replace with "live" ledger account
-            entry.setCreatedDate( OffsetDateTime.now() );
-        }
-
-        ledgerTxn = ledgerService.createLedgerTransaction(
-                ledgerTxn.getUuid(),
-                ledgerTxn.getDescription(),
-                ledgerTxn.getLedgerEntries() );
-
-        sendMessage( LEDGER_EVENTS_TOPIC, gson.toJson(
-                new ApiOperation<LedgerTransaction>()
-                        .withEventType( EventType.LEDGER_TRANSACTION_CREATED )
-                        // re-serialize to a normal POJO otherwise we get an exception attempting serialize HibernateProxy
-                        .withData( LedgerTransaction.builder()
-                                .id( ledgerTxn.getId() )
-                                .uuid( ledgerTxn.getUuid() )
-                                .description( ledgerTxn.getDescription() )
-                                .ledgerEntries( ledgerTxn.getLedgerEntries().stream().map( entry ->
-                                        LedgerEntry.builder()
-                                                .id( entry.getId() )
-                                                .amount( entry.getAmount() )
-                                                .direction( entry.getDirection() )
-                                                .ledgerAccount( LedgerAccount.builder()
-                                                        .id( entry.getLedgerAccount().getId() )
-                                                        .uuid( entry.getLedgerAccount().getUuid() )
-                                                        .lockVersion( entry.getLedgerAccount().getLockVersion() )
-                                                        .build() )
-                                                .createdDate( entry.getCreatedDate() )
-                                                .build()
-                                ).toList() )
-                                .createdDate( ledgerTxn.getCreatedDate() )
-                                .build() ) ) );
-    }
-
-    protected void sendMessage( String topic, String payload ) {
-        kafkaTemplate.send( topic, payload ).whenComplete( ( result, ex ) -> {
+    protected void sendReply( ReplyTo replyTo, ApiOperation<?> event ) {
+        sendMessage( toReplyRecord( replyTo, event ) );
+    }
+
+    private ProducerRecord<String, byte[]> toReplyRecord( ReplyTo replyTo, ApiOperation<?> event ) {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>( replyTo.isDefault() ? LEDGER_EVENTS_TOPIC : replyTo.getTopic(),
+                replyTo.getPartition(), null, codec.encode( event ) );
+        record.headers().add( LedgerEventHeaders.EVENT_TYPE, LedgerEventHeaders.toBytes( event.getEventType() ) );
+        String uuid = LedgerEventHeaders.getUuid( event );
+        if ( uuid != null ) {
+            record.headers().add( LedgerEventHeaders.UUID, LedgerEventHeaders.toBytes( uuid ) );
+        }
+        if ( replyTo.getCorrelationId() != null ) {
+            record.headers().add( LedgerEventHeaders.CORRELATION_ID, LedgerEventHeaders.toBytes( replyTo.getCorrelationId() ) );
+        }
+        if ( replyTo.getIngressTimestamp() != null ) {
+            record.headers().add( LedgerEventHeaders.INGRESS_TIMESTAMP, LedgerEventHeaders.toBytes( replyTo.getIngressTimestamp() ) );
+        }
+        return record;
+    }
+
+    protected void sendMessage( ProducerRecord<String, byte[]> record ) {
+        CompletableFuture<SendResult<String, byte[]>> future = kafkaTemplate.send( record );
+        future.whenComplete( ( result, ex ) -> {
             if ( ex == null ) {
-                LOGGER.info( "Sent message=[payload={}] to topic={} with offset={}",
-                        payload, topic, result.getRecordMetadata().offset() );
+                LOGGER.info( "Sent message=[{} bytes] to topic={} with offset={}",
+                        record.value().length, record.topic(), result.getRecordMetadata().offset() );
             }
             else {
-                LOGGER.info( "Unable to send message=[payload={}] to topic={} due to : {}",
-                        payload, topic, ex.getMessage() );
+                LOGGER.info( "Unable to send message=[{} bytes] to topic={} due to : {}",
+                        record.value().length, record.topic(), ex.getMessage() );
             }
         } );
     }
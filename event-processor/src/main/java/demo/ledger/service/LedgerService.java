@@ -1,22 +1,40 @@
 package demo.ledger.service;
 
+import demo.ledger.model.AccountBalance;
+import demo.ledger.model.AccountBalanceCheckpoint;
 import demo.ledger.model.Ledger;
 import demo.ledger.model.LedgerAccount;
 import demo.ledger.model.LedgerEntry;
 import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.dto.EventType;
+import demo.ledger.model.exception.NotFoundException;
+import demo.ledger.repository.AccountBalanceCheckpointRepository;
+import demo.ledger.repository.AccountBalanceRepository;
 import demo.ledger.repository.LedgerAccountRepository;
+import demo.ledger.repository.LedgerAccountTotals;
 import demo.ledger.repository.LedgerEntryRepository;
 import demo.ledger.repository.LedgerRepository;
 import demo.ledger.repository.LedgerTransactionRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.domain.Example;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigInteger;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class LedgerService {
@@ -26,18 +44,33 @@ public class LedgerService {
     private final LedgerAccountRepository ledgerAccountRepository;
     private final LedgerTransactionRepository ledgerTransactionRepository;
     private final LedgerEntryRepository ledgerEntryRepository;
+    private final AccountBalanceRepository accountBalanceRepository;
+    private final AccountBalanceCheckpointRepository accountBalanceCheckpointRepository;
+    private final AccountStateCache accountStateCache;
+
+    @Value( value = "${ledger.balance.checkpoint.entries}" )
+    private long CHECKPOINT_MAX_ENTRIES;
+
+    @Value( value = "${ledger.balance.checkpoint.minutes}" )
+    private long CHECKPOINT_MAX_MINUTES;
 
     public LedgerService( LedgerRepository ledgerRepository, LedgerAccountRepository ledgerAccountRepository,
-                          LedgerTransactionRepository ledgerTransactionRepository, LedgerEntryRepository ledgerEntryRepository ) {
+                          LedgerTransactionRepository ledgerTransactionRepository, LedgerEntryRepository ledgerEntryRepository,
+                          AccountBalanceRepository accountBalanceRepository, AccountBalanceCheckpointRepository accountBalanceCheckpointRepository,
+                          AccountStateCache accountStateCache ) {
         this.ledgerRepository = ledgerRepository;
         this.ledgerAccountRepository = ledgerAccountRepository;
         this.ledgerTransactionRepository = ledgerTransactionRepository;
         this.ledgerEntryRepository = ledgerEntryRepository;
+        this.accountBalanceRepository = accountBalanceRepository;
+        this.accountBalanceCheckpointRepository = accountBalanceCheckpointRepository;
+        this.accountStateCache = accountStateCache;
     }
 
     public Ledger createLedger( String uuid, String name, String description ) {
         LOGGER.info( "Creating ledger: uuid={}, name={}, description={}", uuid, name, description );
-        Ledger obj = ledgerRepository.save( Ledger.builder()
+        // flushed so a duplicate UUID fails here rather than on commit
+        Ledger obj = ledgerRepository.saveAndFlush( Ledger.builder()
                 .uuid( uuid )
                 .name( name )
                 .description( description )
@@ -49,13 +82,15 @@ public class LedgerService {
     }
 
     public Optional<Ledger> getLedger( String uuid ) {
-        return ledgerRepository.findOne( Example.of( Ledger.builder().uuid( uuid ).build() ) );
+        return ledgerRepository.findByUuid( uuid );
     }
 
+    @Transactional
     public LedgerAccount createLedgerAccount( Ledger ledger, String uuid, String name, String description, String currency ) {
         LOGGER.info( "Creating ledger account: ledgerId={}, uuid={}, name={}, description={}", ledger.getId(), uuid, name, description, currency );
 
-        LedgerAccount obj = ledgerAccountRepository.save( LedgerAccount.builder()
+        // flushed so a duplicate UUID fails here rather than on commit
+        LedgerAccount obj = ledgerAccountRepository.saveAndFlush( LedgerAccount.builder()
                 .uuid( uuid )
                 .ledger( ledger )
                 .name( name )
@@ -65,43 +100,294 @@ public class LedgerService {
                 .createdDate( OffsetDateTime.now() )
                 .lastUpdatedDate( OffsetDateTime.now() )
                 .build() );
+
+        // every account starts off with an empty running balance
+        AccountBalance balance = accountBalanceRepository.save( AccountBalance.builder()
+                .ledgerAccountId( obj.getId() )
+                .lockVersion( obj.getLockVersion() )
+                .totalCredits( BigInteger.ZERO )
+                .totalDebits( BigInteger.ZERO )
+                .lastUpdatedDate( obj.getLastUpdatedDate() )
+                .entriesSinceCheckpoint( 0L )
+                .lastCheckpointDate( obj.getCreatedDate() )
+                .build() );
+        accountStateCache.put( obj, balance );
         LOGGER.info( "Created ledger account: id={}", obj.getId() );
         return obj;
     }
 
     public Optional<LedgerAccount> getLedgerAccount( String uuid ) {
-        return ledgerAccountRepository.findOne( Example.of( LedgerAccount.builder().uuid( uuid ).build() ) );
+        return ledgerAccountRepository.findByUuid( uuid );
     }
 
     public Optional<LedgerAccount> getLedgerAccount( String uuid, Long lockVersion ) {
-        return ledgerAccountRepository.findOne( Example.of( LedgerAccount.builder()
-                .uuid( uuid )
-                .lockVersion( lockVersion )
-                .build() ) );
+        return ledgerAccountRepository.findByUuidAndLockVersion( uuid, lockVersion );
     }
 
+    /**
+     * Creates the given ledger transaction, replacing the (deserialized) ledger accounts on each ledger entry with the
+     * current state of the ledger account matching the UUID and lock version given.
+     *
+     * @param ledgerTxn ledger transaction to be created
+     * @return saved ledger transaction
+     * @throws NotFoundException if a ledger account could not be found (or the lock version doesn't match)
+     * @throws ObjectOptimisticLockingFailureException if one of the ledger accounts is no longer at the lock version we had
+     */
     @Transactional
-    public LedgerTransaction createLedgerTransaction( String uuid, String description, List<LedgerEntry> ledgerEntries ) {
-        LOGGER.info( "Creating ledger transaction: uuid={}, description={}", uuid, description );
+    public LedgerTransaction createLedgerTransaction( LedgerTransaction ledgerTxn ) throws NotFoundException {
+        Map<String, AccountState> accounts = getAccountStates( List.of( ledgerTxn ) );
+        OffsetDateTime now = OffsetDateTime.now();
+        post( ledgerTxn, accounts, now );
+        return save( List.of( ledgerTxn ), accounts, now ).get( 0 );
+    }
 
-        LOGGER.info( "Saving all {} ledger entries first...", ledgerEntries.size() );
-        List<LedgerEntry> savedLedgerEntries = ledgerEntryRepository.saveAll( ledgerEntries );
+    /**
+     * Creates all the given ledger transactions (in order) in a single database transaction.
+     * Each ledger account is resolved once for the whole batch and written once at the end, so a ledger transaction
+     * can reference the lock version left by an earlier ledger transaction in the same batch. A ledger transaction that
+     * references a missing ledger account (or stale lock version) is rejected without affecting the rest of the batch.
+     * All the ledger entries in the batch are given the same created date, so any balance checkpoints are only taken
+     * once the whole batch has been posted.
+     *
+     * @param ledgerTxns ledger transactions to be created
+     * @return the outcome of each ledger transaction in the same order as given
+     * @throws ObjectOptimisticLockingFailureException if one of the ledger accounts is no longer at the lock version we had
+     */
+    @Transactional
+    public List<LedgerTransactionResult> createLedgerTransactions( List<LedgerTransaction> ledgerTxns ) {
+        LOGGER.info( "Creating batch of {} ledger transactions", ledgerTxns.size() );
+        Map<String, AccountState> accounts = getAccountStates( ledgerTxns );
+        OffsetDateTime now = OffsetDateTime.now();
+        List<LedgerTransaction> posted = new ArrayList<>();
+        List<LedgerTransactionResult> results = new ArrayList<>( ledgerTxns.size() );
+        for ( LedgerTransaction ledgerTxn : ledgerTxns ) {
+            try {
+                post( ledgerTxn, accounts, now );
+                posted.add( ledgerTxn );
+                results.add( null ); // filled in once saved
+            }
+            catch ( NotFoundException ex ) {
+                results.add( LedgerTransactionResult.failed( ex ) );
+            }
+        }
 
-        LedgerTransaction obj = ledgerTransactionRepository.save( LedgerTransaction.builder()
-                .uuid( uuid )
-                .description( description )
-                .ledgerEntries( savedLedgerEntries )
-                .createdDate( OffsetDateTime.now() )
-                .build() );
+        Iterator<LedgerTransaction> saved = save( posted, accounts, now ).iterator();
+        results.replaceAll( result -> result == null ? LedgerTransactionResult.created( saved.next() ) : result );
+        return results;
+    }
 
-        // now increment the lock version of both ledger accounts
-        ledgerAccountRepository.saveAll( ledgerEntries.stream().map( entry -> entry.getLedgerAccount().incrementLockVersion() ).toList() );
+    /**
+     * Rolls the ledger entries of the given ledger transaction into the running balances (in memory) after checking
+     * them against the current lock version of each ledger account. The ledger accounts on the ledger entries are
+     * replaced with the current ledger account at its new lock version (once per ledger entry).
+     *
+     * @param ledgerTxn   ledger transaction to be created
+     * @param accounts  current state of the ledger accounts by UUID; updated with the new lock versions
+     * @param now       the created date of the ledger entries
+     * @throws NotFoundException if a ledger account could not be found (or the lock version doesn't match), in which
+     *                           case nothing has been changed
+     */
+    private void post( LedgerTransaction ledgerTxn, Map<String, AccountState> accounts, OffsetDateTime now ) throws NotFoundException {
+        LOGGER.info( "Creating ledger transaction: uuid={}, description={}", ledgerTxn.getUuid(), ledgerTxn.getDescription() );
+        List<LedgerEntry> ledgerEntries = ledgerTxn.getLedgerEntries();
+        for ( LedgerEntry entry : ledgerEntries ) {
+            AccountState state = accounts.get( entry.getLedgerAccount().getUuid() );
+            if ( state == null || !state.account().getLockVersion().equals( entry.getLedgerAccount().getLockVersion() ) ) {
+                throw new NotFoundException( EventType.LEDGER_TRANSACTION_CREATION_FAILED, ledgerTxn.getUuid(),
+                        "No matching ledger account found for UUID " + entry.getLedgerAccount().getUuid()
+                                + " and lockVersion " + entry.getLedgerAccount().getLockVersion() );
+            }
+        }
 
-        LOGGER.info( "Created ledger transaction: id={}", obj.getId() );
-        return obj;
+        Map<String, Long> entriesByAccount = ledgerEntries.stream()
+                .collect( Collectors.groupingBy( entry -> entry.getLedgerAccount().getUuid(), Collectors.counting() ) );
+        Map<Long, AccountBalance> balances = new HashMap<>();
+        entriesByAccount.forEach( ( uuid, entries ) -> {
+            AccountState state = accounts.get( uuid ).withLockVersion( accounts.get( uuid ).account().getLockVersion() + entries );
+            state.balance().setLockVersion( state.account().getLockVersion() );
+            state.balance().setLastUpdatedDate( now );
+            balances.put( state.account().getId(), state.balance() );
+            accounts.put( uuid, state );
+        } );
+
+        for ( LedgerEntry entry : ledgerEntries ) {
+            entry.setLedgerAccount( accounts.get( entry.getLedgerAccount().getUuid() ).account() ); // replace with the current ledger account
+            entry.setCreatedDate( now );
+            balances.get( entry.getLedgerAccount().getId() ).post( entry );
+        }
+    }
+
+    /**
+     * Writes the ledger accounts that have changed (and any balance checkpoints now due), then the given (posted)
+     * ledger transactions.
+     * <p>
+     * The lock versions are written first, in UUID order, so every ledger account row is locked in the same order
+     * (including any already locked by {@link #getAccountStates}) before anything else is written; two database
+     * transactions posting to the same accounts can't deadlock. We only ever write the lock versions so if one has moved
+     * on since we read it (ie. another consumer posted to it), roll back and try again. Nothing is read back in between
+     * so the ledger entries and transactions are inserted using JDBC batching when flushed.
+     *
+     * @param ledgerTxns posted ledger transactions
+     * @param accounts   current state of the ledger accounts by UUID (in UUID order)
+     * @param now        the created date of the ledger entries
+     * @return the saved ledger transactions (in the same order)
+     * @throws ObjectOptimisticLockingFailureException if one of the ledger accounts is no longer at the lock version we had
+     */
+    private List<LedgerTransaction> save( List<LedgerTransaction> ledgerTxns, Map<String, AccountState> accounts,
+                                          OffsetDateTime now ) {
+        List<AccountState> changed = accounts.values().stream().filter( AccountState::isChanged ).toList();
+        for ( AccountState state : changed ) {
+            LedgerAccount account = state.account();
+            if ( ledgerAccountRepository.updateLockVersion( account.getId(), state.lockVersionRead(), account.getLockVersion() ) == 0 ) {
+                LOGGER.info( "Ledger account {} is no longer at lockVersion {}", account.getUuid(), state.lockVersionRead() );
+                accounts.keySet().forEach( accountStateCache::evict ); // any of them could be out of date
+                throw new ObjectOptimisticLockingFailureException( LedgerAccount.class, account.getId() );
+            }
+        }
+        List<AccountBalanceCheckpoint> checkpoints = getCheckpointsDue( changed, now );
+        for ( AccountState state : changed ) {
+            accountBalanceRepository.update( state.balance() );
+            accountStateCache.put( state.account(), state.balance() );
+        }
+        if ( !checkpoints.isEmpty() ) {
+            LOGGER.info( "Writing {} balance checkpoint(s)", checkpoints.size() );
+            accountBalanceCheckpointRepository.saveAll( checkpoints );
+        }
+
+        List<LedgerTransaction> saved = new ArrayList<>( ledgerTxns.size() );
+        for ( LedgerTransaction ledgerTxn : ledgerTxns ) {
+            // the ledger entries reference the (detached) ledger accounts at their new lock versions
+            LOGGER.info( "Saving all {} ledger entries first...", ledgerTxn.getLedgerEntries().size() );
+            List<LedgerEntry> savedLedgerEntries = ledgerEntryRepository.saveAll( ledgerTxn.getLedgerEntries() );
+
+            LedgerTransaction obj = ledgerTransactionRepository.save( LedgerTransaction.builder()
+                    .uuid( ledgerTxn.getUuid() )
+                    .description( ledgerTxn.getDescription() )
+                    .ledgerEntries( savedLedgerEntries )
+                    .createdDate( OffsetDateTime.now() )
+                    .build() );
+            LOGGER.info( "Created ledger transaction: id={}", obj.getId() );
+            saved.add( obj );
+        }
+        return saved;
     }
 
     public Optional<LedgerTransaction> getLedgerTransaction( String uuid ) {
-        return ledgerTransactionRepository.findOne( Example.of( LedgerTransaction.builder().uuid( uuid ).build() ) );
+        return ledgerTransactionRepository.findByUuid( uuid );
+    }
+
+    public Optional<AccountBalance> getAccountBalance( Long ledgerAccountId ) {
+        return accountBalanceRepository.findById( ledgerAccountId );
+    }
+
+    /**
+     * Returns a balance checkpoint for any of the given accounts which have had enough ledger entries (or enough time
+     * has passed) since their last checkpoint. This is only done once everything has been posted so there's at most
+     * one checkpoint per account and date, and it includes every ledger entry created on or before its date; readers
+     * only total the ledger entries created after it.
+     *
+     * @param accounts ledger accounts that have been posted to (running balances already updated)
+     * @param now      the created date of the ledger entries just posted
+     * @return new (unsaved) checkpoints
+     */
+    private List<AccountBalanceCheckpoint> getCheckpointsDue( List<AccountState> accounts, OffsetDateTime now ) {
+        return accounts.stream()
+                .map( AccountState::balance )
+                .filter( balance -> balance.isCheckpointDue( CHECKPOINT_MAX_ENTRIES, Duration.ofMinutes( CHECKPOINT_MAX_MINUTES ), now ) )
+                .map( balance -> balance.checkpoint( now ) )
+                .toList();
+    }
+
+    /**
+     * Returns the current state of the ledger accounts of the given ledger transactions keyed by UUID. These come from
+     * the {@link AccountStateCache} if we have all of them at the lock version they're first referenced at. Otherwise,
+     * all of them are read from the database, locking the ledger accounts (in UUID order) until the end of the current
+     * transaction, and added to the cache; see {@link #save}.
+     *
+     * @param ledgerTxns ledger transactions referencing the ledger accounts by UUID and lock version
+     * @return non-null mutable map of (detached) ledger accounts and running balances in UUID order; missing any that
+     * don't exist
+     */
+    private Map<String, AccountState> getAccountStates( List<LedgerTransaction> ledgerTxns ) {
+        Map<String, Long> lockVersions = new TreeMap<>();
+        ledgerTxns.forEach( ledgerTxn -> ledgerTxn.getLedgerEntries().forEach( entry ->
+                lockVersions.putIfAbsent( entry.getLedgerAccount().getUuid(), entry.getLedgerAccount().getLockVersion() ) ) );
+
+        Map<String, AccountState> accounts = new TreeMap<>();
+        for ( Map.Entry<String, Long> lockVersion : lockVersions.entrySet() ) {
+            LedgerAccount account = new LedgerAccount();
+            AccountBalance balance = new AccountBalance();
+            if ( !accountStateCache.get( lockVersion.getKey(), account, balance ) || !account.getLockVersion().equals( lockVersion.getValue() ) ) {
+                return loadAccountStates( lockVersions.keySet() ); // or the cache is behind
+            }
+            accounts.put( lockVersion.getKey(), new AccountState( account, balance ) );
+        }
+        return accounts;
+    }
+
+    /**
+     * Reads (and locks) the given ledger accounts and their running balances from the database. Any account without a
+     * running balance (ie. created before we started keeping track) is seeded from its existing ledger entries.
+     *
+     * @param uuids ledger account UUIDs
+     * @return see {@link #getAccountStates}
+     */
+    private Map<String, AccountState> loadAccountStates( Collection<String> uuids ) {
+        Map<String, AccountState> accounts = new TreeMap<>();
+        List<LedgerAccount> loaded = ledgerAccountRepository.lockAllByUuidIn( uuids );
+        Map<Long, AccountBalance> balances = accountBalanceRepository.findAllById( loaded.stream().map( LedgerAccount::getId ).toList() ).stream()
+                .collect( Collectors.toMap( AccountBalance::getLedgerAccountId, Function.identity() ) );
+        for ( LedgerAccount account : loaded ) {
+            AccountBalance balance = balances.get( account.getId() );
+            if ( balance == null ) {
+                LOGGER.info( "Seeding running balance for ledger account id={}", account.getId() );
+                LedgerAccountTotals totals = ledgerEntryRepository.getTotals( account.getId() );
+                balance = accountBalanceRepository.save( AccountBalance.builder()
+                        .ledgerAccountId( account.getId() )
+                        .lockVersion( account.getLockVersion() )
+                        .totalCredits( totals.getTotalCredits() == null ? BigInteger.ZERO : totals.getTotalCredits() )
+                        .totalDebits( totals.getTotalDebits() == null ? BigInteger.ZERO : totals.getTotalDebits() )
+                        .entriesSinceCheckpoint( 0L )
+                        .build() );
+            }
+            // copies, so nothing we change is written back by the persistence context
+            AccountState state = new AccountState( LedgerAccount.builder()
+                    .id( account.getId() )
+                    .uuid( account.getUuid() )
+                    .lockVersion( account.getLockVersion() )
+                    .currency( account.getCurrency() )
+                    .build(), AccountBalance.builder()
+                    .ledgerAccountId( balance.getLedgerAccountId() )
+                    .lockVersion( balance.getLockVersion() )
+                    .totalCredits( balance.getTotalCredits() )
+                    .totalDebits( balance.getTotalDebits() )
+                    .lastUpdatedDate( balance.getLastUpdatedDate() )
+                    .entriesSinceCheckpoint( balance.getEntriesSinceCheckpoint() )
+                    .lastCheckpointDate( balance.getLastCheckpointDate() )
+                    .build() );
+            accountStateCache.put( state.account(), state.balance() );
+            accounts.put( account.getUuid(), state );
+        }
+        return accounts;
+    }
+
+    /**
+     * A ledger account (at its current lock version) and its running balance.
+     *
+     * @param lockVersionRead the lock version the account was read (or held in the cache) at
+     */
+    private record AccountState( LedgerAccount account, AccountBalance balance, long lockVersionRead ) {
+
+        AccountState( LedgerAccount account, AccountBalance balance ) {
+            this( account, balance, account.getLockVersion() );
+        }
+
+        AccountState withLockVersion( long lockVersion ) {
+            return new AccountState( account.withLockVersion( lockVersion ), balance, lockVersionRead );
+        }
+
+        boolean isChanged() {
+            return account.getLockVersion() != lockVersionRead;
+        }
     }
 }
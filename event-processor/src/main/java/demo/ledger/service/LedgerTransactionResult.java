@@ -0,0 +1,30 @@
+package demo.ledger.service;
+
+import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.exception.LedgerEventException;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The outcome of a single ledger transaction within a batch; either the saved transaction or the reason it was rejected.
+ */
+@Getter
+@AllArgsConstructor( access = AccessLevel.PRIVATE )
+public class LedgerTransactionResult {
+
+    private final LedgerTransaction ledgerTransaction;
+    private final LedgerEventException failure;
+
+    public static LedgerTransactionResult created( LedgerTransaction ledgerTransaction ) {
+        return new LedgerTransactionResult( ledgerTransaction, null );
+    }
+
+    public static LedgerTransactionResult failed( LedgerEventException failure ) {
+        return new LedgerTransactionResult( null, failure );
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+}
@@ -0,0 +1,107 @@
+package demo.ledger.service;
+
+import demo.ledger.model.OutboxEvent;
+import demo.ledger.repository.OutboxEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Publishes the events in the transactional outbox. Each batch of unsent events is locked (FOR UPDATE SKIP LOCKED,
+ * so several event-processor instances can relay at once without sending the same event twice), sent, and marked as
+ * sent in a single update, all in one database transaction. The events of a batch are sent asynchronously so the
+ * producer can group them into as few produce requests as possible (see ledger.producer.linger.ms and
+ * ledger.producer.batch.size); we only wait for the acknowledgements once the whole batch has been handed over.
+ * In exactly-once mode, each batch is sent in a single Kafka transaction instead.
+ * <p>
+ * If sending fails (or we stop part way), the database transaction is rolled back and the batch is sent again
+ * later; the API ignores completion events for requests it's no longer waiting on. Events are sent in the order
+ * they were written, although with several instances relaying, one batch can overtake another.
+ */
+@Service
+@ConditionalOnExpression( "${ledger.processor.outbox.enabled} or ${ledger.processor.exactly-once.enabled}" )
+public class OutboxRelay {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( OutboxRelay.class );
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final TransactionOperations transactionOperations;
+    private final ProcessingMetrics metrics;
+    private final int batchSize;
+    private final Duration retention;
+
+    public OutboxRelay( OutboxEventRepository outboxEventRepository, KafkaTemplate<String, byte[]> kafkaTemplate,
+                        TransactionOperations transactionOperations, ProcessingMetrics metrics,
+                        @Value( value = "${ledger.processor.outbox.batch-size}" ) int batchSize,
+                        @Value( value = "${ledger.processor.outbox.retention.minutes}" ) long retentionMinutes ) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.kafkaTemplate = kafkaTemplate;
+        this.transactionOperations = transactionOperations;
+        this.metrics = metrics;
+        this.batchSize = batchSize;
+        this.retention = Duration.ofMinutes( retentionMinutes );
+    }
+
+    /**
+     * Sends everything currently in the outbox.
+     */
+    @Scheduled( fixedDelayString = "${ledger.processor.outbox.poll-interval.ms}" )
+    public void relay() {
+        int relayed;
+        do {
+            relayed = transactionOperations.execute( status -> relayBatch() );
+        }
+        while ( relayed == batchSize );
+    }
+
+    /**
+     * Sends the next batch of unsent events.
+     *
+     * @return number of events sent
+     */
+    private int relayBatch() {
+        List<OutboxEvent> events = outboxEventRepository.findUnsentForUpdate( batchSize );
+        if ( events.isEmpty() ) {
+            return 0;
+        }
+        if ( kafkaTemplate.isTransactional() ) {
+            kafkaTemplate.executeInTransaction( operations -> {
+                events.forEach( event -> operations.send( OutboxService.toProducerRecord( event ) ) );
+                return null;
+            } );
+        }
+        else {
+            List<CompletableFuture<SendResult<String, byte[]>>> results = events.stream()
+                    .map( event -> kafkaTemplate.send( OutboxService.toProducerRecord( event ) ) )
+                    .toList();
+            kafkaTemplate.flush(); // no need to wait out the linger on the last few
+            CompletableFuture.allOf( results.toArray( CompletableFuture[]::new ) ).join(); // throws if any failed
+        }
+        outboxEventRepository.markSent( events.stream().map( OutboxEvent::getId ).toList(), OffsetDateTime.now() );
+        events.forEach( event -> metrics.recordOutboxDelay( event.getCreatedDate() ) );
+        LOGGER.info( "Relayed {} events from the outbox", events.size() );
+        return events.size();
+    }
+
+    /**
+     * Removes events that were sent some time ago.
+     */
+    @Scheduled( fixedDelayString = "${ledger.processor.outbox.purge-interval.ms}" )
+    public void purge() {
+        int deleted = transactionOperations.execute( status ->
+                outboxEventRepository.deleteSentBefore( OffsetDateTime.now().minus( retention ) ) );
+        LOGGER.info( "Purged {} sent events from the outbox", deleted );
+    }
+}
@@ -0,0 +1,80 @@
+package demo.ledger.service;
+
+import demo.ledger.model.OutboxEvent;
+import demo.ledger.model.codec.LedgerEventHeaders;
+import demo.ledger.repository.OutboxEventRepository;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Writes events to the transactional outbox (when ledger.processor.outbox.enabled or exactly-once mode is set) rather
+ * than sending them to Kafka directly. See {@link OutboxRelay} for the other half.
+ */
+@Service
+public class OutboxService {
+
+    private final OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    public OutboxService( OutboxEventRepository outboxEventRepository ) {
+        this.outboxEventRepository = outboxEventRepository;
+    }
+
+    /**
+     * Queues the given record to be sent once the current database transaction commits.
+     *
+     * @param record record to send; only the ledger event (and tracing) headers are kept
+     */
+    @Transactional( propagation = Propagation.MANDATORY )
+    public void add( ProducerRecord<String, byte[]> record ) {
+        outboxEventRepository.save( OutboxEvent.builder()
+                .topic( record.topic() )
+                .partition( record.partition() )
+                .eventType( getHeader( record, LedgerEventHeaders.EVENT_TYPE ) )
+                .uuid( getHeader( record, LedgerEventHeaders.UUID ) )
+                .correlationId( getHeader( record, LedgerEventHeaders.CORRELATION_ID ) )
+                .ingressTimestamp( getTimestampHeader( record, LedgerEventHeaders.INGRESS_TIMESTAMP ) )
+                .payload( record.value() )
+                .createdDate( OffsetDateTime.now() )
+                .build() );
+    }
+
+    /**
+     * Recreates the record that was queued.
+     *
+     * @param event outbox row
+     * @return record to send
+     */
+    public static ProducerRecord<String, byte[]> toProducerRecord( OutboxEvent event ) {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>( event.getTopic(), event.getPartition(), null, event.getPayload() );
+        if ( event.getEventType() != null ) {
+            record.headers().add( LedgerEventHeaders.EVENT_TYPE, LedgerEventHeaders.toBytes( event.getEventType() ) );
+        }
+        if ( event.getUuid() != null ) {
+            record.headers().add( LedgerEventHeaders.UUID, LedgerEventHeaders.toBytes( event.getUuid() ) );
+        }
+        if ( event.getCorrelationId() != null ) {
+            record.headers().add( LedgerEventHeaders.CORRELATION_ID, LedgerEventHeaders.toBytes( event.getCorrelationId() ) );
+        }
+        if ( event.getIngressTimestamp() != null ) {
+            record.headers().add( LedgerEventHeaders.INGRESS_TIMESTAMP, LedgerEventHeaders.toBytes( event.getIngressTimestamp() ) );
+        }
+        return record;
+    }
+
+    private static String getHeader( ProducerRecord<String, byte[]> record, String name ) {
+        Header header = record.headers().lastHeader( name );
+        return header == null ? null : LedgerEventHeaders.toString( header.value() );
+    }
+
+    private static Long getTimestampHeader( ProducerRecord<String, byte[]> record, String name ) {
+        Header header = record.headers().lastHeader( name );
+        return header == null ? null : LedgerEventHeaders.toLong( header.value() );
+    }
+}
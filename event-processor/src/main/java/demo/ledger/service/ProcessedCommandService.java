@@ -0,0 +1,336 @@
+package demo.ledger.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import demo.ledger.model.ProcessedCommand;
+import demo.ledger.model.codec.LedgerEventCodec;
+import demo.ledger.model.dto.ApiOperation;
+import demo.ledger.model.dto.EventType;
+import demo.ledger.model.exception.DuplicateKeyException;
+import demo.ledger.model.exception.LedgerEventException;
+import demo.ledger.repository.ProcessedCommandRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Makes processing of commands (CREATE_* events) idempotent. A command is claimed by inserting a {@link ProcessedCommand}
+ * row (INSERT ... ON CONFLICT DO NOTHING) in the same database transaction as the command itself, which also records
+ * the completion event it produced and a hash of the command as received. If the same command is delivered again (a
+ * retry, or a redelivery after a consumer rebalance) the original completion event is returned instead of applying the
+ * command a second time. A different command reusing the UUID fails as a duplicate key instead.
+ * The outcomes of recently processed commands are also kept in memory so most redeliveries don't touch the database.
+ * Processed commands are forgotten after ledger.processor.idempotency.retention.minutes; anything redelivered after that
+ * is caught by the unique constraints on the UUIDs instead.
+ */
+@Service
+public class ProcessedCommandService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( ProcessedCommandService.class );
+
+    private final ProcessedCommandRepository processedCommandRepository;
+    private final TransactionOperations transactionOperations;
+    private final LedgerEventCodec codec;
+    private final Cache<ProcessedCommand.Key, Outcome> recentOutcomes;
+    private final Duration retention;
+
+    /**
+     * A single command.
+     */
+    @FunctionalInterface
+    public interface Command {
+        /**
+         * @return the completion event
+         * @throws LedgerEventException if the command failed; any changes made by the command are rolled back
+         */
+        ApiOperation<?> execute() throws LedgerEventException;
+    }
+
+    /**
+     * A batch of commands executed together.
+     */
+    @FunctionalInterface
+    public interface BatchCommand {
+        /**
+         * @param indexes the (positions of the) commands in the batch that still need to be executed
+         * @return the completion event of each of these commands in the same order
+         */
+        List<ApiOperation<?>> execute( List<Integer> indexes );
+    }
+
+    public ProcessedCommandService( ProcessedCommandRepository processedCommandRepository, TransactionOperations transactionOperations,
+                                    LedgerEventCodec codec, @Value( value = "${ledger.processor.idempotency.cache-size}" ) long cacheSize,
+                                    @Value( value = "${ledger.processor.idempotency.retention.minutes}" ) long retentionMinutes ) {
+        this.processedCommandRepository = processedCommandRepository;
+        this.transactionOperations = transactionOperations;
+        this.codec = codec;
+        this.retention = Duration.ofMinutes( retentionMinutes );
+        this.recentOutcomes = Caffeine.newBuilder()
+                .maximumSize( cacheSize )
+                .expireAfterWrite( retention )
+                .build();
+    }
+
+    /**
+     * Executes the given command unless it has already been processed.
+     *
+     * @param commandType type of command
+     * @param uuid        UUID of the object being created by the command
+     * @param payload     the command as received
+     * @param command     the command to execute
+     * @return the completion event (or failure event) of the command; the original one if it was already processed,
+     * or a duplicate key failure if a different command has already used the UUID
+     */
+    public ApiOperation<?> process( EventType commandType, String uuid, byte[] payload, Command command ) {
+        return process( commandType, uuid, payload, command, outcome -> {} );
+    }
+
+    /**
+     * Executes the given command unless it has already been processed.
+     *
+     * @param commandType  type of command
+     * @param uuid         UUID of the object being created by the command
+     * @param payload      the command as received
+     * @param command      the command to execute
+     * @param outcomeSaved called (in the same database transaction) with the outcome of the command if it was
+     *                     processed now (or a duplicate key failure); not called if the command had already been processed
+     * @return the completion event (or failure event) of the command; the original one if it was already processed,
+     * or a duplicate key failure if a different command has already used the UUID
+     */
+    public ApiOperation<?> process( EventType commandType, String uuid, byte[] payload, Command command,
+                                    Consumer<ApiOperation<?>> outcomeSaved ) {
+        ProcessedCommand.Key key = new ProcessedCommand.Key( commandType, uuid );
+        byte[] payloadHash = hash( payload );
+        Outcome outcome = recentOutcomes.getIfPresent( key );
+        if ( outcome != null && outcome.isFor( payloadHash ) ) {
+            LOGGER.info( "{} {} has already been processed", commandType, uuid );
+            return outcome.event();
+        }
+
+        try {
+            outcome = transactionOperations.execute( status -> {
+                if ( !claim( key, payloadHash ) ) {
+                    return getOutcome( key, payloadHash, outcomeSaved );
+                }
+                try {
+                    return saveOutcome( key, payloadHash, command.execute(), outcomeSaved );
+                }
+                catch ( LedgerEventException ex ) {
+                    throw new CommandFailedException( ex ); // roll back
+                }
+            } );
+        }
+        catch ( CommandFailedException ex ) {
+            // record the failure in a new transaction so the same failure is returned if the command is sent again
+            ApiOperation<?> failure = ex.getCause().toFailedEvent();
+            outcome = transactionOperations.execute( status -> claim( key, payloadHash ) ?
+                    saveOutcome( key, payloadHash, failure, outcomeSaved ) : getOutcome( key, payloadHash, outcomeSaved ) );
+        }
+        recentOutcomes.put( key, outcome );
+        return outcome.isFor( payloadHash ) ? outcome.event() : duplicateKey( key );
+    }
+
+    /**
+     * Executes a batch of commands (of the same type) in a single database transaction, skipping any that have
+     * already been processed.
+     *
+     * @param commandType type of command
+     * @param uuids       UUIDs of the objects being created by each command
+     * @param payloads    each command as received
+     * @param command     executes the commands that haven't been processed yet
+     * @return the completion event of each command in the same order as given
+     */
+    public List<ApiOperation<?>> processAll( EventType commandType, List<String> uuids, List<byte[]> payloads, BatchCommand command ) {
+        return processAll( commandType, uuids, payloads, command, ( index, outcome ) -> {} );
+    }
+
+    /**
+     * Executes a batch of commands (of the same type) in a single database transaction, skipping any that have
+     * already been processed.
+     *
+     * @param commandType  type of command
+     * @param uuids        UUIDs of the objects being created by each command
+     * @param payloads     each command as received
+     * @param command      executes the commands that haven't been processed yet
+     * @param outcomeSaved called (in the same database transaction) with the index and outcome of each command
+     *                     processed now (or duplicate key failure); not called for commands that had already been processed
+     * @return the completion event of each command in the same order as given
+     */
+    public List<ApiOperation<?>> processAll( EventType commandType, List<String> uuids, List<byte[]> payloads, BatchCommand command,
+                                             BiConsumer<Integer, ApiOperation<?>> outcomeSaved ) {
+        List<ProcessedCommand.Key> keys = uuids.stream().map( uuid -> new ProcessedCommand.Key( commandType, uuid ) ).toList();
+        List<byte[]> payloadHashes = payloads.stream().map( ProcessedCommandService::hash ).toList();
+        List<Outcome> outcomes = new ArrayList<>( Collections.nCopies( uuids.size(), null ) );
+        List<ApiOperation<?>> events = transactionOperations.execute( status -> {
+            List<Integer> claimed = new ArrayList<>();
+            Map<String, Integer> claimedBy = new HashMap<>();
+            for ( int i = 0; i < uuids.size(); i++ ) {
+                Outcome outcome = recentOutcomes.getIfPresent( keys.get( i ) );
+                if ( outcome != null ) {
+                    LOGGER.info( "{} {} has already been processed", commandType, uuids.get( i ) );
+                    outcomes.set( i, outcome );
+                }
+                else if ( !claimedBy.containsKey( uuids.get( i ) ) ) { // otherwise a duplicate within this batch
+                    if ( claim( keys.get( i ), payloadHashes.get( i ) ) ) {
+                        claimed.add( i );
+                        claimedBy.put( uuids.get( i ), i );
+                    }
+                    else {
+                        outcomes.set( i, getOutcome( keys.get( i ) ) );
+                    }
+                }
+            }
+
+            List<ApiOperation<?>> executed = claimed.isEmpty() ? List.of() : command.execute( claimed );
+            for ( int j = 0; j < claimed.size(); j++ ) {
+                int i = claimed.get( j );
+                outcomes.set( i, saveOutcome( keys.get( i ), payloadHashes.get( i ), executed.get( j ) ) );
+                outcomeSaved.accept( i, executed.get( j ) );
+            }
+            List<ApiOperation<?>> results = new ArrayList<>( uuids.size() );
+            for ( int i = 0; i < uuids.size(); i++ ) {
+                if ( outcomes.get( i ) == null ) {
+                    outcomes.set( i, outcomes.get( claimedBy.get( uuids.get( i ) ) ) );
+                }
+                if ( outcomes.get( i ).isFor( payloadHashes.get( i ) ) ) {
+                    results.add( outcomes.get( i ).event() );
+                }
+                else {
+                    LOGGER.info( "{} {} has already been used by a different command", commandType, uuids.get( i ) );
+                    results.add( duplicateKey( keys.get( i ) ) );
+                    outcomeSaved.accept( i, results.get( i ) ); // this command hasn't had a reply yet
+                }
+            }
+            return results;
+        } );
+
+        for ( int i = 0; i < uuids.size(); i++ ) {
+            recentOutcomes.put( keys.get( i ), outcomes.get( i ) );
+        }
+        return events;
+    }
+
+    /**
+     * Removes the commands processed longer ago than the retention period.
+     */
+    @Scheduled( fixedDelayString = "${ledger.processor.idempotency.purge-interval.ms}" )
+    public void purge() {
+        int deleted = transactionOperations.execute( status ->
+                processedCommandRepository.deleteProcessedBefore( OffsetDateTime.now().minus( retention ) ) );
+        LOGGER.info( "Purged {} processed commands", deleted );
+    }
+
+    private boolean claim( ProcessedCommand.Key key, byte[] payloadHash ) {
+        return processedCommandRepository.claim( key.getCommandType().name(), key.getUuid(), payloadHash, OffsetDateTime.now() ) > 0;
+    }
+
+    private Outcome saveOutcome( ProcessedCommand.Key key, byte[] payloadHash, ApiOperation<?> event, Consumer<ApiOperation<?>> outcomeSaved ) {
+        Outcome outcome = saveOutcome( key, payloadHash, event );
+        outcomeSaved.accept( event );
+        return outcome;
+    }
+
+    private Outcome saveOutcome( ProcessedCommand.Key key, byte[] payloadHash, ApiOperation<?> event ) {
+        processedCommandRepository.saveOutcome( key.getCommandType(), key.getUuid(), codec.encode( event ) );
+        return new Outcome( payloadHash, event );
+    }
+
+    /**
+     * Returns the recorded outcome of a command that has already been processed. If that was a different command
+     * (reusing the same UUID), the given one fails as a duplicate key instead.
+     *
+     * @param key          the command
+     * @param payloadHash  hash of the command as received this time
+     * @param outcomeSaved called with the duplicate key failure if it was a different command
+     * @return the recorded outcome
+     */
+    private Outcome getOutcome( ProcessedCommand.Key key, byte[] payloadHash, Consumer<ApiOperation<?>> outcomeSaved ) {
+        Outcome outcome = getOutcome( key );
+        if ( !outcome.isFor( payloadHash ) ) {
+            LOGGER.info( "{} {} has already been used by a different command", key.getCommandType(), key.getUuid() );
+            outcomeSaved.accept( duplicateKey( key ) ); // this command hasn't had a reply yet
+        }
+        return outcome;
+    }
+
+    private Outcome getOutcome( ProcessedCommand.Key key ) {
+        LOGGER.info( "{} {} has already been processed", key.getCommandType(), key.getUuid() );
+        return processedCommandRepository.findByCommandTypeAndUuid( key.getCommandType(), key.getUuid() )
+                .filter( command -> command.getOutcome() != null )
+                .map( command -> new Outcome( command.getPayloadHash(), codec.decode( command.getOutcome() ) ) )
+                .orElseThrow( () -> new IllegalStateException( "No outcome recorded for " + key ) );
+    }
+
+    /**
+     * @param key a command reusing the UUID of a different command that has already been processed
+     * @return the failure event for the command
+     */
+    private static ApiOperation<?> duplicateKey( ProcessedCommand.Key key ) {
+        LedgerEventException failure = switch ( key.getCommandType() ) {
+            case CREATE_LEDGER -> new DuplicateKeyException( EventType.LEDGER_CREATION_FAILED, key.getUuid(),
+                    "Ledger already exists with this UUID" );
+            case CREATE_LEDGER_ACCOUNT -> new DuplicateKeyException( EventType.LEDGER_ACCOUNT_CREATION_FAILED, key.getUuid(),
+                    "Ledger account already exists with this UUID" );
+            default -> new DuplicateKeyException( EventType.LEDGER_TRANSACTION_CREATION_FAILED, key.getUuid(),
+                    "Ledger transaction already exists with this UUID" );
+        };
+        return failure.toFailedEvent();
+    }
+
+    /**
+     * @param payload a command as received
+     * @return SHA-256 hash of the command
+     */
+    private static byte[] hash( byte[] payload ) {
+        try {
+            return MessageDigest.getInstance( "SHA-256" ).digest( payload );
+        }
+        catch ( NoSuchAlgorithmException ex ) {
+            throw new IllegalStateException( ex ); // every JVM has SHA-256
+        }
+    }
+
+    /**
+     * The completion event of a processed command and the hash of the command it was for.
+     */
+    private record Outcome( byte[] payloadHash, ApiOperation<?> event ) {
+
+        /**
+         * @param payloadHash hash of a command as received
+         * @return true if this is the outcome of that same command
+         */
+        boolean isFor( byte[] payloadHash ) {
+            return Arrays.equals( this.payloadHash, payloadHash );
+        }
+    }
+
+    /**
+     * Carries a failed command out of the transaction so it's rolled back.
+     */
+    private static class CommandFailedException extends RuntimeException {
+        CommandFailedException( LedgerEventException cause ) {
+            super( cause );
+        }
+
+        @Override
+        public synchronized LedgerEventException getCause() {
+            return (LedgerEventException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package demo.ledger.service;
+
+import demo.ledger.model.dto.EventType;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionExecution;
+import org.springframework.transaction.TransactionExecutionListener;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers for each stage a command goes through in the event processor (see the ledger.api.* timers for the stages in
+ * the API). All are published as histograms so percentiles can be aggregated across instances.
+ * <ul>
+ *     <li>ledger.processor.queue.dwell - from the command being written to Kafka until we started processing it</li>
+ *     <li>ledger.processor.processing.time - processing a single command (including writing its completion event)</li>
+ *     <li>ledger.processor.batch.processing.time - processing a batch of CREATE_LEDGER_TRANSACTION commands (batch mode)</li>
+ *     <li>ledger.processor.db.commit.time - committing a database transaction (including flushing any outstanding changes)</li>
+ *     <li>ledger.processor.outbox.delay - from a completion event being written to the outbox until it was relayed</li>
+ * </ul>
+ * Queue dwell compares the record timestamp (set by the API) with our clock so is only as accurate as the clocks are
+ * in sync. Commit times are recorded for every transaction committed by the transaction manager (this is registered
+ * with it as a {@link TransactionExecutionListener}).
+ */
+@Component
+public class ProcessingMetrics implements TransactionExecutionListener {
+
+    private final Map<EventType, Timer> queueDwell = new EnumMap<>( EventType.class );
+    private final Map<EventType, Timer> processingTime = new EnumMap<>( EventType.class );
+    private final Timer batchProcessingTime;
+    private final Timer commitTime;
+    private final Timer outboxDelay;
+    private final ThreadLocal<Long> commitStartTime = new ThreadLocal<>();
+
+    public ProcessingMetrics( MeterRegistry meterRegistry ) {
+        for ( EventType eventType : EventType.values() ) {
+            queueDwell.put( eventType, Timer.builder( "ledger.processor.queue.dwell" )
+                    .description( "Time from a command being written to Kafka until it was picked up for processing" )
+                    .tag( "type", eventType.name() )
+                    .publishPercentileHistogram()
+                    .register( meterRegistry ) );
+            processingTime.put( eventType, Timer.builder( "ledger.processor.processing.time" )
+                    .description( "Time taken to process a command" )
+                    .tag( "type", eventType.name() )
+                    .publishPercentileHistogram()
+                    .register( meterRegistry ) );
+        }
+        batchProcessingTime = Timer.builder( "ledger.processor.batch.processing.time" )
+                .description( "Time taken to process a batch of commands" )
+                .publishPercentileHistogram()
+                .register( meterRegistry );
+        commitTime = Timer.builder( "ledger.processor.db.commit.time" )
+                .description( "Time taken to commit a database transaction" )
+                .publishPercentileHistogram()
+                .register( meterRegistry );
+        outboxDelay = Timer.builder( "ledger.processor.outbox.delay" )
+                .description( "Time from a completion event being written to the outbox until it was sent" )
+                .publishPercentileHistogram()
+                .register( meterRegistry );
+    }
+
+    /**
+     * @param eventType       command type
+     * @param recordTimestamp timestamp of the Kafka record (epoch millis)
+     */
+    public void recordQueueDwell( EventType eventType, long recordTimestamp ) {
+        queueDwell.get( eventType ).record( Math.max( 0, System.currentTimeMillis() - recordTimestamp ), TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * @param eventType command type
+     * @param startTime when processing started ({@link System#nanoTime()})
+     */
+    public void recordProcessingTime( EventType eventType, long startTime ) {
+        processingTime.get( eventType ).record( System.nanoTime() - startTime, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * @param startTime when processing of the batch started ({@link System#nanoTime()})
+     */
+    public void recordBatchProcessingTime( long startTime ) {
+        batchProcessingTime.record( System.nanoTime() - startTime, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * @param createdDate when the event was written to the outbox
+     */
+    public void recordOutboxDelay( OffsetDateTime createdDate ) {
+        outboxDelay.record( Duration.between( createdDate, OffsetDateTime.now() ) );
+    }
+
+    @Override
+    public void beforeCommit( TransactionExecution transaction ) {
+        commitStartTime.set( System.nanoTime() );
+    }
+
+    @Override
+    public void afterCommit( TransactionExecution transaction, Throwable commitFailure ) {
+        Long startTime = commitStartTime.get();
+        if ( startTime != null ) {
+            commitStartTime.remove();
+            commitTime.record( System.nanoTime() - startTime, TimeUnit.NANOSECONDS );
+        }
+    }
+}
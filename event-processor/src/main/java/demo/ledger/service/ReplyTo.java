@@ -0,0 +1,55 @@
+package demo.ledger.service;
+
+import demo.ledger.model.codec.LedgerEventHeaders;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.kafka.support.KafkaHeaders;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Where to send the completion event for a request. The API sets the reply topic/partition headers (the same ones
+ * used by {@code ReplyingKafkaTemplate}) so the reply goes straight back to the instance waiting on it.
+ * Requests without these headers are answered on the ledger-events topic.
+ * <p>
+ * The correlation ID and ingress timestamp of the request (if set) are copied onto the reply so the API can tell
+ * how long the round trip took.
+ */
+@Getter
+@AllArgsConstructor( access = AccessLevel.PRIVATE )
+public class ReplyTo {
+
+    public static final ReplyTo DEFAULT = new ReplyTo( null, null, null, null );
+
+    private final String topic;
+    private final Integer partition;
+    private final String correlationId;
+    private final Long ingressTimestamp;
+
+    public static ReplyTo of( byte[] replyTopic, byte[] replyPartition, byte[] correlationId, byte[] ingressTimestamp ) {
+        if ( replyTopic == null && correlationId == null && ingressTimestamp == null ) {
+            return DEFAULT;
+        }
+        return new ReplyTo( replyTopic == null ? null : new String( replyTopic, StandardCharsets.UTF_8 ),
+                replyPartition == null ? null : ByteBuffer.wrap( replyPartition ).getInt(),
+                LedgerEventHeaders.toString( correlationId ), LedgerEventHeaders.toLong( ingressTimestamp ) );
+    }
+
+    public static ReplyTo of( Headers headers ) {
+        return of( value( headers, KafkaHeaders.REPLY_TOPIC ), value( headers, KafkaHeaders.REPLY_PARTITION ),
+                value( headers, LedgerEventHeaders.CORRELATION_ID ), value( headers, LedgerEventHeaders.INGRESS_TIMESTAMP ) );
+    }
+
+    private static byte[] value( Headers headers, String name ) {
+        Header header = headers.lastHeader( name );
+        return header == null ? null : header.value();
+    }
+
+    public boolean isDefault() {
+        return topic == null;
+    }
+}
@@ -0,0 +1,175 @@
+package demo.ledger.service;
+
+import demo.ledger.model.AccountBalance;
+import demo.ledger.model.LedgerAccount;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigInteger;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountStateCacheTest {
+
+    private final AccountStateCache cache = new AccountStateCache( 100 );
+
+    @After
+    public void tearDown() {
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testPutAndGet() {
+        OffsetDateTime checkpointDate = OffsetDateTime.of( 2024, 6, 13, 23, 7, 22, 170380000, ZoneOffset.UTC );
+        LedgerAccount account = account( UUID.randomUUID().toString(), 7L );
+        cache.put( account, balance( 7L, 12345L, 678L, checkpointDate ) );
+
+        LedgerAccount cachedAccount = new LedgerAccount();
+        AccountBalance cachedBalance = new AccountBalance();
+        assertThat( cache.get( account.getUuid(), cachedAccount, cachedBalance ) ).isTrue();
+        assertThat( cachedAccount ).isEqualTo( account );
+        assertThat( cachedBalance.getLedgerAccountId() ).isEqualTo( 42L );
+        assertThat( cachedBalance.getLockVersion() ).isEqualTo( 7L );
+        assertThat( cachedBalance.getTotalCredits() ).isEqualTo( BigInteger.valueOf( 12345L ) );
+        assertThat( cachedBalance.getTotalDebits() ).isEqualTo( BigInteger.valueOf( 678L ) );
+        assertThat( cachedBalance.getEntriesSinceCheckpoint() ).isEqualTo( 3L );
+        assertThat( cachedBalance.getLastCheckpointDate() ).isEqualTo( checkpointDate );
+
+        cache.put( account, balance( 7L, 0L, 0L, null ) );
+        assertThat( cache.get( account.getUuid(), cachedAccount, cachedBalance ) ).isTrue();
+        assertThat( cachedBalance.getLastCheckpointDate() ).isNull();
+    }
+
+    @Test
+    public void testGetMissing() {
+        LedgerAccount account = new LedgerAccount();
+        assertThat( cache.get( UUID.randomUUID().toString(), account, new AccountBalance() ) ).isFalse();
+        assertThat( account.getId() ).isNull();
+    }
+
+    @Test
+    public void testNotHeldIfUuidOrTotalsDontFit() {
+        cache.put( account( "not-a-uuid", 1L ), balance( 1L, 0L, 0L, null ) );
+        assertThat( cache.get( "not-a-uuid", new LedgerAccount(), new AccountBalance() ) ).isFalse();
+
+        String uuid = UUID.randomUUID().toString();
+        cache.put( account( uuid, 1L ), balance( 1L, 0L, 0L, null ) );
+        AccountBalance huge = balance( 2L, 0L, 0L, null );
+        huge.setTotalCredits( BigInteger.valueOf( Long.MAX_VALUE ).add( BigInteger.ONE ) );
+        cache.put( account( uuid, 2L ), huge );
+        assertThat( cache.get( uuid, new LedgerAccount(), new AccountBalance() ) ).isFalse();
+    }
+
+    @Test
+    public void testRolledBackChangesAreEvicted() {
+        String committed = UUID.randomUUID().toString();
+        String rolledBack = UUID.randomUUID().toString();
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.put( account( committed, 1L ), balance( 1L, 0L, 0L, null ) );
+        complete( TransactionSynchronization.STATUS_COMMITTED );
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.put( account( committed, 2L ), balance( 2L, 0L, 0L, null ) );
+        cache.put( account( rolledBack, 1L ), balance( 1L, 0L, 0L, null ) );
+        complete( TransactionSynchronization.STATUS_ROLLED_BACK );
+
+        // re-read from the database next time
+        assertThat( cache.get( committed, new LedgerAccount(), new AccountBalance() ) ).isFalse();
+        assertThat( cache.get( rolledBack, new LedgerAccount(), new AccountBalance() ) ).isFalse();
+    }
+
+    @Test
+    public void testClearedOnRebalance() {
+        String uuid = UUID.randomUUID().toString();
+        cache.put( account( uuid, 1L ), balance( 1L, 0L, 0L, null ) );
+        cache.onPartitionsAssigned( null, List.of() );
+        assertThat( cache.get( uuid, new LedgerAccount(), new AccountBalance() ) ).isFalse();
+    }
+
+    @Test
+    public void testDisabled() {
+        AccountStateCache disabled = new AccountStateCache( 0 );
+        String uuid = UUID.randomUUID().toString();
+        disabled.put( account( uuid, 1L ), balance( 1L, 0L, 0L, null ) );
+        assertThat( disabled.get( uuid, new LedgerAccount(), new AccountBalance() ) ).isFalse();
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        // random puts and removes (including wrap-around and removal from the middle of a run of collisions)
+        AccountStateMap accounts = new AccountStateMap( 64 );
+        Map<String, Long> expected = new HashMap<>();
+        List<String> uuids = new ArrayList<>();
+        for ( int i = 0; i < 48; i++ ) {
+            uuids.add( UUID.randomUUID().toString() );
+        }
+        Random random = new Random( 1 );
+        for ( int i = 0; i < 20000; i++ ) {
+            String uuid = uuids.get( random.nextInt( uuids.size() ) );
+            if ( random.nextInt( 3 ) == 0 ) {
+                accounts.remove( uuid );
+                expected.remove( uuid );
+            }
+            else {
+                long lockVersion = random.nextInt( 1000 );
+                assertThat( accounts.put( account( uuid, lockVersion ), balance( lockVersion, 0L, 0L, null ) ) ).isTrue();
+                expected.put( uuid, lockVersion );
+            }
+            assertThat( accounts.size() ).isEqualTo( expected.size() );
+        }
+        for ( String uuid : uuids ) {
+            LedgerAccount account = new LedgerAccount();
+            assertThat( accounts.get( uuid, account, new AccountBalance() ) ).isEqualTo( expected.containsKey( uuid ) );
+            assertThat( account.getLockVersion() ).isEqualTo( expected.get( uuid ) );
+        }
+    }
+
+    @Test
+    public void testClearedWhenFull() {
+        AccountStateMap accounts = new AccountStateMap( 2 );
+        accounts.put( account( UUID.randomUUID().toString(), 1L ), balance( 1L, 0L, 0L, null ) );
+        accounts.put( account( UUID.randomUUID().toString(), 1L ), balance( 1L, 0L, 0L, null ) );
+        String last = UUID.randomUUID().toString();
+        accounts.put( account( last, 1L ), balance( 1L, 0L, 0L, null ) );
+        assertThat( accounts.size() ).isEqualTo( 1 );
+        assertThat( accounts.get( last, new LedgerAccount(), new AccountBalance() ) ).isTrue();
+    }
+
+    private static void complete( int status ) {
+        TransactionSynchronizationManager.getSynchronizations().forEach( sync -> sync.afterCompletion( status ) );
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    private static LedgerAccount account( String uuid, long lockVersion ) {
+        return LedgerAccount.builder()
+                .id( 42L )
+                .uuid( uuid )
+                .lockVersion( lockVersion )
+                .currency( "USD" )
+                .build();
+    }
+
+    private static AccountBalance balance( long lockVersion, long totalCredits, long totalDebits, OffsetDateTime lastCheckpointDate ) {
+        return AccountBalance.builder()
+                .ledgerAccountId( 42L )
+                .lockVersion( lockVersion )
+                .totalCredits( BigInteger.valueOf( totalCredits ) )
+                .totalDebits( BigInteger.valueOf( totalDebits ) )
+                .entriesSinceCheckpoint( 3L )
+                .lastCheckpointDate( lastCheckpointDate )
+                .build();
+    }
+}
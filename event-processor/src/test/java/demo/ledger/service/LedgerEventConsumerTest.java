@@ -5,40 +5,81 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import demo.ledger.config.OffsetDateTimeConverter;
 import demo.ledger.model.Ledger;
+import demo.ledger.model.LedgerAccount;
+import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.ProcessedCommand;
+import demo.ledger.model.codec.LedgerEventCodec;
+import demo.ledger.model.codec.LedgerEventHeaders;
+import demo.ledger.model.dto.ApiOperation;
 import demo.ledger.model.dto.EventType;
+import demo.ledger.model.dto.FailedResponse;
+import demo.ledger.repository.ProcessedCommandRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Bean;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionOperations;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.time.OffsetDateTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import static demo.ledger.config.KafkaProducerConfig.FAILED_PROCESSING_TOPIC;
 import static demo.ledger.config.KafkaProducerConfig.LEDGER_EVENTS_TOPIC;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith( SpringRunner.class )
+@DirtiesContext( classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD ) // new (empty) cache of processed commands for each test
 public class LedgerEventConsumerTest {
 
     @TestConfiguration
     static class TestContextConfiguration {
         @Bean
-        public LedgerEventConsumer getLedgerEventConsumer( LedgerService ledgerService, Gson gson, KafkaTemplate<String, String> kafkaTemplate ) {
-            return new LedgerEventConsumer( ledgerService, gson, kafkaTemplate );
+        public LedgerEventConsumer getLedgerEventConsumer( LedgerService ledgerService, ProcessedCommandService processedCommandService,
+                                                           OutboxService outboxService, Gson gson, KafkaTemplate<String, byte[]> kafkaTemplate,
+                                                           LedgerEventCodec codec ) {
+            return new LedgerEventConsumer( ledgerService, processedCommandService, outboxService, gson, kafkaTemplate, codec,
+                    new ProcessingMetrics( new SimpleMeterRegistry() ), false );
+        }
+
+        @Bean
+        public ProcessedCommandService getProcessedCommandService( ProcessedCommandRepository processedCommandRepository, LedgerEventCodec codec ) {
+            return new ProcessedCommandService( processedCommandRepository, TransactionOperations.withoutTransaction(), codec, 100, 60 );
+        }
+
+        @Bean
+        public LedgerEventCodec getLedgerEventCodec( Gson gson ) {
+            return new LedgerEventCodec( gson );
         }
 
         @Bean
@@ -56,19 +97,38 @@ public class LedgerEventConsumerTest {
     @Autowired
     private Gson gson;
 
+    @Autowired
+    private LedgerEventCodec codec;
+
+    @Autowired
+    private ProcessedCommandService processedCommandService;
+
     @MockBean
     private LedgerService ledgerService;
 
     @MockBean
-    private KafkaTemplate<String, String> kafkaTemplate;
+    private ProcessedCommandRepository processedCommandRepository;
+
+    @MockBean
+    private OutboxService outboxService;
+
+    @MockBean
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
 
     @MockBean
-    private CompletableFuture<SendResult<String, String>> sendResult;
+    private CompletableFuture<SendResult<String, byte[]>> sendResult;
 
     @Captor
-    private ArgumentCaptor<String> stringCaptor;
+    private ArgumentCaptor<ProducerRecord<String, byte[]>> recordCaptor;
+
+    @Captor
+    private ArgumentCaptor<byte[]> bytesCaptor;
+
+    @Captor
+    private ArgumentCaptor<List<LedgerTransaction>> txnsCaptor;
 
     private static final String UUID = "a1d968c1-86fc-4864-a146-f7f8e601fa3f";
+    private static final String CORRELATION_ID = "0b8d5b1e-7f3a-4c1e-9a2d-5e6f7a8b9c0d";
     private static final String LEDGER_NAME = "My first ledger";
     private static final String LEDGER_DESCRIPTION = "Some dodgy transactions";
 
@@ -81,11 +141,28 @@ public class LedgerEventConsumerTest {
                         .description( LEDGER_DESCRIPTION )
                         .build() );
 
-        when( kafkaTemplate.send( anyString(), anyString() ) ).thenReturn( sendResult );
+        when( kafkaTemplate.send( any( ProducerRecord.class ) ) ).thenReturn( sendResult );
+        when( processedCommandRepository.claim( anyString(), anyString(), any( byte[].class ), any( OffsetDateTime.class ) ) ).thenReturn( 1 );
     }
 
     @Test
     public void testConsumeLedgerOperationSuccessful() {
+        ledgerEventConsumer.consumeLedgerOperation( codec.encode( createLedgerEvent() ), "test-topic", 0, 0, System.currentTimeMillis(),
+                null, null, LedgerEventHeaders.toBytes( EventType.CREATE_LEDGER ), null, null );
+
+        verify( ledgerService ).createLedger( UUID, LEDGER_NAME, LEDGER_DESCRIPTION );
+        verify( kafkaTemplate ).send( recordCaptor.capture() );
+        ProducerRecord<String, byte[]> record = recordCaptor.getValue();
+        assertThat( record.topic() ).isEqualTo( LEDGER_EVENTS_TOPIC );
+        assertThat( record.partition() ).isNull();
+        assertThat( record.headers().lastHeader( LedgerEventHeaders.EVENT_TYPE ).value() ).asString( StandardCharsets.UTF_8 )
+                .isEqualTo( EventType.LEDGER_CREATED.name() );
+        assertThat( record.headers().lastHeader( LedgerEventHeaders.UUID ).value() ).asString( StandardCharsets.UTF_8 ).isEqualTo( UUID );
+        assertLedgerCreatedEvent( record.value() );
+    }
+
+    @Test
+    public void testConsumeLedgerOperationAcceptsJson() {
         JsonObject event = new JsonObject();
         event.addProperty( "eventType", EventType.CREATE_LEDGER.name() );
         JsonObject data = new JsonObject();
@@ -93,31 +170,185 @@ public class LedgerEventConsumerTest {
         data.addProperty( "name", LEDGER_NAME );
         data.addProperty( "description", LEDGER_DESCRIPTION );
         event.add( "data", data );
-        ledgerEventConsumer.consumeLedgerOperation( gson.toJson( event ), "test-topic", 0, 0, System.currentTimeMillis() );
+        ledgerEventConsumer.consumeLedgerOperation( gson.toJson( event ).getBytes( StandardCharsets.UTF_8 ), "test-topic", 0, 0,
+                System.currentTimeMillis(), null, null, null, null, null );
 
         verify( ledgerService ).createLedger( UUID, LEDGER_NAME, LEDGER_DESCRIPTION );
-        verify( kafkaTemplate ).send( eq( LEDGER_EVENTS_TOPIC ), stringCaptor.capture() );
+        verify( kafkaTemplate ).send( recordCaptor.capture() );
+        assertThat( recordCaptor.getValue().topic() ).isEqualTo( LEDGER_EVENTS_TOPIC );
+        assertLedgerCreatedEvent( recordCaptor.getValue().value() );
+    }
+
+    @Test
+    public void testConsumeLedgerOperationRepliesToRequestingInstance() {
+        ledgerEventConsumer.consumeLedgerOperation( codec.encode( createLedgerEvent() ), "test-topic", 0, 0, System.currentTimeMillis(),
+                "ledger-replies".getBytes( StandardCharsets.UTF_8 ), ByteBuffer.allocate( Integer.BYTES ).putInt( 3 ).array(),
+                LedgerEventHeaders.toBytes( EventType.CREATE_LEDGER ), LedgerEventHeaders.toBytes( CORRELATION_ID ),
+                LedgerEventHeaders.toBytes( 1717902931964L ) );
+
+        verify( kafkaTemplate ).send( recordCaptor.capture() );
+        ProducerRecord<String, byte[]> record = recordCaptor.getValue();
+        assertThat( record.topic() ).isEqualTo( "ledger-replies" );
+        assertThat( record.partition() ).isEqualTo( 3 );
+        // the tracing headers are copied onto the reply
+        assertThat( LedgerEventHeaders.toString( record.headers().lastHeader( LedgerEventHeaders.CORRELATION_ID ).value() ) )
+                .isEqualTo( CORRELATION_ID );
+        assertThat( LedgerEventHeaders.toLong( record.headers().lastHeader( LedgerEventHeaders.INGRESS_TIMESTAMP ).value() ) )
+                .isEqualTo( 1717902931964L );
+        assertLedgerCreatedEvent( record.value() );
+    }
+
+    @Test
+    public void testConsumeLedgerOperationWithOutboxWritesCompletionEventToOutbox() {
+        LedgerEventConsumer outboxConsumer = new LedgerEventConsumer( ledgerService, processedCommandService, outboxService, gson,
+                kafkaTemplate, codec, new ProcessingMetrics( new SimpleMeterRegistry() ), true );
+        byte[] event = codec.encode( createLedgerEvent() );
+        outboxConsumer.consumeLedgerOperation( event, "test-topic", 0, 0, System.currentTimeMillis(), null, null, null, null, null );
+        outboxConsumer.consumeLedgerOperation( event, "test-topic", 0, 1, System.currentTimeMillis(), null, null, null, null, null );
+
+        // queued once (not again on redelivery) and not sent directly
+        verify( ledgerService, times( 1 ) ).createLedger( UUID, LEDGER_NAME, LEDGER_DESCRIPTION );
+        verify( outboxService, times( 1 ) ).add( recordCaptor.capture() );
+        assertThat( recordCaptor.getValue().topic() ).isEqualTo( LEDGER_EVENTS_TOPIC );
+        assertLedgerCreatedEvent( recordCaptor.getValue().value() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
+    }
+
+    @Test
+    public void testConsumeLedgerOperationRedeliveredReturnsOriginalOutcome() {
+        byte[] event = codec.encode( createLedgerEvent() );
+        ledgerEventConsumer.consumeLedgerOperation( event, "test-topic", 0, 0, System.currentTimeMillis(), null, null, null, null, null );
+        ledgerEventConsumer.consumeLedgerOperation( event, "test-topic", 0, 1, System.currentTimeMillis(), null, null, null, null, null );
+
+        verify( ledgerService, times( 1 ) ).createLedger( UUID, LEDGER_NAME, LEDGER_DESCRIPTION );
+        verify( processedCommandRepository, times( 1 ) ).claim( eq( EventType.CREATE_LEDGER.name() ), eq( UUID ), any( byte[].class ), any( OffsetDateTime.class ) );
+        verify( processedCommandRepository ).saveOutcome( eq( EventType.CREATE_LEDGER ), eq( UUID ), bytesCaptor.capture() );
+        assertLedgerCreatedEvent( bytesCaptor.getValue() );
+        verify( kafkaTemplate, times( 2 ) ).send( recordCaptor.capture() );
+        recordCaptor.getAllValues().forEach( record -> assertLedgerCreatedEvent( record.value() ) );
+    }
+
+    @Test
+    public void testConsumeLedgerOperationAlreadyProcessedElsewhereReturnsRecordedOutcome() throws Exception {
+        byte[] event = codec.encode( createLedgerEvent() );
+        byte[] outcome = codec.encode( new ApiOperation<Ledger>()
+                .withEventType( EventType.LEDGER_CREATED )
+                .withData( Ledger.builder().id( 42L ).uuid( UUID ).name( LEDGER_NAME ).build() ) );
+        when( processedCommandRepository.claim( anyString(), anyString(), any( byte[].class ), any( OffsetDateTime.class ) ) ).thenReturn( 0 );
+        when( processedCommandRepository.findByCommandTypeAndUuid( EventType.CREATE_LEDGER, UUID ) )
+                .thenReturn( Optional.of( processedCommand( event, outcome ) ) );
+
+        ledgerEventConsumer.consumeLedgerOperation( event, "test-topic", 0, 0, System.currentTimeMillis(), null, null, null, null, null );
+
+        verify( ledgerService, never() ).createLedger( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate ).send( recordCaptor.capture() );
+        assertThat( recordCaptor.getValue().value() ).isEqualTo( outcome );
+    }
+
+    @Test
+    public void testConsumeLedgerOperationReusingUuidFailsAsDuplicateKey() throws Exception {
+        byte[] event = codec.encode( createLedgerEvent() );
+        ledgerEventConsumer.consumeLedgerOperation( event, "test-topic", 0, 0, System.currentTimeMillis(), null, null, null, null, null );
+        verify( processedCommandRepository ).saveOutcome( eq( EventType.CREATE_LEDGER ), eq( UUID ), bytesCaptor.capture() );
+        when( processedCommandRepository.claim( anyString(), anyString(), any( byte[].class ), any( OffsetDateTime.class ) ) ).thenReturn( 0 );
+        when( processedCommandRepository.findByCommandTypeAndUuid( EventType.CREATE_LEDGER, UUID ) )
+                .thenReturn( Optional.of( processedCommand( event, bytesCaptor.getValue() ) ) );
+
+        // a different ledger with the same UUID
+        ledgerEventConsumer.consumeLedgerOperation( codec.encode( new ApiOperation<Ledger>()
+                        .withEventType( EventType.CREATE_LEDGER )
+                        .withData( Ledger.builder().uuid( UUID ).name( "Another ledger" ).description( LEDGER_DESCRIPTION ).build() ) ),
+                "test-topic", 0, 1, System.currentTimeMillis(), null, null, null, null, null );
+
+        verify( ledgerService, times( 1 ) ).createLedger( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate, times( 2 ) ).send( recordCaptor.capture() );
+        assertLedgerCreatedEvent( recordCaptor.getAllValues().get( 0 ).value() );
+        ApiOperation<?> reply = codec.decode( recordCaptor.getAllValues().get( 1 ).value() );
+        assertThat( reply.getEventType() ).isEqualTo( EventType.LEDGER_CREATION_FAILED );
+        assertThat( reply.getData() ).isEqualTo( new FailedResponse( UUID, "Ledger already exists with this UUID" ) );
+
+        // the same ledger again still gets the original outcome
+        ledgerEventConsumer.consumeLedgerOperation( event, "test-topic", 0, 2, System.currentTimeMillis(), null, null, null, null, null );
+        verify( kafkaTemplate, times( 3 ) ).send( recordCaptor.capture() );
+        assertLedgerCreatedEvent( recordCaptor.getValue().value() );
+    }
+
+    @Test
+    public void testConsumeLedgerOperationWithOutboxReusingUuidWritesFailureToOutbox() throws Exception {
+        LedgerEventConsumer outboxConsumer = new LedgerEventConsumer( ledgerService, processedCommandService, outboxService, gson,
+                kafkaTemplate, codec, new ProcessingMetrics( new SimpleMeterRegistry() ), true );
+        when( processedCommandRepository.claim( anyString(), anyString(), any( byte[].class ), any( OffsetDateTime.class ) ) ).thenReturn( 0 );
+        when( processedCommandRepository.findByCommandTypeAndUuid( EventType.CREATE_LEDGER, UUID ) )
+                .thenReturn( Optional.of( processedCommand( "some other ledger".getBytes( StandardCharsets.UTF_8 ),
+                        codec.encode( new ApiOperation<Ledger>()
+                                .withEventType( EventType.LEDGER_CREATED )
+                                .withData( Ledger.builder().id( 42L ).uuid( UUID ).build() ) ) ) ) );
+
+        outboxConsumer.consumeLedgerOperation( codec.encode( createLedgerEvent() ), "test-topic", 0, 0, System.currentTimeMillis(),
+                null, null, null, null, null );
+
+        verify( ledgerService, never() ).createLedger( anyString(), anyString(), anyString() );
+        verify( outboxService ).add( recordCaptor.capture() );
+        ApiOperation<?> reply = codec.decode( recordCaptor.getValue().value() );
+        assertThat( reply.getEventType() ).isEqualTo( EventType.LEDGER_CREATION_FAILED );
+        assertThat( reply.getData() ).isEqualTo( new FailedResponse( UUID, "Ledger already exists with this UUID" ) );
+    }
+
+    @Test
+    public void testConsumeLedgerOperationDuplicateUuidIsRecordedAsFailure() {
+        when( ledgerService.createLedger( UUID, LEDGER_NAME, LEDGER_DESCRIPTION ) ).thenThrow( new DataIntegrityViolationException( "duplicate key" ) );
+
+        ledgerEventConsumer.consumeLedgerOperation( codec.encode( createLedgerEvent() ), "test-topic", 0, 0, System.currentTimeMillis(),
+                null, null, null, null, null );
+
+        // claimed again after the failed attempt is rolled back
+        verify( processedCommandRepository, times( 2 ) ).claim( eq( EventType.CREATE_LEDGER.name() ), eq( UUID ), any( byte[].class ), any( OffsetDateTime.class ) );
+        verify( processedCommandRepository ).saveOutcome( eq( EventType.CREATE_LEDGER ), eq( UUID ), any( byte[].class ) );
+        verify( kafkaTemplate ).send( recordCaptor.capture() );
+        ApiOperation<?> reply = codec.decode( recordCaptor.getValue().value() );
+        assertThat( reply.getEventType() ).isEqualTo( EventType.LEDGER_CREATION_FAILED );
+        assertThat( reply.getData() ).isEqualTo( new FailedResponse( UUID, "Ledger already exists with this UUID" ) );
+    }
+
+    @Test
+    public void testPurgeRemovesProcessedCommandsOlderThanRetention() {
+        OffsetDateTime before = OffsetDateTime.now().minusMinutes( 60 );
+        processedCommandService.purge();
 
-        event.addProperty( "eventType", EventType.LEDGER_CREATED.name() );
-        assertThat( stringCaptor.getValue() ).isEqualTo( gson.toJson( event ) );
+        ArgumentCaptor<OffsetDateTime> processedBefore = ArgumentCaptor.forClass( OffsetDateTime.class );
+        verify( processedCommandRepository ).deleteProcessedBefore( processedBefore.capture() );
+        assertThat( processedBefore.getValue() ).isBetween( before, OffsetDateTime.now().minusMinutes( 60 ) );
     }
 
     @Test
     public void testConsumeLedgerOperationWithUnsupportedEventType() {
         JsonObject event = new JsonObject();
         event.addProperty( "eventType", "FOO-EVENT" );
-        ledgerEventConsumer.consumeLedgerOperation( gson.toJson( event ), "test-topic", 0, 0, System.currentTimeMillis() );
+        ledgerEventConsumer.consumeLedgerOperation( gson.toJson( event ).getBytes( StandardCharsets.UTF_8 ), "test-topic", 0, 0,
+                System.currentTimeMillis(), null, null, null, null, null );
 
         verify( ledgerService, never() ).createLedger( anyString(), anyString(), anyString() );
-        verify( kafkaTemplate, never() ).send( anyString(), anyString() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
+    }
+
+    @Test
+    public void testConsumeLedgerOperationSkipsUnhandledEventTypeWithoutDecoding() {
+        // a LEDGER_CREATED event sent back on ledger-events; the payload would fail to decode if it was looked at
+        ledgerEventConsumer.consumeLedgerOperation( "not a ledger event".getBytes( StandardCharsets.UTF_8 ), "test-topic", 0, 0,
+                System.currentTimeMillis(), null, null, LedgerEventHeaders.toBytes( EventType.LEDGER_CREATED ), null, null );
+
+        verify( ledgerService, never() ).createLedger( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
     }
 
     @Test
     public void testConsumeLedgerOperationFailureWithInvalidJson() {
-        ledgerEventConsumer.consumeLedgerOperation( "not a JSON string", "test-topic", 1, 2, 1717902931964L );
+        ledgerEventConsumer.consumeLedgerOperation( "not a JSON string".getBytes( StandardCharsets.UTF_8 ), "test-topic", 1, 2,
+                1717902931964L, null, null, null, null, null );
 
-        verify( kafkaTemplate ).send( eq( FAILED_PROCESSING_TOPIC ), stringCaptor.capture() );
-        JsonObject response = gson.fromJson( stringCaptor.getValue(), JsonObject.class );
+        verify( kafkaTemplate ).send( recordCaptor.capture() );
+        assertThat( recordCaptor.getValue().topic() ).isEqualTo( FAILED_PROCESSING_TOPIC );
+        JsonObject response = gson.fromJson( new String( recordCaptor.getValue().value(), StandardCharsets.UTF_8 ), JsonObject.class );
 
         assertThat( response.get( "topic" ).getAsString() ).isEqualTo( "test-topic" );
         assertThat( response.get( "partition" ).getAsInt() ).isEqualTo( 1 );
@@ -127,4 +358,146 @@ public class LedgerEventConsumerTest {
         assertThat( response.get( "error" ).getAsString() ).asString().startsWith( "Expected a com.google.gson.JsonObject but was com.google.gson.JsonPrimitive;" );
         assertThat( response.get( "stacktrace" ).getAsString() ).asString().startsWith( "com.google.gson.JsonSyntaxException: Expected a com.google.gson.JsonObject but was com.google.gson.JsonPrimitive;" );
     }
+
+    @Test
+    public void testConsumeLedgerOperationFailureWithUnsupportedVersion() {
+        byte[] event = codec.encode( createLedgerEvent() );
+        event[1] = LedgerEventCodec.VERSION + 1;
+        ledgerEventConsumer.consumeLedgerOperation( event, "test-topic", 1, 2, 1717902931964L, null, null,
+                LedgerEventHeaders.toBytes( EventType.CREATE_LEDGER ), null, null );
+
+        verify( ledgerService, never() ).createLedger( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate ).send( recordCaptor.capture() );
+        assertThat( recordCaptor.getValue().topic() ).isEqualTo( FAILED_PROCESSING_TOPIC );
+        JsonObject response = gson.fromJson( new String( recordCaptor.getValue().value(), StandardCharsets.UTF_8 ), JsonObject.class );
+        assertThat( Base64.getDecoder().decode( response.get( "input" ).getAsString() ) ).isEqualTo( event );
+        assertThat( response.get( "error" ).getAsString() ).isEqualTo( "Unsupported ledger event version 2" );
+    }
+
+    @Test
+    public void testConsumeLedgerOperationsBatchesLedgerTransactions() throws Exception {
+        when( ledgerService.createLedgerTransactions( anyList() ) ).thenAnswer( inv -> {
+            List<LedgerTransaction> txns = inv.getArgument( 0 );
+            return txns.stream().map( txn -> LedgerTransactionResult.created( LedgerTransaction.builder()
+                    .id( 1L )
+                    .uuid( txn.getUuid() )
+                    .description( txn.getDescription() )
+                    .ledgerEntries( List.of() )
+                    .build() ) ).toList();
+        } );
+
+        ledgerEventConsumer.consumeLedgerOperations( List.of(
+                createLedgerTransactionRecord( 0, "txn-1" ),
+                createLedgerTransactionRecord( 1, "txn-2" ),
+                createLedgerRecord( 2 ),
+                createLedgerCreatedRecord( 3 ),
+                createLedgerTransactionRecord( 4, "txn-3" ) ) );
+
+        // the CREATE_LEDGER event splits the batch so ordering is preserved; the LEDGER_CREATED event is skipped
+        InOrder inOrder = inOrder( ledgerService );
+        inOrder.verify( ledgerService ).createLedgerTransactions( txnsCaptor.capture() );
+        inOrder.verify( ledgerService ).createLedger( UUID, LEDGER_NAME, LEDGER_DESCRIPTION );
+        inOrder.verify( ledgerService ).createLedgerTransactions( txnsCaptor.capture() );
+        assertThat( txnsCaptor.getAllValues().get( 0 ) ).extracting( LedgerTransaction::getUuid ).containsExactly( "txn-1", "txn-2" );
+        assertThat( txnsCaptor.getAllValues().get( 1 ) ).extracting( LedgerTransaction::getUuid ).containsExactly( "txn-3" );
+
+        verify( ledgerService, never() ).createLedgerTransaction( any( LedgerTransaction.class ) );
+        verify( kafkaTemplate, times( 4 ) ).send( recordCaptor.capture() );
+        assertThat( recordCaptor.getAllValues() ).extracting( ProducerRecord::topic ).containsOnly( LEDGER_EVENTS_TOPIC );
+        verify( kafkaTemplate, times( 2 ) ).flush();
+    }
+
+    @Test
+    public void testConsumeLedgerOperationsFallsBackToSingleRecordOnBatchFailure() throws Exception {
+        when( ledgerService.createLedgerTransactions( anyList() ) ).thenThrow( new IllegalStateException( "deadlock detected" ) );
+        when( ledgerService.createLedgerTransaction( any( LedgerTransaction.class ) ) ).thenReturn( LedgerTransaction.builder()
+                .id( 1L )
+                .uuid( "txn" )
+                .description( "test" )
+                .ledgerEntries( List.of() )
+                .build() );
+
+        ledgerEventConsumer.consumeLedgerOperations( List.of(
+                createLedgerTransactionRecord( 0, "txn-1" ),
+                createLedgerTransactionRecord( 1, "txn-2" ) ) );
+
+        verify( ledgerService ).createLedgerTransaction( argThat( ( LedgerTransaction txn ) -> "txn-1".equals( txn.getUuid() ) ) );
+        verify( ledgerService ).createLedgerTransaction( argThat( ( LedgerTransaction txn ) -> "txn-2".equals( txn.getUuid() ) ) );
+        verify( kafkaTemplate, times( 2 ) ).send( any( ProducerRecord.class ) );
+    }
+
+    @Test
+    public void testConsumeLedgerOperationRetriesWhenAccountStateIsStale() throws Exception {
+        when( ledgerService.createLedgerTransaction( any( LedgerTransaction.class ) ) )
+                .thenThrow( new ObjectOptimisticLockingFailureException( LedgerAccount.class, 1L ) )
+                .thenReturn( LedgerTransaction.builder()
+                        .id( 1L )
+                        .uuid( "txn-1" )
+                        .description( "test" )
+                        .ledgerEntries( List.of() )
+                        .build() );
+
+        ledgerEventConsumer.consumeLedgerOperation( createLedgerTransactionRecord( 0, "txn-1" ).value(), "ledger-events", 0, 0,
+                System.currentTimeMillis(), null, null, LedgerEventHeaders.toBytes( EventType.CREATE_LEDGER_TRANSACTION ), null, null );
+
+        verify( ledgerService, times( 2 ) ).createLedgerTransaction( any( LedgerTransaction.class ) );
+        verify( kafkaTemplate ).send( recordCaptor.capture() );
+        assertThat( recordCaptor.getValue().topic() ).isEqualTo( LEDGER_EVENTS_TOPIC );
+        assertThat( codec.decode( recordCaptor.getValue().value() ).getEventType() ).isEqualTo( EventType.LEDGER_TRANSACTION_CREATED );
+    }
+
+    private ApiOperation<Ledger> createLedgerEvent() {
+        return new ApiOperation<Ledger>()
+                .withEventType( EventType.CREATE_LEDGER )
+                .withData( Ledger.builder()
+                        .uuid( UUID )
+                        .name( LEDGER_NAME )
+                        .description( LEDGER_DESCRIPTION )
+                        .build() );
+    }
+
+    private static ProcessedCommand processedCommand( byte[] event, byte[] outcome ) throws Exception {
+        return ProcessedCommand.builder()
+                .commandType( EventType.CREATE_LEDGER )
+                .uuid( UUID )
+                .payloadHash( MessageDigest.getInstance( "SHA-256" ).digest( event ) )
+                .outcome( outcome )
+                .build();
+    }
+
+    private void assertLedgerCreatedEvent( byte[] payload ) {
+        ApiOperation<?> event = codec.decode( payload );
+        assertThat( event.getEventType() ).isEqualTo( EventType.LEDGER_CREATED );
+        assertThat( event.getData() ).isEqualTo( Ledger.builder()
+                .uuid( UUID )
+                .name( LEDGER_NAME )
+                .description( LEDGER_DESCRIPTION )
+                .build() );
+    }
+
+    private ConsumerRecord<String, byte[]> createLedgerRecord( long offset ) {
+        return createRecord( offset, createLedgerEvent() );
+    }
+
+    private ConsumerRecord<String, byte[]> createLedgerCreatedRecord( long offset ) {
+        return createRecord( offset, new ApiOperation<Ledger>()
+                .withEventType( EventType.LEDGER_CREATED )
+                .withData( Ledger.builder().uuid( UUID ).build() ) );
+    }
+
+    private ConsumerRecord<String, byte[]> createLedgerTransactionRecord( long offset, String uuid ) {
+        return createRecord( offset, new ApiOperation<LedgerTransaction>()
+                .withEventType( EventType.CREATE_LEDGER_TRANSACTION )
+                .withData( LedgerTransaction.builder()
+                        .uuid( uuid )
+                        .description( "test" )
+                        .ledgerEntries( List.of() )
+                        .build() ) );
+    }
+
+    private ConsumerRecord<String, byte[]> createRecord( long offset, ApiOperation<?> event ) {
+        ConsumerRecord<String, byte[]> rec = new ConsumerRecord<>( "ledger-events", 0, offset, "USERID", codec.encode( event ) );
+        rec.headers().add( LedgerEventHeaders.EVENT_TYPE, LedgerEventHeaders.toBytes( event.getEventType() ) );
+        return rec;
+    }
 }
@@ -1,11 +1,15 @@
 package demo.ledger.service;
 
+import demo.ledger.model.AccountBalance;
+import demo.ledger.model.AccountBalanceCheckpoint;
 import demo.ledger.model.Ledger;
 import demo.ledger.model.LedgerAccount;
 import demo.ledger.model.LedgerEntry;
 import demo.ledger.model.LedgerTransaction;
 import demo.ledger.model.LedgerTransactionDirection;
 import demo.ledger.model.exception.NotFoundException;
+import demo.ledger.repository.AccountBalanceCheckpointRepository;
+import demo.ledger.repository.LedgerEntryRepository;
 import demo.ledger.repository.LedgerTransactionRepository;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -14,6 +18,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -23,14 +28,15 @@ import org.springframework.transaction.annotation.Transactional;
 import java.math.BigInteger;
 import java.time.OffsetDateTime;
 import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 
 @RunWith( SpringRunner.class )
-@ContextConfiguration( classes = {JpaTestConfiguration.class, LedgerService.class} )
-@DataJpaTest
+@ContextConfiguration( classes = {JpaTestConfiguration.class, LedgerService.class, AccountStateCache.class} )
+@DataJpaTest( properties = "ledger.balance.checkpoint.entries=2" )
 @Transactional( propagation = Propagation.NOT_SUPPORTED ) // disable rollback so you can query the db after the test
 @ActiveProfiles( value = "test" )
 @AutoConfigureTestDatabase( replace = AutoConfigureTestDatabase.Replace.NONE )
@@ -44,6 +50,15 @@ public class LedgerServiceIntegrationTest {
     @Autowired
     private LedgerTransactionRepository transactionRepository;
 
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private LedgerEntryRepository ledgerEntryRepository;
+
+    @Autowired
+    private AccountBalanceCheckpointRepository checkpointRepository;
+
     @Test
     public void testCreateLedger() throws Exception {
         Ledger originalLedger = ledgerService.createLedger( UUID.randomUUID().toString(), "My first ledger", "A bunch of accounts" );
@@ -68,8 +83,10 @@ public class LedgerServiceIntegrationTest {
         LedgerAccount acctBob = ledgerService.createLedgerAccount( ledgerBob, UUID.randomUUID().toString(), "Bob's checking account", "Bob's everyday transactions", "USD" );
         LedgerAccount acctAnn = ledgerService.createLedgerAccount( ledgerAnn, UUID.randomUUID().toString(), "Ann's checking account", "Ann's everyday transactions", "USD" );
 
-        LedgerTransaction txn = ledgerService.createLedgerTransaction( UUID.randomUUID().toString(),
-                "Transferring $50 from Bob to Ann", Arrays.asList(
+        LedgerTransaction txn = ledgerService.createLedgerTransaction( LedgerTransaction.builder()
+                .uuid( UUID.randomUUID().toString() )
+                .description( "Transferring $50 from Bob to Ann" )
+                .ledgerEntries( Arrays.asList(
                         LedgerEntry.builder()
                                 .ledgerAccount( acctBob )
                                 .amount( new BigInteger( "5000" ) )
@@ -82,7 +99,8 @@ public class LedgerServiceIntegrationTest {
                                 .direction( LedgerTransactionDirection.credit )
                                 .createdDate( OffsetDateTime.now() )
                                 .build()
-                ) );
+                ) )
+                .build() );
         LOGGER.info( "CREATED transaction id={}, uuid={}", txn.getId(), txn.getUuid() );
 
         LedgerTransaction fetchedTxn = ledgerService.getLedgerTransaction( txn.getUuid() )
@@ -97,5 +115,77 @@ public class LedgerServiceIntegrationTest {
         fetchedTxn.getLedgerEntries().stream().forEach( fetchedEntry -> {
             assertThat( txn.getLedgerEntries().contains( fetchedEntry ) ).isTrue();
         } );
+
+        entityManager.flush();
+        entityManager.clear(); // the running balances are updated in bulk (bypassing the persistence context)
+        AccountBalance balanceBob = ledgerService.getAccountBalance( acctBob.getId() )
+                .orElseThrow( () -> new NotFoundException( "account balance not found!" ) );
+        assertThat( balanceBob.getTotalDebits() ).isEqualTo( new BigInteger( "5000" ) );
+        assertThat( balanceBob.getTotalCredits() ).isEqualTo( BigInteger.ZERO );
+        assertThat( balanceBob.getLockVersion() ).isEqualTo( 2L );
+
+        AccountBalance balanceAnn = ledgerService.getAccountBalance( acctAnn.getId() )
+                .orElseThrow( () -> new NotFoundException( "account balance not found!" ) );
+        assertThat( balanceAnn.getTotalDebits() ).isEqualTo( BigInteger.ZERO );
+        assertThat( balanceAnn.getTotalCredits() ).isEqualTo( new BigInteger( "5000" ) );
+        assertThat( balanceAnn.getLockVersion() ).isEqualTo( 2L );
+    }
+
+    @Test
+    @Transactional
+    public void testCheckpointDueInTheMiddleOfABatch() throws Exception {
+        Ledger ledger = ledgerService.createLedger( UUID.randomUUID().toString(), "Bob's ledger", "Bob's accounts" );
+        LedgerAccount acctChecking = ledgerService.createLedgerAccount( ledger, UUID.randomUUID().toString(), "Bob's checking account", "Bob's everyday transactions", "USD" );
+        LedgerAccount acctSavings = ledgerService.createLedgerAccount( ledger, UUID.randomUUID().toString(), "Bob's savings account", "Bob's rainy day fund", "USD" );
+
+        // a checkpoint is due after every 2 ledger entries on an account, ie. after the second of these
+        List<LedgerTransactionResult> results = ledgerService.createLedgerTransactions( List.of(
+                transfer( acctChecking, acctSavings, 1L, "1000" ),
+                transfer( acctChecking, acctSavings, 2L, "2000" ),
+                transfer( acctChecking, acctSavings, 3L, "4000" ) ) );
+        assertThat( results ).noneMatch( LedgerTransactionResult::isFailed );
+        entityManager.flush();
+        entityManager.clear(); // the running balances are updated in bulk (bypassing the persistence context)
+
+        for ( LedgerAccount account : List.of( acctChecking, acctSavings ) ) {
+            List<AccountBalanceCheckpoint> checkpoints = checkpointRepository.findAll().stream()
+                    .filter( checkpoint -> checkpoint.getLedgerAccountId().equals( account.getId() ) )
+                    .toList();
+            assertThat( checkpoints ).hasSize( 1 );
+            AccountBalanceCheckpoint checkpoint = checkpoints.get( 0 );
+
+            // the checkpoint includes every ledger entry created on or before its date (and none are after it)
+            assertThat( ledgerEntryRepository.findAll() )
+                    .filteredOn( entry -> entry.getLedgerAccount().getId().equals( account.getId() ) )
+                    .hasSize( 3 )
+                    .allMatch( entry -> !entry.getCreatedDate().isAfter( checkpoint.getCheckpointDate() ) );
+            AccountBalance balance = ledgerService.getAccountBalance( account.getId() )
+                    .orElseThrow( () -> new NotFoundException( "account balance not found!" ) );
+            assertThat( checkpoint.getTotalCredits() ).isEqualTo( balance.getTotalCredits() );
+            assertThat( checkpoint.getTotalDebits() ).isEqualTo( balance.getTotalDebits() );
+            assertThat( balance.getEntriesSinceCheckpoint() ).isZero();
+            assertThat( balance.getLastCheckpointDate() ).isEqualTo( checkpoint.getCheckpointDate() );
+        }
+        assertThat( ledgerService.getAccountBalance( acctChecking.getId() ).orElseThrow().getTotalDebits() ).isEqualTo( new BigInteger( "7000" ) );
+        assertThat( ledgerService.getAccountBalance( acctSavings.getId() ).orElseThrow().getTotalCredits() ).isEqualTo( new BigInteger( "7000" ) );
+    }
+
+    private static LedgerTransaction transfer( LedgerAccount from, LedgerAccount to, long lockVersion, String amount ) {
+        return LedgerTransaction.builder()
+                .uuid( UUID.randomUUID().toString() )
+                .description( "Transferring " + amount )
+                .ledgerEntries( Arrays.asList(
+                        LedgerEntry.builder()
+                                .ledgerAccount( from.withLockVersion( lockVersion ) )
+                                .amount( new BigInteger( amount ) )
+                                .direction( LedgerTransactionDirection.debit )
+                                .build(),
+                        LedgerEntry.builder()
+                                .ledgerAccount( to.withLockVersion( lockVersion ) )
+                                .amount( new BigInteger( amount ) )
+                                .direction( LedgerTransactionDirection.credit )
+                                .build()
+                ) )
+                .build();
     }
 }
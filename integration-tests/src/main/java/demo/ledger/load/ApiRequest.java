@@ -0,0 +1,54 @@
+package demo.ledger.load;
+
+import java.util.regex.Pattern;
+
+/**
+ * A single request to send to the REST API.
+ */
+public class ApiRequest {
+
+    private static final Pattern UUID_SEGMENT = Pattern.compile( "/[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}(?=/|$)" );
+
+    private final String method;
+    private final String path;
+    private final String body;
+    private final Object context;
+
+    /**
+     * @param method  HTTP method
+     * @param path    request path (and query string) relative to the base URL
+     * @param body    JSON request body; null if none
+     * @param context anything the {@link RequestSource} wants back when the response is received
+     */
+    public ApiRequest( String method, String path, String body, Object context ) {
+        this.method = method;
+        this.path = path;
+        this.body = body;
+        this.context = context;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public Object getContext() {
+        return context;
+    }
+
+    /**
+     * @return the endpoint this request is for (method and path without the query string or UUIDs), eg.
+     * GET /api/ledger/{uuid}
+     */
+    public String getEndpoint() {
+        int query = path.indexOf( '?' );
+        return method + " " + UUID_SEGMENT.matcher( query < 0 ? path : path.substring( 0, query ) ).replaceAll( "/{uuid}" );
+    }
+}
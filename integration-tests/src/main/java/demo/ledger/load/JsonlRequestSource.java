@@ -0,0 +1,75 @@
+package demo.ledger.load;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Replays requests from a JSONL file, one request per line:
+ * <pre>
+ * {"method": "POST", "path": "/api/ledger", "body": {"uuid": "...", "name": "My ledger"}}
+ * {"method": "GET", "path": "/api/get_balance?uuid=..."}
+ * </pre>
+ * Blank lines and lines starting with # are skipped. The file is streamed rather than loaded up front so it can be
+ * as large as needed. Note, create requests replayed against the same database fail as duplicates.
+ */
+public class JsonlRequestSource implements RequestSource {
+
+    private final Gson gson;
+    private final Path file;
+    private final boolean loop;
+    private BufferedReader reader;
+
+    /**
+     * @param gson for parsing each line
+     * @param file JSONL file to replay
+     * @param loop start again from the top once the end of the file is reached
+     */
+    public JsonlRequestSource( Gson gson, Path file, boolean loop ) {
+        this.gson = gson;
+        this.file = file;
+        this.loop = loop;
+    }
+
+    @Override
+    public ApiRequest next() {
+        try {
+            // a second pass (from the top) is only made when looping
+            for ( int pass = 0; pass < 2; pass++ ) {
+                if ( reader == null ) {
+                    reader = Files.newBufferedReader( file );
+                }
+                String line;
+                while ( ( line = reader.readLine() ) != null ) {
+                    if ( !line.isBlank() && !line.startsWith( "#" ) ) {
+                        return toRequest( gson.fromJson( line, JsonObject.class ) );
+                    }
+                }
+                reader.close();
+                reader = null;
+                if ( !loop ) {
+                    break;
+                }
+            }
+            return null;
+        }
+        catch ( IOException ex ) {
+            throw new UncheckedIOException( ex );
+        }
+    }
+
+    private ApiRequest toRequest( JsonObject line ) {
+        JsonElement body = line.get( "body" );
+        return new ApiRequest(
+                line.has( "method" ) ? line.get( "method" ).getAsString() : "POST",
+                line.get( "path" ).getAsString(),
+                body == null || body.isJsonNull() ? null : gson.toJson( body ),
+                null );
+    }
+}
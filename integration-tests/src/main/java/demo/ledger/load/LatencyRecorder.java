@@ -0,0 +1,100 @@
+package demo.ledger.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records response times (in microseconds) per endpoint and per request status (the "status" of the response:
+ * completed/pending/failed, or the HTTP status code/error if there wasn't one).
+ */
+public class LatencyRecorder {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final Map<String, Histogram> byEndpoint = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Histogram>> byEndpointAndStatus = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public void record( String endpoint, String status, long latencyNanos ) {
+        long micros = TimeUnit.NANOSECONDS.toMicros( latencyNanos );
+        byEndpoint.computeIfAbsent( endpoint, k -> new ConcurrentHistogram( SIGNIFICANT_DIGITS ) ).recordValue( micros );
+        byEndpointAndStatus.computeIfAbsent( endpoint, k -> new ConcurrentHashMap<>() )
+                .computeIfAbsent( status, k -> new ConcurrentHistogram( SIGNIFICANT_DIGITS ) ).recordValue( micros );
+    }
+
+    /**
+     * Counts a request that was due but couldn't be sent.
+     */
+    public void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getTotalCount() {
+        return byEndpoint.values().stream().mapToLong( Histogram::getTotalCount ).sum();
+    }
+
+    /**
+     * Prints a summary table (times in milliseconds).
+     *
+     * @param out where to print
+     */
+    public void printSummary( PrintStream out ) {
+        out.printf( "%-40s %-10s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+                "endpoint", "status", "count", "share", "mean", "p50", "p90", "p99", "p99.9", "max" );
+        new TreeMap<>( byEndpoint ).forEach( ( endpoint, total ) -> {
+            new TreeMap<>( byEndpointAndStatus.get( endpoint ) ).forEach( ( status, histogram ) ->
+                    printRow( out, endpoint, status, histogram, total.getTotalCount() ) );
+            printRow( out, endpoint, "all", total, total.getTotalCount() );
+        } );
+    }
+
+    private static void printRow( PrintStream out, String endpoint, String status, Histogram histogram, long endpointCount ) {
+        out.printf( "%-40s %-10s %9d %6.1f%% %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                endpoint, status, histogram.getTotalCount(), 100.0 * histogram.getTotalCount() / endpointCount,
+                histogram.getMean() / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile( 50 ) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile( 90 ) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile( 99 ) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile( 99.9 ) / MICROS_PER_MILLI,
+                histogram.getMaxValue() / MICROS_PER_MILLI );
+    }
+
+    /**
+     * Writes the full percentile distribution (in milliseconds) of each endpoint/status to a .hgrm file which can be
+     * plotted with the HdrHistogram plotter.
+     *
+     * @param dir directory to write to
+     * @throws IOException on write failure
+     */
+    public void writeHistograms( Path dir ) throws IOException {
+        Files.createDirectories( dir );
+        for ( Map.Entry<String, Map<String, Histogram>> endpoint : byEndpointAndStatus.entrySet() ) {
+            write( dir, endpoint.getKey(), "all", byEndpoint.get( endpoint.getKey() ) );
+            for ( Map.Entry<String, Histogram> status : endpoint.getValue().entrySet() ) {
+                write( dir, endpoint.getKey(), status.getKey(), status.getValue() );
+            }
+        }
+    }
+
+    private static void write( Path dir, String endpoint, String status, Histogram histogram ) throws IOException {
+        String name = ( endpoint + "_" + status ).replaceAll( "[^A-Za-z0-9_]+", "_" ) + ".hgrm";
+        try ( PrintStream out = new PrintStream( Files.newOutputStream( dir.resolve( name ) ) ) ) {
+            histogram.outputPercentileDistribution( out, MICROS_PER_MILLI );
+        }
+    }
+}
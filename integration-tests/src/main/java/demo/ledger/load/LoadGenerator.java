@@ -0,0 +1,251 @@
+package demo.ledger.load;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for the REST API.
+ * <p>
+ * Requests are started at a fixed rate regardless of how long earlier ones take to come back (a closed-loop
+ * generator, which waits for each response before sending the next, backs off exactly when the server struggles and
+ * so hides the latency we're trying to measure). Response times are measured from when each request was due to be
+ * sent rather than when it actually was, so any delay on our side is counted too (ie. no coordinated omission).
+ * Response times are recorded per endpoint and per request status so the pending (timed out) rate of
+ * POST /api/ledger_transaction can be read off along with throughput.
+ * <p>
+ * Usage (all arguments optional):
+ * <pre>
+ * --base-url=http://localhost:6868  REST API to send requests to
+ * --mode=synthetic|replay           generate transfers between random accounts or replay a JSONL file
+ * --file=requests.jsonl             file to replay (replay mode)
+ * --loop=false                      replay the file again from the top once the end is reached (replay mode)
+ * --rate=100                        requests started per second
+ * --duration=60                     how long to run for, in seconds
+ * --accounts=1000                   number of accounts to create (synthetic mode)
+ * --max-amount=10000                largest transfer amount (synthetic mode)
+ * --seed=42                         random seed (synthetic mode)
+ * --max-in-flight=10000             requests due while this many are outstanding are dropped
+ * --timeout=30                      request timeout, in seconds
+ * --histogram-dir=                  if set, the full percentile distributions are written here as .hgrm files
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( LoadGenerator.class );
+
+    private final HttpClient httpClient;
+    private final String baseUrl;
+    private final RequestSource source;
+    private final LatencyRecorder recorder;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final Duration timeout;
+
+    /**
+     * @param httpClient  client to send requests with
+     * @param baseUrl     base URL of the REST API
+     * @param source      where to get the requests from
+     * @param recorder    where to record response times
+     * @param maxInFlight maximum number of outstanding requests
+     * @param timeout     request timeout
+     */
+    public LoadGenerator( HttpClient httpClient, String baseUrl, RequestSource source, LatencyRecorder recorder,
+                          int maxInFlight, Duration timeout ) {
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl;
+        this.source = source;
+        this.recorder = recorder;
+        this.inFlight = new Semaphore( maxInFlight );
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sends requests at the given rate until the duration is up or the source runs out, then waits for the
+     * outstanding requests to complete.
+     *
+     * @param executor what to send (and wait on) each request with
+     * @param rate     requests per second
+     * @param duration how long to run for
+     * @return how long we ran for (in nanoseconds), not including waiting for the last responses
+     * @throws InterruptedException if interrupted
+     */
+    public long run( ExecutorService executor, double rate, Duration duration ) throws InterruptedException {
+        long intervalNanos = (long) ( TimeUnit.SECONDS.toNanos( 1 ) / rate );
+        long startTime = System.nanoTime();
+        long endTime = startTime + duration.toNanos();
+        long intendedStartTime = startTime;
+        while ( intendedStartTime < endTime ) {
+            long delay = intendedStartTime - System.nanoTime();
+            if ( delay > 0 ) {
+                LockSupport.parkNanos( delay );
+                continue; // parkNanos can return early
+            }
+            ApiRequest request = source.next();
+            if ( request == null ) {
+                break;
+            }
+            if ( request == RequestSource.NONE_AVAILABLE || !inFlight.tryAcquire() ) {
+                recorder.dropped();
+            }
+            else {
+                long requestStartTime = intendedStartTime;
+                executor.execute( () -> send( request, requestStartTime ) );
+            }
+            intendedStartTime += intervalNanos;
+        }
+        long elapsed = System.nanoTime() - startTime;
+        LOGGER.info( "Waiting for {} outstanding requests", maxInFlight - inFlight.availablePermits() );
+        inFlight.acquire( maxInFlight );
+        return elapsed;
+    }
+
+    private void send( ApiRequest request, long intendedStartTime ) {
+        String status;
+        try {
+            HttpResponse<String> response = httpClient.send( toHttpRequest( request ), HttpResponse.BodyHandlers.ofString() );
+            JsonObject body = parseObject( response.body() );
+            status = body != null && body.has( "status" ) && body.get( "status" ).isJsonPrimitive()
+                    ? body.get( "status" ).getAsString() : "http_" + response.statusCode();
+            recorder.record( request.getEndpoint(), status, System.nanoTime() - intendedStartTime );
+            source.completed( request, response.statusCode(), body );
+        }
+        catch ( Exception ex ) {
+            LOGGER.debug( "Request to {} failed", request.getPath(), ex );
+            recorder.record( request.getEndpoint(), "error", System.nanoTime() - intendedStartTime );
+            source.completed( request, -1, null );
+        }
+        finally {
+            inFlight.release();
+        }
+    }
+
+    private HttpRequest toHttpRequest( ApiRequest request ) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri( URI.create( baseUrl + request.getPath() ) )
+                .timeout( timeout );
+        if ( request.getBody() == null ) {
+            return builder.method( request.getMethod(), HttpRequest.BodyPublishers.noBody() ).build();
+        }
+        return builder.header( "Content-Type", "application/json" )
+                .method( request.getMethod(), HttpRequest.BodyPublishers.ofString( request.getBody() ) )
+                .build();
+    }
+
+    private static JsonObject parseObject( String body ) {
+        try {
+            JsonElement json = JsonParser.parseString( body );
+            return json.isJsonObject() ? json.getAsJsonObject() : null;
+        }
+        catch ( RuntimeException ex ) {
+            return null; // not JSON
+        }
+    }
+
+    /**
+     * Uses a virtual thread per request if running on Java 21 or later, otherwise a (cached) pool of platform
+     * threads. Looked up reflectively as we're compiled for Java 17.
+     *
+     * @return executor to send requests with
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+            LOGGER.info( "Sending requests on virtual threads" );
+            return executor;
+        }
+        catch ( ReflectiveOperationException ex ) {
+            LOGGER.info( "Virtual threads not available (Java 21+ required); sending requests on platform threads" );
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static Map<String, String> parseArgs( String[] args ) {
+        Map<String, String> options = new HashMap<>();
+        for ( String arg : args ) {
+            if ( !arg.startsWith( "--" ) ) {
+                throw new IllegalArgumentException( "Unexpected argument " + arg );
+            }
+            int equals = arg.indexOf( '=' );
+            if ( equals < 0 ) {
+                options.put( arg.substring( 2 ), "true" );
+            }
+            else {
+                options.put( arg.substring( 2, equals ), arg.substring( equals + 1 ) );
+            }
+        }
+        return options;
+    }
+
+    public static void main( String[] args ) throws Exception {
+        Map<String, String> options = parseArgs( args );
+        String baseUrl = options.getOrDefault( "base-url", "http://localhost:6868" );
+        String mode = options.getOrDefault( "mode", "synthetic" );
+        double rate = Double.parseDouble( options.getOrDefault( "rate", "100" ) );
+        Duration duration = Duration.ofSeconds( Long.parseLong( options.getOrDefault( "duration", "60" ) ) );
+        int maxInFlight = Integer.parseInt( options.getOrDefault( "max-in-flight", "10000" ) );
+        Duration timeout = Duration.ofSeconds( Long.parseLong( options.getOrDefault( "timeout", "30" ) ) );
+
+        Gson gson = new Gson();
+        RequestSource source;
+        switch ( mode ) {
+            case "synthetic" -> source = new SyntheticTransferSource( gson,
+                    Integer.parseInt( options.getOrDefault( "accounts", "1000" ) ),
+                    Long.parseLong( options.getOrDefault( "max-amount", "10000" ) ),
+                    Long.parseLong( options.getOrDefault( "seed", "42" ) ) );
+            case "replay" -> {
+                if ( !options.containsKey( "file" ) ) {
+                    throw new IllegalArgumentException( "--file is required in replay mode" );
+                }
+                source = new JsonlRequestSource( gson, Path.of( options.get( "file" ) ),
+                        Boolean.parseBoolean( options.getOrDefault( "loop", "false" ) ) );
+            }
+            default -> throw new IllegalArgumentException( "Unknown mode " + mode );
+        }
+
+        ExecutorService executor = newRequestExecutor();
+        HttpClient httpClient = HttpClient.newBuilder()
+                .executor( executor )
+                .connectTimeout( timeout )
+                .build();
+        source.setup( httpClient, baseUrl );
+
+        LatencyRecorder recorder = new LatencyRecorder();
+        LoadGenerator generator = new LoadGenerator( httpClient, baseUrl, source, recorder, maxInFlight, timeout );
+        LOGGER.info( "Sending {} requests/s to {} for {}s", rate, baseUrl, duration.toSeconds() );
+        long elapsedNanos = generator.run( executor, rate, duration );
+        executor.shutdown();
+
+        double elapsedSeconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos( 1 );
+        System.out.println();
+        recorder.printSummary( System.out );
+        System.out.println();
+        System.out.printf( "Sent %d requests in %.1fs (%.1f requests/s); %d dropped%n", recorder.getTotalCount(),
+                elapsedSeconds, recorder.getTotalCount() / elapsedSeconds, recorder.getDropped() );
+        if ( source instanceof SyntheticTransferSource synthetic ) {
+            System.out.printf( "%d of %d accounts retired (transfer pending or errored)%n", synthetic.getRetiredCount(),
+                    Integer.parseInt( options.getOrDefault( "accounts", "1000" ) ) );
+        }
+        if ( options.containsKey( "histogram-dir" ) ) {
+            recorder.writeHistograms( Path.of( options.get( "histogram-dir" ) ) );
+        }
+    }
+}
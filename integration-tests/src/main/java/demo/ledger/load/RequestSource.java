@@ -0,0 +1,43 @@
+package demo.ledger.load;
+
+import com.google.gson.JsonObject;
+
+import java.net.http.HttpClient;
+
+/**
+ * Where the load generator gets its requests from.
+ */
+public interface RequestSource {
+
+    /**
+     * Marker returned by {@link #next()} when no request can be sent right now (the send is counted as dropped).
+     */
+    ApiRequest NONE_AVAILABLE = new ApiRequest( "NONE", "", null, null );
+
+    /**
+     * Called once before the load is started.
+     *
+     * @param httpClient client to send any setup requests with
+     * @param baseUrl    base URL of the REST API
+     * @throws Exception on failure
+     */
+    default void setup( HttpClient httpClient, String baseUrl ) throws Exception {
+    }
+
+    /**
+     * Returns the next request to send. Only ever called from the load generator's scheduling thread.
+     *
+     * @return next request, {@link #NONE_AVAILABLE} or null if there are no more requests
+     */
+    ApiRequest next();
+
+    /**
+     * Called (on any thread) once the response to a request has been received.
+     *
+     * @param request    the request sent
+     * @param statusCode HTTP status code
+     * @param response   JSON response body; null if the request failed or the response wasn't JSON
+     */
+    default void completed( ApiRequest request, int statusCode, JsonObject response ) {
+    }
+}
@@ -0,0 +1,200 @@
+package demo.ledger.load;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Generates transfers between randomly chosen pairs of N accounts (created in a new ledger during setup).
+ * <p>
+ * Every ledger entry must quote the current lock version of its account, so an account is only used by one transfer
+ * at a time; its new lock version is taken from the completed response. If there aren't two idle accounts when a
+ * transfer is due, it's dropped (use more accounts). An account whose transfer is still pending (or errored) when
+ * the response comes back is retired since its lock version is no longer known.
+ */
+public class SyntheticTransferSource implements RequestSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( SyntheticTransferSource.class );
+    private static final int SETUP_CONCURRENCY = 100;
+
+    private final Gson gson;
+    private final int accountCount;
+    private final long maxAmount;
+    private final Random random;
+
+    private final List<Account> accounts = new ArrayList<>();
+    private final Map<String, Account> accountsByUuid = new HashMap<>();
+    private int[] idle; // indexes of idle accounts; the first idleCount are valid
+    private int idleCount;
+    private int retiredCount;
+
+    private static class Account {
+        private final int index;
+        private final String uuid;
+        private long lockVersion = 1; // new accounts start at 1
+
+        private Account( int index, String uuid ) {
+            this.index = index;
+            this.uuid = uuid;
+        }
+    }
+
+    private static class Transfer {
+        private final Account from;
+        private final Account to;
+
+        private Transfer( Account from, Account to ) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * @param gson         for building requests and reading responses
+     * @param accountCount number of accounts to create
+     * @param maxAmount    transfer amounts are chosen between 1 and this (inclusive)
+     * @param seed         random seed so the same sequence of account pairs and amounts is generated each time
+     */
+    public SyntheticTransferSource( Gson gson, int accountCount, long maxAmount, long seed ) {
+        if ( accountCount < 2 ) {
+            throw new IllegalArgumentException( "At least 2 accounts are required" );
+        }
+        this.gson = gson;
+        this.accountCount = accountCount;
+        this.maxAmount = maxAmount;
+        this.random = new Random( seed );
+    }
+
+    @Override
+    public void setup( HttpClient httpClient, String baseUrl ) throws Exception {
+        String ledgerUuid = UUID.randomUUID().toString();
+        JsonObject ledger = new JsonObject();
+        ledger.addProperty( "uuid", ledgerUuid );
+        ledger.addProperty( "name", "Load test ledger" );
+        ledger.addProperty( "description", "Synthetic transfers between " + accountCount + " accounts" );
+        HttpResponse<String> response = httpClient.send( post( baseUrl + "/api/ledger", ledger ), HttpResponse.BodyHandlers.ofString() );
+        LOGGER.info( "Created ledger {}: {}", ledgerUuid, response.statusCode() );
+
+        LOGGER.info( "Creating {} accounts...", accountCount );
+        for ( int i = 0; i < accountCount; i += SETUP_CONCURRENCY ) {
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for ( int j = i; j < Math.min( i + SETUP_CONCURRENCY, accountCount ); j++ ) {
+                Account account = new Account( j, UUID.randomUUID().toString() );
+                accounts.add( account );
+                accountsByUuid.put( account.uuid, account );
+
+                JsonObject ledgerRef = new JsonObject();
+                ledgerRef.addProperty( "uuid", ledgerUuid );
+                JsonObject request = new JsonObject();
+                request.addProperty( "uuid", account.uuid );
+                request.addProperty( "name", "Account " + j );
+                request.addProperty( "currency", "USD" );
+                request.add( "ledger", ledgerRef );
+                responses.add( httpClient.sendAsync( post( baseUrl + "/api/ledger_account", request ), HttpResponse.BodyHandlers.ofString() ) );
+            }
+            CompletableFuture.allOf( responses.toArray( CompletableFuture[]::new ) ).join();
+        }
+
+        idle = new int[accountCount];
+        for ( int i = 0; i < accountCount; i++ ) {
+            idle[i] = i;
+        }
+        idleCount = accountCount;
+    }
+
+    @Override
+    public synchronized ApiRequest next() {
+        if ( idleCount < 2 ) {
+            return NONE_AVAILABLE;
+        }
+        Account from = takeIdle();
+        Account to = takeIdle();
+        long amount = 1 + (long) ( random.nextDouble() * maxAmount );
+
+        JsonObject request = new JsonObject();
+        request.addProperty( "uuid", UUID.randomUUID().toString() );
+        request.addProperty( "description", "Synthetic transfer" );
+        JsonArray ledgerEntries = new JsonArray();
+        ledgerEntries.add( ledgerEntry( from, "debit", amount ) );
+        ledgerEntries.add( ledgerEntry( to, "credit", amount ) );
+        request.add( "ledgerEntries", ledgerEntries );
+        return new ApiRequest( "POST", "/api/ledger_transaction", gson.toJson( request ), new Transfer( from, to ) );
+    }
+
+    @Override
+    public synchronized void completed( ApiRequest request, int statusCode, JsonObject response ) {
+        Transfer transfer = (Transfer) request.getContext();
+        String status = response == null || !response.has( "status" ) ? null : response.get( "status" ).getAsString();
+        if ( "completed".equals( status ) ) {
+            for ( JsonElement entry : response.getAsJsonObject( "ledgerTransaction" ).getAsJsonArray( "ledgerEntries" ) ) {
+                JsonObject ledgerAccount = entry.getAsJsonObject().getAsJsonObject( "ledgerAccount" );
+                Account account = accountsByUuid.get( ledgerAccount.get( "uuid" ).getAsString() );
+                if ( account != null ) {
+                    account.lockVersion = ledgerAccount.get( "lockVersion" ).getAsLong();
+                }
+            }
+            release( transfer.from );
+            release( transfer.to );
+        }
+        else if ( "failed".equals( status ) || "rejected".equals( status ) ) {
+            // nothing was posted so the lock versions are unchanged
+            release( transfer.from );
+            release( transfer.to );
+        }
+        else {
+            retiredCount += 2;
+        }
+    }
+
+    /**
+     * @return number of accounts no longer used because their lock version isn't known
+     */
+    public synchronized int getRetiredCount() {
+        return retiredCount;
+    }
+
+    private Account takeIdle() {
+        int i = random.nextInt( idleCount );
+        Account account = accounts.get( idle[i] );
+        idle[i] = idle[--idleCount];
+        return account;
+    }
+
+    private void release( Account account ) {
+        idle[idleCount++] = account.index;
+    }
+
+    private static JsonObject ledgerEntry( Account account, String direction, long amount ) {
+        JsonObject ledgerAccount = new JsonObject();
+        ledgerAccount.addProperty( "uuid", account.uuid );
+        ledgerAccount.addProperty( "lockVersion", account.lockVersion );
+        JsonObject entry = new JsonObject();
+        entry.add( "ledgerAccount", ledgerAccount );
+        entry.addProperty( "amount", amount );
+        entry.addProperty( "direction", direction );
+        return entry;
+    }
+
+    private HttpRequest post( String url, JsonObject body ) {
+        return HttpRequest.newBuilder()
+                .uri( URI.create( url ) )
+                .header( "Content-Type", "application/json" )
+                .POST( HttpRequest.BodyPublishers.ofString( gson.toJson( body ) ) )
+                .build();
+    }
+}
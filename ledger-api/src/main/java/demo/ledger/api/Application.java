@@ -3,8 +3,10 @@ package demo.ledger.api;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling // for the consumer lag monitor
 @EntityScan(basePackages = {"demo.ledger.model"})
 public class Application {
 
@@ -2,6 +2,7 @@ package demo.ledger.api.config;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import demo.ledger.model.codec.LedgerEventCodec;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -17,4 +18,9 @@ public class DemoConfig {
         builder.setPrettyPrinting();
         return builder.create();
     }
+
+    @Bean
+    public LedgerEventCodec getLedgerEventCodec( Gson gson ) {
+        return new LedgerEventCodec( gson );
+    }
 }
@@ -19,10 +19,17 @@ public class KafkaTopicConfig {
 
     public static final String LEDGER_EVENTS_TOPIC = "ledger-events";
     public static final String LEDGER_ACCOUNT_EVENTS_TOPIC = "ledger-account-events";
+    public static final String LEDGER_REPLIES_TOPIC = "ledger-replies";
 
     @Value( value = "${spring.kafka.bootstrap.servers}" )
     private String bootstrapAddress;
 
+    @Value( value = "${ledger.events.partitions}" )
+    private int ledgerEventsPartitions;
+
+    @Value( value = "${ledger.replies.partitions}" )
+    private int ledgerRepliesPartitions;
+
     @Bean
     public KafkaAdmin kafkaAdmin() {
         Map<String, Object> configs = new HashMap<>();
@@ -33,7 +40,7 @@ public class KafkaTopicConfig {
     @Bean
     public NewTopic ledgerEventsTopic() {
         return TopicBuilder.name( LEDGER_EVENTS_TOPIC )
-                .partitions( 1 )
+                .partitions( ledgerEventsPartitions )
                 .replicas( 1 )
                 .build();
     }
@@ -45,4 +52,13 @@ public class KafkaTopicConfig {
                 .replicas( 1 )
                 .build();
     }
-}
\ No newline at end of file
+
+    @Bean
+    public NewTopic ledgerRepliesTopic() {
+        // completion events are sent back to the partition owned by the API instance that sent the request
+        return TopicBuilder.name( LEDGER_REPLIES_TOPIC )
+                .partitions( ledgerRepliesPartitions )
+                .replicas( 1 )
+                .build();
+    }
+}
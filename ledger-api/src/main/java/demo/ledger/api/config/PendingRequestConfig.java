@@ -0,0 +1,36 @@
+package demo.ledger.api.config;
+
+import demo.ledger.api.model.dto.CreateLedgerAccountResponse;
+import demo.ledger.api.model.dto.CreateLedgerResponse;
+import demo.ledger.api.model.dto.CreateLedgerTransactionResponse;
+import demo.ledger.api.model.dto.RequestStatus;
+import demo.ledger.api.service.PendingRequestRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class PendingRequestConfig {
+
+    @Value( value = "${ledger.api.pending.max-size}" )
+    private long maximumSize;
+
+    @Bean
+    public PendingRequestRegistry<CreateLedgerResponse> pendingLedgers( MeterRegistry meterRegistry ) {
+        return new PendingRequestRegistry<>( "ledger", maximumSize,
+                () -> new CreateLedgerResponse( RequestStatus.pending ), meterRegistry );
+    }
+
+    @Bean
+    public PendingRequestRegistry<CreateLedgerAccountResponse> pendingLedgerAccounts( MeterRegistry meterRegistry ) {
+        return new PendingRequestRegistry<>( "ledger_account", maximumSize,
+                () -> new CreateLedgerAccountResponse( RequestStatus.pending ), meterRegistry );
+    }
+
+    @Bean
+    public PendingRequestRegistry<CreateLedgerTransactionResponse> pendingLedgerTransactions( MeterRegistry meterRegistry ) {
+        return new PendingRequestRegistry<>( "ledger_transaction", maximumSize,
+                () -> new CreateLedgerTransactionResponse( RequestStatus.pending ), meterRegistry );
+    }
+}
@@ -2,14 +2,26 @@ package demo.ledger.api.controller;
 
 import demo.ledger.api.model.dto.RequestStatus;
 import demo.ledger.api.model.dto.RestResponse;
+import demo.ledger.api.model.exception.OverloadedException;
 import demo.ledger.api.model.exception.ValidationException;
+import demo.ledger.api.service.AdmissionControl;
+import demo.ledger.api.service.LatencyMetrics;
+import demo.ledger.model.codec.LedgerEventHeaders;
+import demo.ledger.model.dto.EventType;
 import demo.ledger.model.exception.NotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSourceResolvable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.validation.FieldError;
 import org.springframework.validation.method.ParameterValidationResult;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -18,11 +30,16 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.method.annotation.HandlerMethodValidationException;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static demo.ledger.api.config.KafkaTopicConfig.LEDGER_REPLIES_TOPIC;
+
 /**
  * Common controller class.
  */
@@ -30,9 +47,19 @@ public abstract class BaseController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger( BaseController.class );
 
-    private KafkaTemplate<String, String> kafkaTemplate;
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
+
+    // the partition of the reply topic this instance listens on; must be unique for each API instance
+    @Value( value = "${ledger.api.reply.partition}" )
+    private int replyPartition;
+
+    @Autowired
+    private LatencyMetrics latencyMetrics;
 
-    public BaseController( KafkaTemplate<String, String> kafkaTemplate ) {
+    @Autowired
+    private AdmissionControl admissionControl;
+
+    public BaseController( KafkaTemplate<String, byte[]> kafkaTemplate ) {
         this.kafkaTemplate = kafkaTemplate;
     }
 
@@ -97,15 +124,68 @@ public abstract class BaseController {
         return new RestResponse( RequestStatus.failed ).withError( "Request unreadable" );
     }
 
-    protected void sendMessage( String key, String payload ) {
-        kafkaTemplate.send( getEventTopic(), key, payload ).whenComplete( ( result, ex ) -> {
+    @ExceptionHandler( OverloadedException.class )
+    public ResponseEntity<RestResponse> handleOverloadedException( OverloadedException ex ) {
+        return ResponseEntity.status( HttpStatus.TOO_MANY_REQUESTS )
+                .header( HttpHeaders.RETRY_AFTER, String.valueOf( ex.getRetryAfterSeconds() ) )
+                .body( new RestResponse( RequestStatus.rejected ).withError( ex.getMessage() ) );
+    }
+
+    /**
+     * Checks whether we can take on a new create request (see {@link AdmissionControl}).
+     *
+     * @param timeoutMillis how long the request would normally wait for its completion event
+     * @return how long the request should wait for its completion event
+     * @throws OverloadedException if the request should be rejected
+     */
+    protected long admit( long timeoutMillis ) throws OverloadedException {
+        return admissionControl.admit( timeoutMillis );
+    }
+
+    /**
+     * Checks whether we can take on several new create requests at once (see {@link AdmissionControl}).
+     *
+     * @param timeoutMillis how long the requests would normally wait for their completion events
+     * @param count         number of requests
+     * @return how long the requests should wait for their completion events
+     * @throws OverloadedException if the requests should be rejected
+     */
+    protected long admit( long timeoutMillis, int count ) throws OverloadedException {
+        return admissionControl.admit( timeoutMillis, count );
+    }
+
+    /**
+     * Sends a request to the event processor. The completion event is sent back to this instance's partition of
+     * the reply topic (using the same headers as {@code ReplyingKafkaTemplate}).
+     *
+     * The event type and UUID are also set as headers so consumers can skip records without decoding them.
+     * Each command is also given a correlation ID and the time it was accepted, which are copied onto its completion
+     * event so we can see how long each stage took.
+     *
+     * @param key       record key
+     * @param eventType type of request
+     * @param uuid      UUID of the entity being created
+     * @param payload   request payload (encoded by {@link demo.ledger.model.codec.LedgerEventCodec})
+     */
+    protected void sendMessage( String key, EventType eventType, String uuid, byte[] payload ) {
+        String correlationId = UUID.randomUUID().toString();
+        long startTime = System.nanoTime();
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>( getEventTopic(), key, payload );
+        record.headers().add( new RecordHeader( LedgerEventHeaders.EVENT_TYPE, LedgerEventHeaders.toBytes( eventType ) ) );
+        record.headers().add( new RecordHeader( LedgerEventHeaders.UUID, LedgerEventHeaders.toBytes( uuid ) ) );
+        record.headers().add( new RecordHeader( KafkaHeaders.REPLY_TOPIC, LEDGER_REPLIES_TOPIC.getBytes( StandardCharsets.UTF_8 ) ) );
+        record.headers().add( new RecordHeader( KafkaHeaders.REPLY_PARTITION, ByteBuffer.allocate( Integer.BYTES ).putInt( replyPartition ).array() ) );
+        record.headers().add( new RecordHeader( LedgerEventHeaders.CORRELATION_ID, LedgerEventHeaders.toBytes( correlationId ) ) );
+        record.headers().add( new RecordHeader( LedgerEventHeaders.INGRESS_TIMESTAMP, LedgerEventHeaders.toBytes( System.currentTimeMillis() ) ) );
+        kafkaTemplate.send( record ).whenComplete( ( result, ex ) -> {
             if ( ex == null ) {
-                LOGGER.info( "Sent message=[key={}, payload={}] to topic={} with offset={}",
-                        key, payload, getEventTopic(), result.getRecordMetadata().offset() );
+                latencyMetrics.recordProduceLatency( eventType, startTime );
+                LOGGER.info( "Sent message=[key={}, {} bytes, correlationId={}] to topic={} with offset={}",
+                        key, payload.length, correlationId, getEventTopic(), result.getRecordMetadata().offset() );
             }
             else {
-                LOGGER.info( "Unable to send message=[key={},payload={}] to topic={} due to : {}",
-                        key, payload, getEventTopic(), ex.getMessage() );
+                LOGGER.info( "Unable to send message=[key={}, {} bytes, correlationId={}] to topic={} due to : {}",
+                        key, payload.length, correlationId, getEventTopic(), ex.getMessage() );
             }
         } );
     }
@@ -1,38 +1,76 @@
 package demo.ledger.api.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import demo.ledger.api.config.KafkaTopicConfig;
 import demo.ledger.api.model.dto.GetBalanceResponse;
+import demo.ledger.api.model.dto.GetBalancesRequest;
+import demo.ledger.api.model.dto.RestResponse;
+import demo.ledger.api.model.exception.ValidationException;
 import demo.ledger.api.service.LedgerService;
+import demo.ledger.model.LedgerAccount;
 import demo.ledger.model.exception.NotFoundException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.transaction.TransactionTimedOutException;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping( "/api/get_balance" )
 public class GetBalanceController extends BaseController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger( GetBalanceController.class );
+    private static final String UUID_REGEXP = "^[0-9a-f]{8}-[0-9a-f]{4}-[1-5][0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}$";
+    private static final String DATE_TIME_REGEXP = "^[0-9]{4}-[0-9]{2}-[0-9]{2}T([0-9]{2}:){2}[0-9]{2}(\\.[0-9]{3})?[+|-][0-9]{2}:[0-9]{2}$";
+    private static final String DATE_TIME_MESSAGE = "Date/time must be specified in the following format YYYY-MM-DDThh:mm:ss+HH:MM (eg. 2024-04-11T10:24:35+02:00)";
+    private static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType( "application/x-ndjson" );
+
     private final LedgerService ledgerService;
+    private final ObjectMapper objectMapper;
+
+    @Value( value = "${ledger.api.balance-batch.max-size}" )
+    private int MAX_BATCH_SIZE;
+
+    @Value( value = "${ledger.api.balance-history.max-points}" )
+    private int MAX_HISTORY_POINTS;
+
+    @Value( value = "${ledger.api.balance-history.timeout.seconds}" )
+    private int HISTORY_TIMEOUT_SECONDS;
 
     @Autowired
-    public GetBalanceController( KafkaTemplate<String, String> kafkaTemplate, LedgerService ledgerService ) {
+    public GetBalanceController( KafkaTemplate<String, byte[]> kafkaTemplate, LedgerService ledgerService, ObjectMapper objectMapper ) {
         super( kafkaTemplate );
         this.ledgerService = ledgerService;
+        this.objectMapper = objectMapper;
     }
 
     @Operation( summary = "Fetch a ledger account balance by its UUID" )
@@ -47,13 +85,11 @@ public class GetBalanceController extends BaseController {
     @GetMapping
     public GetBalanceResponse findBalanceByUuid(
 
-            @Pattern( regexp = "^[0-9a-f]{8}-[0-9a-f]{4}-[1-5][0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}$",
-                    message = "Invalid UUID (only lowercase characters allowed)" )
+            @Pattern( regexp = UUID_REGEXP, message = "Invalid UUID (only lowercase characters allowed)" )
             @Parameter( description = "UUID of ledger account to query" )
             @RequestParam( "uuid" ) String uuid,
 
-            @Pattern( regexp = "^[0-9]{4}-[0-9]{2}-[0-9]{2}T([0-9]{2}:){2}[0-9]{2}(\\.[0-9]{3})?[+|-][0-9]{2}:[0-9]{2}$",
-                    message = "Date/time must be specified in the following format YYYY-MM-DDThh:mm:ss+HH:MM (eg. 2024-04-11T10:24:35+02:00)" )
+            @Pattern( regexp = DATE_TIME_REGEXP, message = DATE_TIME_MESSAGE )
             @Parameter( description = "UUID of ledger account to query" )
             @RequestParam( value = "timestamp", required = false ) String timestamp ) throws NotFoundException {
 
@@ -61,6 +97,131 @@ public class GetBalanceController extends BaseController {
         return ledgerService.fetchLedgerAccountBalance( uuid, timestamp == null ? null : OffsetDateTime.parse( timestamp ) );
     }
 
+    @Operation( summary = "Fetch the balances of several ledger accounts by their UUIDs",
+            description = "A POST so the list of UUIDs isn't limited by the maximum length of a URL" )
+    @ApiResponses( value = {
+            @ApiResponse( responseCode = "200", description = "A balance for each UUID requested (in the same order); " +
+                    "those that don't match a ledger account have a status of \"failed\"",
+                    content = {@Content( mediaType = "application/json",
+                            array = @ArraySchema( schema = @Schema( implementation = GetBalanceResponse.class ) ) )} ),
+            @ApiResponse( responseCode = "400", description = "Invalid request",
+                    content = {@Content( mediaType = "application/json",
+                            schema = @Schema( implementation = RestResponse.class,
+                                    description = "Contains the errors in the request and the status" ) )} )} )
+    @PostMapping( "/batch" )
+    public List<GetBalanceResponse> findBalancesByUuid( @Valid @RequestBody final GetBalancesRequest request ) throws ValidationException {
+
+        LOGGER.info( "getBalances: {} UUIDs, timestamp={}", request.getUuids().size(), request.getTimestamp() );
+        if ( request.getUuids().size() > MAX_BATCH_SIZE ) {
+            throw new ValidationException( "No more than " + MAX_BATCH_SIZE + " ledger accounts allowed in a batch" );
+        }
+        return ledgerService.fetchLedgerAccountBalances( request.getUuids(),
+                request.getTimestamp() == null ? null : OffsetDateTime.parse( request.getTimestamp() ) );
+    }
+
+    @Operation( summary = "Fetch the balance of a ledger account at a series of points in time",
+            description = "The points in time are either given as (repeated) timestamp parameters, or every interval " +
+                    "(an ISO-8601 duration, eg. P1D) from the from date/time up to the to date/time. Balances are " +
+                    "calculated in a single pass over the ledger entries and returned in time order as they're " +
+                    "calculated, one JSON object per line" )
+    @ApiResponses( value = {
+            @ApiResponse( responseCode = "200", description = "A balance for each point in time",
+                    content = {@Content( mediaType = "application/x-ndjson",
+                            schema = @Schema( implementation = GetBalanceResponse.class ) )} ),
+            @ApiResponse( responseCode = "400", description = "Invalid request",
+                    content = @Content ),
+            @ApiResponse( responseCode = "404", description = "Ledger account not found",
+                    content = @Content )} )
+    @GetMapping( "/history" )
+    public ResponseEntity<StreamingResponseBody> findBalanceHistoryByUuid(
+
+            @Pattern( regexp = UUID_REGEXP, message = "Invalid UUID (only lowercase characters allowed)" )
+            @Parameter( description = "UUID of ledger account to query" )
+            @RequestParam( "uuid" ) String uuid,
+
+            @Parameter( description = "Points in time to return the balance at" )
+            @RequestParam( value = "timestamp", required = false ) List<@Pattern( regexp = DATE_TIME_REGEXP, message = DATE_TIME_MESSAGE ) String> timestamps,
+
+            @Pattern( regexp = DATE_TIME_REGEXP, message = DATE_TIME_MESSAGE )
+            @Parameter( description = "First point in time to return the balance at" )
+            @RequestParam( value = "from", required = false ) String from,
+
+            @Pattern( regexp = DATE_TIME_REGEXP, message = DATE_TIME_MESSAGE )
+            @Parameter( description = "Last point in time to return the balance at (inclusive)" )
+            @RequestParam( value = "to", required = false ) String to,
+
+            @Parameter( description = "Time between each point in time (ISO-8601 duration, eg. PT1H or P1D)" )
+            @RequestParam( value = "interval", required = false ) String interval ) throws NotFoundException, ValidationException {
+
+        LOGGER.info( "getBalanceHistory: UUID={}, timestamps={}, from={}, to={}, interval={}", uuid, timestamps, from, to, interval );
+        List<OffsetDateTime> pointsInTime = timestamps == null ?
+                getPointsInTime( from, to, interval ) : getPointsInTime( timestamps, from, to, interval );
+        LedgerAccount ledgerAccount = ledgerService.findLedgerAccountMetadata( uuid )
+                .orElseThrow( () -> new NotFoundException( "No matching ledger account found" ) );
+
+        // written as each balance is calculated (the servlet thread is released in the meantime)
+        // a database connection is held until we're done so give up on slow clients
+        StreamingResponseBody body = out -> {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( HISTORY_TIMEOUT_SECONDS );
+            try ( JsonGenerator generator = objectMapper.getFactory().createGenerator( out ).setRootValueSeparator( null ) ) {
+                ledgerService.fetchLedgerAccountBalanceHistory( ledgerAccount, pointsInTime, balance -> {
+                    if ( System.nanoTime() - deadline > 0 ) {
+                        throw new TransactionTimedOutException( "Balance history not written within " + HISTORY_TIMEOUT_SECONDS + "s" );
+                    }
+                    try {
+                        objectMapper.writeValue( generator, balance );
+                        generator.writeRaw( '\n' );
+                    }
+                    catch ( IOException ex ) {
+                        throw new UncheckedIOException( ex ); // eg. the client has gone away
+                    }
+                } );
+            }
+        };
+        return ResponseEntity.ok().contentType( APPLICATION_NDJSON ).body( body );
+    }
+
+    private List<OffsetDateTime> getPointsInTime( List<String> timestamps, String from, String to, String interval ) throws ValidationException {
+        if ( from != null || to != null || interval != null ) {
+            throw new ValidationException( "Specify either timestamp or from, to and interval" );
+        }
+        if ( timestamps.size() > MAX_HISTORY_POINTS ) {
+            throw new ValidationException( "No more than " + MAX_HISTORY_POINTS + " points in time allowed" );
+        }
+        return timestamps.stream()
+                .map( OffsetDateTime::parse )
+                .sorted()
+                .distinct()
+                .toList();
+    }
+
+    private List<OffsetDateTime> getPointsInTime( String from, String to, String interval ) throws ValidationException {
+        if ( from == null || to == null || interval == null ) {
+            throw new ValidationException( "Specify either timestamp or from, to and interval" );
+        }
+        Duration step;
+        try {
+            step = Duration.parse( interval );
+        }
+        catch ( DateTimeParseException ex ) {
+            throw new ValidationException( "Interval must be an ISO-8601 duration (eg. PT1H or P1D)" );
+        }
+        OffsetDateTime start = OffsetDateTime.parse( from );
+        OffsetDateTime end = OffsetDateTime.parse( to );
+        if ( step.isNegative() || step.isZero() || end.isBefore( start ) ) {
+            throw new ValidationException( "Interval must be positive and from must not be after to" );
+        }
+
+        List<OffsetDateTime> pointsInTime = new ArrayList<>();
+        for ( OffsetDateTime pointInTime = start; !pointInTime.isAfter( end ); pointInTime = pointInTime.plus( step ) ) {
+            if ( pointsInTime.size() == MAX_HISTORY_POINTS ) {
+                throw new ValidationException( "No more than " + MAX_HISTORY_POINTS + " points in time allowed" );
+            }
+            pointsInTime.add( pointInTime );
+        }
+        return pointsInTime;
+    }
+
     @Override
     public String getEventTopic() {
         return KafkaTopicConfig.LEDGER_EVENTS_TOPIC;
@@ -1,14 +1,15 @@
 package demo.ledger.api.controller;
 
-import com.google.gson.Gson;
 import demo.ledger.api.config.KafkaTopicConfig;
 import demo.ledger.api.model.dto.CreateLedgerAccountRequest;
 import demo.ledger.api.model.dto.CreateLedgerAccountResponse;
 import demo.ledger.api.model.dto.RequestStatus;
 import demo.ledger.api.model.dto.RestResponse;
 import demo.ledger.api.model.dto.UuidLookup;
+import demo.ledger.api.model.exception.OverloadedException;
 import demo.ledger.api.service.LedgerService;
 import demo.ledger.model.LedgerAccount;
+import demo.ledger.model.codec.LedgerEventCodec;
 import demo.ledger.model.dto.ApiOperation;
 import demo.ledger.model.dto.EventType;
 import demo.ledger.model.exception.NotFoundException;
@@ -30,20 +31,22 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @RequestMapping( "/api/ledger_account" )
 public class LedgerAccountController extends BaseController {
 
-    private Gson gson;
+    private LedgerEventCodec codec;
     private final LedgerService ledgerService;
 
     @Value( value = "${ledger.api.service.timeout.ms}" )
     private long API_SERVICE_TIMEOUT_MS;
 
     @Autowired
-    public LedgerAccountController( KafkaTemplate<String, String> kafkaTemplate, Gson gson, LedgerService ledgerService ) {
+    public LedgerAccountController( KafkaTemplate<String, byte[]> kafkaTemplate, LedgerEventCodec codec, LedgerService ledgerService ) {
         super( kafkaTemplate );
-        this.gson = gson;
+        this.codec = codec;
         this.ledgerService = ledgerService;
     }
 
@@ -75,20 +78,26 @@ public class LedgerAccountController extends BaseController {
                     content = {@Content( mediaType = "application/json",
                             schema = @Schema( implementation = RestResponse.class,
                                     description = "Contains the errors in the request and the status" ) )} ),
+            @ApiResponse( responseCode = "429", description = "Too busy; retry after the number of seconds in the Retry-After header",
+                    content = {@Content( mediaType = "application/json",
+                            schema = @Schema( implementation = RestResponse.class ) )} ),
     } )
     @PostMapping
     @ResponseStatus( HttpStatus.ACCEPTED )
-    public RestResponse createLedgerAccount(
-            @Valid @RequestBody final CreateLedgerAccountRequest request ) {
+    public CompletableFuture<CreateLedgerAccountResponse> createLedgerAccount(
+            @Valid @RequestBody final CreateLedgerAccountRequest request ) throws OverloadedException {
 
-        String payload = gson.toJson( new ApiOperation<CreateLedgerAccountRequest>()
+        long timeoutMillis = admit( API_SERVICE_TIMEOUT_MS ); // shortened (or rejected) if the event processor is falling behind
+        byte[] payload = codec.encode( new ApiOperation<LedgerAccount>()
                 .withEventType( EventType.CREATE_LEDGER_ACCOUNT )
-                .withData( request ) );
+                .withData( request.toLedgerAccount() ) );
 
-        // FIXME: "key" should be tied to the user so they write to the same partition (and are processed in the order it is received)
-        // https://stackoverflow.com/a/58450517
-        sendMessage( "USERID", payload );
-        return ledgerService.waitForLedgerAccountCreation( request.getUuid(), API_SERVICE_TIMEOUT_MS );
+        // register for the completion event before sending so we can't miss it; the servlet thread is released while we wait
+        CompletableFuture<CreateLedgerAccountResponse> response = ledgerService.waitForLedgerAccountCreation(
+                request.getUuid(), timeoutMillis );
+        // keyed by the parent ledger so it's processed after the CREATE_LEDGER event (on the same partition)
+        sendMessage( request.getLedger().getUuid(), EventType.CREATE_LEDGER_ACCOUNT, request.getUuid(), payload );
+        return response;
     }
 
     @Override
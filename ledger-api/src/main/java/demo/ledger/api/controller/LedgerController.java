@@ -1,13 +1,14 @@
 package demo.ledger.api.controller;
 
-import com.google.gson.Gson;
 import demo.ledger.api.config.KafkaTopicConfig;
 import demo.ledger.api.model.dto.CreateLedgerRequest;
 import demo.ledger.api.model.dto.CreateLedgerResponse;
 import demo.ledger.api.model.dto.RestResponse;
 import demo.ledger.api.model.dto.UuidLookup;
+import demo.ledger.api.model.exception.OverloadedException;
 import demo.ledger.api.service.LedgerService;
 import demo.ledger.model.Ledger;
+import demo.ledger.model.codec.LedgerEventCodec;
 import demo.ledger.model.dto.ApiOperation;
 import demo.ledger.model.dto.EventType;
 import demo.ledger.model.exception.NotFoundException;
@@ -29,20 +30,22 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @RequestMapping( "/api/ledger" )
 public class LedgerController extends BaseController {
 
-    private final Gson gson;
+    private final LedgerEventCodec codec;
     private final LedgerService ledgerService;
 
     @Value( value = "${ledger.api.service.timeout.ms}" )
     private long API_SERVICE_TIMEOUT_MS;
 
     @Autowired
-    public LedgerController( KafkaTemplate<String, String> kafkaTemplate, Gson gson, LedgerService ledgerService ) {
+    public LedgerController( KafkaTemplate<String, byte[]> kafkaTemplate, LedgerEventCodec codec, LedgerService ledgerService ) {
         super( kafkaTemplate );
-        this.gson = gson;
+        this.codec = codec;
         this.ledgerService = ledgerService;
     }
 
@@ -74,20 +77,25 @@ public class LedgerController extends BaseController {
                     content = {@Content( mediaType = "application/json",
                             schema = @Schema( implementation = RestResponse.class,
                                     description = "Contains the errors in the request and the status" ) )} ),
+            @ApiResponse( responseCode = "429", description = "Too busy; retry after the number of seconds in the Retry-After header",
+                    content = {@Content( mediaType = "application/json",
+                            schema = @Schema( implementation = RestResponse.class ) )} ),
     } )
     @PostMapping
     @ResponseStatus( HttpStatus.ACCEPTED )
-    public CreateLedgerResponse createLedger(
-            @Valid @RequestBody final CreateLedgerRequest request ) {
+    public CompletableFuture<CreateLedgerResponse> createLedger(
+            @Valid @RequestBody final CreateLedgerRequest request ) throws OverloadedException {
 
-        String payload = gson.toJson( new ApiOperation<CreateLedgerRequest>()
+        long timeoutMillis = admit( API_SERVICE_TIMEOUT_MS ); // shortened (or rejected) if the event processor is falling behind
+        byte[] payload = codec.encode( new ApiOperation<Ledger>()
                 .withEventType( EventType.CREATE_LEDGER )
-                .withData( request ) );
+                .withData( request.toLedger() ) );
 
-        // TODO: "key" should be tied to the user so they write to the same partition (and are processed in the order it is received)
-        // https://stackoverflow.com/a/58450517
-        sendMessage( "USERID", payload );
-        return ledgerService.waitForLedgerCreation( request.getUuid(), API_SERVICE_TIMEOUT_MS );
+        // register for the completion event before sending so we can't miss it; the servlet thread is released while we wait
+        CompletableFuture<CreateLedgerResponse> response = ledgerService.waitForLedgerCreation(
+                request.getUuid(), timeoutMillis );
+        sendMessage( request.getUuid(), EventType.CREATE_LEDGER, request.getUuid(), payload );
+        return response;
     }
 
     @Override
@@ -1,15 +1,20 @@
 package demo.ledger.api.controller;
 
-import com.google.gson.Gson;
 import demo.ledger.api.config.KafkaTopicConfig;
 import demo.ledger.api.model.dto.CreateLedgerAccountRequest;
 import demo.ledger.api.model.dto.CreateLedgerAccountResponse;
+import demo.ledger.api.model.dto.CreateLedgerTransactionBatchRequest;
+import demo.ledger.api.model.dto.CreateLedgerTransactionBatchResponse;
 import demo.ledger.api.model.dto.CreateLedgerTransactionRequest;
+import demo.ledger.api.model.dto.CreateLedgerTransactionResponse;
 import demo.ledger.api.model.dto.RestResponse;
 import demo.ledger.api.model.dto.UuidLookup;
+import demo.ledger.api.model.exception.OverloadedException;
+import demo.ledger.api.model.exception.ValidationException;
 import demo.ledger.api.service.LedgerService;
 import demo.ledger.model.LedgerAccount;
 import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.codec.LedgerEventCodec;
 import demo.ledger.model.dto.ApiOperation;
 import demo.ledger.model.dto.EventType;
 import demo.ledger.model.exception.NotFoundException;
@@ -31,20 +36,30 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
 @RestController
 @RequestMapping( "/api/ledger_transaction" )
 public class LedgerTransactionController extends BaseController {
 
-    private Gson gson;
+    private LedgerEventCodec codec;
     private final LedgerService ledgerService;
 
     @Value( value = "${ledger.api.service.timeout.ms}" )
     private long API_SERVICE_TIMEOUT_MS;
 
+    @Value( value = "${ledger.api.batch.max-size}" )
+    private int MAX_BATCH_SIZE;
+
     @Autowired
-    public LedgerTransactionController( KafkaTemplate<String, String> kafkaTemplate, Gson gson, LedgerService ledgerService ) {
+    public LedgerTransactionController( KafkaTemplate<String, byte[]> kafkaTemplate, LedgerEventCodec codec, LedgerService ledgerService ) {
         super( kafkaTemplate );
-        this.gson = gson;
+        this.codec = codec;
         this.ledgerService = ledgerService;
     }
 
@@ -76,20 +91,92 @@ public class LedgerTransactionController extends BaseController {
                     content = {@Content( mediaType = "application/json",
                             schema = @Schema( implementation = RestResponse.class,
                                     description = "Contains the errors in the request and the status" ) )} ),
+            @ApiResponse( responseCode = "429", description = "Too busy; retry after the number of seconds in the Retry-After header",
+                    content = {@Content( mediaType = "application/json",
+                            schema = @Schema( implementation = RestResponse.class ) )} ),
     } )
     @PostMapping
     @ResponseStatus( HttpStatus.ACCEPTED )
-    public RestResponse createLedgerTransaction(
-            @Valid @RequestBody final CreateLedgerTransactionRequest request ) {
+    public CompletableFuture<CreateLedgerTransactionResponse> createLedgerTransaction(
+            @Valid @RequestBody final CreateLedgerTransactionRequest request ) throws OverloadedException {
 
-        String payload = gson.toJson( new ApiOperation<CreateLedgerTransactionRequest>()
+        long timeoutMillis = admit( API_SERVICE_TIMEOUT_MS ); // shortened (or rejected) if the event processor is falling behind
+        byte[] payload = codec.encode( new ApiOperation<LedgerTransaction>()
                 .withEventType( EventType.CREATE_LEDGER_TRANSACTION )
-                .withData( request ) );
+                .withData( request.toLedgerTransaction() ) );
+
+        // register for the completion event before sending so we can't miss it; the servlet thread is released while we wait
+        CompletableFuture<CreateLedgerTransactionResponse> response = ledgerService.waitForLedgerTransactionCreation(
+                request.getUuid(), timeoutMillis );
+        sendMessage( getPartitionKey( request ), EventType.CREATE_LEDGER_TRANSACTION, request.getUuid(), payload );
+        return response;
+    }
+
+    @Operation( summary = "Create a batch of ledger transactions" )
+    @ApiResponses( value = {
+            @ApiResponse( responseCode = "202", description = "Request submitted",
+                    content = {@Content( mediaType = "application/json",
+                            schema = @Schema( implementation = CreateLedgerTransactionBatchResponse.class,
+                                    description = "Contains the status of each ledger transaction (in the order requested)" ) )} ),
+            @ApiResponse( responseCode = "400", description = "Invalid request (nothing in the batch is submitted)",
+                    content = {@Content( mediaType = "application/json",
+                            schema = @Schema( implementation = RestResponse.class,
+                                    description = "Contains the errors in the request and the status" ) )} ),
+            @ApiResponse( responseCode = "429", description = "Too busy; retry after the number of seconds in the Retry-After header",
+                    content = {@Content( mediaType = "application/json",
+                            schema = @Schema( implementation = RestResponse.class ) )} ),
+    } )
+    @PostMapping( "/batch" )
+    @ResponseStatus( HttpStatus.ACCEPTED )
+    public CompletableFuture<CreateLedgerTransactionBatchResponse> createLedgerTransactions(
+            @Valid @RequestBody final CreateLedgerTransactionBatchRequest request ) throws OverloadedException, ValidationException {
+
+        List<CreateLedgerTransactionRequest> requests = request.getLedgerTransactions();
+        if ( requests.size() > MAX_BATCH_SIZE ) {
+            throw new ValidationException( "No more than " + MAX_BATCH_SIZE + " ledger transactions allowed in a batch" );
+        }
+        Set<String> uuids = new HashSet<>();
+        for ( CreateLedgerTransactionRequest txn : requests ) {
+            if ( !uuids.add( txn.getUuid() ) ) {
+                throw new ValidationException( "Duplicate ledger transaction UUID in batch: " + txn.getUuid() );
+            }
+        }
+
+        // the whole batch is admitted (or rejected) together, counting each ledger transaction as a request
+        long timeoutMillis = admit( API_SERVICE_TIMEOUT_MS, requests.size() );
+        List<CompletableFuture<CreateLedgerTransactionResponse>> responses = requests.stream()
+                .map( txn -> ledgerService.waitForLedgerTransactionCreation( txn.getUuid(), timeoutMillis ) )
+                .toList();
+
+        // sent back to back, grouped by record key (each key in the order received), so the producer can put all those
+        // for the same partition in the same batch
+        requests.stream()
+                .collect( Collectors.groupingBy( LedgerTransactionController::getPartitionKey, LinkedHashMap::new, Collectors.toList() ) )
+                .forEach( ( key, txns ) -> txns.forEach( txn -> sendMessage( key, EventType.CREATE_LEDGER_TRANSACTION, txn.getUuid(),
+                        codec.encode( new ApiOperation<LedgerTransaction>()
+                                .withEventType( EventType.CREATE_LEDGER_TRANSACTION )
+                                .withData( txn.toLedgerTransaction() ) ) ) ) );
+
+        // each one completes (if only with "pending") within the timeout so this does too
+        return CompletableFuture.allOf( responses.toArray( CompletableFuture[]::new ) )
+                .thenApply( done -> new CreateLedgerTransactionBatchResponse( responses.stream()
+                        .map( CompletableFuture::join )
+                        .toList() ) );
+    }
 
-        // FIXME: "key" should be tied to the user so they write to the same partition (and are processed in the order it is received)
-        // https://stackoverflow.com/a/58450517
-        sendMessage( "USERID", payload );
-        return ledgerService.waitForLedgerTransactionCreation( request.getUuid(), API_SERVICE_TIMEOUT_MS );
+    /**
+     * Returns the Kafka record key for the given ledger transaction. This is derived from the (sorted) ledger accounts
+     * involved so that transactions between the same accounts always go to the same partition in the order received.
+     *
+     * @param request ledger transaction request
+     * @return non-null record key
+     */
+    protected static String getPartitionKey( CreateLedgerTransactionRequest request ) {
+        return request.getLedgerEntries().stream()
+                .map( entry -> entry.getLedgerAccount().getUuid() )
+                .distinct()
+                .sorted()
+                .collect( Collectors.joining( "," ) );
     }
 
     @Override
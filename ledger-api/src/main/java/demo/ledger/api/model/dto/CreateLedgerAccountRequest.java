@@ -1,6 +1,8 @@
 package demo.ledger.api.model.dto;
 
 import demo.ledger.api.model.validation.ValidUUID;
+import demo.ledger.model.Ledger;
+import demo.ledger.model.LedgerAccount;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
@@ -42,4 +44,16 @@ public class CreateLedgerAccountRequest {
     @Schema( description = "The ISO 4217 three-letter currency code for this account" )
     private String currency;
 
+    /**
+     * @return the ledger account to be created by the event processor
+     */
+    public LedgerAccount toLedgerAccount() {
+        return LedgerAccount.builder()
+                .uuid( getUuid() )
+                .ledger( Ledger.builder().uuid( getLedger().getUuid() ).build() )
+                .name( getName() )
+                .description( getDescription() )
+                .currency( getCurrency() )
+                .build();
+    }
 }
@@ -1,6 +1,7 @@
 package demo.ledger.api.model.dto;
 
 import demo.ledger.api.model.validation.ValidUUID;
+import demo.ledger.model.Ledger;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
@@ -29,4 +30,14 @@ public class CreateLedgerRequest {
     @Schema( description = "A short description of this ledger" )
     private String description;
 
+    /**
+     * @return the ledger to be created by the event processor
+     */
+    public Ledger toLedger() {
+        return Ledger.builder()
+                .uuid( getUuid() )
+                .name( getName() )
+                .description( getDescription() )
+                .build();
+    }
 }
@@ -0,0 +1,23 @@
+package demo.ledger.api.model.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Builder
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CreateLedgerTransactionBatchRequest {
+
+    @NotEmpty
+    @Schema( description = "The ledger transactions to create (each with its own UUID, up to ledger.api.batch.max-size of them)" )
+    private List<@NotNull @Valid CreateLedgerTransactionRequest> ledgerTransactions;
+}
@@ -0,0 +1,26 @@
+package demo.ledger.api.model.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.util.List;
+
+@Data
+@EqualsAndHashCode( callSuper = true )
+public class CreateLedgerTransactionBatchResponse extends RestResponse {
+
+    @Schema( description = "The outcome of each ledger transaction, in the order requested" )
+    private List<CreateLedgerTransactionResponse> ledgerTransactions;
+
+    /**
+     * The batch is "completed" once every ledger transaction in it has completed or failed, otherwise "pending".
+     *
+     * @param ledgerTransactions response for each ledger transaction
+     */
+    public CreateLedgerTransactionBatchResponse( List<CreateLedgerTransactionResponse> ledgerTransactions ) {
+        super( ledgerTransactions.stream().anyMatch( response -> response.getStatus() == RequestStatus.pending ) ?
+                RequestStatus.pending : RequestStatus.completed );
+        this.ledgerTransactions = ledgerTransactions;
+    }
+}
@@ -1,6 +1,10 @@
 package demo.ledger.api.model.dto;
 
 import demo.ledger.api.model.validation.ValidUUID;
+import demo.ledger.model.LedgerAccount;
+import demo.ledger.model.LedgerEntry;
+import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.LedgerTransactionDirection;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
@@ -32,4 +36,23 @@ public class CreateLedgerTransactionRequest {
     @Valid
     private List<LedgerEntryRequest> ledgerEntries;
 
+    /**
+     * @return the ledger transaction to be created by the event processor
+     */
+    public LedgerTransaction toLedgerTransaction() {
+        return LedgerTransaction.builder()
+                .uuid( getUuid() )
+                .description( getDescription() )
+                .ledgerEntries( getLedgerEntries().stream()
+                        .map( entry -> LedgerEntry.builder()
+                                .ledgerAccount( LedgerAccount.builder()
+                                        .uuid( entry.getLedgerAccount().getUuid() )
+                                        .lockVersion( entry.getLedgerAccount().getLockVersion() )
+                                        .build() )
+                                .amount( entry.getAmount() )
+                                .direction( LedgerTransactionDirection.valueOf( entry.getDirection() ) )
+                                .build() )
+                        .toList() )
+                .build();
+    }
 }
@@ -0,0 +1,28 @@
+package demo.ledger.api.model.dto;
+
+import demo.ledger.api.model.validation.ValidDateTime;
+import demo.ledger.api.model.validation.ValidUUID;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Builder
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GetBalancesRequest {
+
+    @NotEmpty
+    @Schema( description = "The UUIDs of the ledger accounts to query (up to ledger.api.balance-batch.max-size of them)" )
+    private List<@NotBlank @ValidUUID String> uuids;
+
+    @ValidDateTime
+    @Schema( description = "Date/time in the following format: YYYY-MM-DDThh:mm:ss+HH:MM (eg. 2024-04-11T10:24:35+02:00)" )
+    private String timestamp;
+}
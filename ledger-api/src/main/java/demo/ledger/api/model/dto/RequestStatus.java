@@ -6,5 +6,6 @@ package demo.ledger.api.model.dto;
 public enum RequestStatus {
     pending,
     completed,
-    failed
+    failed,
+    rejected // not accepted as we're too busy; retry after the time given in the Retry-After header
 }
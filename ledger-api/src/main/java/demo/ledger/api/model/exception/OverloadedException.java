@@ -0,0 +1,22 @@
+package demo.ledger.api.model.exception;
+
+/**
+ * Thrown when a request is turned away because the system is too busy to handle it in time.
+ */
+public class OverloadedException extends Exception {
+
+    private final long retryAfterSeconds;
+
+    /**
+     * @param message           reason
+     * @param retryAfterSeconds how long the client should wait before trying again
+     */
+    public OverloadedException( String message, long retryAfterSeconds ) {
+        super( message );
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
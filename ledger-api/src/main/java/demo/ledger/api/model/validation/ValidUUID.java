@@ -11,7 +11,7 @@ import java.lang.annotation.Target;
 
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
-@Target( ElementType.FIELD )
+@Target( {ElementType.FIELD, ElementType.TYPE_USE} )
 @Constraint( validatedBy = {} )
 @Retention( RUNTIME )
 @Pattern( regexp = "^[0-9a-f]{8}-[0-9a-f]{4}-[1-5][0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}$" )
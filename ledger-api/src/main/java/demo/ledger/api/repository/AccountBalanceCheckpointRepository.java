@@ -0,0 +1,28 @@
+package demo.ledger.api.repository;
+
+import demo.ledger.model.AccountBalanceCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface AccountBalanceCheckpointRepository extends JpaRepository<AccountBalanceCheckpoint, Long> {
+
+    Optional<AccountBalanceCheckpoint> findFirstByLedgerAccountIdAndCheckpointDateLessThanEqualOrderByCheckpointDateDesc(
+            Long ledgerAccountId, OffsetDateTime checkpointDate );
+
+    // the most recent checkpoint on or before the given date for each of the given accounts (that has one)
+    @Query( "SELECT c FROM AccountBalanceCheckpoint c " +
+            "WHERE c.ledgerAccountId IN :ledgerAccountIds " +
+            "AND c.checkpointDate = (SELECT MAX(c2.checkpointDate) FROM AccountBalanceCheckpoint c2 " +
+            "WHERE c2.ledgerAccountId = c.ledgerAccountId AND c2.checkpointDate <= :checkpointDate)" )
+    List<AccountBalanceCheckpoint> findLatestByLedgerAccountIdIn( @Param( "ledgerAccountIds" ) Collection<Long> ledgerAccountIds,
+                                                                  @Param( "checkpointDate" ) OffsetDateTime checkpointDate );
+
+}
@@ -0,0 +1,9 @@
+package demo.ledger.api.repository;
+
+import demo.ledger.model.AccountBalance;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface AccountBalanceRepository extends JpaRepository<AccountBalance, Long> {
+}
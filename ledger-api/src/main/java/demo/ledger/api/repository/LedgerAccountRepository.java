@@ -2,8 +2,36 @@ package demo.ledger.api.repository;
 
 import demo.ledger.model.LedgerAccount;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface LedgerAccountRepository extends JpaRepository<LedgerAccount, Long> {
+
+    Optional<LedgerAccount> findByUuid( String uuid );
+
+    // along with its ledger so it can be held in LedgerMetadataCache
+    @Query( "SELECT a FROM LedgerAccount a JOIN FETCH a.ledger WHERE a.uuid = :uuid" )
+    Optional<LedgerAccount> findWithLedgerByUuid( @Param( "uuid" ) String uuid );
+
+    // the only column that changes once an account is created
+    @Query( "SELECT a.lockVersion FROM LedgerAccount a WHERE a.id = :id" )
+    Optional<Long> findLockVersionById( @Param( "id" ) Long id );
+
+    // only selects the columns we need for a balance request
+    List<LedgerAccountSummary> findSummariesByUuidIn( Collection<String> uuids );
+
+    // along with the running balance maintained by the event processor (if there is one), in a single query
+    @Query( "SELECT a.id AS id, a.uuid AS uuid, COALESCE(b.lockVersion, a.lockVersion) AS lockVersion, " +
+            "a.name AS name, a.description AS description, " +
+            "b.totalCredits AS totalCredits, b.totalDebits AS totalDebits " +
+            "FROM LedgerAccount a LEFT JOIN AccountBalance b ON b.ledgerAccountId = a.id " +
+            "WHERE a.uuid IN :uuids" )
+    List<LedgerAccountRunningBalance> findRunningBalancesByUuidIn( @Param( "uuids" ) Collection<String> uuids );
+
 }
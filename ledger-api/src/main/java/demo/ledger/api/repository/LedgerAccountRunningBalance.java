@@ -0,0 +1,9 @@
+package demo.ledger.api.repository;
+
+import java.math.BigInteger;
+
+// the totals are null if the account has no running balance
+public interface LedgerAccountRunningBalance extends LedgerAccountSummary {
+    BigInteger getTotalCredits();
+    BigInteger getTotalDebits();
+}
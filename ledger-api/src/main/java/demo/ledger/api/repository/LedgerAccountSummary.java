@@ -0,0 +1,9 @@
+package demo.ledger.api.repository;
+
+public interface LedgerAccountSummary {
+    Long getId();
+    String getUuid();
+    Long getLockVersion();
+    String getName();
+    String getDescription();
+}
@@ -0,0 +1,8 @@
+package demo.ledger.api.repository;
+
+import java.math.BigInteger;
+
+public interface LedgerAccountTotals {
+    BigInteger getTotalCredits();
+    BigInteger getTotalDebits();
+}
@@ -0,0 +1,5 @@
+package demo.ledger.api.repository;
+
+public interface LedgerAccountTotalsById extends LedgerAccountTotals {
+    Long getLedgerAccountId();
+}
@@ -0,0 +1,12 @@
+package demo.ledger.api.repository;
+
+import demo.ledger.model.LedgerTransactionDirection;
+
+import java.math.BigInteger;
+import java.time.OffsetDateTime;
+
+public interface LedgerEntryAmount {
+    OffsetDateTime getCreatedDate();
+    LedgerTransactionDirection getDirection();
+    BigInteger getAmount();
+}
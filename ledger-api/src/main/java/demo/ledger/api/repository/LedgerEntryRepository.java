@@ -1,17 +1,42 @@
 package demo.ledger.api.repository;
 
 import demo.ledger.model.LedgerEntry;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, Long> {
 
+    @Query( "SELECT " +
+            "SUM(CASE WHEN e.direction = 'credit' THEN e.amount ELSE 0 END) AS totalCredits, " +
+            "SUM(CASE WHEN e.direction = 'debit' THEN e.amount ELSE 0 END) AS totalDebits " +
+            "FROM LedgerEntry e " +
+            "WHERE e.ledgerAccount.id = :ledgerAccountId " +
+            "AND e.createdDate <= :queryDate" )
+    LedgerAccountTotals getTotals( @Param( "ledgerAccountId" ) Long ledgerAccountId,
+                                   @Param( "queryDate" ) OffsetDateTime createdDate );
+
+    @Query( "SELECT " +
+            "SUM(CASE WHEN e.direction = 'credit' THEN e.amount ELSE 0 END) AS totalCredits, " +
+            "SUM(CASE WHEN e.direction = 'debit' THEN e.amount ELSE 0 END) AS totalDebits " +
+            "FROM LedgerEntry e " +
+            "WHERE e.ledgerAccount.id = :ledgerAccountId " +
+            "AND e.createdDate > :fromDate " +
+            "AND e.createdDate <= :queryDate" )
+    LedgerAccountTotals getTotals( @Param( "ledgerAccountId" ) Long ledgerAccountId,
+                                   @Param( "fromDate" ) OffsetDateTime fromDate,
+                                   @Param( "queryDate" ) OffsetDateTime createdDate );
+
     @Query( "SELECT " +
             "e.ledgerAccount.uuid AS ledgerAccountUuid, " +
             "MAX(e.ledgerAccount.lockVersion) AS ledgerAccountLockVersion, " +
@@ -19,10 +44,8 @@ public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, Long>
             "SUM(CASE WHEN e.direction = 'debit' THEN e.amount ELSE 0 END) AS totalDebits " +
             "FROM LedgerEntry e " +
             "WHERE e.ledgerAccount.uuid = :ledgerAccountUuid " +
-            "AND e.createdDate <= :queryDate " +
             "GROUP BY e.ledgerAccount.uuid" )
-    List<LedgerAccountBalance> getBalances( @Param( "ledgerAccountUuid" ) String ledgerAccountId,
-                                @Param( "queryDate" ) OffsetDateTime createdDate );
+    List<LedgerAccountBalance> getBalances( @Param( "ledgerAccountUuid" ) String ledgerAccountId );
 
     @Query( "SELECT " +
             "e.ledgerAccount.uuid AS ledgerAccountUuid, " +
@@ -30,9 +53,56 @@ public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, Long>
             "SUM(CASE WHEN e.direction = 'credit' THEN e.amount ELSE 0 END) AS totalCredits, " +
             "SUM(CASE WHEN e.direction = 'debit' THEN e.amount ELSE 0 END) AS totalDebits " +
             "FROM LedgerEntry e " +
-            "WHERE e.ledgerAccount.uuid = :ledgerAccountUuid " +
+            "WHERE e.ledgerAccount.uuid IN :ledgerAccountUuids " +
             "GROUP BY e.ledgerAccount.uuid" )
-    List<LedgerAccountBalance> getBalances( @Param( "ledgerAccountUuid" ) String ledgerAccountId );
+    List<LedgerAccountBalance> getBalances( @Param( "ledgerAccountUuids" ) Collection<String> ledgerAccountUuids );
 
-}
+    // the totals of each account since the given checkpoint (one per account) up to the query date; driven from the
+    // checkpoints so only the ledger entries after each account's own checkpoint are read
+    @Query( "SELECT " +
+            "c.ledgerAccountId AS ledgerAccountId, " +
+            "SUM(CASE WHEN e.direction = 'credit' THEN e.amount ELSE 0 END) AS totalCredits, " +
+            "SUM(CASE WHEN e.direction = 'debit' THEN e.amount ELSE 0 END) AS totalDebits " +
+            "FROM AccountBalanceCheckpoint c " +
+            "JOIN LedgerEntry e ON e.ledgerAccount.id = c.ledgerAccountId AND e.createdDate > c.checkpointDate " +
+            "WHERE c.id IN :checkpointIds " +
+            "AND e.createdDate <= :queryDate " +
+            "GROUP BY c.ledgerAccountId" )
+    List<LedgerAccountTotalsById> getTotalsSinceCheckpoints( @Param( "checkpointIds" ) Collection<Long> checkpointIds,
+                                                             @Param( "queryDate" ) OffsetDateTime queryDate );
+
+    // the totals of each account (without a checkpoint) up to the query date
+    @Query( "SELECT " +
+            "e.ledgerAccount.id AS ledgerAccountId, " +
+            "SUM(CASE WHEN e.direction = 'credit' THEN e.amount ELSE 0 END) AS totalCredits, " +
+            "SUM(CASE WHEN e.direction = 'debit' THEN e.amount ELSE 0 END) AS totalDebits " +
+            "FROM LedgerEntry e " +
+            "WHERE e.ledgerAccount.id IN :ledgerAccountIds " +
+            "AND e.createdDate <= :queryDate " +
+            "GROUP BY e.ledgerAccount.id" )
+    List<LedgerAccountTotalsById> getTotals( @Param( "ledgerAccountIds" ) Collection<Long> ledgerAccountIds,
+                                             @Param( "queryDate" ) OffsetDateTime queryDate );
+
+    // the ledger entries of an account in the order they were created, fetched from the database a batch at a time as
+    // the stream is read (which must be done inside a transaction; the stream must be closed afterwards)
+    @QueryHints( @QueryHint( name = HibernateHints.HINT_FETCH_SIZE, value = "1000" ) )
+    @Query( "SELECT e.createdDate AS createdDate, e.direction AS direction, e.amount AS amount " +
+            "FROM LedgerEntry e " +
+            "WHERE e.ledgerAccount.id = :ledgerAccountId " +
+            "AND e.createdDate <= :queryDate " +
+            "ORDER BY e.createdDate" )
+    Stream<LedgerEntryAmount> streamAmounts( @Param( "ledgerAccountId" ) Long ledgerAccountId,
+                                             @Param( "queryDate" ) OffsetDateTime queryDate );
 
+    @QueryHints( @QueryHint( name = HibernateHints.HINT_FETCH_SIZE, value = "1000" ) )
+    @Query( "SELECT e.createdDate AS createdDate, e.direction AS direction, e.amount AS amount " +
+            "FROM LedgerEntry e " +
+            "WHERE e.ledgerAccount.id = :ledgerAccountId " +
+            "AND e.createdDate > :fromDate " +
+            "AND e.createdDate <= :queryDate " +
+            "ORDER BY e.createdDate" )
+    Stream<LedgerEntryAmount> streamAmounts( @Param( "ledgerAccountId" ) Long ledgerAccountId,
+                                             @Param( "fromDate" ) OffsetDateTime fromDate,
+                                             @Param( "queryDate" ) OffsetDateTime queryDate );
+
+}
@@ -4,6 +4,11 @@ import demo.ledger.model.Ledger;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface LedgerRepository extends JpaRepository<Ledger, Long> {
+
+    Optional<Ledger> findByUuid( String uuid );
+
 }
@@ -1,9 +1,17 @@
 package demo.ledger.api.repository;
 
 import demo.ledger.model.LedgerTransaction;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface LedgerTransactionRepository extends JpaRepository<LedgerTransaction, Long> {
+
+    // fetch the ledger entries (and their accounts) in the same query rather than lazily loading each one
+    @EntityGraph( attributePaths = {"ledgerEntries", "ledgerEntries.ledgerAccount"} )
+    Optional<LedgerTransaction> findByUuid( String uuid );
+
 }
@@ -0,0 +1,120 @@
+package demo.ledger.api.service;
+
+import demo.ledger.api.model.exception.OverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Decides whether to accept a create request, and how long it should wait for its completion event, based on how far
+ * behind the event processor is ({@link ConsumerLagMonitor}) and how many requests are already waiting here.
+ * <p>
+ * Below the soft limits requests wait the full timeout. Between the soft and hard limits the wait is cut back
+ * (linearly, down to ledger.api.admission.min-timeout.ms) so requests that are unlikely to complete in time return
+ * "pending" sooner and don't hold on to their slot. At either hard limit requests are rejected outright (429) with a
+ * Retry-After estimated from how quickly the processor is getting through its backlog. If the lag isn't known
+ * (eg. Kafka can't be reached) only the number of waiting requests is taken into account.
+ */
+@Service
+public class AdmissionControl {
+
+    private final ConsumerLagMonitor lagMonitor;
+    private final List<PendingRequestRegistry<?>> pendingRequests;
+    private final boolean enabled;
+    private final long lagSoftLimit;
+    private final long lagHardLimit;
+    private final long pendingSoftLimit;
+    private final long pendingHardLimit;
+    private final long minTimeoutMillis;
+    private final long maxRetryAfterSeconds;
+    private final Counter shortened;
+    private final Counter rejected;
+
+    public AdmissionControl( ConsumerLagMonitor lagMonitor, List<PendingRequestRegistry<?>> pendingRequests, MeterRegistry meterRegistry,
+                             @Value( value = "${ledger.api.admission.enabled}" ) boolean enabled,
+                             @Value( value = "${ledger.api.admission.lag.soft-limit}" ) long lagSoftLimit,
+                             @Value( value = "${ledger.api.admission.lag.hard-limit}" ) long lagHardLimit,
+                             @Value( value = "${ledger.api.admission.pending.soft-limit}" ) long pendingSoftLimit,
+                             @Value( value = "${ledger.api.admission.pending.hard-limit}" ) long pendingHardLimit,
+                             @Value( value = "${ledger.api.admission.min-timeout.ms}" ) long minTimeoutMillis,
+                             @Value( value = "${ledger.api.admission.max-retry-after.seconds}" ) long maxRetryAfterSeconds ) {
+        this.lagMonitor = lagMonitor;
+        this.pendingRequests = pendingRequests;
+        this.enabled = enabled;
+        this.lagSoftLimit = lagSoftLimit;
+        this.lagHardLimit = lagHardLimit;
+        this.pendingSoftLimit = pendingSoftLimit;
+        this.pendingHardLimit = pendingHardLimit;
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.maxRetryAfterSeconds = maxRetryAfterSeconds;
+        this.shortened = Counter.builder( "ledger.api.admission.shortened" )
+                .description( "Number of requests accepted with a shorter wait for their completion event" )
+                .register( meterRegistry );
+        this.rejected = Counter.builder( "ledger.api.admission.rejected" )
+                .description( "Number of requests rejected as the event processor was too far behind" )
+                .register( meterRegistry );
+    }
+
+    /**
+     * Admits a new create request.
+     *
+     * @param timeoutMillis how long the request would normally wait for its completion event
+     * @return how long the request should wait for its completion event
+     * @throws OverloadedException if the request should be rejected
+     */
+    public long admit( long timeoutMillis ) throws OverloadedException {
+        return admit( timeoutMillis, 1 );
+    }
+
+    /**
+     * Admits (or rejects) several create requests together, eg. a batch; each counts towards the number waiting.
+     *
+     * @param timeoutMillis how long the requests would normally wait for their completion events
+     * @param count         number of requests
+     * @return how long the requests should wait for their completion events
+     * @throws OverloadedException if the requests should be rejected
+     */
+    public long admit( long timeoutMillis, int count ) throws OverloadedException {
+        if ( !enabled ) {
+            return timeoutMillis;
+        }
+
+        long lag = lagMonitor.getLag();
+        // as if all but one of those being admitted were already waiting
+        long waiting = pendingRequests.stream().mapToLong( PendingRequestRegistry::estimatedSize ).sum() + count - 1;
+        if ( lag >= lagHardLimit ) {
+            rejected.increment();
+            double drainRate = lagMonitor.getDrainRate();
+            throw new OverloadedException( "Too many requests in progress; please try again later",
+                    retryAfterSeconds( drainRate > 0 ? ( lag - lagSoftLimit ) / drainRate : maxRetryAfterSeconds ) );
+        }
+        if ( waiting >= pendingHardLimit ) {
+            // those waiting will have completed (or given up) within the timeout
+            rejected.increment();
+            throw new OverloadedException( "Too many requests in progress; please try again later",
+                    retryAfterSeconds( timeoutMillis / 1000.0 ) );
+        }
+
+        double load = Math.max( overLimit( lag, lagSoftLimit, lagHardLimit ), overLimit( waiting, pendingSoftLimit, pendingHardLimit ) );
+        if ( load <= 0 ) {
+            return timeoutMillis;
+        }
+        shortened.increment();
+        long minTimeout = Math.min( minTimeoutMillis, timeoutMillis );
+        return minTimeout + Math.round( ( timeoutMillis - minTimeout ) * ( 1 - load ) );
+    }
+
+    /**
+     * @return how far the given value is between the soft (0) and hard (1) limit
+     */
+    private static double overLimit( long value, long softLimit, long hardLimit ) {
+        return value <= softLimit ? 0 : (double) ( value - softLimit ) / ( hardLimit - softLimit );
+    }
+
+    private long retryAfterSeconds( double seconds ) {
+        return Math.max( 1, Math.min( maxRetryAfterSeconds, (long) Math.ceil( seconds ) ) );
+    }
+}
@@ -0,0 +1,111 @@
+package demo.ledger.api.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static demo.ledger.api.config.KafkaTopicConfig.LEDGER_EVENTS_TOPIC;
+
+/**
+ * Keeps track of how far the event processor is behind on the ledger-events topic (the lag of its consumer group:
+ * the number of events written but not yet committed) and how quickly it's getting through them.
+ */
+@Component
+public class ConsumerLagMonitor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( ConsumerLagMonitor.class );
+    private static final long ADMIN_TIMEOUT_MS = 5000;
+
+    private final AdminClient adminClient;
+    private final String groupId;
+    private final Map<TopicPartition, OffsetSpec> latestOffsets;
+    private volatile long lag = -1;
+    private volatile double drainRate;
+    private long lastCommitted = -1;
+    private long lastPollTime;
+
+    public ConsumerLagMonitor( KafkaAdmin kafkaAdmin, MeterRegistry meterRegistry,
+                               @Value( value = "${ledger.api.admission.processor-group-id}" ) String groupId,
+                               @Value( value = "${ledger.events.partitions}" ) int partitions ) {
+        this.adminClient = AdminClient.create( kafkaAdmin.getConfigurationProperties() );
+        this.groupId = groupId;
+        this.latestOffsets = IntStream.range( 0, partitions )
+                .mapToObj( partition -> new TopicPartition( LEDGER_EVENTS_TOPIC, partition ) )
+                .collect( Collectors.toMap( Function.identity(), partition -> OffsetSpec.latest() ) );
+
+        Gauge.builder( "ledger.api.processor.lag", this, ConsumerLagMonitor::getLag )
+                .description( "Number of events on " + LEDGER_EVENTS_TOPIC + " not yet processed by the event processor (-1 if unknown)" )
+                .register( meterRegistry );
+        Gauge.builder( "ledger.api.processor.drain.rate", this, ConsumerLagMonitor::getDrainRate )
+                .description( "Number of events per second being processed by the event processor" )
+                .register( meterRegistry );
+    }
+
+    @Scheduled( fixedDelayString = "${ledger.api.admission.lag.poll-interval.ms}" )
+    public void poll() {
+        try {
+            Map<TopicPartition, OffsetAndMetadata> committed = adminClient.listConsumerGroupOffsets( groupId )
+                    .partitionsToOffsetAndMetadata().get( ADMIN_TIMEOUT_MS, TimeUnit.MILLISECONDS );
+            Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> latest = adminClient.listOffsets( latestOffsets )
+                    .all().get( ADMIN_TIMEOUT_MS, TimeUnit.MILLISECONDS );
+
+            long totalLag = 0;
+            long totalCommitted = 0;
+            for ( Map.Entry<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> partition : latest.entrySet() ) {
+                OffsetAndMetadata offset = committed.get( partition.getKey() );
+                if ( offset != null ) { // nothing to go on until the processor has committed on this partition
+                    totalLag += Math.max( 0, partition.getValue().offset() - offset.offset() );
+                    totalCommitted += offset.offset();
+                }
+            }
+
+            long now = System.nanoTime();
+            if ( lastCommitted >= 0 && now > lastPollTime ) {
+                drainRate = Math.max( 0, totalCommitted - lastCommitted ) / ( ( now - lastPollTime ) / 1e9 );
+            }
+            lastCommitted = totalCommitted;
+            lastPollTime = now;
+            lag = totalLag;
+        }
+        catch ( Exception ex ) {
+            LOGGER.warn( "Unable to fetch the lag of consumer group {}: {}", groupId, ex.getMessage() );
+            lag = -1;
+        }
+    }
+
+    /**
+     * @return number of events on ledger-events waiting to be processed; -1 if not known
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * @return number of events per second processed since the last poll
+     */
+    public double getDrainRate() {
+        return drainRate;
+    }
+
+    @PreDestroy
+    public void close() {
+        adminClient.close();
+    }
+}
@@ -0,0 +1,73 @@
+package demo.ledger.api.service;
+
+import demo.ledger.model.dto.EventType;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers for the stages of a create request seen by the API (see ProcessingMetrics in the event processor for the
+ * stages in between). All are published as histograms so percentiles can be aggregated across instances.
+ * <ul>
+ *     <li>ledger.api.produce.latency - sending a command to Kafka until it was acknowledged</li>
+ *     <li>ledger.api.reply.latency - from the completion event being written to Kafka until we received it</li>
+ *     <li>ledger.api.completion.latency - from the API accepting the request until its completion event was received</li>
+ * </ul>
+ * The last two compare timestamps set elsewhere with our clock so are only as accurate as the clocks are in sync.
+ * The time taken by the request as a whole (including any "pending" timeouts) is in http.server.requests.
+ */
+@Component
+public class LatencyMetrics {
+
+    private final Map<EventType, Timer> produceLatency = new EnumMap<>( EventType.class );
+    private final Map<EventType, Timer> replyLatency = new EnumMap<>( EventType.class );
+    private final Map<EventType, Timer> completionLatency = new EnumMap<>( EventType.class );
+
+    public LatencyMetrics( MeterRegistry meterRegistry ) {
+        for ( EventType eventType : EventType.values() ) {
+            produceLatency.put( eventType, Timer.builder( "ledger.api.produce.latency" )
+                    .description( "Time taken for a command to be acknowledged by Kafka" )
+                    .tag( "type", eventType.name() )
+                    .publishPercentileHistogram()
+                    .register( meterRegistry ) );
+            replyLatency.put( eventType, Timer.builder( "ledger.api.reply.latency" )
+                    .description( "Time from a completion event being written to Kafka until it was received" )
+                    .tag( "type", eventType.name() )
+                    .publishPercentileHistogram()
+                    .register( meterRegistry ) );
+            completionLatency.put( eventType, Timer.builder( "ledger.api.completion.latency" )
+                    .description( "Time from a request being accepted until its completion event was received" )
+                    .tag( "type", eventType.name() )
+                    .publishPercentileHistogram()
+                    .register( meterRegistry ) );
+        }
+    }
+
+    /**
+     * @param eventType command type
+     * @param startTime when the command was sent ({@link System#nanoTime()})
+     */
+    public void recordProduceLatency( EventType eventType, long startTime ) {
+        produceLatency.get( eventType ).record( System.nanoTime() - startTime, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * @param eventType       completion event type
+     * @param recordTimestamp timestamp of the Kafka record (epoch millis)
+     */
+    public void recordReplyLatency( EventType eventType, long recordTimestamp ) {
+        replyLatency.get( eventType ).record( Math.max( 0, System.currentTimeMillis() - recordTimestamp ), TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * @param eventType        completion event type
+     * @param ingressTimestamp when the request was accepted (epoch millis)
+     */
+    public void recordCompletionLatency( EventType eventType, long ingressTimestamp ) {
+        completionLatency.get( eventType ).record( Math.max( 0, System.currentTimeMillis() - ingressTimestamp ), TimeUnit.MILLISECONDS );
+    }
+}
@@ -0,0 +1,161 @@
+package demo.ledger.api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import demo.ledger.model.Ledger;
+import demo.ledger.model.LedgerAccount;
+import demo.ledger.model.dto.EventType;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Ledgers and ledger accounts by UUID. Neither changes once created (apart from the lock version of an account, which
+ * changes with every transaction posted to it so isn't held here) so lookups only need to go to the database the
+ * first time. Filled from the creation events received by {@link LedgerService} as well as by lookups.
+ * <p>
+ * Lookups that don't find anything are held too, but only briefly: a ledger or account created through another API
+ * instance (whose creation event we don't see) isn't found here until the "not found" entry expires.
+ * <p>
+ * Hits, misses, size and evictions are published as the cache.* metrics (tagged cache=ledger|ledger_account).
+ * Everything returned is shared so must not be modified.
+ */
+@Component
+public class LedgerMetadataCache {
+
+    private final Cache<String, Optional<Ledger>> ledgers;
+    private final Cache<String, Optional<LedgerAccount>> ledgerAccounts;
+
+    /**
+     * @param meterRegistry  where to publish our metrics
+     * @param maximumSize    maximum number of ledgers (and of ledger accounts) held
+     * @param ttlMillis      how long to hold a ledger or account for
+     * @param notFoundMillis how long to remember a UUID that wasn't found
+     */
+    @Autowired
+    public LedgerMetadataCache( MeterRegistry meterRegistry,
+                                @Value( value = "${ledger.api.metadata-cache.max-size}" ) long maximumSize,
+                                @Value( value = "${ledger.api.metadata-cache.ttl.ms}" ) long ttlMillis,
+                                @Value( value = "${ledger.api.metadata-cache.not-found-ttl.ms}" ) long notFoundMillis ) {
+        this( meterRegistry, maximumSize, Duration.ofMillis( ttlMillis ), Duration.ofMillis( notFoundMillis ), Ticker.systemTicker() );
+    }
+
+    LedgerMetadataCache( MeterRegistry meterRegistry, long maximumSize, Duration ttl, Duration notFoundTtl, Ticker ticker ) {
+        this.ledgers = build( maximumSize, ttl, notFoundTtl, ticker );
+        this.ledgerAccounts = build( maximumSize, ttl, notFoundTtl, ticker );
+        CaffeineCacheMetrics.monitor( meterRegistry, ledgers, "ledger" );
+        CaffeineCacheMetrics.monitor( meterRegistry, ledgerAccounts, "ledger_account" );
+    }
+
+    private static <V> Cache<String, Optional<V>> build( long maximumSize, Duration ttl, Duration notFoundTtl, Ticker ticker ) {
+        long ttlNanos = ttl.toNanos();
+        long notFoundNanos = notFoundTtl.toNanos();
+        return Caffeine.newBuilder()
+                .maximumSize( maximumSize )
+                .expireAfter( new Expiry<String, Optional<V>>() {
+                    @Override
+                    public long expireAfterCreate( String key, Optional<V> value, long currentTime ) {
+                        return value.isPresent() ? ttlNanos : notFoundNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate( String key, Optional<V> value, long currentTime, long currentDuration ) {
+                        return expireAfterCreate( key, value, currentTime );
+                    }
+
+                    @Override
+                    public long expireAfterRead( String key, Optional<V> value, long currentTime, long currentDuration ) {
+                        return currentDuration;
+                    }
+                } )
+                .ticker( ticker )
+                .executor( Runnable::run )
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param uuid   ledger UUID
+     * @param loader looks up the ledger in the database if we don't have it
+     * @return the ledger (if found)
+     */
+    public Optional<Ledger> getLedger( String uuid, Function<String, Optional<Ledger>> loader ) {
+        return ledgers.get( uuid, key -> loader.apply( key ).map( LedgerMetadataCache::copyOf ) );
+    }
+
+    /**
+     * @param uuid   ledger account UUID
+     * @param loader looks up the ledger account (and its ledger) in the database if we don't have it
+     * @return the ledger account (if found), without a lock version
+     */
+    public Optional<LedgerAccount> getLedgerAccount( String uuid, Function<String, Optional<LedgerAccount>> loader ) {
+        return ledgerAccounts.get( uuid, key -> loader.apply( key ).map( LedgerMetadataCache::copyOf ) );
+    }
+
+    /**
+     * Holds a newly created ledger (replacing any "not found" entry).
+     *
+     * @param ledger ledger from a creation event
+     */
+    public void putLedger( Ledger ledger ) {
+        ledgers.put( ledger.getUuid(), Optional.of( copyOf( ledger ) ) );
+    }
+
+    /**
+     * Holds a newly created ledger account (replacing any "not found" entry).
+     *
+     * @param ledgerAccount ledger account from a creation event
+     */
+    public void putLedgerAccount( LedgerAccount ledgerAccount ) {
+        ledgerAccounts.put( ledgerAccount.getUuid(), Optional.of( copyOf( ledgerAccount ) ) );
+    }
+
+    /**
+     * Forgets what we hold for the object created by the given creation event, eg. when the event isn't decoded.
+     *
+     * @param eventType creation event type (others are ignored)
+     * @param uuid      UUID of the object created
+     */
+    public void evict( EventType eventType, String uuid ) {
+        if ( eventType == EventType.LEDGER_CREATED ) {
+            ledgers.invalidate( uuid );
+        }
+        else if ( eventType == EventType.LEDGER_ACCOUNT_CREATED ) {
+            ledgerAccounts.invalidate( uuid );
+        }
+    }
+
+    // detached copies so nothing held refers back to a (closed) persistence context
+
+    private static Ledger copyOf( Ledger ledger ) {
+        return Ledger.builder()
+                .id( ledger.getId() )
+                .uuid( ledger.getUuid() )
+                .name( ledger.getName() )
+                .description( ledger.getDescription() )
+                .createdDate( ledger.getCreatedDate() )
+                .lastUpdatedDate( ledger.getLastUpdatedDate() )
+                .build();
+    }
+
+    private static LedgerAccount copyOf( LedgerAccount ledgerAccount ) {
+        return LedgerAccount.builder()
+                .id( ledgerAccount.getId() )
+                .uuid( ledgerAccount.getUuid() )
+                .ledger( ledgerAccount.getLedger() == null ? null : copyOf( ledgerAccount.getLedger() ) )
+                .name( ledgerAccount.getName() )
+                .description( ledgerAccount.getDescription() )
+                .currency( ledgerAccount.getCurrency() )
+                .createdDate( ledgerAccount.getCreatedDate() )
+                .lastUpdatedDate( ledgerAccount.getLastUpdatedDate() )
+                .build();
+    }
+}
@@ -1,45 +1,66 @@
 package demo.ledger.api.service;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import demo.ledger.api.model.dto.CreateLedgerAccountResponse;
 import demo.ledger.api.model.dto.CreateLedgerResponse;
 import demo.ledger.api.model.dto.CreateLedgerTransactionResponse;
 import demo.ledger.api.model.dto.GetBalanceResponse;
 import demo.ledger.api.model.dto.RequestStatus;
+import demo.ledger.api.repository.AccountBalanceCheckpointRepository;
+import demo.ledger.api.repository.AccountBalanceRepository;
 import demo.ledger.api.repository.LedgerAccountBalance;
 import demo.ledger.api.repository.LedgerAccountRepository;
+import demo.ledger.api.repository.LedgerAccountRunningBalance;
+import demo.ledger.api.repository.LedgerAccountSummary;
+import demo.ledger.api.repository.LedgerAccountTotals;
+import demo.ledger.api.repository.LedgerAccountTotalsById;
+import demo.ledger.api.repository.LedgerEntryAmount;
 import demo.ledger.api.repository.LedgerEntryRepository;
 import demo.ledger.api.repository.LedgerRepository;
 import demo.ledger.api.repository.LedgerTransactionRepository;
+import demo.ledger.model.AccountBalance;
+import demo.ledger.model.AccountBalanceCheckpoint;
 import demo.ledger.model.Ledger;
 import demo.ledger.model.LedgerAccount;
 import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.LedgerTransactionDirection;
+import demo.ledger.model.codec.LedgerEventCodec;
+import demo.ledger.model.codec.LedgerEventHeaders;
+import demo.ledger.model.dto.ApiOperation;
 import demo.ledger.model.dto.EventType;
 import demo.ledger.model.dto.FailedResponse;
 import demo.ledger.model.exception.NotFoundException;
+import lombok.AllArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Example;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.TopicPartition;
 import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigInteger;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static demo.ledger.api.config.KafkaTopicConfig.LEDGER_REPLIES_TOPIC;
 
 @Service
 public class LedgerService {
@@ -48,144 +69,167 @@ public class LedgerService {
     private final LedgerAccountRepository ledgerAccountRepository;
     private final LedgerTransactionRepository ledgerTransactionRepository;
     private final LedgerEntryRepository ledgerEntryRepository;
-    private final Gson gson;
-    private final ConcurrentMap<String, CompletableFuture<CreateLedgerResponse>> pendingLedgers = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, CompletableFuture<CreateLedgerAccountResponse>> pendingLedgerAccounts = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, CompletableFuture<CreateLedgerTransactionResponse>> pendingLedgerTransactions = new ConcurrentHashMap<>();
+    private final AccountBalanceRepository accountBalanceRepository;
+    private final AccountBalanceCheckpointRepository accountBalanceCheckpointRepository;
+    private final LedgerEventCodec codec;
+    private final PendingRequestRegistry<CreateLedgerResponse> pendingLedgers;
+    private final PendingRequestRegistry<CreateLedgerAccountResponse> pendingLedgerAccounts;
+    private final PendingRequestRegistry<CreateLedgerTransactionResponse> pendingLedgerTransactions;
+    private final LatencyMetrics latencyMetrics;
+    private final LedgerMetadataCache metadataCache;
+    private final Map<EventType, CompletionHandler> completionHandlers = new EnumMap<>( EventType.class );
 
     @Autowired
     public LedgerService( LedgerRepository ledgerRepository, LedgerAccountRepository ledgerAccountRepository,
-                          LedgerTransactionRepository ledgerTransactionRepository, LedgerEntryRepository ledgerEntryRepository, Gson gson ) {
+                          LedgerTransactionRepository ledgerTransactionRepository, LedgerEntryRepository ledgerEntryRepository,
+                          AccountBalanceRepository accountBalanceRepository,
+                          AccountBalanceCheckpointRepository accountBalanceCheckpointRepository, LedgerEventCodec codec,
+                          PendingRequestRegistry<CreateLedgerResponse> pendingLedgers,
+                          PendingRequestRegistry<CreateLedgerAccountResponse> pendingLedgerAccounts,
+                          PendingRequestRegistry<CreateLedgerTransactionResponse> pendingLedgerTransactions,
+                          LatencyMetrics latencyMetrics, LedgerMetadataCache metadataCache ) {
         this.ledgerRepository = ledgerRepository;
         this.ledgerAccountRepository = ledgerAccountRepository;
         this.ledgerTransactionRepository = ledgerTransactionRepository;
         this.ledgerEntryRepository = ledgerEntryRepository;
-        this.gson = gson;
+        this.accountBalanceRepository = accountBalanceRepository;
+        this.accountBalanceCheckpointRepository = accountBalanceCheckpointRepository;
+        this.codec = codec;
+        this.pendingLedgers = pendingLedgers;
+        this.pendingLedgerAccounts = pendingLedgerAccounts;
+        this.pendingLedgerTransactions = pendingLedgerTransactions;
+        this.latencyMetrics = latencyMetrics;
+        this.metadataCache = metadataCache;
+
+        completionHandlers.put( EventType.LEDGER_CREATED, new CompletionHandler( pendingLedgers, data -> {
+            metadataCache.putLedger( (Ledger) data );
+            completeLedgerCreation( new CreateLedgerResponse( RequestStatus.completed ).withLedger( (Ledger) data ) );
+        } ) );
+        completionHandlers.put( EventType.LEDGER_CREATION_FAILED, new CompletionHandler( pendingLedgers, data -> {
+            FailedResponse failedResponse = (FailedResponse) data;
+            completeLedgerCreation( new CreateLedgerResponse( RequestStatus.failed )
+                    .withLedger( Ledger.builder().uuid( failedResponse.getUuid() ).build() )
+                    .withError( failedResponse.getError() ) );
+        } ) );
+        completionHandlers.put( EventType.LEDGER_ACCOUNT_CREATED, new CompletionHandler( pendingLedgerAccounts, data -> {
+            metadataCache.putLedgerAccount( (LedgerAccount) data );
+            completeLedgerAccountCreation( new CreateLedgerAccountResponse( RequestStatus.completed ).withLedgerAccount( (LedgerAccount) data ) );
+        } ) );
+        completionHandlers.put( EventType.LEDGER_ACCOUNT_CREATION_FAILED, new CompletionHandler( pendingLedgerAccounts, data -> {
+            FailedResponse failedResponse = (FailedResponse) data;
+            completeLedgerAccountCreation( new CreateLedgerAccountResponse( RequestStatus.failed )
+                    .withError( failedResponse.getError() )
+                    .withLedgerAccount( LedgerAccount.builder().uuid( failedResponse.getUuid() ).build() ) );
+        } ) );
+        completionHandlers.put( EventType.LEDGER_TRANSACTION_CREATED, new CompletionHandler( pendingLedgerTransactions, data ->
+                completeLedgerTransactionCreation( new CreateLedgerTransactionResponse( RequestStatus.completed ).withLedgerTransaction( (LedgerTransaction) data ) ) ) );
+        completionHandlers.put( EventType.LEDGER_TRANSACTION_CREATION_FAILED, new CompletionHandler( pendingLedgerTransactions, data -> {
+            FailedResponse failedResponse = (FailedResponse) data;
+            completeLedgerTransactionCreation( new CreateLedgerTransactionResponse( RequestStatus.failed )
+                    .withError( failedResponse.getError() )
+                    .withLedgerTransaction( LedgerTransaction.builder().uuid( failedResponse.getUuid() ).build() ) );
+        } ) );
     }
 
-    @KafkaListener( groupId = "${spring.kafka.groupid}", topics = {"ledger-events"},
+    /**
+     * What to do with the data of a completion event, and the registry of the requests waiting on it.
+     */
+    @AllArgsConstructor
+    private static class CompletionHandler {
+        private final PendingRequestRegistry<?> registry;
+        private final Consumer<Object> onCompletion;
+    }
+
+    /**
+     * Listens for completion events on the partition of the reply topic assigned to this instance. The partition
+     * is assigned explicitly (rather than by the consumer group) so each API instance only receives the replies to
+     * its own requests.
+     */
+    @KafkaListener( id = "ledger-replies-listener", groupId = "${spring.kafka.groupid}",
+            topicPartitions = @TopicPartition( topic = LEDGER_REPLIES_TOPIC, partitions = "${ledger.api.reply.partition}" ),
             containerFactory = "kafkaListenerContainerFactory" )
-    public void listenForCompletionEvents( @Payload String in,
+    public void listenForCompletionEvents( @Payload byte[] in,
                                            @Header( KafkaHeaders.RECEIVED_TOPIC ) String topic,
                                            @Header( KafkaHeaders.RECEIVED_PARTITION ) long partition,
                                            @Header( KafkaHeaders.OFFSET ) long offset,
-                                           @Header( KafkaHeaders.RECEIVED_TIMESTAMP ) long ts ) {
+                                           @Header( KafkaHeaders.RECEIVED_TIMESTAMP ) long ts,
+                                           @Header( name = LedgerEventHeaders.EVENT_TYPE, required = false ) byte[] eventTypeHeader,
+                                           @Header( name = LedgerEventHeaders.UUID, required = false ) byte[] uuidHeader,
+                                           @Header( name = LedgerEventHeaders.CORRELATION_ID, required = false ) byte[] correlationIdHeader,
+                                           @Header( name = LedgerEventHeaders.INGRESS_TIMESTAMP, required = false ) byte[] ingressTimestampHeader ) {
         OffsetDateTime timestamp = OffsetDateTime.of( LocalDateTime.ofEpochSecond( ts / 1000, 0, ZoneOffset.UTC ), ZoneOffset.UTC );
-        LOGGER.info( "Received topic={}, message=[{}], partition={}, offset={}, timestamp={}", topic, in, partition, offset, timestamp );
-        JsonObject obj = gson.fromJson( in, JsonObject.class );
-        if ( obj.has( "eventType" ) ) {
-            String eventType = obj.get( "eventType" ).getAsString();
-
-            // notify any requests that are waiting that the ledger has been created successfully
-            if ( EventType.LEDGER_CREATED.name().equals( eventType ) ) {
-                JsonObject req = obj.get( "data" ).getAsJsonObject();
-                Ledger ledger = gson.fromJson( gson.toJson( req ), Ledger.class );
-                completeLedgerCreation( new CreateLedgerResponse( RequestStatus.completed ).withLedger( ledger ) );
-            }
-            else if ( EventType.LEDGER_CREATION_FAILED.name().equals( eventType ) ) {
-                JsonObject req = obj.get( "data" ).getAsJsonObject();
-                FailedResponse failedResponse = gson.fromJson( gson.toJson( req ), FailedResponse.class );
-                completeLedgerCreation( new CreateLedgerResponse( RequestStatus.failed )
-                        .withLedger( Ledger.builder().uuid( failedResponse.getUuid() ).build() )
-                        .withError( failedResponse.getError() ) );
-            }
-            else if ( EventType.LEDGER_ACCOUNT_CREATED.name().equals( eventType ) ) {
-                JsonObject req = obj.get( "data" ).getAsJsonObject();
-                LedgerAccount ledgerAccount = gson.fromJson( gson.toJson( req ), LedgerAccount.class );
-                completeLedgerAccountCreation( new CreateLedgerAccountResponse( RequestStatus.completed ).withLedgerAccount( ledgerAccount ) );
-            }
-            else if ( EventType.LEDGER_ACCOUNT_CREATION_FAILED.name().equals( eventType ) ) {
-                JsonObject req = obj.get( "data" ).getAsJsonObject();
-                FailedResponse failedResponse = gson.fromJson( gson.toJson( req ), FailedResponse.class );
-                completeLedgerAccountCreation( new CreateLedgerAccountResponse( RequestStatus.failed )
-                        .withError( failedResponse.getError() )
-                        .withLedgerAccount( LedgerAccount.builder().uuid( failedResponse.getUuid() ).build() ) );
-            }
-            else if ( EventType.LEDGER_TRANSACTION_CREATED.name().equals( eventType ) ) {
-                JsonObject req = obj.get( "data" ).getAsJsonObject();
-                LedgerTransaction ledgerTransaction = gson.fromJson( gson.toJson( req ), LedgerTransaction.class );
-                completeLedgerTransactionCreation( new CreateLedgerTransactionResponse( RequestStatus.completed ).withLedgerTransaction( ledgerTransaction ) );
-            }
-            else if ( EventType.LEDGER_TRANSACTION_CREATION_FAILED.name().equals( eventType ) ) {
-                JsonObject req = obj.get( "data" ).getAsJsonObject();
-                FailedResponse failedResponse = gson.fromJson( gson.toJson( req ), FailedResponse.class );
-                completeLedgerTransactionCreation( new CreateLedgerTransactionResponse( RequestStatus.failed )
-                        .withError( failedResponse.getError() )
-                        .withLedgerTransaction( LedgerTransaction.builder().uuid( failedResponse.getUuid() ).build() ) );
-            }
+        LOGGER.info( "Received topic={}, message=[{} bytes], partition={}, offset={}, timestamp={}, correlationId={}",
+                topic, in.length, partition, offset, timestamp, LedgerEventHeaders.toString( correlationIdHeader ) );
+
+        // events sent without headers have to be decoded to find out what they are
+        ApiOperation<?> operation = null;
+        EventType eventType = LedgerEventHeaders.toEventType( eventTypeHeader );
+        if ( eventType == null ) {
+            operation = codec.decode( in );
+            eventType = operation.getEventType();
+        }
+
+        CompletionHandler handler = eventType == null ? null : completionHandlers.get( eventType );
+        if ( handler == null ) {
+            LOGGER.debug( "Ignoring {} event", eventType );
+            return;
+        }
+
+        // nothing to do if the request has already timed out (other than forget that it might not have been found since)
+        String uuid = LedgerEventHeaders.toString( uuidHeader );
+        if ( uuid != null && !handler.registry.isPending( uuid ) ) {
+            LOGGER.debug( "No request waiting on {} event for {}", eventType, uuid );
+            metadataCache.evict( eventType, uuid );
+            return;
+        }
+
+        // notify any requests that are waiting that the request has completed
+        handler.onCompletion.accept( operation == null ? codec.decode( in ).getData() : operation.getData() );
+
+        latencyMetrics.recordReplyLatency( eventType, ts );
+        Long ingressTimestamp = LedgerEventHeaders.toLong( ingressTimestampHeader );
+        if ( ingressTimestamp != null ) {
+            latencyMetrics.recordCompletionLatency( eventType, ingressTimestamp );
         }
     }
 
     /**
      * Wait for the ledger identified by the given UUID to be created for a given amount of time.
-     * If the request does not come back within the allotted time, a status response of "pending" is returned.
+     * If the request does not come back within the allotted time, the future completes with a status of "pending".
+     * This must be called <em>before</em> the request is sent so we can't miss the completion event.
      *
      * @param ledgerUuid    the unique identifier for the ledger
      * @param timeoutMillis the amount of time to wait before returning a "pending" response
-     * @return non-null response
+     * @return future which always completes (without blocking the caller)
      */
-    public CreateLedgerResponse waitForLedgerCreation( String ledgerUuid, long timeoutMillis ) {
-        CompletableFuture<CreateLedgerResponse> future = new CompletableFuture<>();
-        pendingLedgers.put( ledgerUuid, future );
-
-        try {
-            return future.get( timeoutMillis, TimeUnit.MILLISECONDS );
-        }
-        catch ( TimeoutException | InterruptedException e ) {
-            // Return pending status if timeout occurs
-            return new CreateLedgerResponse( RequestStatus.pending );
-        }
-        catch ( ExecutionException e ) {
-            return new CreateLedgerResponse( RequestStatus.failed ).withError( e.getMessage() );
-        }
+    public CompletableFuture<CreateLedgerResponse> waitForLedgerCreation( String ledgerUuid, long timeoutMillis ) {
+        return pendingLedgers.register( ledgerUuid, Duration.ofMillis( timeoutMillis ) );
     }
 
     /**
      * Wait for the ledger account identified by the given UUID to be created for a given amount of time.
-     * If the request does not come back within the allotted time, a status response of "pending" is returned.
+     * If the request does not come back within the allotted time, the future completes with a status of "pending".
+     * This must be called <em>before</em> the request is sent so we can't miss the completion event.
      *
      * @param ledgerAccountUuid the unique identifier for the ledger account
      * @param timeoutMillis     the amount of time to wait before returning a "pending" response
-     * @return non-null response
+     * @return future which always completes (without blocking the caller)
      */
-    public CreateLedgerAccountResponse waitForLedgerAccountCreation( String ledgerAccountUuid, long timeoutMillis ) {
-        CompletableFuture<CreateLedgerAccountResponse> future = new CompletableFuture<>();
-        pendingLedgerAccounts.put( ledgerAccountUuid, future );
-
-        try {
-            return future.get( timeoutMillis, TimeUnit.MILLISECONDS );
-        }
-        catch ( TimeoutException | InterruptedException e ) {
-            // Return pending status if timeout occurs
-            return new CreateLedgerAccountResponse( RequestStatus.pending );
-        }
-        catch ( ExecutionException e ) {
-            return new CreateLedgerAccountResponse( RequestStatus.failed ).withError( e.getMessage() );
-        }
+    public CompletableFuture<CreateLedgerAccountResponse> waitForLedgerAccountCreation( String ledgerAccountUuid, long timeoutMillis ) {
+        return pendingLedgerAccounts.register( ledgerAccountUuid, Duration.ofMillis( timeoutMillis ) );
     }
 
     /**
      * Wait for the ledger transaction identified by the given UUID to be created for a given amount of time.
-     * If the request does not come back within the allotted time, a status response of "pending" is returned.
+     * If the request does not come back within the allotted time, the future completes with a status of "pending".
+     * This must be called <em>before</em> the request is sent so we can't miss the completion event.
      *
      * @param ledgerTransactionUuid the unique identifier for the ledger account
      * @param timeoutMillis         the amount of time to wait before returning a "pending" response
-     * @return non-null response
+     * @return future which always completes (without blocking the caller)
      */
-    public CreateLedgerTransactionResponse waitForLedgerTransactionCreation( String ledgerTransactionUuid, long timeoutMillis ) {
-        CompletableFuture<CreateLedgerTransactionResponse> future = new CompletableFuture<>();
-        pendingLedgerTransactions.put( ledgerTransactionUuid, future );
-
-        try {
-            return future.get( timeoutMillis, TimeUnit.MILLISECONDS );
-        }
-        catch ( TimeoutException | InterruptedException e ) {
-            // Return pending status if timeout occurs
-            return new CreateLedgerTransactionResponse( RequestStatus.pending );
-        }
-        catch ( ExecutionException e ) {
-            return new CreateLedgerTransactionResponse( RequestStatus.failed ).withError( e.getMessage() );
-        }
+    public CompletableFuture<CreateLedgerTransactionResponse> waitForLedgerTransactionCreation( String ledgerTransactionUuid, long timeoutMillis ) {
+        return pendingLedgerTransactions.register( ledgerTransactionUuid, Duration.ofMillis( timeoutMillis ) );
     }
 
     /**
@@ -194,10 +238,7 @@ public class LedgerService {
      * @param response completed ledger response
      */
     private void completeLedgerCreation( CreateLedgerResponse response ) {
-        CompletableFuture<CreateLedgerResponse> future = pendingLedgers.remove( response.getLedger().getUuid() );
-        if ( future != null ) {
-            future.complete( response );
-        }
+        pendingLedgers.complete( response.getLedger().getUuid(), response );
     }
 
     /**
@@ -206,10 +247,7 @@ public class LedgerService {
      * @param response completed ledger account response
      */
     private void completeLedgerAccountCreation( CreateLedgerAccountResponse response ) {
-        CompletableFuture<CreateLedgerAccountResponse> future = pendingLedgerAccounts.remove( response.getLedgerAccount().getUuid() );
-        if ( future != null ) {
-            future.complete( response );
-        }
+        pendingLedgerAccounts.complete( response.getLedgerAccount().getUuid(), response );
     }
 
     /**
@@ -218,27 +256,44 @@ public class LedgerService {
      * @param response completed ledger transaction response
      */
     private void completeLedgerTransactionCreation( CreateLedgerTransactionResponse response ) {
-        CompletableFuture<CreateLedgerTransactionResponse> future = pendingLedgerTransactions.remove( response.getLedgerTransaction().getUuid() );
-        if ( future != null ) {
-            future.complete( response );
-        }
+        pendingLedgerTransactions.complete( response.getLedgerTransaction().getUuid(), response );
     }
 
-    // https://docs.spring.io/spring-data/jpa/reference/repositories/query-by-example.html
     public Optional<Ledger> findLedgerByUuid( String uuid ) {
-        return ledgerRepository.findOne( Example.of( Ledger.builder().uuid( uuid ).build() ) );
+        return metadataCache.getLedger( uuid, ledgerRepository::findByUuid );
     }
 
+    /**
+     * The account itself is (usually) cached, but its lock version changes with every transaction so is always read.
+     *
+     * @param uuid unique ID of the ledger account
+     * @return the ledger account (if found)
+     */
     public Optional<LedgerAccount> findLedgerAccountByUuid( String uuid ) {
-        return ledgerAccountRepository.findOne( Example.of( LedgerAccount.builder().uuid( uuid ).build() ) );
+        return findLedgerAccountMetadata( uuid )
+                .flatMap( ledgerAccount -> ledgerAccountRepository.findLockVersionById( ledgerAccount.getId() )
+                        .map( ledgerAccount::withLockVersion ) );
+    }
+
+    /**
+     * Looks up the ledger account from {@link LedgerMetadataCache} only; use this when the lock version isn't needed.
+     *
+     * @param uuid unique ID of the ledger account
+     * @return the (shared) ledger account without its lock version
+     */
+    public Optional<LedgerAccount> findLedgerAccountMetadata( String uuid ) {
+        return metadataCache.getLedgerAccount( uuid, ledgerAccountRepository::findWithLedgerByUuid );
     }
 
     public Optional<LedgerTransaction> findLedgerTransactionByUuid( String uuid ) {
-        return ledgerTransactionRepository.findOne( Example.of( LedgerTransaction.builder().uuid( uuid ).build() ) );
+        return ledgerTransactionRepository.findByUuid( uuid );
     }
 
     /**
      * Fetches a user's account balance up to a particular date/time.
+     * The current balance is read directly from the running balance maintained by the event processor;
+     * we only need to total up the ledger entries if we're querying a point in time. The name and description of
+     * the account come from {@link LedgerMetadataCache}.
      *
      * @param uuid          unique ID of the ledger account to query
      * @param untilDateTime find all transactions up until this time (optional)
@@ -247,12 +302,27 @@ public class LedgerService {
      */
     public GetBalanceResponse fetchLedgerAccountBalance( String uuid, OffsetDateTime untilDateTime ) throws NotFoundException {
 
-        LedgerAccount ledgerAccount = findLedgerAccountByUuid( uuid )
+        LedgerAccount ledgerAccount = findLedgerAccountMetadata( uuid )
                 .orElseThrow( () -> new NotFoundException( "No matching ledger account found" ) );
-        List<LedgerAccountBalance> results = untilDateTime == null ?
-                ledgerEntryRepository.getBalances( uuid ) : ledgerEntryRepository.getBalances( uuid, untilDateTime );
 
-        LedgerAccountBalance result = results.get( 0 );
+        if ( untilDateTime != null ) {
+            return fetchLedgerAccountBalanceAt( ledgerAccount, untilDateTime );
+        }
+
+        Optional<AccountBalance> balance = accountBalanceRepository.findById( ledgerAccount.getId() );
+        if ( balance.isPresent() ) {
+            return GetBalanceResponse.builder()
+                    .uuid( uuid )
+                    .lockVersion( balance.get().getLockVersion() )
+                    .name( ledgerAccount.getName() )
+                    .description( ledgerAccount.getDescription() )
+                    .totalCredits( balance.get().getTotalCredits() )
+                    .totalDebits( balance.get().getTotalDebits() )
+                    .build();
+        }
+
+        LOGGER.warn( "No running balance found for ledger account {}; totalling ledger entries instead", uuid );
+        LedgerAccountBalance result = ledgerEntryRepository.getBalances( uuid ).get( 0 );
         return GetBalanceResponse.builder()
                 .uuid( uuid )
                 .lockVersion( result.getLedgerAccountLockVersion() )
@@ -260,7 +330,205 @@ public class LedgerService {
                 .description( ledgerAccount.getDescription() )
                 .totalCredits( result.getTotalCredits() )
                 .totalDebits( result.getTotalDebits() )
+                .build();
+    }
+
+    /**
+     * Returns the balance for the given ledger account as at the given date/time. Starts from the most recent
+     * balance checkpoint on or before that time and only totals the ledger entries after it.
+     *
+     * @param ledgerAccount ledger account (without its lock version)
+     * @param untilDateTime point in time
+     * @return non-null balance
+     */
+    private GetBalanceResponse fetchLedgerAccountBalanceAt( LedgerAccount ledgerAccount, OffsetDateTime untilDateTime ) {
+        Optional<AccountBalanceCheckpoint> checkpoint = accountBalanceCheckpointRepository
+                .findFirstByLedgerAccountIdAndCheckpointDateLessThanEqualOrderByCheckpointDateDesc( ledgerAccount.getId(), untilDateTime );
+
+        LedgerAccountTotals tail = checkpoint.isPresent() ?
+                ledgerEntryRepository.getTotals( ledgerAccount.getId(), checkpoint.get().getCheckpointDate(), untilDateTime ) :
+                ledgerEntryRepository.getTotals( ledgerAccount.getId(), untilDateTime );
+
+        return totalsAt( checkpoint.orElse( null ), tail )
+                .uuid( ledgerAccount.getUuid() )
+                .lockVersion( ledgerAccountRepository.findLockVersionById( ledgerAccount.getId() ).orElse( null ) )
+                .name( ledgerAccount.getName() )
+                .description( ledgerAccount.getDescription() )
                 .timestamp( untilDateTime )
                 .build();
     }
+
+    /**
+     * Calculates the balance of a ledger account at each of the given times in a single pass. Starting from the most
+     * recent balance checkpoint on or before the first of them, the ledger entries up to the last are read in the order
+     * they were created (streamed from the database a batch at a time) and each balance is passed on as soon as the
+     * entries up to its time have been totalled.
+     *
+     * <p>
+     * The database connection (and the cursor over the ledger entries) is held until the last balance has been passed
+     * on, including while the consumer waits on a slow client. The transaction is given a timeout of
+     * {@code ledger.api.balance-history.timeout.seconds} which applies to the query; the consumer is expected to enforce
+     * the same limit on the time spent passing the balances on.
+     *
+     * @param ledgerAccount ledger account
+     * @param timestamps    points in time, in ascending order (at least one)
+     * @param consumer      receives the balance at each point in time, in the same order
+     */
+    @Transactional( readOnly = true, timeoutString = "${ledger.api.balance-history.timeout.seconds}" ) // so the ledger entries can be streamed
+    public void fetchLedgerAccountBalanceHistory( LedgerAccount ledgerAccount, List<OffsetDateTime> timestamps,
+                                                  Consumer<GetBalanceResponse> consumer ) {
+        OffsetDateTime untilDateTime = timestamps.get( timestamps.size() - 1 );
+        Optional<AccountBalanceCheckpoint> checkpoint = accountBalanceCheckpointRepository
+                .findFirstByLedgerAccountIdAndCheckpointDateLessThanEqualOrderByCheckpointDateDesc( ledgerAccount.getId(), timestamps.get( 0 ) );
+        BigInteger totalCredits = checkpoint.map( AccountBalanceCheckpoint::getTotalCredits ).orElse( BigInteger.ZERO );
+        BigInteger totalDebits = checkpoint.map( AccountBalanceCheckpoint::getTotalDebits ).orElse( BigInteger.ZERO );
+
+        int next = 0;
+        try ( Stream<LedgerEntryAmount> entries = checkpoint.isPresent() ?
+                ledgerEntryRepository.streamAmounts( ledgerAccount.getId(), checkpoint.get().getCheckpointDate(), untilDateTime ) :
+                ledgerEntryRepository.streamAmounts( ledgerAccount.getId(), untilDateTime ) ) {
+
+            Iterator<LedgerEntryAmount> it = entries.iterator();
+            while ( it.hasNext() ) {
+                LedgerEntryAmount entry = it.next();
+                // none are after the last point in time
+                while ( entry.getCreatedDate().isAfter( timestamps.get( next ) ) ) {
+                    consumer.accept( balanceAt( ledgerAccount, timestamps.get( next++ ), totalCredits, totalDebits ) );
+                }
+                if ( entry.getDirection() == LedgerTransactionDirection.credit ) {
+                    totalCredits = totalCredits.add( entry.getAmount() );
+                }
+                else {
+                    totalDebits = totalDebits.add( entry.getAmount() );
+                }
+            }
+        }
+        while ( next < timestamps.size() ) {
+            consumer.accept( balanceAt( ledgerAccount, timestamps.get( next++ ), totalCredits, totalDebits ) );
+        }
+    }
+
+    private static GetBalanceResponse balanceAt( LedgerAccount ledgerAccount, OffsetDateTime timestamp,
+                                                 BigInteger totalCredits, BigInteger totalDebits ) {
+        return GetBalanceResponse.builder()
+                .uuid( ledgerAccount.getUuid() )
+                .totalCredits( totalCredits )
+                .totalDebits( totalDebits )
+                .timestamp( timestamp )
+                .build();
+    }
+
+    /**
+     * Fetches the balances of several ledger accounts at once. The number of queries doesn't depend on the number of
+     * accounts: current balances are read along with the accounts themselves, and balances at a point in time take
+     * one query each for the accounts, their most recent checkpoints and the ledger entries since (plus one for all of
+     * any accounts without a checkpoint).
+     *
+     * @param uuids         unique IDs of the ledger accounts to query
+     * @param untilDateTime find all transactions up until this time (optional)
+     * @return a balance for each UUID in the order given ("failed" for any that don't match a ledger account)
+     */
+    public List<GetBalanceResponse> fetchLedgerAccountBalances( List<String> uuids, OffsetDateTime untilDateTime ) {
+        Map<String, GetBalanceResponse> balances = untilDateTime == null ?
+                fetchLedgerAccountBalances( uuids ) : fetchLedgerAccountBalancesAt( uuids, untilDateTime );
+        return uuids.stream()
+                .map( uuid -> Optional.ofNullable( balances.get( uuid ) ).orElseGet( () -> notFoundBalance( uuid ) ) )
+                .toList();
+    }
+
+    /**
+     * @param uuids unique IDs of the ledger accounts to query
+     * @return the current balance of each ledger account found, by UUID
+     */
+    private Map<String, GetBalanceResponse> fetchLedgerAccountBalances( Collection<String> uuids ) {
+        Map<String, GetBalanceResponse> balances = new HashMap<>();
+        List<String> withoutRunningBalance = new ArrayList<>();
+        for ( LedgerAccountRunningBalance ledgerAccount : ledgerAccountRepository.findRunningBalancesByUuidIn( uuids ) ) {
+            balances.put( ledgerAccount.getUuid(), GetBalanceResponse.builder()
+                    .uuid( ledgerAccount.getUuid() )
+                    .lockVersion( ledgerAccount.getLockVersion() )
+                    .name( ledgerAccount.getName() )
+                    .description( ledgerAccount.getDescription() )
+                    .totalCredits( ledgerAccount.getTotalCredits() == null ? BigInteger.ZERO : ledgerAccount.getTotalCredits() )
+                    .totalDebits( ledgerAccount.getTotalDebits() == null ? BigInteger.ZERO : ledgerAccount.getTotalDebits() )
+                    .build() );
+            if ( ledgerAccount.getTotalCredits() == null ) {
+                withoutRunningBalance.add( ledgerAccount.getUuid() );
+            }
+        }
+
+        if ( !withoutRunningBalance.isEmpty() ) {
+            LOGGER.warn( "No running balance found for ledger accounts {}; totalling ledger entries instead", withoutRunningBalance );
+            for ( LedgerAccountBalance result : ledgerEntryRepository.getBalances( withoutRunningBalance ) ) {
+                GetBalanceResponse balance = balances.get( result.getLedgerAccountUuid() );
+                balance.setLockVersion( result.getLedgerAccountLockVersion() );
+                balance.setTotalCredits( result.getTotalCredits() );
+                balance.setTotalDebits( result.getTotalDebits() );
+            }
+        }
+        return balances;
+    }
+
+    /**
+     * @param uuids         unique IDs of the ledger accounts to query
+     * @param untilDateTime point in time
+     * @return the balance of each ledger account found as at the given time, by UUID
+     */
+    private Map<String, GetBalanceResponse> fetchLedgerAccountBalancesAt( Collection<String> uuids, OffsetDateTime untilDateTime ) {
+        List<LedgerAccountSummary> ledgerAccounts = ledgerAccountRepository.findSummariesByUuidIn( uuids );
+        if ( ledgerAccounts.isEmpty() ) {
+            return Map.of();
+        }
+
+        List<Long> ids = ledgerAccounts.stream().map( LedgerAccountSummary::getId ).toList();
+        Map<Long, AccountBalanceCheckpoint> checkpoints = accountBalanceCheckpointRepository
+                .findLatestByLedgerAccountIdIn( ids, untilDateTime ).stream()
+                .collect( Collectors.toMap( AccountBalanceCheckpoint::getLedgerAccountId, Function.identity(), ( first, second ) -> first ) );
+        // the ledger entries since each account's own checkpoint (or all of them if it doesn't have one)
+        List<Long> withoutCheckpoint = ids.stream().filter( id -> !checkpoints.containsKey( id ) ).toList();
+        Map<Long, LedgerAccountTotalsById> tails = new HashMap<>();
+        if ( !checkpoints.isEmpty() ) {
+            ledgerEntryRepository.getTotalsSinceCheckpoints( checkpoints.values().stream().map( AccountBalanceCheckpoint::getId ).toList(), untilDateTime )
+                    .forEach( tail -> tails.put( tail.getLedgerAccountId(), tail ) );
+        }
+        if ( !withoutCheckpoint.isEmpty() ) {
+            ledgerEntryRepository.getTotals( withoutCheckpoint, untilDateTime )
+                    .forEach( tail -> tails.put( tail.getLedgerAccountId(), tail ) );
+        }
+
+        Map<String, GetBalanceResponse> balances = new HashMap<>();
+        for ( LedgerAccountSummary ledgerAccount : ledgerAccounts ) {
+            balances.put( ledgerAccount.getUuid(), totalsAt( checkpoints.get( ledgerAccount.getId() ), tails.get( ledgerAccount.getId() ) )
+                    .uuid( ledgerAccount.getUuid() )
+                    .lockVersion( ledgerAccount.getLockVersion() )
+                    .name( ledgerAccount.getName() )
+                    .description( ledgerAccount.getDescription() )
+                    .timestamp( untilDateTime )
+                    .build() );
+        }
+        return balances;
+    }
+
+    /**
+     * @param checkpoint most recent balance checkpoint on or before the point in time (optional)
+     * @param tail       totals of the ledger entries after the checkpoint up to the point in time (optional)
+     * @return balance with the totals as at the point in time filled in
+     */
+    private static GetBalanceResponse.GetBalanceResponseBuilder totalsAt( AccountBalanceCheckpoint checkpoint, LedgerAccountTotals tail ) {
+        BigInteger totalCredits = checkpoint == null ? BigInteger.ZERO : checkpoint.getTotalCredits();
+        BigInteger totalDebits = checkpoint == null ? BigInteger.ZERO : checkpoint.getTotalDebits();
+        if ( tail != null ) {
+            totalCredits = totalCredits.add( tail.getTotalCredits() == null ? BigInteger.ZERO : tail.getTotalCredits() );
+            totalDebits = totalDebits.add( tail.getTotalDebits() == null ? BigInteger.ZERO : tail.getTotalDebits() );
+        }
+        return GetBalanceResponse.builder()
+                .totalCredits( totalCredits )
+                .totalDebits( totalDebits );
+    }
+
+    private static GetBalanceResponse notFoundBalance( String uuid ) {
+        GetBalanceResponse balance = GetBalanceResponse.builder().uuid( uuid ).build().withError( "No matching ledger account found" );
+        balance.setStatus( RequestStatus.failed );
+        return balance;
+    }
 }
@@ -0,0 +1,144 @@
+package demo.ledger.api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Requests waiting on a completion event from the event processor, keyed by the UUID of the object being created.
+ * <p>
+ * Entries are bounded in both number and lifetime. Each entry expires after the timeout it was registered with
+ * (Caffeine's timer wheel schedules the expiry so it happens promptly, even if the registry is idle) and the
+ * least recently used entries are evicted once the maximum size is reached. Either way the waiting request is
+ * completed with the "pending" response so nobody is left hanging.
+ *
+ * @param <T> response type
+ */
+public class PendingRequestRegistry<T> {
+
+    private final Cache<String, CompletableFuture<T>> pending;
+    private final Supplier<T> pendingResponse;
+    private final Counter completed;
+    private final Map<RemovalCause, Counter> evictions = new EnumMap<>( RemovalCause.class );
+
+    /**
+     * @param name            name of this registry (used as the "type" tag on metrics)
+     * @param maximumSize     maximum number of requests waiting at any one time
+     * @param pendingResponse the response returned to requests that expire or are evicted
+     * @param meterRegistry   where to publish our metrics
+     */
+    public PendingRequestRegistry( String name, long maximumSize, Supplier<T> pendingResponse, MeterRegistry meterRegistry ) {
+        this.pendingResponse = pendingResponse;
+        this.pending = Caffeine.newBuilder()
+                .maximumSize( maximumSize )
+                .expireAfter( new Expiry<String, CompletableFuture<T>>() {
+                    @Override
+                    public long expireAfterCreate( String key, CompletableFuture<T> value, long currentTime ) {
+                        return Long.MAX_VALUE; // always set explicitly on registration
+                    }
+
+                    @Override
+                    public long expireAfterUpdate( String key, CompletableFuture<T> value, long currentTime, long currentDuration ) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead( String key, CompletableFuture<T> value, long currentTime, long currentDuration ) {
+                        return currentDuration;
+                    }
+                } )
+                .scheduler( Scheduler.systemScheduler() )
+                .executor( Runnable::run )
+                .removalListener( this::onRemoval )
+                .build();
+
+        Gauge.builder( "ledger.api.pending.requests", pending, Cache::estimatedSize )
+                .description( "Number of requests waiting on a completion event" )
+                .tag( "type", name )
+                .register( meterRegistry );
+        this.completed = Counter.builder( "ledger.api.pending.requests.completed" )
+                .description( "Number of waiting requests completed by a completion event" )
+                .tag( "type", name )
+                .register( meterRegistry );
+        for ( RemovalCause cause : new RemovalCause[]{RemovalCause.EXPIRED, RemovalCause.SIZE, RemovalCause.REPLACED} ) {
+            evictions.put( cause, Counter.builder( "ledger.api.pending.requests.evicted" )
+                    .description( "Number of waiting requests given up on before a completion event arrived" )
+                    .tag( "type", name )
+                    .tag( "cause", cause.name().toLowerCase() )
+                    .register( meterRegistry ) );
+        }
+    }
+
+    /**
+     * Registers a request waiting on the given UUID. If a request is already waiting on the same UUID,
+     * it is completed with the "pending" response and replaced.
+     *
+     * @param uuid    unique ID of the object being created
+     * @param timeout how long to wait for the completion event
+     * @return future completed with the response from the completion event or the "pending" response
+     */
+    public CompletableFuture<T> register( String uuid, Duration timeout ) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        pending.policy().expireVariably().orElseThrow().put( uuid, future, timeout );
+        return future;
+    }
+
+    /**
+     * Completes the request waiting on the given UUID (if any).
+     *
+     * @param uuid     unique ID of the object that was created
+     * @param response response to return
+     * @return true if a request was waiting on the given UUID, false otherwise
+     */
+    public boolean complete( String uuid, T response ) {
+        CompletableFuture<T> future = pending.asMap().remove( uuid );
+        if ( future == null ) {
+            return false;
+        }
+        completed.increment();
+        return future.complete( response );
+    }
+
+    /**
+     * @param uuid unique ID of the object being created
+     * @return true if a request is (still) waiting on the given UUID
+     */
+    public boolean isPending( String uuid ) {
+        return pending.asMap().containsKey( uuid );
+    }
+
+    /**
+     * @return approximate number of requests currently waiting
+     */
+    public long size() {
+        pending.cleanUp();
+        return pending.estimatedSize();
+    }
+
+    /**
+     * @return approximate number of requests currently waiting, without catching up on any pending expiry first
+     * (cheap enough to call on every request)
+     */
+    public long estimatedSize() {
+        return pending.estimatedSize();
+    }
+
+    private void onRemoval( String uuid, CompletableFuture<T> future, RemovalCause cause ) {
+        Counter counter = evictions.get( cause );
+        if ( counter != null && future != null ) {
+            counter.increment();
+            future.complete( pendingResponse.get() );
+        }
+    }
+}
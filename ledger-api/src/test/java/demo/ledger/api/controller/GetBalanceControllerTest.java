@@ -1,7 +1,11 @@
 package demo.ledger.api.controller;
 
 import demo.ledger.api.model.dto.GetBalanceResponse;
+import demo.ledger.api.service.AdmissionControl;
+import demo.ledger.api.service.LatencyMetrics;
+import com.jayway.jsonpath.JsonPath;
 import demo.ledger.api.service.LedgerService;
+import demo.ledger.model.LedgerAccount;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
@@ -12,15 +16,30 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import java.math.BigInteger;
 import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest( GetBalanceController.class )
@@ -29,11 +48,17 @@ public class GetBalanceControllerTest {
     private MockMvc mvc;
 
     @MockBean
-    private KafkaTemplate<String, String> kafkaTemplate;
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
 
     @MockBean
     private LedgerService ledgerService;
 
+    @MockBean
+    private LatencyMetrics latencyMetrics;
+
+    @MockBean
+    private AdmissionControl admissionControl;
+
     @MockBean
     private GetBalanceResponse response;
 
@@ -43,7 +68,11 @@ public class GetBalanceControllerTest {
     @Captor
     private ArgumentCaptor<String> stringCaptor;
 
+    @Captor
+    private ArgumentCaptor<List<OffsetDateTime>> timestampsCaptor;
+
     private static final String UUID = "a1d968c1-86fc-4864-a146-f7f8e601fa3f";
+    private static final String OTHER_UUID = "c79b7220-1d54-4918-b856-f403760fcb78";
     private static final Long LOCK_VERSION = 55L;
     private static final String ACCOUNT_NAME = "My first ledger";
     private static final String ACCOUNT_DESCRIPTION = "Some dodgy transactions";
@@ -107,4 +136,99 @@ public class GetBalanceControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.errors.uuid",
                         is( "Required request parameter 'uuid' for method parameter type String is not present" ) ) );
     }
+
+    @Test
+    public void testGetBalances() throws Exception {
+
+        // setup
+        when( ledgerService.fetchLedgerAccountBalances( List.of( UUID, OTHER_UUID ), OffsetDateTime.parse( QUERY_DATE ) ) )
+                .thenReturn( List.of( response, GetBalanceResponse.builder().uuid( OTHER_UUID ).build() ) );
+
+        // execute & verify
+        mvc.perform( MockMvcRequestBuilders.post( "/api/get_balance/batch" )
+                        .content( "{\"uuids\": [\"" + UUID + "\", \"" + OTHER_UUID + "\"], \"timestamp\": \"" + QUERY_DATE + "\"}" )
+                        .contentType( MediaType.APPLICATION_JSON )
+                        .accept( MediaType.APPLICATION_JSON ) )
+                .andExpect( status().isOk() )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.length()", is( 2 ) ) )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$[0].uuid", is( UUID ) ) )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$[0].totalCredits", is( TOTAL_CREDITS.intValue() ) ) )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$[1].uuid", is( OTHER_UUID ) ) );
+    }
+
+    @Test
+    public void testGetBalancesWithInvalidUuid() throws Exception {
+
+        // execute & verify
+        mvc.perform( MockMvcRequestBuilders.post( "/api/get_balance/batch" )
+                        .content( "{\"uuids\": [\"" + UUID + "\", \"abcdefghijklmnop\"]}" )
+                        .contentType( MediaType.APPLICATION_JSON )
+                        .accept( MediaType.APPLICATION_JSON ) )
+                .andExpect( status().isBadRequest() )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.errors.['uuids[1]']", is( "Invalid UUID (only lowercase characters allowed)" ) ) );
+        verify( ledgerService, never() ).fetchLedgerAccountBalances( anyList(), any() );
+    }
+
+    @Test
+    public void testGetBalancesWithTooManyUuids() throws Exception {
+
+        String uuids = Stream.generate( () -> "\"" + java.util.UUID.randomUUID() + "\"" ).limit( 1001 ).collect( Collectors.joining( ", " ) );
+
+        // execute & verify
+        mvc.perform( MockMvcRequestBuilders.post( "/api/get_balance/batch" )
+                        .content( "{\"uuids\": [" + uuids + "]}" )
+                        .contentType( MediaType.APPLICATION_JSON )
+                        .accept( MediaType.APPLICATION_JSON ) )
+                .andExpect( status().isBadRequest() )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.error", is( "No more than 1000 ledger accounts allowed in a batch" ) ) );
+        verify( ledgerService, never() ).fetchLedgerAccountBalances( anyList(), any() );
+    }
+
+    @Test
+    public void testGetBalanceHistory() throws Exception {
+
+        // setup
+        LedgerAccount ledgerAccount = LedgerAccount.builder().id( 7L ).uuid( UUID ).build();
+        when( ledgerService.findLedgerAccountMetadata( UUID ) ).thenReturn( Optional.of( ledgerAccount ) );
+        doAnswer( invocation -> {
+            List<OffsetDateTime> timestamps = invocation.getArgument( 1 );
+            Consumer<GetBalanceResponse> consumer = invocation.getArgument( 2 );
+            timestamps.forEach( timestamp -> consumer.accept( GetBalanceResponse.builder()
+                    .uuid( UUID ).totalCredits( TOTAL_CREDITS ).totalDebits( TOTAL_DEBITS ).timestamp( timestamp ).build() ) );
+            return null;
+        } ).when( ledgerService ).fetchLedgerAccountBalanceHistory( eq( ledgerAccount ), timestampsCaptor.capture(), any() );
+
+        // execute & verify
+        MvcResult result = mvc.perform( MockMvcRequestBuilders.get( "/api/get_balance/history" )
+                        .param( "uuid", UUID )
+                        .param( "from", "2024-04-11T00:00:00+02:00" )
+                        .param( "to", "2024-04-13T00:00:00+02:00" )
+                        .param( "interval", "P1D" ) )
+                .andExpect( request().asyncStarted() )
+                .andReturn();
+
+        mvc.perform( asyncDispatch( result ) )
+                .andExpect( status().isOk() )
+                .andExpect( content().contentType( "application/x-ndjson" ) );
+        assertThat( timestampsCaptor.getValue(), is( List.of( OffsetDateTime.parse( "2024-04-11T00:00:00+02:00" ),
+                OffsetDateTime.parse( "2024-04-12T00:00:00+02:00" ), OffsetDateTime.parse( "2024-04-13T00:00:00+02:00" ) ) ) );
+        String[] lines = result.getResponse().getContentAsString().split( "\n" );
+        assertThat( lines.length, is( 3 ) );
+        assertThat( JsonPath.read( lines[0], "$.uuid" ), is( UUID ) );
+        assertThat( JsonPath.read( lines[0], "$.totalCredits" ), is( TOTAL_CREDITS.intValue() ) );
+        assertThat( JsonPath.read( lines[2], "$.timestamp" ), is( "2024-04-13T00:00:00+02:00" ) );
+    }
+
+    @Test
+    public void testGetBalanceHistoryWithTimestampsAndInterval() throws Exception {
+
+        // execute & verify
+        mvc.perform( MockMvcRequestBuilders.get( "/api/get_balance/history" )
+                        .param( "uuid", UUID )
+                        .param( "timestamp", QUERY_DATE )
+                        .param( "interval", "PT1H" ) )
+                .andExpect( status().isBadRequest() )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.error", is( "Specify either timestamp or from, to and interval" ) ) );
+        verify( ledgerService, never() ).fetchLedgerAccountBalanceHistory( any(), anyList(), any() );
+    }
 }
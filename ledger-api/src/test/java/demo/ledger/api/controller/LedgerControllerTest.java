@@ -1,13 +1,19 @@
 package demo.ledger.api.controller;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import demo.ledger.api.config.DemoConfig;
 import demo.ledger.api.model.dto.CreateLedgerRequest;
 import demo.ledger.api.model.dto.CreateLedgerResponse;
 import demo.ledger.api.model.dto.RequestStatus;
+import demo.ledger.api.service.AdmissionControl;
+import demo.ledger.api.service.LatencyMetrics;
 import demo.ledger.api.service.LedgerService;
 import demo.ledger.model.Ledger;
+import demo.ledger.model.codec.LedgerEventCodec;
+import demo.ledger.model.codec.LedgerEventHeaders;
+import demo.ledger.model.dto.ApiOperation;
 import demo.ledger.model.dto.EventType;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
@@ -16,42 +22,58 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import static demo.ledger.api.config.KafkaTopicConfig.LEDGER_EVENTS_TOPIC;
+import static demo.ledger.api.config.KafkaTopicConfig.LEDGER_REPLIES_TOPIC;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest( LedgerController.class )
+@Import( DemoConfig.class ) // for the LedgerEventCodec
 public class LedgerControllerTest {
     @Autowired
     private MockMvc mvc;
 
     @MockBean
-    private KafkaTemplate<String, String> kafkaTemplate;
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
 
     @MockBean
     private LedgerService ledgerService;
 
     @MockBean
-    private CompletableFuture<SendResult<String, String>> sendResult;
+    private LatencyMetrics latencyMetrics;
+
+    @MockBean
+    private AdmissionControl admissionControl;
+
+    @MockBean
+    private CompletableFuture<SendResult<String, byte[]>> sendResult;
 
     @MockBean
     private CreateLedgerResponse ledgerResponse;
@@ -65,12 +87,21 @@ public class LedgerControllerTest {
     @Captor
     private ArgumentCaptor<String> stringCaptor;
 
+    @Captor
+    private ArgumentCaptor<ProducerRecord<String, byte[]>> recordCaptor;
+
     @Autowired
     private Gson gson;
 
+    @Autowired
+    private LedgerEventCodec codec;
+
     @Value( value = "${ledger.api.service.timeout.ms}" )
     private long API_SERVICE_TIMEOUT_MS;
 
+    @Value( value = "${ledger.api.reply.partition}" )
+    private int REPLY_PARTITION;
+
     private static final Long ID = 123456L;
     private static final String UUID = "a1d968c1-86fc-4864-a146-f7f8e601fa3f";
     private static final String LEDGER_NAME = "My first ledger";
@@ -79,7 +110,8 @@ public class LedgerControllerTest {
     private static final String LEDGER_LAST_UPDATED_DATE = "2024-04-11T10:24:35+02:00";
 
     @BeforeEach
-    public void setup() {
+    public void setup() throws Exception {
+        when( admissionControl.admit( anyLong() ) ).thenAnswer( invocation -> invocation.getArgument( 0 ) ); // full timeout
         when( ledger.getId() ).thenReturn( ID );
         when( ledger.getUuid() ).thenReturn( UUID );
         when( ledger.getName() ).thenReturn( LEDGER_NAME );
@@ -96,12 +128,12 @@ public class LedgerControllerTest {
         when( ledgerResponse.getErrors() ).thenReturn( null );
         when( ledgerResponse.getLedger() ).thenReturn( ledger );
         when( ledgerService.waitForLedgerCreation( eq( UUID ), timeoutCaptor.capture() ) )
-                .thenReturn( ledgerResponse );
-        when( kafkaTemplate.send( stringCaptor.capture(), stringCaptor.capture(), stringCaptor.capture() ) )
+                .thenReturn( CompletableFuture.completedFuture( ledgerResponse ) );
+        when( kafkaTemplate.send( recordCaptor.capture() ) )
                 .thenReturn( sendResult );
 
         // execute & verify
-        mvc.perform( MockMvcRequestBuilders
+        MvcResult result = mvc.perform( MockMvcRequestBuilders
                         .post( "/api/ledger" )
                         .content( gson.toJson( CreateLedgerRequest.builder()
                                 .uuid( UUID )
@@ -110,6 +142,10 @@ public class LedgerControllerTest {
                                 .build() ) )
                         .contentType( MediaType.APPLICATION_JSON )
                         .accept( MediaType.APPLICATION_JSON ) )
+                .andExpect( request().asyncStarted() )
+                .andReturn();
+
+        mvc.perform( asyncDispatch( result ) )
                 .andDo( print() )
                 .andExpect( status().isAccepted() )
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.status", is( RequestStatus.completed.name() ) ) )
@@ -124,15 +160,20 @@ public class LedgerControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.ledger.lastUpdatedDate", is( LEDGER_LAST_UPDATED_DATE ) ) );
 
         assertThat( "call to ledgerService.waitForLedgerCreation()", timeoutCaptor.getValue(), is( API_SERVICE_TIMEOUT_MS ) );
-        assertThat( "kafka topic", stringCaptor.getAllValues().get( 0 ), is( LEDGER_EVENTS_TOPIC ) );
-        assertThat( "kafka key", stringCaptor.getAllValues().get( 1 ), is( "USERID" ) ); // TODO: placeholder
-
-        JsonObject kafkaPayload = gson.fromJson( stringCaptor.getAllValues().get( 2 ), JsonObject.class );
-        assertThat( kafkaPayload.get( "eventType" ).getAsString(), is( EventType.CREATE_LEDGER.name() ) );
-        JsonObject dataObj = kafkaPayload.get( "data" ).getAsJsonObject();
-        assertThat( dataObj.get( "uuid" ).getAsString(), is( UUID ) );
-        assertThat( dataObj.get( "name" ).getAsString(), is( LEDGER_NAME ) );
-        assertThat( dataObj.get( "description" ).getAsString(), is( LEDGER_DESCRIPTION ) );
+        ProducerRecord<String, byte[]> record = recordCaptor.getValue();
+        assertThat( "kafka topic", record.topic(), is( LEDGER_EVENTS_TOPIC ) );
+        assertThat( "kafka key", record.key(), is( UUID ) );
+        assertThat( "reply topic", new String( record.headers().lastHeader( KafkaHeaders.REPLY_TOPIC ).value(), StandardCharsets.UTF_8 ), is( LEDGER_REPLIES_TOPIC ) );
+        assertThat( "reply partition", ByteBuffer.wrap( record.headers().lastHeader( KafkaHeaders.REPLY_PARTITION ).value() ).getInt(), is( REPLY_PARTITION ) );
+        assertThat( "event type", new String( record.headers().lastHeader( LedgerEventHeaders.EVENT_TYPE ).value(), StandardCharsets.UTF_8 ), is( EventType.CREATE_LEDGER.name() ) );
+        assertThat( "uuid", new String( record.headers().lastHeader( LedgerEventHeaders.UUID ).value(), StandardCharsets.UTF_8 ), is( UUID ) );
+
+        ApiOperation<?> kafkaPayload = codec.decode( record.value() );
+        assertThat( kafkaPayload.getEventType(), is( EventType.CREATE_LEDGER ) );
+        Ledger ledger = (Ledger) kafkaPayload.getData();
+        assertThat( ledger.getUuid(), is( UUID ) );
+        assertThat( ledger.getName(), is( LEDGER_NAME ) );
+        assertThat( ledger.getDescription(), is( LEDGER_DESCRIPTION ) );
     }
 
     @Test
@@ -157,7 +198,7 @@ public class LedgerControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.ledger" ).doesNotExist() );
 
         verify( ledgerService, never() ).waitForLedgerCreation( anyString(), anyLong() );
-        verify( kafkaTemplate, never() ).send( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
     }
 
     @Test
@@ -176,7 +217,7 @@ public class LedgerControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.ledger" ).doesNotExist() );
 
         verify( ledgerService, never() ).waitForLedgerCreation( anyString(), anyLong() );
-        verify( kafkaTemplate, never() ).send( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
     }
 
     @Test
@@ -198,7 +239,7 @@ public class LedgerControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.ledger" ).doesNotExist() );
 
         verify( ledgerService, never() ).waitForLedgerCreation( anyString(), anyLong() );
-        verify( kafkaTemplate, never() ).send( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
     }
 
     @Test
@@ -1,62 +1,94 @@
 package demo.ledger.api.controller;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import demo.ledger.api.config.DemoConfig;
+import demo.ledger.api.model.dto.CreateLedgerTransactionBatchRequest;
 import demo.ledger.api.model.dto.CreateLedgerTransactionRequest;
 import demo.ledger.api.model.dto.CreateLedgerTransactionResponse;
 import demo.ledger.api.model.dto.LedgerEntryAccount;
 import demo.ledger.api.model.dto.LedgerEntryRequest;
 import demo.ledger.api.model.dto.RequestStatus;
+import demo.ledger.api.model.exception.OverloadedException;
+import demo.ledger.api.service.AdmissionControl;
+import demo.ledger.api.service.LatencyMetrics;
 import demo.ledger.api.service.LedgerService;
 import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.LedgerTransactionDirection;
+import demo.ledger.model.codec.LedgerEventCodec;
+import demo.ledger.model.codec.LedgerEventHeaders;
+import demo.ledger.model.dto.ApiOperation;
 import demo.ledger.model.dto.EventType;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import static demo.ledger.api.config.KafkaTopicConfig.LEDGER_EVENTS_TOPIC;
+import static demo.ledger.api.config.KafkaTopicConfig.LEDGER_REPLIES_TOPIC;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest( LedgerTransactionController.class )
+@Import( DemoConfig.class ) // for the LedgerEventCodec
 public class LedgerTransactionControllerTest {
 
     @Autowired
     private MockMvc mvc;
 
     @MockBean
-    private KafkaTemplate<String, String> kafkaTemplate;
+    private KafkaTemplate<String, byte[]> kafkaTemplate;
 
     @MockBean
     private LedgerService ledgerService;
 
     @MockBean
-    private CompletableFuture<SendResult<String, String>> sendResult;
+    private LatencyMetrics latencyMetrics;
+
+    @MockBean
+    private AdmissionControl admissionControl;
+
+    @MockBean
+    private CompletableFuture<SendResult<String, byte[]>> sendResult;
 
     @MockBean
     private CreateLedgerTransactionResponse ledgerTransactionResponse;
@@ -70,19 +102,33 @@ public class LedgerTransactionControllerTest {
     @Captor
     private ArgumentCaptor<String> stringCaptor;
 
+    @Captor
+    private ArgumentCaptor<ProducerRecord<String, byte[]>> recordCaptor;
+
     @Autowired
     private Gson gson;
 
+    @Autowired
+    private LedgerEventCodec codec;
+
     @Value( value = "${ledger.api.service.timeout.ms}" )
     private long API_SERVICE_TIMEOUT_MS;
 
+    @Value( value = "${ledger.api.reply.partition}" )
+    private int REPLY_PARTITION;
+
     private static final Long ID = 123456L;
     private static final String UUID = "a1d968c1-86fc-4864-a146-f7f8e601fa3f";
     private static final String LEDGER_DESCRIPTION = "Some dodgy transactions";
     private static final String LEDGER_TXN_CREATED_DATE = "2024-04-11T10:15:30+01:00";
+    private static final String OTHER_UUID = "c79b7220-1d54-4918-b856-f403760fcb78";
+    private static final String ACCOUNT_UUID_1 = "149ed02e-589e-483c-a545-011af89c90c9";
+    private static final String ACCOUNT_UUID_2 = "7e8e9f33-3177-47ae-ae50-ce50db6a796c";
 
     @BeforeEach
-    public void setup() {
+    public void setup() throws Exception {
+        when( admissionControl.admit( anyLong() ) ).thenAnswer( invocation -> invocation.getArgument( 0 ) ); // full timeout
+        when( admissionControl.admit( anyLong(), anyInt() ) ).thenAnswer( invocation -> invocation.getArgument( 0 ) );
         when( ledgerTransaction.getId() ).thenReturn( ID );
         when( ledgerTransaction.getUuid() ).thenReturn( UUID );
         when( ledgerTransaction.getDescription() ).thenReturn( LEDGER_DESCRIPTION );
@@ -97,8 +143,8 @@ public class LedgerTransactionControllerTest {
         when( ledgerTransactionResponse.getErrors() ).thenReturn( null );
         when( ledgerTransactionResponse.getLedgerTransaction() ).thenReturn( ledgerTransaction );
         when( ledgerService.waitForLedgerTransactionCreation( eq( UUID ), timeoutCaptor.capture() ) )
-                .thenReturn( ledgerTransactionResponse );
-        when( kafkaTemplate.send( stringCaptor.capture(), stringCaptor.capture(), stringCaptor.capture() ) )
+                .thenReturn( CompletableFuture.completedFuture( ledgerTransactionResponse ) );
+        when( kafkaTemplate.send( recordCaptor.capture() ) )
                 .thenReturn( sendResult );
 
         String json = gson.toJson( CreateLedgerTransactionRequest.builder()
@@ -124,11 +170,15 @@ public class LedgerTransactionControllerTest {
                 .build() );
 
         // execute & verify
-        mvc.perform( MockMvcRequestBuilders
+        MvcResult result = mvc.perform( MockMvcRequestBuilders
                         .post( "/api/ledger_transaction" )
                         .content( json )
                         .contentType( MediaType.APPLICATION_JSON )
                         .accept( MediaType.APPLICATION_JSON ) )
+                .andExpect( request().asyncStarted() )
+                .andReturn();
+
+        mvc.perform( asyncDispatch( result ) )
                 .andDo( print() )
                 .andExpect( status().isAccepted() )
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.status", is( RequestStatus.completed.name() ) ) )
@@ -141,14 +191,70 @@ public class LedgerTransactionControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.ledgerTransaction.createdDate", is( LEDGER_TXN_CREATED_DATE ) ) );
 
         assertThat( "call to ledgerService.waitForLedgerTransactionCreation()", timeoutCaptor.getValue(), is( API_SERVICE_TIMEOUT_MS ) );
-        assertThat( "kafka topic", stringCaptor.getAllValues().get( 0 ), is( LEDGER_EVENTS_TOPIC ) );
-        assertThat( "kafka key", stringCaptor.getAllValues().get( 1 ), is( "USERID" ) ); // TODO: placeholder
-
-        JsonObject kafkaPayload = gson.fromJson( stringCaptor.getAllValues().get( 2 ), JsonObject.class );
-        assertThat( kafkaPayload.get( "eventType" ).getAsString(), is( EventType.CREATE_LEDGER_TRANSACTION.name() ) );
-        JsonObject dataObj = kafkaPayload.get( "data" ).getAsJsonObject();
-        assertThat( dataObj.get( "uuid" ).getAsString(), is( UUID ) );
-        assertThat( dataObj.get( "description" ).getAsString(), is( LEDGER_DESCRIPTION ) );
+        InOrder inOrder = inOrder( ledgerService, kafkaTemplate ); // must be waiting before the request is sent
+        inOrder.verify( ledgerService ).waitForLedgerTransactionCreation( eq( UUID ), anyLong() );
+        inOrder.verify( kafkaTemplate ).send( any( ProducerRecord.class ) );
+        ProducerRecord<String, byte[]> record = recordCaptor.getValue();
+        assertThat( "kafka topic", record.topic(), is( LEDGER_EVENTS_TOPIC ) );
+        assertThat( "kafka key", record.key(), is( UUID ) );
+        assertThat( "reply topic", new String( record.headers().lastHeader( KafkaHeaders.REPLY_TOPIC ).value(), StandardCharsets.UTF_8 ), is( LEDGER_REPLIES_TOPIC ) );
+        assertThat( "reply partition", ByteBuffer.wrap( record.headers().lastHeader( KafkaHeaders.REPLY_PARTITION ).value() ).getInt(), is( REPLY_PARTITION ) );
+        assertThat( "event type", new String( record.headers().lastHeader( LedgerEventHeaders.EVENT_TYPE ).value(), StandardCharsets.UTF_8 ), is( EventType.CREATE_LEDGER_TRANSACTION.name() ) );
+        assertThat( "uuid", new String( record.headers().lastHeader( LedgerEventHeaders.UUID ).value(), StandardCharsets.UTF_8 ), is( UUID ) );
+
+        ApiOperation<?> kafkaPayload = codec.decode( record.value() );
+        assertThat( kafkaPayload.getEventType(), is( EventType.CREATE_LEDGER_TRANSACTION ) );
+        LedgerTransaction txn = (LedgerTransaction) kafkaPayload.getData();
+        assertThat( txn.getUuid(), is( UUID ) );
+        assertThat( txn.getDescription(), is( LEDGER_DESCRIPTION ) );
+        assertThat( txn.getLedgerEntries().size(), is( 2 ) );
+        assertThat( txn.getLedgerEntries().get( 0 ).getLedgerAccount().getLockVersion(), is( 21L ) );
+        assertThat( txn.getLedgerEntries().get( 0 ).getDirection(), is( LedgerTransactionDirection.debit ) );
+        assertThat( txn.getLedgerEntries().get( 1 ).getLedgerAccount().getLockVersion(), is( 32L ) );
+        assertThat( txn.getLedgerEntries().get( 1 ).getDirection(), is( LedgerTransactionDirection.credit ) );
+    }
+
+    @Test
+    public void testCreateLedgerTransactionRejectedWhenOverloaded() throws Exception {
+
+        // setup
+        when( admissionControl.admit( anyLong() ) ).thenThrow( new OverloadedException( "Too many requests in progress; please try again later", 7 ) );
+        String json = gson.toJson( CreateLedgerTransactionRequest.builder()
+                .uuid( UUID )
+                .description( LEDGER_DESCRIPTION )
+                .ledgerEntries( Arrays.asList(
+                        LedgerEntryRequest.builder()
+                                .ledgerAccount( LedgerEntryAccount.builder()
+                                        .uuid( UUID )
+                                        .lockVersion( 21L )
+                                        .build() )
+                                .direction( "debit" )
+                                .amount( new BigInteger( "100" ) )
+                                .build(),
+                        LedgerEntryRequest.builder()
+                                .ledgerAccount( LedgerEntryAccount.builder()
+                                        .uuid( UUID )
+                                        .lockVersion( 32L )
+                                        .build() )
+                                .direction( "credit" )
+                                .amount( new BigInteger( "100" ) )
+                                .build() ) )
+                .build() );
+
+        // execute & verify
+        mvc.perform( MockMvcRequestBuilders
+                        .post( "/api/ledger_transaction" )
+                        .content( json )
+                        .contentType( MediaType.APPLICATION_JSON )
+                        .accept( MediaType.APPLICATION_JSON ) )
+                .andDo( print() )
+                .andExpect( status().isTooManyRequests() )
+                .andExpect( header().string( HttpHeaders.RETRY_AFTER, "7" ) )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.status", is( RequestStatus.rejected.name() ) ) )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.error", is( "Too many requests in progress; please try again later" ) ) );
+
+        verify( ledgerService, never() ).waitForLedgerTransactionCreation( anyString(), anyLong() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
     }
 
     @Test
@@ -190,7 +296,7 @@ public class LedgerTransactionControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.errors.['ledgerEntries[1].ledgerAccount.lockVersion']", is( "must not be null" ) ) );
 
         verify( ledgerService, never() ).waitForLedgerTransactionCreation( anyString(), anyLong() );
-        verify( kafkaTemplate, never() ).send( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
     }
 
     @Test
@@ -214,7 +320,7 @@ public class LedgerTransactionControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.ledger" ).doesNotExist() );
 
         verify( ledgerService, never() ).waitForLedgerCreation( anyString(), anyLong() );
-        verify( kafkaTemplate, never() ).send( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
     }
 
     @Test
@@ -233,7 +339,7 @@ public class LedgerTransactionControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.ledger" ).doesNotExist() );
 
         verify( ledgerService, never() ).waitForLedgerCreation( anyString(), anyLong() );
-        verify( kafkaTemplate, never() ).send( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
     }
 
     @Test
@@ -255,7 +361,7 @@ public class LedgerTransactionControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.ledgerTransaction" ).doesNotExist() );
 
         verify( ledgerService, never() ).waitForLedgerCreation( anyString(), anyLong() );
-        verify( kafkaTemplate, never() ).send( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
     }
 
     @Test
@@ -285,7 +391,7 @@ public class LedgerTransactionControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.ledger" ).doesNotExist() );
 
         verify( ledgerService, never() ).waitForLedgerCreation( anyString(), anyLong() );
-        verify( kafkaTemplate, never() ).send( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
     }
 
     @Test
@@ -317,7 +423,7 @@ public class LedgerTransactionControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.ledger" ).doesNotExist() );
 
         verify( ledgerService, never() ).waitForLedgerCreation( anyString(), anyLong() );
-        verify( kafkaTemplate, never() ).send( anyString(), anyString(), anyString() );
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
     }
 
     @Test
@@ -361,4 +467,153 @@ public class LedgerTransactionControllerTest {
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.errors" ).exists() )
                 .andExpect( MockMvcResultMatchers.jsonPath( "$.errors.uuid", is( "Invalid UUID (only lowercase characters allowed)" ) ) );
     }
+
+    @Test
+    public void testPartitionKeyIsIndependentOfEntryOrder() {
+        LedgerEntryRequest debit = LedgerEntryRequest.builder()
+                .ledgerAccount( LedgerEntryAccount.builder().uuid( "bbbbbbbb-0000-0000-0000-000000000000" ).lockVersion( 1L ).build() )
+                .direction( "debit" )
+                .amount( new BigInteger( "100" ) )
+                .build();
+        LedgerEntryRequest credit = LedgerEntryRequest.builder()
+                .ledgerAccount( LedgerEntryAccount.builder().uuid( "aaaaaaaa-0000-0000-0000-000000000000" ).lockVersion( 1L ).build() )
+                .direction( "credit" )
+                .amount( new BigInteger( "100" ) )
+                .build();
+
+        String key = LedgerTransactionController.getPartitionKey( CreateLedgerTransactionRequest.builder()
+                .ledgerEntries( Arrays.asList( debit, credit ) ).build() );
+        assertThat( key, is( "aaaaaaaa-0000-0000-0000-000000000000,bbbbbbbb-0000-0000-0000-000000000000" ) );
+        assertThat( LedgerTransactionController.getPartitionKey( CreateLedgerTransactionRequest.builder()
+                .ledgerEntries( Arrays.asList( credit, debit ) ).build() ), is( key ) );
+    }
+
+    @Test
+    public void testCreateLedgerTransactionBatch() throws Exception {
+
+        // setup
+        when( ledgerService.waitForLedgerTransactionCreation( eq( UUID ), anyLong() ) )
+                .thenReturn( CompletableFuture.completedFuture( new CreateLedgerTransactionResponse( RequestStatus.completed )
+                        .withLedgerTransaction( LedgerTransaction.builder().id( ID ).uuid( UUID ).build() ) ) );
+        when( ledgerService.waitForLedgerTransactionCreation( eq( OTHER_UUID ), anyLong() ) )
+                .thenReturn( CompletableFuture.completedFuture( new CreateLedgerTransactionResponse( RequestStatus.pending ) ) );
+        when( kafkaTemplate.send( recordCaptor.capture() ) )
+                .thenReturn( sendResult );
+
+        String json = gson.toJson( CreateLedgerTransactionBatchRequest.builder()
+                .ledgerTransactions( Arrays.asList(
+                        transfer( UUID, ACCOUNT_UUID_2, ACCOUNT_UUID_1 ),
+                        transfer( OTHER_UUID, ACCOUNT_UUID_1, ACCOUNT_UUID_2 ) ) )
+                .build() );
+
+        // execute & verify
+        MvcResult result = mvc.perform( MockMvcRequestBuilders
+                        .post( "/api/ledger_transaction/batch" )
+                        .content( json )
+                        .contentType( MediaType.APPLICATION_JSON )
+                        .accept( MediaType.APPLICATION_JSON ) )
+                .andExpect( request().asyncStarted() )
+                .andReturn();
+
+        mvc.perform( asyncDispatch( result ) )
+                .andDo( print() )
+                .andExpect( status().isAccepted() )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.status", is( RequestStatus.pending.name() ) ) ) // not all completed
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.ledgerTransactions[0].status", is( RequestStatus.completed.name() ) ) )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.ledgerTransactions[0].ledgerTransaction.uuid", is( UUID ) ) )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.ledgerTransactions[1].status", is( RequestStatus.pending.name() ) ) );
+
+        // admitted as two requests, and must be waiting on all of them before any are sent
+        verify( admissionControl ).admit( API_SERVICE_TIMEOUT_MS, 2 );
+        InOrder inOrder = inOrder( ledgerService, kafkaTemplate );
+        inOrder.verify( ledgerService, times( 2 ) ).waitForLedgerTransactionCreation( anyString(), eq( API_SERVICE_TIMEOUT_MS ) );
+        inOrder.verify( kafkaTemplate, times( 2 ) ).send( any( ProducerRecord.class ) );
+        List<ProducerRecord<String, byte[]>> records = recordCaptor.getAllValues();
+        assertThat( "same accounts, same key", records.get( 0 ).key(), is( ACCOUNT_UUID_1 + "," + ACCOUNT_UUID_2 ) );
+        assertThat( "same accounts, same key", records.get( 1 ).key(), is( ACCOUNT_UUID_1 + "," + ACCOUNT_UUID_2 ) );
+        assertThat( "uuid", new String( records.get( 0 ).headers().lastHeader( LedgerEventHeaders.UUID ).value(), StandardCharsets.UTF_8 ), is( UUID ) );
+        assertThat( "uuid", new String( records.get( 1 ).headers().lastHeader( LedgerEventHeaders.UUID ).value(), StandardCharsets.UTF_8 ), is( OTHER_UUID ) );
+        assertThat( ( (LedgerTransaction) codec.decode( records.get( 1 ).value() ).getData() ).getUuid(), is( OTHER_UUID ) );
+    }
+
+    @Test
+    public void testCreateLedgerTransactionBatchWithDuplicateUUIDs() throws Exception {
+
+        String json = gson.toJson( CreateLedgerTransactionBatchRequest.builder()
+                .ledgerTransactions( Arrays.asList(
+                        transfer( UUID, ACCOUNT_UUID_1, ACCOUNT_UUID_2 ),
+                        transfer( UUID, ACCOUNT_UUID_2, ACCOUNT_UUID_1 ) ) )
+                .build() );
+
+        mvc.perform( MockMvcRequestBuilders
+                        .post( "/api/ledger_transaction/batch" )
+                        .content( json )
+                        .contentType( MediaType.APPLICATION_JSON )
+                        .accept( MediaType.APPLICATION_JSON ) )
+                .andDo( print() )
+                .andExpect( status().isBadRequest() )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.status", is( RequestStatus.failed.name() ) ) )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.error", is( "Duplicate ledger transaction UUID in batch: " + UUID ) ) );
+
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
+    }
+
+    @Test
+    public void testCreateLedgerTransactionBatchWithInvalidTransaction() throws Exception {
+
+        // a single invalid transaction fails the whole batch
+        String json = gson.toJson( CreateLedgerTransactionBatchRequest.builder()
+                .ledgerTransactions( Arrays.asList(
+                        transfer( UUID, ACCOUNT_UUID_1, ACCOUNT_UUID_2 ),
+                        CreateLedgerTransactionRequest.builder().uuid( OTHER_UUID ).build() ) )
+                .build() );
+
+        mvc.perform( MockMvcRequestBuilders
+                        .post( "/api/ledger_transaction/batch" )
+                        .content( json )
+                        .contentType( MediaType.APPLICATION_JSON )
+                        .accept( MediaType.APPLICATION_JSON ) )
+                .andDo( print() )
+                .andExpect( status().isBadRequest() )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.status", is( RequestStatus.failed.name() ) ) )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.errors.['ledgerTransactions[1].ledgerEntries']", is( "must not be empty" ) ) );
+
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
+    }
+
+    @Test
+    public void testCreateLedgerTransactionBatchWithNullTransaction() throws Exception {
+
+        String json = "{\"ledgerTransactions\": [" + gson.toJson( transfer( UUID, ACCOUNT_UUID_1, ACCOUNT_UUID_2 ) ) + ", null]}";
+
+        mvc.perform( MockMvcRequestBuilders
+                        .post( "/api/ledger_transaction/batch" )
+                        .content( json )
+                        .contentType( MediaType.APPLICATION_JSON )
+                        .accept( MediaType.APPLICATION_JSON ) )
+                .andDo( print() )
+                .andExpect( status().isBadRequest() )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.status", is( RequestStatus.failed.name() ) ) )
+                .andExpect( MockMvcResultMatchers.jsonPath( "$.errors.['ledgerTransactions[1]']", is( "must not be null" ) ) );
+
+        verify( kafkaTemplate, never() ).send( any( ProducerRecord.class ) );
+    }
+
+    private static CreateLedgerTransactionRequest transfer( String uuid, String fromAccountUuid, String toAccountUuid ) {
+        return CreateLedgerTransactionRequest.builder()
+                .uuid( uuid )
+                .description( LEDGER_DESCRIPTION )
+                .ledgerEntries( Arrays.asList(
+                        LedgerEntryRequest.builder()
+                                .ledgerAccount( LedgerEntryAccount.builder().uuid( fromAccountUuid ).lockVersion( 1L ).build() )
+                                .direction( "debit" )
+                                .amount( new BigInteger( "100" ) )
+                                .build(),
+                        LedgerEntryRequest.builder()
+                                .ledgerAccount( LedgerEntryAccount.builder().uuid( toAccountUuid ).lockVersion( 1L ).build() )
+                                .direction( "credit" )
+                                .amount( new BigInteger( "100" ) )
+                                .build() ) )
+                .build();
+    }
 }
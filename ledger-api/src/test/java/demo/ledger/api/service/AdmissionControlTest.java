@@ -0,0 +1,113 @@
+package demo.ledger.api.service;
+
+import demo.ledger.api.model.exception.OverloadedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdmissionControlTest {
+
+    private static final long TIMEOUT_MS = 2000;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ConsumerLagMonitor lagMonitor;
+    private PendingRequestRegistry<String> pendingRequests;
+    private AdmissionControl admissionControl; // object under test
+
+    @BeforeEach
+    public void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        lagMonitor = mock( ConsumerLagMonitor.class );
+        pendingRequests = new PendingRequestRegistry<>( "test", 1000, () -> "pending", meterRegistry );
+        // lag limits 100-1100, waiting request limits 10-20, wait at least 100ms, retry within 30s
+        admissionControl = new AdmissionControl( lagMonitor, List.of( pendingRequests ), meterRegistry, true,
+                100, 1100, 10, 20, 100, 30 );
+    }
+
+    @Test
+    public void testFullTimeoutBelowSoftLimits() throws Exception {
+        when( lagMonitor.getLag() ).thenReturn( 100L );
+        assertThat( admissionControl.admit( TIMEOUT_MS ), is( TIMEOUT_MS ) );
+    }
+
+    @Test
+    public void testFullTimeoutWhenLagUnknown() throws Exception {
+        when( lagMonitor.getLag() ).thenReturn( -1L );
+        assertThat( admissionControl.admit( TIMEOUT_MS ), is( TIMEOUT_MS ) );
+    }
+
+    @Test
+    public void testTimeoutShortenedBetweenSoftAndHardLagLimits() throws Exception {
+        when( lagMonitor.getLag() ).thenReturn( 600L ); // half way
+        assertThat( admissionControl.admit( TIMEOUT_MS ), is( 1050L ) );
+
+        when( lagMonitor.getLag() ).thenReturn( 1099L );
+        assertThat( admissionControl.admit( TIMEOUT_MS ), is( 102L ) );
+        assertThat( meterRegistry.get( "ledger.api.admission.shortened" ).counter().count(), is( 2.0 ) );
+    }
+
+    @Test
+    public void testRejectedAtHardLagLimitWithRetryAfterFromDrainRate() {
+        when( lagMonitor.getLag() ).thenReturn( 5100L );
+        when( lagMonitor.getDrainRate() ).thenReturn( 1000.0 );
+
+        // 5000 events to go to get back under the soft limit at 1000/s
+        OverloadedException ex = assertThrows( OverloadedException.class, () -> admissionControl.admit( TIMEOUT_MS ) );
+        assertThat( ex.getRetryAfterSeconds(), is( 5L ) );
+        assertThat( meterRegistry.get( "ledger.api.admission.rejected" ).counter().count(), is( 1.0 ) );
+    }
+
+    @Test
+    public void testRetryAfterCappedWhenProcessorIsStuck() {
+        when( lagMonitor.getLag() ).thenReturn( 5100L );
+        when( lagMonitor.getDrainRate() ).thenReturn( 0.0 );
+
+        OverloadedException ex = assertThrows( OverloadedException.class, () -> admissionControl.admit( TIMEOUT_MS ) );
+        assertThat( ex.getRetryAfterSeconds(), is( 30L ) );
+    }
+
+    @Test
+    public void testShortenedThenRejectedAsRequestsPileUp() throws Exception {
+        when( lagMonitor.getLag() ).thenReturn( 0L );
+        register( 15 );
+        assertThat( admissionControl.admit( TIMEOUT_MS ), is( 1050L ) );
+
+        register( 5 );
+        OverloadedException ex = assertThrows( OverloadedException.class, () -> admissionControl.admit( TIMEOUT_MS ) );
+        assertThat( ex.getRetryAfterSeconds(), is( 2L ) ); // those waiting will be done within the timeout
+    }
+
+    @Test
+    public void testBatchCountsAsEachOfItsRequests() throws Exception {
+        when( lagMonitor.getLag() ).thenReturn( 0L );
+        register( 5 );
+        assertThat( admissionControl.admit( TIMEOUT_MS, 11 ), is( 1050L ) ); // as if 15 were waiting
+
+        OverloadedException ex = assertThrows( OverloadedException.class, () -> admissionControl.admit( TIMEOUT_MS, 16 ) );
+        assertThat( ex.getRetryAfterSeconds(), is( 2L ) );
+    }
+
+    @Test
+    public void testEverythingAdmittedWhenDisabled() throws Exception {
+        admissionControl = new AdmissionControl( lagMonitor, List.of( pendingRequests ), meterRegistry, false,
+                100, 1100, 10, 20, 100, 30 );
+        when( lagMonitor.getLag() ).thenReturn( 5000L );
+        assertThat( admissionControl.admit( TIMEOUT_MS ), is( TIMEOUT_MS ) );
+    }
+
+    private void register( int count ) {
+        for ( int i = 0; i < count; i++ ) {
+            pendingRequests.register( UUID.randomUUID().toString(), Duration.ofMinutes( 1 ) );
+        }
+    }
+}
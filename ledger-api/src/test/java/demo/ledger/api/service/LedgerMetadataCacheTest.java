@@ -0,0 +1,107 @@
+package demo.ledger.api.service;
+
+import demo.ledger.model.Ledger;
+import demo.ledger.model.LedgerAccount;
+import demo.ledger.model.dto.EventType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class LedgerMetadataCacheTest {
+
+    private static final String UUID = "a1d968c1-86fc-4864-a146-f7f8e601fa3f";
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private SimpleMeterRegistry meterRegistry;
+    private LedgerMetadataCache cache; // object under test
+
+    @BeforeEach
+    public void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new LedgerMetadataCache( meterRegistry, 10, Duration.ofMinutes( 10 ), Duration.ofSeconds( 1 ), nanos::get );
+    }
+
+    @Test
+    public void testLookupIsOnlyLoadedOnce() {
+        Function<String, Optional<Ledger>> loader = found( Ledger.builder().id( 1L ).uuid( UUID ).name( "My Ledger" ).build() );
+        assertThat( cache.getLedger( UUID, loader ).orElseThrow().getName(), is( "My Ledger" ) );
+        assertThat( cache.getLedger( UUID, loader ).orElseThrow().getName(), is( "My Ledger" ) );
+        assertThat( lookups.get(), is( 1 ) );
+        assertThat( meterRegistry.get( "cache.gets" ).tag( "cache", "ledger" ).tag( "result", "hit" ).functionCounter().count(), is( 1.0 ) );
+        assertThat( meterRegistry.get( "cache.gets" ).tag( "cache", "ledger" ).tag( "result", "miss" ).functionCounter().count(), is( 1.0 ) );
+
+        advance( Duration.ofMinutes( 11 ) );
+        cache.getLedger( UUID, loader );
+        assertThat( lookups.get(), is( 2 ) );
+    }
+
+    @Test
+    public void testNotFoundIsHeldBriefly() {
+        Function<String, Optional<LedgerAccount>> loader = notFound();
+        assertThat( cache.getLedgerAccount( UUID, loader ).isPresent(), is( false ) );
+        assertThat( cache.getLedgerAccount( UUID, loader ).isPresent(), is( false ) );
+        assertThat( lookups.get(), is( 1 ) );
+
+        advance( Duration.ofSeconds( 2 ) );
+        cache.getLedgerAccount( UUID, loader );
+        assertThat( lookups.get(), is( 2 ) );
+    }
+
+    @Test
+    public void testCreationEventReplacesNotFound() {
+        cache.getLedgerAccount( UUID, notFound() );
+        cache.putLedgerAccount( LedgerAccount.builder().id( 7L ).uuid( UUID ).lockVersion( 1L ).name( "My Account" )
+                .ledger( Ledger.builder().id( 1L ).name( "My Ledger" ).build() ).build() );
+
+        LedgerAccount ledgerAccount = cache.getLedgerAccount( UUID, notFound() ).orElseThrow();
+        assertThat( ledgerAccount.getName(), is( "My Account" ) );
+        assertThat( ledgerAccount.getLedger().getName(), is( "My Ledger" ) );
+        assertThat( ledgerAccount.getLockVersion(), is( nullValue() ) ); // not held
+
+        // held for the full TTL once found
+        advance( Duration.ofSeconds( 2 ) );
+        assertThat( cache.getLedgerAccount( UUID, notFound() ).isPresent(), is( true ) );
+        assertThat( lookups.get(), is( 1 ) );
+    }
+
+    @Test
+    public void testCreationEventEvictsNotFound() {
+        cache.getLedger( UUID, notFound() );
+        cache.evict( EventType.LEDGER_ACCOUNT_CREATED, UUID ); // different type
+        cache.getLedger( UUID, notFound() );
+        assertThat( lookups.get(), is( 1 ) );
+
+        cache.evict( EventType.LEDGER_CREATED, UUID );
+        cache.getLedger( UUID, notFound() );
+        assertThat( lookups.get(), is( 2 ) );
+    }
+
+    private <T> Function<String, Optional<T>> found( T value ) {
+        return uuid -> {
+            lookups.incrementAndGet();
+            return Optional.of( value );
+        };
+    }
+
+    private <T> Function<String, Optional<T>> notFound() {
+        return uuid -> {
+            lookups.incrementAndGet();
+            return Optional.empty();
+        };
+    }
+
+    private void advance( Duration duration ) {
+        nanos.addAndGet( duration.toNanos() );
+    }
+}
@@ -0,0 +1,261 @@
+package demo.ledger.api.service;
+
+import com.google.gson.Gson;
+import demo.ledger.api.config.DemoConfig;
+import demo.ledger.api.model.dto.CreateLedgerAccountResponse;
+import demo.ledger.api.model.dto.CreateLedgerResponse;
+import demo.ledger.api.model.dto.CreateLedgerTransactionResponse;
+import demo.ledger.api.model.dto.GetBalanceResponse;
+import demo.ledger.api.model.dto.RequestStatus;
+import demo.ledger.api.repository.AccountBalanceCheckpointRepository;
+import demo.ledger.api.repository.AccountBalanceRepository;
+import demo.ledger.api.repository.LedgerAccountRepository;
+import demo.ledger.api.repository.LedgerAccountRunningBalance;
+import demo.ledger.api.repository.LedgerAccountSummary;
+import demo.ledger.api.repository.LedgerAccountTotalsById;
+import demo.ledger.api.repository.LedgerEntryAmount;
+import demo.ledger.api.repository.LedgerEntryRepository;
+import demo.ledger.api.repository.LedgerRepository;
+import demo.ledger.api.repository.LedgerTransactionRepository;
+import demo.ledger.model.AccountBalanceCheckpoint;
+import demo.ledger.model.Ledger;
+import demo.ledger.model.LedgerAccount;
+import demo.ledger.model.LedgerTransactionDirection;
+import demo.ledger.model.codec.LedgerEventCodec;
+import demo.ledger.model.codec.LedgerEventHeaders;
+import demo.ledger.model.dto.ApiOperation;
+import demo.ledger.model.dto.EventType;
+import demo.ledger.model.dto.FailedResponse;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LedgerServiceTest {
+
+    private static final String UUID = "a1d968c1-86fc-4864-a146-f7f8e601fa3f";
+    private static final byte[] NOT_AN_EVENT = "not a ledger event".getBytes( StandardCharsets.UTF_8 );
+
+    private final Gson gson = new DemoConfig().getGson();
+    private final LedgerEventCodec codec = new LedgerEventCodec( gson );
+    private SimpleMeterRegistry meterRegistry;
+    private LedgerRepository ledgerRepository;
+    private LedgerAccountRepository ledgerAccountRepository;
+    private LedgerEntryRepository ledgerEntryRepository;
+    private AccountBalanceCheckpointRepository accountBalanceCheckpointRepository;
+    private LedgerService ledgerService; // object under test
+
+    @BeforeEach
+    public void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        ledgerRepository = mock( LedgerRepository.class );
+        ledgerAccountRepository = mock( LedgerAccountRepository.class );
+        ledgerEntryRepository = mock( LedgerEntryRepository.class );
+        accountBalanceCheckpointRepository = mock( AccountBalanceCheckpointRepository.class );
+        ledgerService = new LedgerService( ledgerRepository, ledgerAccountRepository,
+                mock( LedgerTransactionRepository.class ), ledgerEntryRepository,
+                mock( AccountBalanceRepository.class ), accountBalanceCheckpointRepository, codec,
+                new PendingRequestRegistry<>( "ledger", 10, () -> new CreateLedgerResponse( RequestStatus.pending ), meterRegistry ),
+                new PendingRequestRegistry<>( "ledger_account", 10, () -> new CreateLedgerAccountResponse( RequestStatus.pending ), meterRegistry ),
+                new PendingRequestRegistry<>( "ledger_transaction", 10, () -> new CreateLedgerTransactionResponse( RequestStatus.pending ), meterRegistry ),
+                new LatencyMetrics( meterRegistry ),
+                new LedgerMetadataCache( meterRegistry, 10, 600000, 1000 ) );
+    }
+
+    @Test
+    public void testCompletionEventCompletesWaitingRequest() throws Exception {
+        CompletableFuture<CreateLedgerResponse> response = ledgerService.waitForLedgerCreation( UUID, Duration.ofMinutes( 1 ).toMillis() );
+
+        listen( codec.encode( new ApiOperation<Ledger>()
+                        .withEventType( EventType.LEDGER_CREATED )
+                        .withData( Ledger.builder().id( 1L ).uuid( UUID ).name( "My Ledger" ).build() ) ),
+                EventType.LEDGER_CREATED, UUID );
+
+        assertThat( response.get( 1, TimeUnit.SECONDS ).getStatus(), is( RequestStatus.completed ) );
+        assertThat( response.get().getLedger().getName(), is( "My Ledger" ) );
+    }
+
+    @Test
+    public void testFailedEventWithoutHeadersCompletesWaitingRequest() throws Exception {
+        CompletableFuture<CreateLedgerResponse> response = ledgerService.waitForLedgerCreation( UUID, Duration.ofMinutes( 1 ).toMillis() );
+
+        // events sent before the headers were added are JSON without any headers
+        listen( gson.toJson( new ApiOperation<FailedResponse>()
+                        .withEventType( EventType.LEDGER_CREATION_FAILED )
+                        .withData( new FailedResponse( UUID, "Ledger already exists with this UUID" ) ) ).getBytes( StandardCharsets.UTF_8 ),
+                null, null );
+
+        assertThat( response.get( 1, TimeUnit.SECONDS ).getStatus(), is( RequestStatus.failed ) );
+        assertThat( response.get().getError(), is( "Ledger already exists with this UUID" ) );
+    }
+
+    @Test
+    public void testCompletionEventRecordsLatencyFromIngressTimestamp() throws Exception {
+        CompletableFuture<CreateLedgerResponse> response = ledgerService.waitForLedgerCreation( UUID, Duration.ofMinutes( 1 ).toMillis() );
+
+        long now = System.currentTimeMillis();
+        ledgerService.listenForCompletionEvents( codec.encode( new ApiOperation<Ledger>()
+                        .withEventType( EventType.LEDGER_CREATED )
+                        .withData( Ledger.builder().id( 1L ).uuid( UUID ).name( "My Ledger" ).build() ) ),
+                "ledger-replies", 0, 0, now - 20, LedgerEventHeaders.toBytes( EventType.LEDGER_CREATED ), LedgerEventHeaders.toBytes( UUID ),
+                LedgerEventHeaders.toBytes( "0b8d5b1e-7f3a-4c1e-9a2d-5e6f7a8b9c0d" ), LedgerEventHeaders.toBytes( now - 500 ) );
+
+        assertThat( response.get( 1, TimeUnit.SECONDS ).getStatus(), is( RequestStatus.completed ) );
+        Timer completionLatency = meterRegistry.get( "ledger.api.completion.latency" ).tag( "type", "LEDGER_CREATED" ).timer();
+        assertThat( completionLatency.count(), is( 1L ) );
+        assertThat( completionLatency.totalTime( TimeUnit.MILLISECONDS ) >= 500, is( true ) );
+        assertThat( meterRegistry.get( "ledger.api.reply.latency" ).tag( "type", "LEDGER_CREATED" ).timer().count(), is( 1L ) );
+    }
+
+    @Test
+    public void testSkipsUnhandledEventTypeWithoutDecoding() {
+        ledgerService.waitForLedgerCreation( UUID, Duration.ofMinutes( 1 ).toMillis() );
+
+        // would throw if the payload was decoded
+        listen( NOT_AN_EVENT, EventType.CREATE_LEDGER, UUID );
+    }
+
+    @Test
+    public void testSkipsEventNobodyIsWaitingOnWithoutDecoding() {
+        ledgerService.waitForLedgerCreation( UUID, Duration.ofMinutes( 1 ).toMillis() );
+
+        // would throw if the payload was decoded
+        listen( NOT_AN_EVENT, EventType.LEDGER_CREATED, "b8c2a2a5-1d3e-4f57-9a0f-3d2f6c1b7e42" );
+    }
+
+    @Test
+    public void testCompletionEventIsCachedForLookups() {
+        ledgerService.waitForLedgerCreation( UUID, Duration.ofMinutes( 1 ).toMillis() );
+        listen( codec.encode( new ApiOperation<Ledger>()
+                        .withEventType( EventType.LEDGER_CREATED )
+                        .withData( Ledger.builder().id( 1L ).uuid( UUID ).name( "My Ledger" ).build() ) ),
+                EventType.LEDGER_CREATED, UUID );
+
+        assertThat( ledgerService.findLedgerByUuid( UUID ).orElseThrow().getName(), is( "My Ledger" ) );
+        verify( ledgerRepository, never() ).findByUuid( anyString() );
+    }
+
+    @Test
+    public void testCachedLedgerAccountHasCurrentLockVersion() {
+        when( ledgerAccountRepository.findWithLedgerByUuid( UUID ) ).thenReturn( Optional.of( LedgerAccount.builder()
+                .id( 7L ).uuid( UUID ).lockVersion( 1L ).name( "My Account" ).currency( "USD" )
+                .ledger( Ledger.builder().id( 1L ).build() ).build() ) );
+        when( ledgerAccountRepository.findLockVersionById( 7L ) ).thenReturn( Optional.of( 1L ), Optional.of( 5L ) );
+
+        assertThat( ledgerService.findLedgerAccountByUuid( UUID ).orElseThrow().getLockVersion(), is( 1L ) );
+        LedgerAccount ledgerAccount = ledgerService.findLedgerAccountByUuid( UUID ).orElseThrow();
+        assertThat( ledgerAccount.getLockVersion(), is( 5L ) );
+        assertThat( ledgerAccount.getName(), is( "My Account" ) );
+        verify( ledgerAccountRepository ).findWithLedgerByUuid( UUID );
+    }
+
+    @Test
+    public void testBalancesAreReturnedInOrderRequested() {
+        String otherUuid = "b8c2a2a5-1d3e-4f57-9a0f-3d2f6c1b7e42";
+        LedgerAccountRunningBalance runningBalance = mock( LedgerAccountRunningBalance.class );
+        when( runningBalance.getUuid() ).thenReturn( UUID );
+        when( runningBalance.getLockVersion() ).thenReturn( 3L );
+        when( runningBalance.getTotalCredits() ).thenReturn( BigInteger.TEN );
+        when( runningBalance.getTotalDebits() ).thenReturn( BigInteger.ONE );
+        when( ledgerAccountRepository.findRunningBalancesByUuidIn( List.of( otherUuid, UUID ) ) ).thenReturn( List.of( runningBalance ) );
+
+        List<GetBalanceResponse> balances = ledgerService.fetchLedgerAccountBalances( List.of( otherUuid, UUID ), null );
+        assertThat( balances.size(), is( 2 ) );
+        assertThat( balances.get( 0 ).getUuid(), is( otherUuid ) );
+        assertThat( balances.get( 0 ).getStatus(), is( RequestStatus.failed ) );
+        assertThat( balances.get( 0 ).getError(), is( "No matching ledger account found" ) );
+        assertThat( balances.get( 1 ).getUuid(), is( UUID ) );
+        assertThat( balances.get( 1 ).getLockVersion(), is( 3L ) );
+        assertThat( balances.get( 1 ).getTotalCredits(), is( BigInteger.TEN ) );
+        assertThat( balances.get( 1 ).getTotalDebits(), is( BigInteger.ONE ) );
+    }
+
+    @Test
+    public void testBalancesAtAPointInTimeOnlyTotalEntriesSinceEachCheckpoint() {
+        String otherUuid = "b8c2a2a5-1d3e-4f57-9a0f-3d2f6c1b7e42";
+        OffsetDateTime queryDate = OffsetDateTime.parse( "2024-04-11T00:00:00Z" );
+        LedgerAccountSummary withCheckpoint = summary( 1L, UUID );
+        LedgerAccountSummary withoutCheckpoint = summary( 2L, otherUuid );
+        when( ledgerAccountRepository.findSummariesByUuidIn( List.of( UUID, otherUuid ) ) ).thenReturn( List.of( withCheckpoint, withoutCheckpoint ) );
+        when( accountBalanceCheckpointRepository.findLatestByLedgerAccountIdIn( List.of( 1L, 2L ), queryDate ) ).thenReturn( List.of(
+                AccountBalanceCheckpoint.builder().id( 9L ).ledgerAccountId( 1L ).totalCredits( BigInteger.TEN ).totalDebits( BigInteger.ONE ).build() ) );
+        List<LedgerAccountTotalsById> sinceCheckpoint = List.of( totals( 1L, 5, 0 ) );
+        when( ledgerEntryRepository.getTotalsSinceCheckpoints( List.of( 9L ), queryDate ) ).thenReturn( sinceCheckpoint );
+        List<LedgerAccountTotalsById> all = List.of( totals( 2L, 0, 7 ) );
+        when( ledgerEntryRepository.getTotals( List.of( 2L ), queryDate ) ).thenReturn( all );
+
+        List<GetBalanceResponse> balances = ledgerService.fetchLedgerAccountBalances( List.of( UUID, otherUuid ), queryDate );
+        assertThat( balances.get( 0 ).getTotalCredits(), is( BigInteger.valueOf( 15 ) ) );
+        assertThat( balances.get( 0 ).getTotalDebits(), is( BigInteger.ONE ) );
+        assertThat( balances.get( 1 ).getTotalCredits(), is( BigInteger.ZERO ) );
+        assertThat( balances.get( 1 ).getTotalDebits(), is( BigInteger.valueOf( 7 ) ) );
+    }
+
+    private static LedgerAccountSummary summary( Long id, String uuid ) {
+        LedgerAccountSummary summary = mock( LedgerAccountSummary.class );
+        when( summary.getId() ).thenReturn( id );
+        when( summary.getUuid() ).thenReturn( uuid );
+        return summary;
+    }
+
+    private static LedgerAccountTotalsById totals( Long ledgerAccountId, long totalCredits, long totalDebits ) {
+        LedgerAccountTotalsById totals = mock( LedgerAccountTotalsById.class );
+        when( totals.getLedgerAccountId() ).thenReturn( ledgerAccountId );
+        when( totals.getTotalCredits() ).thenReturn( BigInteger.valueOf( totalCredits ) );
+        when( totals.getTotalDebits() ).thenReturn( BigInteger.valueOf( totalDebits ) );
+        return totals;
+    }
+
+    @Test
+    public void testBalanceHistoryIsTotalledInASinglePass() {
+        LedgerAccount ledgerAccount = LedgerAccount.builder().id( 7L ).uuid( UUID ).build();
+        OffsetDateTime start = OffsetDateTime.parse( "2024-04-11T00:00:00Z" );
+        List<OffsetDateTime> timestamps = List.of( start, start.plusDays( 1 ), start.plusDays( 2 ) );
+        List<LedgerEntryAmount> entries = List.of(
+                entry( start.plusHours( 1 ), LedgerTransactionDirection.credit, 10 ),
+                entry( start.plusDays( 1 ), LedgerTransactionDirection.debit, 3 ), // included at the point in time itself
+                entry( start.plusDays( 1 ).plusSeconds( 1 ), LedgerTransactionDirection.credit, 5 ) );
+        when( ledgerEntryRepository.streamAmounts( 7L, start.plusDays( 2 ) ) ).thenReturn( entries.stream() );
+
+        List<GetBalanceResponse> balances = new ArrayList<>();
+        ledgerService.fetchLedgerAccountBalanceHistory( ledgerAccount, timestamps, balances::add );
+        assertThat( balances.stream().map( GetBalanceResponse::getTimestamp ).toList(), is( timestamps ) );
+        assertThat( balances.stream().map( GetBalanceResponse::getTotalCredits ).toList(),
+                is( List.of( BigInteger.ZERO, BigInteger.TEN, BigInteger.valueOf( 15 ) ) ) );
+        assertThat( balances.stream().map( GetBalanceResponse::getTotalDebits ).toList(),
+                is( List.of( BigInteger.ZERO, BigInteger.valueOf( 3 ), BigInteger.valueOf( 3 ) ) ) );
+        assertThat( balances.get( 0 ).getUuid(), is( UUID ) );
+    }
+
+    private static LedgerEntryAmount entry( OffsetDateTime createdDate, LedgerTransactionDirection direction, long amount ) {
+        LedgerEntryAmount entry = mock( LedgerEntryAmount.class );
+        when( entry.getCreatedDate() ).thenReturn( createdDate );
+        when( entry.getDirection() ).thenReturn( direction );
+        when( entry.getAmount() ).thenReturn( BigInteger.valueOf( amount ) );
+        return entry;
+    }
+
+    private void listen( byte[] payload, EventType eventType, String uuid ) {
+        ledgerService.listenForCompletionEvents( payload, "ledger-replies", 0, 0, System.currentTimeMillis(),
+                eventType == null ? null : LedgerEventHeaders.toBytes( eventType ),
+                uuid == null ? null : LedgerEventHeaders.toBytes( uuid ), null, null );
+    }
+}
@@ -0,0 +1,70 @@
+package demo.ledger.api.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class PendingRequestRegistryTest {
+
+    private static final String UUID = "a1d968c1-86fc-4864-a146-f7f8e601fa3f";
+    private static final String OTHER_UUID = "b8c2a2a5-1d3e-4f57-9a0f-3d2f6c1b7e42";
+
+    private SimpleMeterRegistry meterRegistry;
+    private PendingRequestRegistry<String> registry;
+
+    @BeforeEach
+    public void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        registry = new PendingRequestRegistry<>( "test", 1, () -> "pending", meterRegistry );
+    }
+
+    @Test
+    public void testCompleteReturnsResponseAndRemovesEntry() throws Exception {
+        CompletableFuture<String> future = registry.register( UUID, Duration.ofMinutes( 1 ) );
+        assertThat( registry.size(), is( 1L ) );
+
+        assertThat( registry.complete( UUID, "completed" ), is( true ) );
+        assertThat( future.get( 1, TimeUnit.SECONDS ), is( "completed" ) );
+        assertThat( registry.size(), is( 0L ) );
+        assertThat( registry.complete( UUID, "completed" ), is( false ) );
+        assertThat( meterRegistry.get( "ledger.api.pending.requests.completed" ).counter().count(), is( 1.0 ) );
+    }
+
+    @Test
+    public void testExpiredEntryCompletesAsPending() throws Exception {
+        CompletableFuture<String> future = registry.register( UUID, Duration.ofMillis( 50 ) );
+
+        // completed by the scheduler; nobody needs to touch the registry for this to happen
+        assertThat( future.get( 5, TimeUnit.SECONDS ), is( "pending" ) );
+        assertThat( registry.size(), is( 0L ) );
+        assertThat( meterRegistry.get( "ledger.api.pending.requests.evicted" ).tag( "cause", "expired" ).counter().count(), is( 1.0 ) );
+    }
+
+    @Test
+    public void testRegistryIsBounded() throws Exception {
+        CompletableFuture<String> first = registry.register( UUID, Duration.ofMinutes( 1 ) );
+        CompletableFuture<String> second = registry.register( OTHER_UUID, Duration.ofMinutes( 1 ) );
+
+        assertThat( registry.size(), is( 1L ) );
+        assertThat( CompletableFuture.anyOf( first, second ).get( 1, TimeUnit.SECONDS ), is( "pending" ) );
+        assertThat( meterRegistry.get( "ledger.api.pending.requests.evicted" ).tag( "cause", "size" ).counter().count(), is( 1.0 ) );
+        assertThat( meterRegistry.get( "ledger.api.pending.requests" ).gauge().value(), is( 1.0 ) );
+    }
+
+    @Test
+    public void testDuplicateRegistrationReplacesEarlierRequest() throws Exception {
+        CompletableFuture<String> first = registry.register( UUID, Duration.ofMinutes( 1 ) );
+        CompletableFuture<String> second = registry.register( UUID, Duration.ofMinutes( 1 ) );
+
+        assertThat( first.get( 1, TimeUnit.SECONDS ), is( "pending" ) );
+        registry.complete( UUID, "completed" );
+        assertThat( second.get( 1, TimeUnit.SECONDS ), is( "completed" ) );
+    }
+}
@@ -0,0 +1,63 @@
+package demo.ledger.benchmark;
+
+import demo.ledger.api.model.dto.CreateLedgerTransactionRequest;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bean Validation of the request body of POST /api/ledger_transaction.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class CreateLedgerTransactionRequestValidationBenchmark {
+
+    private ValidatorFactory validatorFactory;
+    private Validator validator;
+    private CreateLedgerTransactionRequest validRequest;
+    private CreateLedgerTransactionRequest invalidRequest;
+
+    @Setup
+    public void setup() {
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        validator = validatorFactory.getValidator();
+        validRequest = SampleData.createLedgerTransactionRequest();
+        invalidRequest = SampleData.createLedgerTransactionRequest();
+        invalidRequest.setUuid( "NOT-A-UUID" );
+        invalidRequest.getLedgerEntries().get( 0 ).setDirection( "sideways" );
+    }
+
+    @TearDown
+    public void tearDown() {
+        validatorFactory.close();
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<CreateLedgerTransactionRequest>> validateValidRequest() {
+        return validator.validate( validRequest );
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<CreateLedgerTransactionRequest>> validateInvalidRequest() {
+        return validator.validate( invalidRequest );
+    }
+}
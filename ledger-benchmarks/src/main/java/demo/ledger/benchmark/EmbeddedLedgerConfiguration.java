@@ -0,0 +1,22 @@
+package demo.ledger.benchmark;
+
+import demo.ledger.service.AccountStateCache;
+import demo.ledger.service.LedgerService;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.kafka.KafkaAutoConfiguration;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+/**
+ * The event processor's {@link LedgerService} and repositories on an embedded (H2) database; see
+ * ledger-benchmarks.properties.
+ */
+@Configuration
+@EnableAutoConfiguration( exclude = KafkaAutoConfiguration.class )
+@EnableJpaRepositories( "demo.ledger.repository" )
+@EntityScan( "demo.ledger.model" )
+@Import( { LedgerService.class, AccountStateCache.class } )
+public class EmbeddedLedgerConfiguration {
+}
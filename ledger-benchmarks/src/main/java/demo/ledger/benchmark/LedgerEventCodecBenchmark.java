@@ -0,0 +1,77 @@
+package demo.ledger.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import demo.ledger.config.KafkaConsumerConfig;
+import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.codec.LedgerEventCodec;
+import demo.ledger.model.dto.ApiOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding/decoding of ledger events: Gson (JSON) vs {@link LedgerEventCodec} (binary), along with the
+ * parse-to-JsonObject, toJson, fromJson conversion the event processor originally did for every event.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class LedgerEventCodecBenchmark {
+
+    private Gson gson;
+    private LedgerEventCodec codec;
+    private ApiOperation<LedgerTransaction> completionEvent;
+    private String jsonCommand;
+    private byte[] jsonCommandBytes;
+    private byte[] binaryCommand;
+
+    @Setup
+    public void setup() {
+        gson = new KafkaConsumerConfig().getGson(); // same configuration as the event processor
+        codec = new LedgerEventCodec( gson );
+        completionEvent = SampleData.ledgerTransactionCreatedEvent();
+        jsonCommand = gson.toJson( SampleData.createLedgerTransactionEvent() );
+        jsonCommandBytes = jsonCommand.getBytes( StandardCharsets.UTF_8 );
+        binaryCommand = codec.encode( SampleData.createLedgerTransactionEvent() );
+    }
+
+    @Benchmark
+    public String gsonSerialize() {
+        return gson.toJson( completionEvent );
+    }
+
+    @Benchmark
+    public ApiOperation<?> gsonDeserialize() {
+        return codec.decode( jsonCommandBytes ); // JSON is decoded straight into the event data type
+    }
+
+    @Benchmark
+    public LedgerTransaction gsonDoubleConversion() {
+        JsonObject obj = gson.fromJson( jsonCommand, JsonObject.class );
+        return gson.fromJson( gson.toJson( obj.get( "data" ).getAsJsonObject() ), LedgerTransaction.class );
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return codec.encode( completionEvent );
+    }
+
+    @Benchmark
+    public ApiOperation<?> binaryDecode() {
+        return codec.decode( binaryCommand );
+    }
+}
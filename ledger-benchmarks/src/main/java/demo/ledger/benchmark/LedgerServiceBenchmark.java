@@ -0,0 +1,98 @@
+package demo.ledger.benchmark;
+
+import demo.ledger.model.Ledger;
+import demo.ledger.model.LedgerAccount;
+import demo.ledger.model.LedgerEntry;
+import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.LedgerTransactionDirection;
+import demo.ledger.model.exception.NotFoundException;
+import demo.ledger.service.LedgerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posting a ledger transaction (resolving and locking the accounts, saving the entries, bumping the lock versions and
+ * updating the running balances) with {@link LedgerService#createLedgerTransaction(LedgerTransaction)} against an
+ * embedded database. This measures our side of the write path; absolute numbers will differ from PostgreSQL.
+ * With accountCacheSize=0, the accounts are read (and locked) on every posting rather than held in the
+ * {@link demo.ledger.service.AccountStateCache}.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class LedgerServiceBenchmark {
+
+    @Param( { "0", "50000" } )
+    private int accountCacheSize;
+
+    private ConfigurableApplicationContext context;
+    private LedgerService ledgerService;
+    private LedgerAccount debitAccount;
+    private LedgerAccount creditAccount;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder( EmbeddedLedgerConfiguration.class )
+                .web( WebApplicationType.NONE )
+                .properties( "spring.config.name=ledger-benchmarks" ) // not the application.properties of the event processor or API
+                .properties( "ledger.processor.account-cache.max-size=" + accountCacheSize )
+                .run();
+        ledgerService = context.getBean( LedgerService.class );
+        Ledger ledger = ledgerService.createLedger( UUID.randomUUID().toString(), "Benchmark ledger", null );
+        debitAccount = ledgerService.createLedgerAccount( ledger, UUID.randomUUID().toString(), "Debit account", null, "USD" );
+        creditAccount = ledgerService.createLedgerAccount( ledger, UUID.randomUUID().toString(), "Credit account", null, "USD" );
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public LedgerTransaction createLedgerTransaction() throws NotFoundException {
+        LedgerTransaction txn = ledgerService.createLedgerTransaction( LedgerTransaction.builder()
+                .uuid( UUID.randomUUID().toString() )
+                .description( "Benchmark transfer" )
+                .ledgerEntries( List.of(
+                        ledgerEntry( debitAccount, LedgerTransactionDirection.debit ),
+                        ledgerEntry( creditAccount, LedgerTransactionDirection.credit ) ) )
+                .build() );
+
+        // the next transaction must reference the new lock versions
+        debitAccount = txn.getLedgerEntries().get( 0 ).getLedgerAccount();
+        creditAccount = txn.getLedgerEntries().get( 1 ).getLedgerAccount();
+        return txn;
+    }
+
+    private static LedgerEntry ledgerEntry( LedgerAccount account, LedgerTransactionDirection direction ) {
+        return LedgerEntry.builder()
+                .ledgerAccount( LedgerAccount.builder()
+                        .uuid( account.getUuid() )
+                        .lockVersion( account.getLockVersion() )
+                        .build() )
+                .amount( BigInteger.valueOf( 5000 ) )
+                .direction( direction )
+                .build();
+    }
+}
@@ -0,0 +1,49 @@
+package demo.ledger.benchmark;
+
+import com.google.gson.JsonElement;
+import demo.ledger.config.OffsetDateTimeConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting/parsing of the timestamps in JSON ledger events.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class OffsetDateTimeConverterBenchmark {
+
+    private final OffsetDateTimeConverter converter = new OffsetDateTimeConverter();
+    private OffsetDateTime timestamp;
+    private JsonElement json;
+
+    @Setup
+    public void setup() {
+        timestamp = OffsetDateTime.now();
+        json = converter.serialize( timestamp, OffsetDateTime.class, null );
+    }
+
+    @Benchmark
+    public JsonElement serialize() {
+        return converter.serialize( timestamp, OffsetDateTime.class, null );
+    }
+
+    @Benchmark
+    public OffsetDateTime deserialize() {
+        return converter.deserialize( json, OffsetDateTime.class, null );
+    }
+}
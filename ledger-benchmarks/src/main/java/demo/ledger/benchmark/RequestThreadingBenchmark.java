@@ -0,0 +1,100 @@
+package demo.ledger.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How many concurrent requests can be served when each one blocks (eg. on a database query) for a few milliseconds:
+ * each invocation handles a burst of requests and reports the time taken to get through all of them.
+ * <ul>
+ * <li>platform: a pool of 200 platform threads (Tomcat's default server.tomcat.threads.max); the burst goes through
+ * 200 at a time</li>
+ * <li>virtual: a virtual thread per request (spring.threads.virtual.enabled); all of them wait at once</li>
+ * <li>virtual-pinned: as virtual, but blocking inside a synchronized block, as some JDBC drivers do. The virtual
+ * thread can't unmount so only as many requests as there are carrier threads (cores) are served at a time. This is
+ * what PinnedThreadMonitor is there to catch</li>
+ * </ul>
+ * The virtual thread cases need Java 21 (they fail on older JVMs).
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class RequestThreadingBenchmark {
+
+    private static final int PLATFORM_THREADS = 200;
+
+    @Param( { "platform", "virtual", "virtual-pinned" } )
+    private String threading;
+
+    @Param( { "2000" } )
+    private int concurrentRequests;
+
+    @Param( { "10" } )
+    private long blockMillis;
+
+    private ExecutorService executor;
+    private boolean pinned;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        if ( "platform".equals( threading ) ) {
+            executor = Executors.newFixedThreadPool( PLATFORM_THREADS );
+        }
+        else {
+            // compiled for Java 17
+            executor = (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+            pinned = "virtual-pinned".equals( threading );
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int handleBurst() throws InterruptedException, ExecutionException {
+        List<Future<Integer>> responses = new ArrayList<>( concurrentRequests );
+        for ( int i = 0; i < concurrentRequests; i++ ) {
+            int request = i;
+            responses.add( executor.submit( () -> pinned ? handlePinned( request ) : handle( request ) ) );
+        }
+        int total = 0;
+        for ( Future<Integer> response : responses ) {
+            total += response.get();
+        }
+        return total;
+    }
+
+    private int handle( int request ) throws InterruptedException {
+        Thread.sleep( blockMillis ); // stands in for the database round trip
+        return request;
+    }
+
+    private int handlePinned( int request ) throws InterruptedException {
+        synchronized ( new Object() ) { // uncontended, but still pins the virtual thread while it blocks
+            return handle( request );
+        }
+    }
+}
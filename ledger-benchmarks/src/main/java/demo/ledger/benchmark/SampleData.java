@@ -0,0 +1,88 @@
+package demo.ledger.benchmark;
+
+import demo.ledger.api.model.dto.CreateLedgerTransactionRequest;
+import demo.ledger.api.model.dto.LedgerEntryAccount;
+import demo.ledger.api.model.dto.LedgerEntryRequest;
+import demo.ledger.model.LedgerAccount;
+import demo.ledger.model.LedgerEntry;
+import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.LedgerTransactionDirection;
+import demo.ledger.model.dto.ApiOperation;
+import demo.ledger.model.dto.EventType;
+
+import java.math.BigInteger;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/**
+ * A typical transfer between two accounts, as sent by ledger-api and answered by the event processor.
+ */
+final class SampleData {
+
+    static final String TXN_UUID = "6f1f7f25-5c0e-4d4a-9d8e-2f3f8f6d2b71";
+    static final String DEBIT_ACCOUNT_UUID = "0b6f5d4e-3f2a-4c1b-8e9d-7a6b5c4d3e2f";
+    static final String CREDIT_ACCOUNT_UUID = "9e8d7c6b-5a4f-4e3d-a2c1-b0a9f8e7d6c5";
+
+    private SampleData() {
+    }
+
+    static CreateLedgerTransactionRequest createLedgerTransactionRequest() {
+        return CreateLedgerTransactionRequest.builder()
+                .uuid( TXN_UUID )
+                .description( "Transferring $50 from Bob to Ann" )
+                .ledgerEntries( List.of(
+                        LedgerEntryRequest.builder()
+                                .ledgerAccount( new LedgerEntryAccount( DEBIT_ACCOUNT_UUID, 12L ) )
+                                .amount( BigInteger.valueOf( 5000 ) )
+                                .direction( LedgerTransactionDirection.debit.name() )
+                                .build(),
+                        LedgerEntryRequest.builder()
+                                .ledgerAccount( new LedgerEntryAccount( CREDIT_ACCOUNT_UUID, 7L ) )
+                                .amount( BigInteger.valueOf( 5000 ) )
+                                .direction( LedgerTransactionDirection.credit.name() )
+                                .build() ) )
+                .build();
+    }
+
+    /**
+     * @return CREATE_LEDGER_TRANSACTION event as sent by ledger-api
+     */
+    static ApiOperation<LedgerTransaction> createLedgerTransactionEvent() {
+        return new ApiOperation<LedgerTransaction>()
+                .withEventType( EventType.CREATE_LEDGER_TRANSACTION )
+                .withData( createLedgerTransactionRequest().toLedgerTransaction() );
+    }
+
+    /**
+     * @return LEDGER_TRANSACTION_CREATED event as sent back by the event processor
+     */
+    static ApiOperation<LedgerTransaction> ledgerTransactionCreatedEvent() {
+        OffsetDateTime now = OffsetDateTime.now();
+        return new ApiOperation<LedgerTransaction>()
+                .withEventType( EventType.LEDGER_TRANSACTION_CREATED )
+                .withData( LedgerTransaction.builder()
+                        .id( 1042L )
+                        .uuid( TXN_UUID )
+                        .description( "Transferring $50 from Bob to Ann" )
+                        .ledgerEntries( List.of(
+                                ledgerEntry( 2083L, 11L, DEBIT_ACCOUNT_UUID, 13L, LedgerTransactionDirection.debit, now ),
+                                ledgerEntry( 2084L, 12L, CREDIT_ACCOUNT_UUID, 8L, LedgerTransactionDirection.credit, now ) ) )
+                        .createdDate( now )
+                        .build() );
+    }
+
+    private static LedgerEntry ledgerEntry( long id, long accountId, String accountUuid, long lockVersion,
+                                            LedgerTransactionDirection direction, OffsetDateTime createdDate ) {
+        return LedgerEntry.builder()
+                .id( id )
+                .amount( BigInteger.valueOf( 5000 ) )
+                .direction( direction )
+                .ledgerAccount( LedgerAccount.builder()
+                        .id( accountId )
+                        .uuid( accountUuid )
+                        .lockVersion( lockVersion )
+                        .build() )
+                .createdDate( createdDate )
+                .build();
+    }
+}
@@ -0,0 +1,104 @@
+package demo.ledger.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+
+/**
+ * Running balance for a single ledger account. This is a projection of all the ledger entries for the account
+ * and is maintained by the event processor in the same transaction as the ledger entries themselves.
+ */
+@Entity
+@Table( name = "ledger_account_balance" )
+@JsonInclude( JsonInclude.Include.NON_NULL )
+@Builder
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AccountBalance {
+
+    // shares the primary key of the ledger account so we can look it up directly
+    @Id
+    @Column( name = "ledger_account_id" )
+    private Long ledgerAccountId;
+
+    @Column( name = "lock_version", nullable = false )
+    private Long lockVersion;
+
+    @Column( name = "total_credits", nullable = false )
+    private BigInteger totalCredits;
+
+    @Column( name = "total_debits", nullable = false )
+    private BigInteger totalDebits;
+
+    @Column( name = "last_updated_date", columnDefinition = "TIMESTAMP WITH TIME ZONE" )
+    private OffsetDateTime lastUpdatedDate;
+
+    // number of ledger entries posted since the last checkpoint was written
+    @Column( name = "entries_since_checkpoint" )
+    private Long entriesSinceCheckpoint;
+
+    @Column( name = "last_checkpoint_date", columnDefinition = "TIMESTAMP WITH TIME ZONE" )
+    private OffsetDateTime lastCheckpointDate;
+
+    /**
+     * Adds the given ledger entry to the running totals.
+     *
+     * @param entry ledger entry for this account
+     * @return this object
+     */
+    public AccountBalance post( LedgerEntry entry ) {
+        if ( entry.getDirection() == LedgerTransactionDirection.credit ) {
+            setTotalCredits( getTotalCredits().add( entry.getAmount() ) );
+        }
+        else {
+            setTotalDebits( getTotalDebits().add( entry.getAmount() ) );
+        }
+        setEntriesSinceCheckpoint( getEntriesSinceCheckpoint() == null ? 1L : getEntriesSinceCheckpoint() + 1L );
+        return this;
+    }
+
+    /**
+     * Returns whether a new checkpoint should be written for this account.
+     *
+     * @param maxEntries  the maximum number of ledger entries between checkpoints
+     * @param maxInterval the maximum amount of time between checkpoints
+     * @param now         the current date/time
+     * @return true if either limit has been reached (or we've never written a checkpoint), false otherwise
+     */
+    public boolean isCheckpointDue( long maxEntries, Duration maxInterval, OffsetDateTime now ) {
+        if ( getEntriesSinceCheckpoint() == null || getEntriesSinceCheckpoint() == 0L ) {
+            return false; // nothing has changed since the last one
+        }
+        return getLastCheckpointDate() == null
+                || getEntriesSinceCheckpoint() >= maxEntries
+                || !getLastCheckpointDate().plus( maxInterval ).isAfter( now );
+    }
+
+    /**
+     * Creates a checkpoint of the current running totals and resets the checkpoint counters.
+     *
+     * @param checkpointDate the created date of the last ledger entry included in the totals
+     * @return new (unsaved) checkpoint
+     */
+    public AccountBalanceCheckpoint checkpoint( OffsetDateTime checkpointDate ) {
+        setEntriesSinceCheckpoint( 0L );
+        setLastCheckpointDate( checkpointDate );
+        return AccountBalanceCheckpoint.builder()
+                .ledgerAccountId( getLedgerAccountId() )
+                .totalCredits( getTotalCredits() )
+                .totalDebits( getTotalDebits() )
+                .checkpointDate( checkpointDate )
+                .build();
+    }
+}
@@ -0,0 +1,52 @@
+package demo.ledger.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigInteger;
+import java.time.OffsetDateTime;
+
+/**
+ * Cumulative credit/debit totals for a ledger account covering every ledger entry created on or before the checkpoint date.
+ * A point-in-time balance only needs to total the ledger entries after the closest checkpoint.
+ */
+@Entity
+@Table( name = "ledger_account_balance_checkpoint",
+        indexes = @Index( name = "ledger_account_balance_checkpoint_account_date_idx", columnList = "ledger_account_id, checkpoint_date" ) )
+@JsonInclude( JsonInclude.Include.NON_NULL )
+@Builder
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AccountBalanceCheckpoint {
+
+    @Id
+    @GeneratedValue( generator = "ledger_account_balance_checkpoint_seq" )
+    @GenericGenerator( name = "ledger_account_balance_checkpoint_seq", type = LedgerSequenceGenerator.class,
+            parameters = @Parameter( name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "ledger_account_balance_checkpoint_seq" ) )
+    private Long id;
+
+    @Column( name = "ledger_account_id", nullable = false )
+    private Long ledgerAccountId;
+
+    @Column( name = "total_credits", nullable = false )
+    private BigInteger totalCredits;
+
+    @Column( name = "total_debits", nullable = false )
+    private BigInteger totalDebits;
+
+    @Column( name = "checkpoint_date", nullable = false, columnDefinition = "TIMESTAMP WITH TIME ZONE" )
+    private OffsetDateTime checkpointDate;
+}
@@ -5,6 +5,9 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -21,7 +24,9 @@ import java.time.OffsetDateTime;
 public class FailedProcessingEvent {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue( generator = "failed_processing_event_seq" )
+    @GenericGenerator( name = "failed_processing_event_seq", type = LedgerSequenceGenerator.class,
+            parameters = @Parameter( name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "failed_processing_event_seq" ) )
     private Long id;
 
     @Column( name = "kafka_topic", nullable = false )
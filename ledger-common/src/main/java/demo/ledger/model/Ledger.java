@@ -7,6 +7,9 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -25,10 +28,12 @@ import java.time.OffsetDateTime;
 public class Ledger {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue( generator = "ledger_seq" )
+    @GenericGenerator( name = "ledger_seq", type = LedgerSequenceGenerator.class,
+            parameters = @Parameter( name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "ledger_seq" ) )
     private Long id;
 
-    @Column( name = "uuid", nullable = false )
+    @Column( name = "uuid", nullable = false, unique = true )
     private String uuid;
 
     @Column( name = "name", nullable = false )
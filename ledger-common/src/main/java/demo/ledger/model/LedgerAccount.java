@@ -9,10 +9,14 @@ import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.With;
 
 import java.time.OffsetDateTime;
 
@@ -26,9 +30,12 @@ import java.time.OffsetDateTime;
 public class LedgerAccount {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue( generator = "ledger_account_seq" )
+    @GenericGenerator( name = "ledger_account_seq", type = LedgerSequenceGenerator.class,
+            parameters = @Parameter( name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "ledger_account_seq" ) )
     private Long id;
 
+    @With
     @Column( name = "lock_version", nullable = false )
     private Long lockVersion;
 
@@ -8,9 +8,13 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -20,7 +24,8 @@ import java.math.BigInteger;
 import java.time.OffsetDateTime;
 
 @Entity
-@Table( name = "ledger_entry" )
+@Table( name = "ledger_entry",
+        indexes = @Index( name = "ledger_entry_account_created_date_idx", columnList = "ledger_account_id, created_date" ) )
 @JsonInclude( JsonInclude.Include.NON_NULL )
 @Builder
 @Data
@@ -29,7 +34,9 @@ import java.time.OffsetDateTime;
 public class LedgerEntry {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue( generator = "ledger_entry_seq" )
+    @GenericGenerator( name = "ledger_entry_seq", type = LedgerSequenceGenerator.class,
+            parameters = @Parameter( name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "ledger_entry_seq" ) )
     private Long id;
 
     // unidirectional: case 5
@@ -0,0 +1,37 @@
+package demo.ledger.model;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Properties;
+
+/**
+ * Sequence generator used by all our entities. This is the standard Hibernate sequence generator except the allocation
+ * size and optimizer are read from the {@value #ALLOCATION_SIZE_SETTING} and {@value #OPTIMIZER_SETTING} settings
+ * (ie. spring.jpa.properties.ledger.id.*) rather than being hardcoded on each entity. With the pooled (or pooled-lo)
+ * optimizer, we only go back to the database sequence once per block of IDs instead of once per insert which also
+ * allows inserts to be batched.
+ * <p>
+ * Note, the allocation size must match the INCREMENT BY of the database sequence.
+ */
+public class LedgerSequenceGenerator extends SequenceStyleGenerator {
+
+    public static final String ALLOCATION_SIZE_SETTING = "ledger.id.allocation_size";
+    public static final int DEFAULT_ALLOCATION_SIZE = 50;
+    public static final String OPTIMIZER_SETTING = "ledger.id.optimizer";
+    public static final String DEFAULT_OPTIMIZER = StandardOptimizerDescriptor.POOLED_LO.getExternalName();
+
+    @Override
+    public void configure( Type type, Properties parameters, ServiceRegistry serviceRegistry ) throws MappingException {
+        ConfigurationService config = serviceRegistry.getService( ConfigurationService.class );
+        parameters.put( INCREMENT_PARAM, String.valueOf(
+                config.getSetting( ALLOCATION_SIZE_SETTING, StandardConverters.INTEGER, DEFAULT_ALLOCATION_SIZE ) ) );
+        parameters.put( OPT_PARAM, config.getSetting( OPTIMIZER_SETTING, StandardConverters.STRING, DEFAULT_OPTIMIZER ) );
+        super.configure( type, parameters, serviceRegistry );
+    }
+}
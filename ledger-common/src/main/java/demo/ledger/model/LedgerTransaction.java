@@ -12,6 +12,9 @@ import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -31,7 +34,9 @@ import java.util.List;
 public class LedgerTransaction {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue( generator = "ledger_transaction_seq" )
+    @GenericGenerator( name = "ledger_transaction_seq", type = LedgerSequenceGenerator.class,
+            parameters = @Parameter( name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "ledger_transaction_seq" ) )
     private Long id;
 
     @Column( name = "uuid", nullable = false, unique = true )
@@ -0,0 +1,69 @@
+package demo.ledger.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+import java.time.OffsetDateTime;
+
+/**
+ * A completion event to be published to Kafka (transactional outbox). The row is written in the same database
+ * transaction as the command that produced it so the event is only ever sent for changes that were committed,
+ * and is still sent if we crash before it is. The outbox relay publishes these (in id order) and marks them as sent.
+ */
+@Entity
+@Table( name = "outbox_event",
+        indexes = @Index( name = "outbox_event_sent_date_id_idx", columnList = "sent_date, id" ) )
+@Builder
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OutboxEvent {
+
+    @Id
+    @GeneratedValue( generator = "outbox_event_seq" )
+    @GenericGenerator( name = "outbox_event_seq", type = LedgerSequenceGenerator.class,
+            parameters = @Parameter( name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "outbox_event_seq" ) )
+    private Long id;
+
+    @Column( name = "kafka_topic", nullable = false )
+    private String topic;
+
+    // null to let the producer choose
+    @Column( name = "kafka_partition" )
+    private Integer partition;
+
+    @Column( name = "event_type", length = 40 )
+    private String eventType;
+
+    @Column( name = "uuid" )
+    private String uuid;
+
+    // tracing headers of the command this is the completion event for (see LedgerEventHeaders)
+    @Column( name = "correlation_id", length = 36 )
+    private String correlationId;
+
+    @Column( name = "ingress_timestamp" )
+    private Long ingressTimestamp;
+
+    // the event (encoded by LedgerEventCodec)
+    @Column( name = "payload", nullable = false )
+    private byte[] payload;
+
+    @Column( name = "created_date", nullable = false, columnDefinition = "TIMESTAMP WITH TIME ZONE" )
+    private OffsetDateTime createdDate;
+
+    // null until published
+    @Column( name = "sent_date", columnDefinition = "TIMESTAMP WITH TIME ZONE" )
+    private OffsetDateTime sentDate;
+}
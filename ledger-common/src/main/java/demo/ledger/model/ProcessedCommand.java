@@ -0,0 +1,63 @@
+package demo.ledger.model;
+
+import demo.ledger.model.dto.EventType;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+
+/**
+ * A command (CREATE_* event) that has been processed by the event processor along with the completion event it
+ * produced. The row is inserted in the same transaction as the command itself so a command delivered more than once
+ * is only ever applied once; the recorded outcome is sent back for any redelivery of the same command (with the same
+ * payload hash).
+ */
+@Entity
+@Table( name = "processed_command",
+        indexes = @Index( name = "processed_command_processed_date_idx", columnList = "processed_date" ) )
+@IdClass( ProcessedCommand.Key.class )
+@Builder
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProcessedCommand {
+
+    @Id
+    @Enumerated( EnumType.STRING )
+    @Column( name = "command_type", length = 40 )
+    private EventType commandType;
+
+    @Id
+    @Column( name = "uuid" )
+    private String uuid;
+
+    // SHA-256 hash of the command as received
+    @Column( name = "payload_hash" )
+    private byte[] payloadHash;
+
+    // the completion event (encoded by LedgerEventCodec)
+    @Column( name = "outcome" )
+    private byte[] outcome;
+
+    @Column( name = "processed_date", nullable = false, columnDefinition = "TIMESTAMP WITH TIME ZONE" )
+    private OffsetDateTime processedDate;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Key implements Serializable {
+        private EventType commandType;
+        private String uuid;
+    }
+}
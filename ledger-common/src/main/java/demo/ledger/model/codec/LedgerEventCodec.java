@@ -0,0 +1,462 @@
+package demo.ledger.model.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import demo.ledger.model.Ledger;
+import demo.ledger.model.LedgerAccount;
+import demo.ledger.model.LedgerEntry;
+import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.LedgerTransactionDirection;
+import demo.ledger.model.dto.ApiOperation;
+import demo.ledger.model.dto.EventType;
+import demo.ledger.model.dto.FailedResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Binary encoding of the {@link ApiOperation} events sent on the ledger-events and ledger-replies topics.
+ * <p>
+ * Every event starts with a header of three bytes: {@link #MAGIC} (which can never start a JSON document),
+ * the schema {@link #VERSION} and the event type code. It's followed by the event data, whose type is determined by
+ * the event type (see {@link #getDataType(EventType)}). Each object is written as a bitmask of the fields that are
+ * present followed by the values of those fields in declaration order:
+ * <ul>
+ *     <li>integers are zig-zag encoded varints</li>
+ *     <li>UUIDs in canonical form are written as 16 bytes (anything else is written as a string)</li>
+ *     <li>strings are a varint length followed by UTF-8 bytes</li>
+ *     <li>dates are the epoch second, nanoseconds and zone offset (in seconds)</li>
+ *     <li>amounts are a varint length followed by the two's-complement bytes</li>
+ * </ul>
+ * New fields may only be appended to an object (taking the next bit in the bitmask); a new version of the schema is
+ * required for anything else. Events that don't start with {@link #MAGIC} are decoded as JSON so events written
+ * before this codec was introduced can still be read.
+ */
+public class LedgerEventCodec {
+
+    public static final byte MAGIC = (byte) 0xC1; // not valid anywhere in UTF-8
+    public static final byte VERSION = 1;
+
+    // event type codes are the index into this array; append only!
+    private static final EventType[] EVENT_TYPES = {
+            EventType.CREATE_LEDGER,
+            EventType.LEDGER_CREATED,
+            EventType.LEDGER_CREATION_FAILED,
+            EventType.CREATE_LEDGER_ACCOUNT,
+            EventType.LEDGER_ACCOUNT_CREATED,
+            EventType.LEDGER_ACCOUNT_CREATION_FAILED,
+            EventType.CREATE_LEDGER_TRANSACTION,
+            EventType.LEDGER_TRANSACTION_CREATED,
+            EventType.LEDGER_TRANSACTION_CREATION_FAILED
+    };
+    private static final Map<EventType, Byte> EVENT_TYPE_CODES = new EnumMap<>( EventType.class );
+
+    static {
+        for ( int i = 0; i < EVENT_TYPES.length; i++ ) {
+            EVENT_TYPE_CODES.put( EVENT_TYPES[i], (byte) i );
+        }
+    }
+
+    private static final byte UUID_STRING = 0;
+    private static final byte UUID_BINARY = 1;
+
+    private final Gson gson;
+
+    /**
+     * @param gson used to decode JSON events
+     */
+    public LedgerEventCodec( Gson gson ) {
+        this.gson = gson;
+    }
+
+    /**
+     * Returns the type of the data carried by the given event type.
+     *
+     * @param eventType event type
+     * @return non-null data type
+     */
+    public static Class<?> getDataType( EventType eventType ) {
+        return switch ( eventType ) {
+            case CREATE_LEDGER, LEDGER_CREATED -> Ledger.class;
+            case CREATE_LEDGER_ACCOUNT, LEDGER_ACCOUNT_CREATED -> LedgerAccount.class;
+            case CREATE_LEDGER_TRANSACTION, LEDGER_TRANSACTION_CREATED -> LedgerTransaction.class;
+            case LEDGER_CREATION_FAILED, LEDGER_ACCOUNT_CREATION_FAILED, LEDGER_TRANSACTION_CREATION_FAILED -> FailedResponse.class;
+        };
+    }
+
+    /**
+     * Returns whether the given event was written by {@link #encode(ApiOperation)} (as opposed to JSON).
+     *
+     * @param event serialized event
+     * @return true if binary encoded
+     */
+    public static boolean isBinary( byte[] event ) {
+        return event != null && event.length > 0 && event[0] == MAGIC;
+    }
+
+    /**
+     * Encodes the given event.
+     *
+     * @param operation event to encode; the data must be of the type given by {@link #getDataType(EventType)}
+     * @return serialized event
+     * @throws IllegalArgumentException if the data doesn't match the event type
+     */
+    public byte[] encode( ApiOperation<?> operation ) {
+        Object data = operation.getData();
+        if ( data == null || !getDataType( operation.getEventType() ).isInstance( data ) ) {
+            throw new IllegalArgumentException( "Expected " + getDataType( operation.getEventType() ).getSimpleName()
+                    + " for " + operation.getEventType() );
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 128 );
+        try ( DataOutputStream out = new DataOutputStream( bytes ) ) {
+            out.writeByte( MAGIC );
+            out.writeByte( VERSION );
+            out.writeByte( EVENT_TYPE_CODES.get( operation.getEventType() ) );
+            if ( data instanceof Ledger ledger ) {
+                writeLedger( out, ledger );
+            }
+            else if ( data instanceof LedgerAccount ledgerAccount ) {
+                writeLedgerAccount( out, ledgerAccount );
+            }
+            else if ( data instanceof LedgerTransaction ledgerTransaction ) {
+                writeLedgerTransaction( out, ledgerTransaction );
+            }
+            else {
+                writeFailedResponse( out, (FailedResponse) data );
+            }
+        }
+        catch ( IOException ex ) {
+            throw new UncheckedIOException( ex ); // not thrown by ByteArrayOutputStream
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes the given (binary or JSON) event.
+     *
+     * @param event serialized event
+     * @return decoded event; the event type is null if it isn't one we recognise (JSON only)
+     * @throws IllegalArgumentException if the binary event is truncated or from an unsupported version
+     * @throws com.google.gson.JsonSyntaxException if the JSON event is invalid
+     */
+    public ApiOperation<?> decode( byte[] event ) {
+        if ( !isBinary( event ) ) {
+            return decodeJson( new String( event, StandardCharsets.UTF_8 ) );
+        }
+
+        try ( DataInputStream in = new DataInputStream( new ByteArrayInputStream( event ) ) ) {
+            in.readByte(); // magic
+            byte version = in.readByte();
+            if ( version < 1 || version > VERSION ) {
+                throw new IllegalArgumentException( "Unsupported ledger event version " + version );
+            }
+            int code = in.readUnsignedByte();
+            if ( code >= EVENT_TYPES.length ) {
+                throw new IllegalArgumentException( "Unsupported ledger event type " + code );
+            }
+            EventType eventType = EVENT_TYPES[code];
+            Class<?> dataType = getDataType( eventType );
+            Object data = dataType == Ledger.class ? readLedger( in ) :
+                    dataType == LedgerAccount.class ? readLedgerAccount( in ) :
+                            dataType == LedgerTransaction.class ? readLedgerTransaction( in ) :
+                                    readFailedResponse( in );
+            return new ApiOperation<>()
+                    .withEventType( eventType )
+                    .withData( data );
+        }
+        catch ( EOFException ex ) {
+            throw new IllegalArgumentException( "Truncated ledger event", ex );
+        }
+        catch ( IOException ex ) {
+            throw new UncheckedIOException( ex ); // not thrown by ByteArrayInputStream
+        }
+    }
+
+    private ApiOperation<?> decodeJson( String event ) {
+        JsonObject obj = gson.fromJson( event, JsonObject.class );
+        EventType eventType = parseEventType( obj.get( "eventType" ) );
+        if ( eventType == null ) {
+            return new ApiOperation<>();
+        }
+        return new ApiOperation<>()
+                .withEventType( eventType )
+                .withData( gson.fromJson( obj.get( "data" ), getDataType( eventType ) ) );
+    }
+
+    private static EventType parseEventType( JsonElement eventType ) {
+        if ( eventType == null || eventType.isJsonNull() ) {
+            return null;
+        }
+        try {
+            return EventType.valueOf( eventType.getAsString() );
+        }
+        catch ( IllegalArgumentException ex ) {
+            return null;
+        }
+    }
+
+    private static void writeLedger( DataOutputStream out, Ledger ledger ) throws IOException {
+        writePresence( out, ledger.getId(), ledger.getUuid(), ledger.getName(), ledger.getDescription(),
+                ledger.getCreatedDate(), ledger.getLastUpdatedDate() );
+        writeLong( out, ledger.getId() );
+        writeUuid( out, ledger.getUuid() );
+        writeString( out, ledger.getName() );
+        writeString( out, ledger.getDescription() );
+        writeDateTime( out, ledger.getCreatedDate() );
+        writeDateTime( out, ledger.getLastUpdatedDate() );
+    }
+
+    private static Ledger readLedger( DataInputStream in ) throws IOException {
+        long present = readVarLong( in );
+        return Ledger.builder()
+                .id( isPresent( present, 0 ) ? readLong( in ) : null )
+                .uuid( isPresent( present, 1 ) ? readUuid( in ) : null )
+                .name( isPresent( present, 2 ) ? readString( in ) : null )
+                .description( isPresent( present, 3 ) ? readString( in ) : null )
+                .createdDate( isPresent( present, 4 ) ? readDateTime( in ) : null )
+                .lastUpdatedDate( isPresent( present, 5 ) ? readDateTime( in ) : null )
+                .build();
+    }
+
+    private static void writeLedgerAccount( DataOutputStream out, LedgerAccount account ) throws IOException {
+        writePresence( out, account.getId(), account.getLockVersion(), account.getUuid(), account.getLedger(),
+                account.getName(), account.getDescription(), account.getCurrency(), account.getCreatedDate(),
+                account.getLastUpdatedDate() );
+        writeLong( out, account.getId() );
+        writeLong( out, account.getLockVersion() );
+        writeUuid( out, account.getUuid() );
+        if ( account.getLedger() != null ) {
+            writeLedger( out, account.getLedger() );
+        }
+        writeString( out, account.getName() );
+        writeString( out, account.getDescription() );
+        writeString( out, account.getCurrency() );
+        writeDateTime( out, account.getCreatedDate() );
+        writeDateTime( out, account.getLastUpdatedDate() );
+    }
+
+    private static LedgerAccount readLedgerAccount( DataInputStream in ) throws IOException {
+        long present = readVarLong( in );
+        return LedgerAccount.builder()
+                .id( isPresent( present, 0 ) ? readLong( in ) : null )
+                .lockVersion( isPresent( present, 1 ) ? readLong( in ) : null )
+                .uuid( isPresent( present, 2 ) ? readUuid( in ) : null )
+                .ledger( isPresent( present, 3 ) ? readLedger( in ) : null )
+                .name( isPresent( present, 4 ) ? readString( in ) : null )
+                .description( isPresent( present, 5 ) ? readString( in ) : null )
+                .currency( isPresent( present, 6 ) ? readString( in ) : null )
+                .createdDate( isPresent( present, 7 ) ? readDateTime( in ) : null )
+                .lastUpdatedDate( isPresent( present, 8 ) ? readDateTime( in ) : null )
+                .build();
+    }
+
+    private static void writeLedgerTransaction( DataOutputStream out, LedgerTransaction txn ) throws IOException {
+        writePresence( out, txn.getId(), txn.getUuid(), txn.getDescription(), txn.getLedgerEntries(), txn.getCreatedDate() );
+        writeLong( out, txn.getId() );
+        writeUuid( out, txn.getUuid() );
+        writeString( out, txn.getDescription() );
+        if ( txn.getLedgerEntries() != null ) {
+            writeVarLong( out, txn.getLedgerEntries().size() );
+            for ( LedgerEntry entry : txn.getLedgerEntries() ) {
+                writeLedgerEntry( out, entry );
+            }
+        }
+        writeDateTime( out, txn.getCreatedDate() );
+    }
+
+    private static LedgerTransaction readLedgerTransaction( DataInputStream in ) throws IOException {
+        long present = readVarLong( in );
+        LedgerTransaction.LedgerTransactionBuilder txn = LedgerTransaction.builder()
+                .id( isPresent( present, 0 ) ? readLong( in ) : null )
+                .uuid( isPresent( present, 1 ) ? readUuid( in ) : null )
+                .description( isPresent( present, 2 ) ? readString( in ) : null );
+        if ( isPresent( present, 3 ) ) {
+            int size = (int) readVarLong( in );
+            List<LedgerEntry> entries = new ArrayList<>( size );
+            for ( int i = 0; i < size; i++ ) {
+                entries.add( readLedgerEntry( in ) );
+            }
+            txn.ledgerEntries( entries );
+        }
+        return txn.createdDate( isPresent( present, 4 ) ? readDateTime( in ) : null )
+                .build();
+    }
+
+    private static void writeLedgerEntry( DataOutputStream out, LedgerEntry entry ) throws IOException {
+        writePresence( out, entry.getId(), entry.getLedgerAccount(), entry.getAmount(), entry.getDirection(), entry.getCreatedDate() );
+        writeLong( out, entry.getId() );
+        if ( entry.getLedgerAccount() != null ) {
+            writeLedgerAccount( out, entry.getLedgerAccount() );
+        }
+        writeAmount( out, entry.getAmount() );
+        if ( entry.getDirection() != null ) {
+            out.writeByte( entry.getDirection().ordinal() );
+        }
+        writeDateTime( out, entry.getCreatedDate() );
+    }
+
+    private static LedgerEntry readLedgerEntry( DataInputStream in ) throws IOException {
+        long present = readVarLong( in );
+        return LedgerEntry.builder()
+                .id( isPresent( present, 0 ) ? readLong( in ) : null )
+                .ledgerAccount( isPresent( present, 1 ) ? readLedgerAccount( in ) : null )
+                .amount( isPresent( present, 2 ) ? readAmount( in ) : null )
+                .direction( isPresent( present, 3 ) ? LedgerTransactionDirection.values()[in.readUnsignedByte()] : null )
+                .createdDate( isPresent( present, 4 ) ? readDateTime( in ) : null )
+                .build();
+    }
+
+    private static void writeFailedResponse( DataOutputStream out, FailedResponse response ) throws IOException {
+        writePresence( out, response.getUuid(), response.getError() );
+        writeUuid( out, response.getUuid() );
+        writeString( out, response.getError() );
+    }
+
+    private static FailedResponse readFailedResponse( DataInputStream in ) throws IOException {
+        long present = readVarLong( in );
+        return new FailedResponse(
+                isPresent( present, 0 ) ? readUuid( in ) : null,
+                isPresent( present, 1 ) ? readString( in ) : null );
+    }
+
+    private static void writePresence( DataOutputStream out, Object... fields ) throws IOException {
+        long present = 0;
+        for ( int i = 0; i < fields.length; i++ ) {
+            if ( fields[i] != null ) {
+                present |= 1L << i;
+            }
+        }
+        writeVarLong( out, present );
+    }
+
+    private static boolean isPresent( long present, int field ) {
+        return ( present & ( 1L << field ) ) != 0;
+    }
+
+    private static void writeLong( DataOutputStream out, Long value ) throws IOException {
+        if ( value != null ) {
+            writeVarLong( out, ( value << 1 ) ^ ( value >> 63 ) ); // zig-zag so small negative numbers stay small
+        }
+    }
+
+    private static long readLong( DataInputStream in ) throws IOException {
+        long value = readVarLong( in );
+        return ( value >>> 1 ) ^ -( value & 1 );
+    }
+
+    private static void writeVarLong( DataOutputStream out, long value ) throws IOException {
+        while ( ( value & ~0x7FL ) != 0 ) {
+            out.writeByte( (int) ( ( value & 0x7F ) | 0x80 ) );
+            value >>>= 7;
+        }
+        out.writeByte( (int) value );
+    }
+
+    private static long readVarLong( DataInputStream in ) throws IOException {
+        long value = 0;
+        for ( int shift = 0; shift < 64; shift += 7 ) {
+            byte b = in.readByte();
+            value |= (long) ( b & 0x7F ) << shift;
+            if ( ( b & 0x80 ) == 0 ) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException( "Malformed varint in ledger event" );
+    }
+
+    private static void writeString( DataOutputStream out, String value ) throws IOException {
+        if ( value != null ) {
+            byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+            writeVarLong( out, bytes.length );
+            out.write( bytes );
+        }
+    }
+
+    private static String readString( DataInputStream in ) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong( in )];
+        in.readFully( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    private static void writeUuid( DataOutputStream out, String value ) throws IOException {
+        if ( value != null ) {
+            UUID uuid = parseCanonicalUuid( value );
+            if ( uuid == null ) {
+                out.writeByte( UUID_STRING );
+                writeString( out, value );
+            }
+            else {
+                out.writeByte( UUID_BINARY );
+                out.writeLong( uuid.getMostSignificantBits() );
+                out.writeLong( uuid.getLeastSignificantBits() );
+            }
+        }
+    }
+
+    private static String readUuid( DataInputStream in ) throws IOException {
+        if ( in.readByte() == UUID_STRING ) {
+            return readString( in );
+        }
+        return new UUID( in.readLong(), in.readLong() ).toString();
+    }
+
+    // only UUIDs that will be written back exactly the same way can be stored as binary
+    private static UUID parseCanonicalUuid( String value ) {
+        if ( value.length() != 36 ) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString( value );
+            return uuid.toString().equals( value ) ? uuid : null;
+        }
+        catch ( IllegalArgumentException ex ) {
+            return null;
+        }
+    }
+
+    private static void writeDateTime( DataOutputStream out, OffsetDateTime value ) throws IOException {
+        if ( value != null ) {
+            writeLong( out, value.toEpochSecond() );
+            writeVarLong( out, value.getNano() );
+            writeLong( out, (long) value.getOffset().getTotalSeconds() );
+        }
+    }
+
+    private static OffsetDateTime readDateTime( DataInputStream in ) throws IOException {
+        long epochSecond = readLong( in );
+        int nanos = (int) readVarLong( in );
+        ZoneOffset offset = ZoneOffset.ofTotalSeconds( (int) readLong( in ) );
+        return OffsetDateTime.ofInstant( Instant.ofEpochSecond( epochSecond, nanos ), offset );
+    }
+
+    private static void writeAmount( DataOutputStream out, BigInteger value ) throws IOException {
+        if ( value != null ) {
+            byte[] bytes = value.toByteArray();
+            writeVarLong( out, bytes.length );
+            out.write( bytes );
+        }
+    }
+
+    private static BigInteger readAmount( DataInputStream in ) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong( in )];
+        in.readFully( bytes );
+        return new BigInteger( bytes );
+    }
+}
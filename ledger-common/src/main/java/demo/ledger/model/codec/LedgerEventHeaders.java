@@ -0,0 +1,110 @@
+package demo.ledger.model.codec;
+
+import demo.ledger.model.Ledger;
+import demo.ledger.model.LedgerAccount;
+import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.dto.ApiOperation;
+import demo.ledger.model.dto.EventType;
+import demo.ledger.model.dto.FailedResponse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Kafka record headers describing a ledger event. These are set on every event so consumers can route (or skip)
+ * a record without decoding the payload. Events written before these headers were introduced don't have them,
+ * so consumers must fall back to decoding the payload when they're missing.
+ */
+public final class LedgerEventHeaders {
+
+    /**
+     * The {@link EventType} name of the event.
+     */
+    public static final String EVENT_TYPE = "ledger_eventType";
+
+    /**
+     * The UUID of the ledger, ledger account or ledger transaction the event is about.
+     */
+    public static final String UUID = "ledger_uuid";
+
+    /**
+     * Identifies the API request a command (and its completion event) belongs to. Set by the API on each command and
+     * copied onto the completion event by the event processor.
+     */
+    public static final String CORRELATION_ID = "ledger_correlationId";
+
+    /**
+     * When the API accepted the request (epoch millis, as an 8 byte long). Copied onto the completion event so the
+     * API can tell how long the whole round trip took.
+     */
+    public static final String INGRESS_TIMESTAMP = "ledger_ingressTimestamp";
+
+    private static final Map<String, EventType> EVENT_TYPES = Arrays.stream( EventType.values() )
+            .collect( Collectors.toMap( EventType::name, Function.identity() ) );
+
+    private LedgerEventHeaders() {
+    }
+
+    public static byte[] toBytes( String value ) {
+        return value.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    public static byte[] toBytes( EventType eventType ) {
+        return toBytes( eventType.name() );
+    }
+
+    public static byte[] toBytes( long value ) {
+        return ByteBuffer.allocate( Long.BYTES ).putLong( value ).array();
+    }
+
+    /**
+     * @param value header value (may be null)
+     * @return the header value or null if not set
+     */
+    public static String toString( byte[] value ) {
+        return value == null ? null : new String( value, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * @param value timestamp header value (may be null)
+     * @return the timestamp or null if not set
+     */
+    public static Long toLong( byte[] value ) {
+        return value == null || value.length != Long.BYTES ? null : ByteBuffer.wrap( value ).getLong();
+    }
+
+    /**
+     * @param value event type header value (may be null)
+     * @return the event type or null if not set (or not one we know about)
+     */
+    public static EventType toEventType( byte[] value ) {
+        return value == null ? null : EVENT_TYPES.get( toString( value ) );
+    }
+
+    /**
+     * Returns the UUID of the entity the given event is about.
+     *
+     * @param event ledger event
+     * @return UUID or null if the event has no data
+     */
+    public static String getUuid( ApiOperation<?> event ) {
+        Object data = event.getData();
+        if ( data instanceof Ledger ledger ) {
+            return ledger.getUuid();
+        }
+        if ( data instanceof LedgerAccount ledgerAccount ) {
+            return ledgerAccount.getUuid();
+        }
+        if ( data instanceof LedgerTransaction ledgerTransaction ) {
+            return ledgerTransaction.getUuid();
+        }
+        if ( data instanceof FailedResponse failedResponse ) {
+            return failedResponse.getUuid();
+        }
+        return null;
+    }
+}
@@ -1,6 +1,8 @@
 package demo.ledger.model.exception;
 
+import demo.ledger.model.dto.ApiOperation;
 import demo.ledger.model.dto.EventType;
+import demo.ledger.model.dto.FailedResponse;
 
 public class LedgerEventException extends Exception {
     private EventType eventType;
@@ -31,4 +33,13 @@ public class LedgerEventException extends Exception {
     public void setUuid( String uuid ) {
         this.uuid = uuid;
     }
+
+    /**
+     * @return the failure event to send back to the requester
+     */
+    public ApiOperation<FailedResponse> toFailedEvent() {
+        return new ApiOperation<FailedResponse>()
+                .withEventType( getEventType() )
+                .withData( new FailedResponse( getUuid(), getMessage() ) );
+    }
 }
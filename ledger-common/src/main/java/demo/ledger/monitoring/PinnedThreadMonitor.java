@@ -0,0 +1,82 @@
+package demo.ledger.monitoring;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Watches for virtual threads that block while pinned to their carrier thread, eg. waiting on a socket inside a
+ * synchronized block of a JDBC driver or client library. There are only as many carrier threads as cores so a few
+ * pinned threads are enough to stall every other request. Uses the jdk.VirtualThreadPinned JFR event (Java 21+).
+ * <p>
+ * Each time a virtual thread is pinned for longer than the threshold, it's recorded on the ledger.virtual.threads.pinned
+ * timer; the stack trace is logged the first time each call site is seen so the offending code can be tracked down.
+ */
+public class PinnedThreadMonitor implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( PinnedThreadMonitor.class );
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int MAX_REPORTED_STACK_TRACES = 1000;
+    private static final int MAX_FRAMES = 30;
+
+    private final RecordingStream recordingStream;
+    private final Timer pinnedTimer;
+    private final Set<String> reportedStackTraces = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts monitoring in the background.
+     *
+     * @param meterRegistry registry for the pinned timer
+     * @param threshold     ignore virtual threads pinned for less than this
+     */
+    public PinnedThreadMonitor( MeterRegistry meterRegistry, Duration threshold ) {
+        this.pinnedTimer = Timer.builder( "ledger.virtual.threads.pinned" )
+                .description( "Time virtual threads spent blocked while pinned to their carrier thread" )
+                .register( meterRegistry );
+        this.recordingStream = new RecordingStream();
+        recordingStream.enable( PINNED_EVENT ).withThreshold( threshold ).withStackTrace();
+        recordingStream.onEvent( PINNED_EVENT, this::onPinned );
+        recordingStream.startAsync();
+        LOGGER.info( "Reporting virtual threads pinned for longer than {} ms", threshold.toMillis() );
+    }
+
+    private void onPinned( RecordedEvent event ) {
+        pinnedTimer.record( event.getDuration() );
+        String stackTrace = format( event.getStackTrace() );
+        if ( reportedStackTraces.size() < MAX_REPORTED_STACK_TRACES && reportedStackTraces.add( stackTrace ) ) {
+            LOGGER.warn( "Virtual thread {} was pinned to its carrier thread for {} ms at{}",
+                    event.getThread() == null ? "?" : event.getThread().getJavaName(),
+                    event.getDuration().toMillis(), stackTrace );
+        }
+    }
+
+    private static String format( RecordedStackTrace stackTrace ) {
+        if ( stackTrace == null ) {
+            return " (no stack trace)";
+        }
+        return stackTrace.getFrames().stream()
+                .limit( MAX_FRAMES )
+                .map( PinnedThreadMonitor::format )
+                .collect( Collectors.joining( "" ) );
+    }
+
+    private static String format( RecordedFrame frame ) {
+        return "\n\t" + frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                + ( frame.getLineNumber() > 0 ? ":" + frame.getLineNumber() : "" );
+    }
+
+    @Override
+    public void close() {
+        recordingStream.close();
+    }
+}
@@ -0,0 +1,75 @@
+package demo.ledger.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class AccountBalanceTest {
+
+    private static final OffsetDateTime NOW = OffsetDateTime.parse( "2024-01-02T03:04:05Z" );
+
+    private AccountBalance newBalance() {
+        return AccountBalance.builder()
+                .ledgerAccountId( 7L )
+                .lockVersion( 1L )
+                .totalCredits( BigInteger.ZERO )
+                .totalDebits( BigInteger.ZERO )
+                .entriesSinceCheckpoint( 0L )
+                .lastCheckpointDate( NOW )
+                .build();
+    }
+
+    private LedgerEntry entry( LedgerTransactionDirection direction, long amount ) {
+        LedgerEntry entry = new LedgerEntry();
+        entry.setDirection( direction );
+        entry.setAmount( BigInteger.valueOf( amount ) );
+        return entry;
+    }
+
+    @Test
+    public void testPostUpdatesTotals() {
+        AccountBalance balance = newBalance()
+                .post( entry( LedgerTransactionDirection.credit, 100 ) )
+                .post( entry( LedgerTransactionDirection.debit, 30 ) )
+                .post( entry( LedgerTransactionDirection.credit, 5 ) );
+        assertThat( balance.getTotalCredits(), is( BigInteger.valueOf( 105 ) ) );
+        assertThat( balance.getTotalDebits(), is( BigInteger.valueOf( 30 ) ) );
+        assertThat( balance.getEntriesSinceCheckpoint(), is( 3L ) );
+    }
+
+    @Test
+    public void testCheckpointDue() {
+        AccountBalance balance = newBalance();
+        assertThat( balance.isCheckpointDue( 2, Duration.ofMinutes( 60 ), NOW.plusHours( 2 ) ), is( false ) );
+
+        balance.post( entry( LedgerTransactionDirection.credit, 100 ) );
+        assertThat( balance.isCheckpointDue( 2, Duration.ofMinutes( 60 ), NOW.plusMinutes( 1 ) ), is( false ) );
+        assertThat( balance.isCheckpointDue( 2, Duration.ofMinutes( 60 ), NOW.plusMinutes( 60 ) ), is( true ) );
+
+        balance.post( entry( LedgerTransactionDirection.debit, 50 ) );
+        assertThat( balance.isCheckpointDue( 2, Duration.ofMinutes( 60 ), NOW.plusMinutes( 1 ) ), is( true ) );
+
+        balance.setLastCheckpointDate( null );
+        assertThat( balance.isCheckpointDue( 1000, Duration.ofMinutes( 60 ), NOW ), is( true ) );
+    }
+
+    @Test
+    public void testCheckpoint() {
+        AccountBalance balance = newBalance()
+                .post( entry( LedgerTransactionDirection.credit, 100 ) )
+                .post( entry( LedgerTransactionDirection.debit, 40 ) );
+
+        AccountBalanceCheckpoint checkpoint = balance.checkpoint( NOW.plusMinutes( 5 ) );
+        assertThat( checkpoint.getLedgerAccountId(), is( 7L ) );
+        assertThat( checkpoint.getTotalCredits(), is( BigInteger.valueOf( 100 ) ) );
+        assertThat( checkpoint.getTotalDebits(), is( BigInteger.valueOf( 40 ) ) );
+        assertThat( checkpoint.getCheckpointDate(), is( NOW.plusMinutes( 5 ) ) );
+        assertThat( balance.getEntriesSinceCheckpoint(), is( 0L ) );
+        assertThat( balance.getLastCheckpointDate(), is( NOW.plusMinutes( 5 ) ) );
+    }
+}
@@ -0,0 +1,53 @@
+package demo.ledger.model;
+
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.id.enhanced.PooledLoOptimizer;
+import org.hibernate.id.enhanced.PooledOptimizer;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.type.spi.TypeConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+public class LedgerSequenceGeneratorTest {
+
+    private LedgerSequenceGenerator configure( Map<String, Object> settings ) {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting( "hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect" )
+                .applySetting( "hibernate.boot.allow_jdbc_metadata_access", "false" )
+                .applySettings( settings )
+                .build();
+        try {
+            Properties params = new Properties();
+            params.put( SequenceStyleGenerator.SEQUENCE_PARAM, "ledger_entry_seq" );
+            LedgerSequenceGenerator generator = new LedgerSequenceGenerator();
+            generator.configure( new TypeConfiguration().getBasicTypeForJavaType( Long.class ), params, registry );
+            return generator;
+        }
+        finally {
+            StandardServiceRegistryBuilder.destroy( registry );
+        }
+    }
+
+    @Test
+    public void testDefaultAllocationSize() {
+        LedgerSequenceGenerator generator = configure( Map.of() );
+        assertThat( generator.getOptimizer().getIncrementSize(), is( LedgerSequenceGenerator.DEFAULT_ALLOCATION_SIZE ) );
+        assertThat( generator.getOptimizer(), instanceOf( PooledLoOptimizer.class ) );
+    }
+
+    @Test
+    public void testConfiguredAllocationSizeAndOptimizer() {
+        LedgerSequenceGenerator generator = configure( Map.of(
+                LedgerSequenceGenerator.ALLOCATION_SIZE_SETTING, "200",
+                LedgerSequenceGenerator.OPTIMIZER_SETTING, "pooled" ) );
+        assertThat( generator.getOptimizer().getIncrementSize(), is( 200 ) );
+        assertThat( generator.getOptimizer(), instanceOf( PooledOptimizer.class ) );
+    }
+}
@@ -0,0 +1,177 @@
+package demo.ledger.model.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import demo.ledger.model.Ledger;
+import demo.ledger.model.LedgerAccount;
+import demo.ledger.model.LedgerEntry;
+import demo.ledger.model.LedgerTransaction;
+import demo.ledger.model.LedgerTransactionDirection;
+import demo.ledger.model.dto.ApiOperation;
+import demo.ledger.model.dto.EventType;
+import demo.ledger.model.dto.FailedResponse;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LedgerEventCodecTest {
+
+    // same as the Gson configured in the services
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter( OffsetDateTime.class, (JsonSerializer<OffsetDateTime>) ( src, type, ctx ) -> new JsonPrimitive( src.toString() ) )
+            .registerTypeAdapter( OffsetDateTime.class, (JsonDeserializer<OffsetDateTime>) ( json, type, ctx ) -> OffsetDateTime.parse( json.getAsString() ) )
+            .setPrettyPrinting()
+            .create();
+    private final LedgerEventCodec codec = new LedgerEventCodec( gson );
+
+    private static final Ledger LEDGER = Ledger.builder()
+            .id( 1L )
+            .uuid( "a42f714c-ce90-4a9c-a06e-9a1b8842dfbd" )
+            .name( "My First Ledger" )
+            .description( "A collection of my accounts" )
+            .createdDate( OffsetDateTime.parse( "2024-06-13T23:07:22.170380786Z" ) )
+            .lastUpdatedDate( OffsetDateTime.parse( "2024-06-13T23:07:22.1704152+01:00" ) )
+            .build();
+
+    private static final LedgerAccount LEDGER_ACCOUNT = LedgerAccount.builder()
+            .id( 2L )
+            .lockVersion( 1L )
+            .uuid( "a42f714c-ce90-4a9c-a06e-9a1b8842dfac" )
+            .ledger( LEDGER )
+            .name( "My First Ledger Account" )
+            .description( "This is used to hold account transactions" )
+            .currency( "USD" )
+            .createdDate( OffsetDateTime.parse( "2024-06-13T23:07:29.549736445Z" ) )
+            .lastUpdatedDate( OffsetDateTime.parse( "2024-06-13T23:07:29.549750432Z" ) )
+            .build();
+
+    private static final LedgerTransaction LEDGER_TRANSACTION = LedgerTransaction.builder()
+            .id( 1L )
+            .uuid( "a1d968c1-86fc-4864-a146-f7f8e601fa3f" )
+            .description( "My First Transaction" )
+            .ledgerEntries( List.of(
+                    LedgerEntry.builder()
+                            .id( 1L )
+                            .ledgerAccount( LedgerAccount.builder().id( 1L ).lockVersion( 2L ).uuid( "a42f714c-ce90-4a9c-a06e-9a1b8842dfab" ).build() )
+                            .amount( BigInteger.valueOf( 100 ) )
+                            .direction( LedgerTransactionDirection.debit )
+                            .createdDate( OffsetDateTime.parse( "2024-06-13T23:07:34.571277612Z" ) )
+                            .build(),
+                    LedgerEntry.builder()
+                            .id( 2L )
+                            .ledgerAccount( LedgerAccount.builder().id( 2L ).lockVersion( 2L ).uuid( "a42f714c-ce90-4a9c-a06e-9a1b8842dfac" ).build() )
+                            .amount( new BigInteger( "123456789012345678901234567890" ) )
+                            .direction( LedgerTransactionDirection.credit )
+                            .createdDate( OffsetDateTime.parse( "2024-06-13T23:07:34.576605372Z" ) )
+                            .build() ) )
+            .createdDate( OffsetDateTime.parse( "2024-06-13T23:07:34.615549765Z" ) )
+            .build();
+
+    @Test
+    public void testRoundTripLedger() {
+        assertRoundTrip( EventType.LEDGER_CREATED, LEDGER );
+        assertRoundTrip( EventType.CREATE_LEDGER, Ledger.builder().uuid( LEDGER.getUuid() ).name( LEDGER.getName() ).build() );
+    }
+
+    @Test
+    public void testRoundTripLedgerAccount() {
+        assertRoundTrip( EventType.LEDGER_ACCOUNT_CREATED, LEDGER_ACCOUNT );
+        assertRoundTrip( EventType.CREATE_LEDGER_ACCOUNT, LedgerAccount.builder()
+                .uuid( LEDGER_ACCOUNT.getUuid() )
+                .name( LEDGER_ACCOUNT.getName() )
+                .currency( "GBP" )
+                .ledger( Ledger.builder().uuid( LEDGER.getUuid() ).build() )
+                .build() );
+    }
+
+    @Test
+    public void testRoundTripLedgerTransaction() {
+        assertRoundTrip( EventType.LEDGER_TRANSACTION_CREATED, LEDGER_TRANSACTION );
+        assertRoundTrip( EventType.CREATE_LEDGER_TRANSACTION, LedgerTransaction.builder()
+                .uuid( "not-a-canonical-uuid" )
+                .ledgerEntries( List.of( LedgerEntry.builder()
+                        .ledgerAccount( LedgerAccount.builder().uuid( "A42F714C-CE90-4A9C-A06E-9A1B8842DFAB" ).lockVersion( -1L ).build() )
+                        .amount( BigInteger.ONE )
+                        .direction( LedgerTransactionDirection.credit )
+                        .build() ) )
+                .build() );
+    }
+
+    @Test
+    public void testRoundTripFailedResponse() {
+        for ( EventType eventType : Arrays.asList( EventType.LEDGER_CREATION_FAILED,
+                EventType.LEDGER_ACCOUNT_CREATION_FAILED, EventType.LEDGER_TRANSACTION_CREATION_FAILED ) ) {
+            assertRoundTrip( eventType, new FailedResponse( LEDGER.getUuid(), "Ledger already exists with this UUID ✓" ) );
+        }
+    }
+
+    @Test
+    public void testDecodesJson() {
+        byte[] json = gson.toJson( new ApiOperation<LedgerTransaction>()
+                .withEventType( EventType.LEDGER_TRANSACTION_CREATED )
+                .withData( LEDGER_TRANSACTION ) ).getBytes( StandardCharsets.UTF_8 );
+
+        ApiOperation<?> decoded = codec.decode( json );
+        assertThat( decoded.getEventType(), is( EventType.LEDGER_TRANSACTION_CREATED ) );
+        assertThat( decoded.getData(), is( LEDGER_TRANSACTION ) );
+    }
+
+    @Test
+    public void testDecodesJsonWithUnknownEventType() {
+        ApiOperation<?> decoded = codec.decode( "{\"eventType\": \"FOO-EVENT\"}".getBytes( StandardCharsets.UTF_8 ) );
+        assertThat( decoded.getEventType(), is( nullValue() ) );
+    }
+
+    @Test
+    public void testRejectsUnsupportedVersion() {
+        byte[] event = codec.encode( new ApiOperation<Ledger>().withEventType( EventType.CREATE_LEDGER ).withData( LEDGER ) );
+        event[1] = LedgerEventCodec.VERSION + 1;
+        assertThrows( IllegalArgumentException.class, () -> codec.decode( event ) );
+    }
+
+    @Test
+    public void testRejectsTruncatedEvent() {
+        byte[] event = codec.encode( new ApiOperation<Ledger>().withEventType( EventType.CREATE_LEDGER ).withData( LEDGER ) );
+        assertThrows( IllegalArgumentException.class, () -> codec.decode( Arrays.copyOf( event, event.length - 1 ) ) );
+    }
+
+    @Test
+    public void testRejectsDataOfWrongType() {
+        assertThrows( IllegalArgumentException.class, () -> codec.encode(
+                new ApiOperation<Ledger>().withEventType( EventType.CREATE_LEDGER_ACCOUNT ).withData( LEDGER ) ) );
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanJson() {
+        ApiOperation<LedgerTransaction> event = new ApiOperation<LedgerTransaction>()
+                .withEventType( EventType.LEDGER_TRANSACTION_CREATED )
+                .withData( LEDGER_TRANSACTION );
+        int binarySize = codec.encode( event ).length;
+        int jsonSize = gson.toJson( event ).getBytes( StandardCharsets.UTF_8 ).length;
+
+        // 139 bytes vs. 851 bytes of (pretty printed) JSON at the time of writing
+        assertThat( binarySize * 4, lessThan( jsonSize ) );
+    }
+
+    private void assertRoundTrip( EventType eventType, Object data ) {
+        byte[] encoded = codec.encode( new ApiOperation<>().withEventType( eventType ).withData( data ) );
+        assertThat( LedgerEventCodec.isBinary( encoded ), is( true ) );
+
+        ApiOperation<?> decoded = codec.decode( encoded );
+        assertThat( decoded.getEventType(), is( eventType ) );
+        assertThat( decoded.getData(), is( data ) );
+    }
+}